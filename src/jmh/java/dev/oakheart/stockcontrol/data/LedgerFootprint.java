@@ -0,0 +1,117 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Retained heap of the per-player counters: the {@link PlayerLedger}s against the flat cache
+ * they replaced (one {@link PlayerTradeData} per row under a (player, trade id) key, plus the
+ * per-player key sets used for eviction). Each layout is built alone and measured as the
+ * growth of the used heap after full collections, so run it with a stop-the-world collector
+ * ({@code gradle ledgerFootprint} passes {@code -XX:+UseSerialGC}).
+ *
+ * <p>Two populations: every player has a row for every trade ({@code full}), and every player
+ * traded only 4 trades in each of 2 shops ({@code sparse}) — the ledgers still size each
+ * touched shop for all of its trades.</p>
+ */
+public final class LedgerFootprint {
+
+    private static final int SHOPS = 8;
+    private static final int TRADES = 16;
+    private static final int SPARSE_SHOPS = 2;
+    private static final int SPARSE_TRADES = 4;
+
+    private LedgerFootprint() {
+    }
+
+    /** The flat cache's key before the ledgers. */
+    private record PlayerTradeKey(long playerMsb, long playerLsb, int tradeId) {}
+
+    public static void main(String[] args) {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        UUID[] ids = new UUID[players];
+        for (int p = 0; p < players; p++) {
+            ids[p] = new UUID(0x5eed_0000L + p, p * 31L);
+        }
+        String[] shopIds = new String[SHOPS];
+        String[] tradeKeys = new String[TRADES];
+        for (int s = 0; s < SHOPS; s++) shopIds[s] = "shop_" + s;
+        for (int t = 0; t < TRADES; t++) tradeKeys[t] = "trade_" + t;
+
+        System.out.printf("%-10s %-11s %10s %12s %12s%n", "population", "layout", "rows", "bytes", "bytes/row");
+        for (boolean sparse : new boolean[]{false, true}) {
+            int shops = sparse ? SPARSE_SHOPS : SHOPS;
+            int trades = sparse ? SPARSE_TRADES : TRADES;
+            long rows = (long) players * shops * trades;
+            String population = sparse ? "sparse" : "full";
+
+            long flat = retained(() -> buildFlatCache(ids, shopIds, tradeKeys, shops, trades));
+            long ledgers = retained(() -> buildLedgers(ids, shopIds, tradeKeys, shops, trades));
+            System.out.printf("%-10s %-11s %10d %12d %12.1f%n", population, "flat-cache", rows, flat,
+                    (double) flat / rows);
+            System.out.printf("%-10s %-11s %10d %12d %12.1f%n", population, "ledgers", rows, ledgers,
+                    (double) ledgers / rows);
+        }
+    }
+
+    private static Object buildFlatCache(UUID[] ids, String[] shopIds, String[] tradeKeys, int shops, int trades) {
+        Map<PlayerTradeKey, PlayerTradeData> cache = new ConcurrentHashMap<>();
+        Map<UUID, Set<PlayerTradeKey>> keysByPlayer = new ConcurrentHashMap<>();
+        long now = System.currentTimeMillis() / 1000;
+        for (UUID player : ids) {
+            Set<PlayerTradeKey> keys = keysByPlayer.computeIfAbsent(player, k -> ConcurrentHashMap.newKeySet());
+            for (int s = 0; s < shops; s++) {
+                for (int t = 0; t < trades; t++) {
+                    PlayerTradeKey key = new PlayerTradeKey(player.getMostSignificantBits(),
+                            player.getLeastSignificantBits(), s * TRADES + t);
+                    cache.put(key, new PlayerTradeData(player, shopIds[s], tradeKeys[t], t % 5, now, 3600));
+                    keys.add(key);
+                }
+            }
+        }
+        return new Object[]{cache, keysByPlayer};
+    }
+
+    private static Object buildLedgers(UUID[] ids, String[] shopIds, String[] tradeKeys, int shops, int trades) {
+        Map<UUID, PlayerLedger> ledgers = new ConcurrentHashMap<>();
+        long now = System.currentTimeMillis() / 1000;
+        for (UUID player : ids) {
+            PlayerLedger ledger = ledgers.computeIfAbsent(player, PlayerLedger::new);
+            for (int s = 0; s < shops; s++) {
+                ShopLedger shop = ledger.shopOrCreate(s, shopIds[s], TRADES);
+                for (int t = 0; t < trades; t++) {
+                    shop.load(t, new PlayerTradeData(player, shopIds[s], tradeKeys[t], t % 5, now, 3600));
+                }
+            }
+        }
+        return ledgers;
+    }
+
+    /**
+     * Builds a structure and returns how much the used heap grew while it is reachable.
+     */
+    private static long retained(Supplier<Object> build) {
+        long before = usedAfterGc();
+        Object structure = build.get();
+        long after = usedAfterGc();
+        Reference.reachabilityFence(structure);
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Collect until the used heap stops shrinking
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) break;
+            used = now;
+        }
+        return used;
+    }
+}
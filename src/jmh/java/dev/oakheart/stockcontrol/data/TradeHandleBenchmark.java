@@ -0,0 +1,156 @@
+package dev.oakheart.stockcontrol.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of looking up one player's count and limit for a trade, as an offer render or a trade
+ * admission does. Run with the GC profiler ({@code gradle jmh}) and compare
+ * {@code gc.alloc.rate.norm}:
+ *
+ * <ul>
+ *   <li>{@code stringKey} — the lookup before handles: shop and trade config by name, then the
+ *   flat cache under a "player:shop:trade" key built per call.</li>
+ *   <li>{@code resolveHandle} — resolves the handle from the two strings, then reads the
+ *   player's ledger slot.</li>
+ *   <li>{@code heldHandle} — the handle was resolved earlier (once per merchant rebuild).</li>
+ * </ul>
+ *
+ * <p>Each invocation visits the next (player, shop, trade) of a fixed cycle, so the lookups
+ * can't be hoisted out of the loop.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeHandleBenchmark {
+
+    private static final int PLAYERS = 64;
+    private static final int SHOPS = 8;
+    private static final int TRADES = 16;
+    private static final int CYCLE = 1024;
+
+    // Before: config by name and a flat cache keyed by concatenated strings
+    private final Map<String, ShopConfig> shops = new HashMap<>();
+    private final Map<String, PlayerTradeData> flatCache = new ConcurrentHashMap<>();
+
+    // After: handles by name and per-player ledgers indexed by ordinals
+    private final Map<String, Map<String, TradeHandle>> handlesByShop = new HashMap<>();
+    private final Map<UUID, PlayerLedger> ledgers = new ConcurrentHashMap<>();
+
+    private final UUID[] cyclePlayers = new UUID[CYCLE];
+    private final String[] cycleShops = new String[CYCLE];
+    private final String[] cycleTrades = new String[CYCLE];
+    private final TradeHandle[] cycleHandles = new TradeHandle[CYCLE];
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        UUID[] players = new UUID[PLAYERS];
+        for (int p = 0; p < PLAYERS; p++) {
+            players[p] = new UUID(0x5eed_0000L + p, p * 31L);
+        }
+
+        int id = 0;
+        for (int s = 0; s < SHOPS; s++) {
+            String shopId = "shop_" + s;
+            Map<String, TradeConfig> trades = new LinkedHashMap<>();
+            for (int t = 0; t < TRADES; t++) {
+                String tradeKey = "trade_" + t;
+                trades.put(tradeKey, new TradeConfig(tradeKey, t, 64, 3600, CooldownMode.ROLLING,
+                        "00:00", "MONDAY", 0));
+            }
+            ShopConfig shop = new ShopConfig(shopId, shopId, true, CooldownMode.ROLLING, "00:00", "MONDAY",
+                    StockMode.PER_PLAYER, 0, trades);
+            shops.put(shopId, shop);
+
+            AtomicInteger shopGeneration = new AtomicInteger();
+            Map<String, TradeHandle> handles = new HashMap<>();
+            int ordinal = 0;
+            for (TradeConfig trade : trades.values()) {
+                handles.put(trade.getTradeKey(), TradeHandle.create(id++, s, ordinal++, shop, trade,
+                        shopGeneration, new AtomicInteger()));
+            }
+            handlesByShop.put(shopId, handles);
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        for (UUID player : players) {
+            PlayerLedger ledger = new PlayerLedger(player);
+            ledgers.put(player, ledger);
+            for (Map.Entry<String, Map<String, TradeHandle>> shop : handlesByShop.entrySet()) {
+                for (TradeHandle handle : shop.getValue().values()) {
+                    PlayerTradeData row = new PlayerTradeData(player, shop.getKey(), handle.getTradeKey(),
+                            handle.getTradeOrdinal() % 5, now, 3600);
+                    flatCache.put(row.getCacheKey(), row);
+                    ledger.shopOrCreate(handle.getShopOrdinal(), shop.getKey(), TRADES)
+                            .load(handle.getTradeOrdinal(), row);
+                }
+            }
+        }
+
+        // Fixed pseudo-random cycle; the same for every benchmark
+        long seed = 42;
+        for (int i = 0; i < CYCLE; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int bits = (int) (seed >>> 33);
+            cyclePlayers[i] = players[Math.floorMod(bits, PLAYERS)];
+            cycleShops[i] = "shop_" + Math.floorMod(bits >>> 8, SHOPS);
+            cycleTrades[i] = "trade_" + Math.floorMod(bits >>> 16, TRADES);
+            cycleHandles[i] = handlesByShop.get(cycleShops[i]).get(cycleTrades[i]);
+        }
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = (i + 1) & (CYCLE - 1);
+        return i;
+    }
+
+    @Benchmark
+    public int stringKey() {
+        int i = next();
+        UUID playerId = cyclePlayers[i];
+        String shopId = cycleShops[i];
+        String tradeKey = cycleTrades[i];
+        TradeConfig config = shops.get(shopId).getTrade(tradeKey);
+        PlayerTradeData data = flatCache.get(playerId + ":" + shopId + ":" + tradeKey);
+        return config.getMaxTrades() - (data != null ? data.getTradesUsed() : 0);
+    }
+
+    @Benchmark
+    public int resolveHandle() {
+        int i = next();
+        TradeHandle handle = handlesByShop.get(cycleShops[i]).get(cycleTrades[i]);
+        return remaining(cyclePlayers[i], handle);
+    }
+
+    @Benchmark
+    public int heldHandle() {
+        int i = next();
+        return remaining(cyclePlayers[i], cycleHandles[i]);
+    }
+
+    private int remaining(UUID playerId, TradeHandle handle) {
+        ShopLedger ledger = ledgers.get(playerId).shop(handle.getShopOrdinal());
+        return handle.getConfig().getMaxTrades() - ledger.used(handle.getTradeOrdinal());
+    }
+}
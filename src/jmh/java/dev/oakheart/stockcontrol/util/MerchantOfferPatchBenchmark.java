@@ -0,0 +1,316 @@
+package dev.oakheart.stockcontrol.util;
+
+import com.github.retrooper.packetevents.protocol.item.ItemStack;
+import com.github.retrooper.packetevents.protocol.recipe.data.MerchantOffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one viewer's render into a MERCHANT_OFFERS packet of Nexo-style items
+ * (custom data, item model, a styled name, five lines of styled lore with glyphs), per packet:
+ *
+ * <ul>
+ *   <li>{@code patch} — an in-place shop through {@code writeEncoded}:
+ *   {@link MerchantOfferEncoding#matches}, then {@link MerchantOfferEncoding#patchUses}.</li>
+ *   <li>{@code splice} — a pooled shop showing every other offer in reverse order:
+ *   {@link MerchantOfferEncoding#matches}, then {@link MerchantOfferEncoding#splice}.</li>
+ *   <li>{@code reEncode} and {@code reEncodePooled} — what {@code markForReEncode} leads to for
+ *   the same renders: the body written again from the decoded offers.</li>
+ * </ul>
+ *
+ * <p>{@code patch} and {@code splice} first copy the server's bytes back into the buffer, so
+ * every invocation sees a fresh packet; their figures overstate the work by that copy.</p>
+ *
+ * <p>PacketEvents' wrappers take the protocol version from an initialised PacketEvents API,
+ * which needs a running server, so {@code reEncode} uses a minimal writer for the 1.21 wire
+ * format instead. It walks prebuilt NBT trees and skips the text-component serialization,
+ * registry lookups and version branches PacketEvents goes through, so it is a lower bound for
+ * the real re-encode.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerchantOfferPatchBenchmark {
+
+    // The packet id sits before the body in the outgoing buffer
+    private static final int BODY_START = 1;
+    private static final int LEVEL = 5;
+    private static final int XP = 250;
+
+    private static final int EMERALD = 802;
+    private static final int PAPER = 904;
+    private static final int CUSTOM_DATA = 0;
+    private static final int CUSTOM_NAME = 5;
+    private static final int ITEM_MODEL = 7;
+    private static final int LORE = 9;
+    private static final int GLINT_OVERRIDE = 20;
+
+    @Param({"8", "27"})
+    public int offers;
+
+    /** A decoded item: type, count and its added components by type id. */
+    private record Item(int type, int count, Map<Integer, Object> components) {}
+
+    /** A decoded offer's items; its numbers are in the matching {@link MerchantOffer}. */
+    private record Trade(Item input1, Item input2, Item result) {}
+
+    private final List<Trade> trades = new ArrayList<>();
+    private final List<MerchantOffer> source = new ArrayList<>();
+    private final List<MerchantOffer> rendered = new ArrayList<>();
+    private int[] pooledUiToSource;
+    private final List<Trade> pooledTrades = new ArrayList<>();
+    private final List<MerchantOffer> pooledRendered = new ArrayList<>();
+    private byte[] serverBytes;
+    private ByteBuf packet;
+    private MerchantOfferEncoding encoding;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < offers; i++) {
+            Item coin = i % 2 == 0 ? nexoItem("silver_coin", "Silver Coin", 4, 0) : null;
+            trades.add(new Trade(new Item(EMERALD, 1 + i % 16, Map.of()), coin,
+                    nexoItem("ruby_sword_" + i, "Ruby Sword " + i, 1, 5)));
+            // Source numbers as Shopkeepers sends them; rendered as one viewer's limits paint them
+            source.add(offer(0, Integer.MAX_VALUE));
+            rendered.add(offer(i % 4, 3));
+        }
+
+        pooledUiToSource = new int[(offers + 1) / 2];
+        for (int ui = 0; ui < pooledUiToSource.length; ui++) {
+            int slot = offers - 1 - 2 * ui;
+            pooledUiToSource[ui] = slot;
+            pooledTrades.add(trades.get(slot));
+            pooledRendered.add(rendered.get(slot));
+        }
+
+        packet = Unpooled.buffer();
+        packet.writeByte(0x2B);
+        writeBody(packet, trades, source);
+        serverBytes = new byte[packet.writerIndex()];
+        packet.getBytes(0, serverBytes);
+
+        // Offer lengths as PacketManager measures them: one offer's body minus an empty one
+        ByteBuf scratch = Unpooled.buffer();
+        writeBody(scratch, List.of(), List.of());
+        int emptyLength = scratch.writerIndex();
+        int[] lengths = new int[offers];
+        for (int i = 0; i < offers; i++) {
+            scratch.clear();
+            writeBody(scratch, List.of(trades.get(i)), List.of(source.get(i)));
+            lengths[i] = scratch.writerIndex() - emptyLength;
+        }
+        scratch.release();
+
+        encoding = MerchantOfferEncoding.locate(packet, BODY_START, source, lengths, LEVEL, XP, true, false);
+        if (!encoding.isAvailable()) throw new IllegalStateException("layout not located");
+    }
+
+    @TearDown
+    public void tearDown() {
+        packet.release();
+    }
+
+    @Benchmark
+    public ByteBuf patch() {
+        serverPacket();
+        if (!encoding.matches(packet, BODY_START, source)) throw new IllegalStateException("layout moved");
+        encoding.patchUses(packet, BODY_START, rendered);
+        return packet;
+    }
+
+    @Benchmark
+    public ByteBuf splice() {
+        serverPacket();
+        if (!encoding.matches(packet, BODY_START, source)
+                || !encoding.splice(packet, BODY_START, pooledUiToSource, pooledRendered)) {
+            throw new IllegalStateException("layout moved");
+        }
+        return packet;
+    }
+
+    @Benchmark
+    public ByteBuf reEncode() {
+        packet.writerIndex(BODY_START);
+        writeBody(packet, trades, rendered);
+        return packet;
+    }
+
+    @Benchmark
+    public ByteBuf reEncodePooled() {
+        packet.writerIndex(BODY_START);
+        writeBody(packet, pooledTrades, pooledRendered);
+        return packet;
+    }
+
+    private void serverPacket() {
+        packet.clear();
+        packet.writeBytes(serverBytes);
+    }
+
+    private static MerchantOffer offer(int uses, int maxUses) {
+        return MerchantOffer.of(ItemStack.EMPTY, null, ItemStack.EMPTY, uses, maxUses, 2, 0, 0.05f, 0);
+    }
+
+    private static Item nexoItem(String id, String name, int count, int loreLines) {
+        Map<Integer, Object> components = new LinkedHashMap<>();
+        components.put(CUSTOM_DATA, Map.of("PublicBukkitValues", Map.of("nexo:id", id)));
+        components.put(ITEM_MODEL, "nexo:" + id);
+        components.put(CUSTOM_NAME, text(List.of(segment(name, "#E0115F", null), segment(" ", null, "nexo:glyphs"))));
+        if (loreLines > 0) {
+            List<Object> lore = new ArrayList<>();
+            for (int line = 0; line < loreLines; line++) {
+                lore.add(text(List.of(segment((char) (0xE120 + line) + " ", "#FFFFFF", "nexo:glyphs"),
+                        segment("Forged in the ember vaults, line " + line, "#B4B4B4", null),
+                        segment(" +" + (line + 3) + " attack", "#55FF55", null))));
+            }
+            components.put(LORE, lore);
+            components.put(GLINT_OVERRIDE, Boolean.TRUE);
+        }
+        return new Item(PAPER, count, components);
+    }
+
+    /** A text component as NBT: empty root text, non-italic, with styled children. */
+    private static Map<String, Object> text(List<Object> extra) {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("text", "");
+        root.put("italic", (byte) 0);
+        root.put("extra", extra);
+        return root;
+    }
+
+    private static Map<String, Object> segment(String text, String color, String font) {
+        Map<String, Object> segment = new LinkedHashMap<>();
+        segment.put("text", text);
+        if (color != null) segment.put("color", color);
+        if (font != null) segment.put("font", font);
+        return segment;
+    }
+
+    // ===== 1.21 Wire Format =====
+
+    private static void writeBody(ByteBuf buf, List<Trade> trades, List<MerchantOffer> offers) {
+        writeVarInt(buf, 7);
+        writeVarInt(buf, trades.size());
+        for (int i = 0; i < trades.size(); i++) {
+            Trade trade = trades.get(i);
+            MerchantOffer offer = offers.get(i);
+            writeItemCost(buf, trade.input1());
+            writeItemStack(buf, trade.result());
+            buf.writeBoolean(trade.input2() != null);
+            if (trade.input2() != null) writeItemCost(buf, trade.input2());
+            buf.writeBoolean(offer.getUses() >= offer.getMaxUses());
+            buf.writeInt(offer.getUses());
+            buf.writeInt(offer.getMaxUses());
+            buf.writeInt(offer.getXp());
+            buf.writeInt(offer.getSpecialPrice());
+            buf.writeFloat(offer.getPriceMultiplier());
+            buf.writeInt(offer.getDemand());
+        }
+        writeVarInt(buf, LEVEL);
+        writeVarInt(buf, XP);
+        buf.writeBoolean(true);
+        buf.writeBoolean(false);
+    }
+
+    private static void writeItemStack(ByteBuf buf, Item item) {
+        writeVarInt(buf, item.count());
+        writeVarInt(buf, item.type());
+        writeVarInt(buf, item.components().size());
+        writeVarInt(buf, 0); // removed components
+        writeComponents(buf, item.components());
+    }
+
+    /** An input: type, count and the exact components it must carry. */
+    private static void writeItemCost(ByteBuf buf, Item item) {
+        writeVarInt(buf, item.type());
+        writeVarInt(buf, item.count());
+        writeVarInt(buf, item.components().size());
+        writeComponents(buf, item.components());
+    }
+
+    private static void writeComponents(ByteBuf buf, Map<Integer, Object> components) {
+        for (Map.Entry<Integer, Object> component : components.entrySet()) {
+            writeVarInt(buf, component.getKey());
+            switch (component.getKey()) {
+                case ITEM_MODEL -> writeString(buf, (String) component.getValue());
+                case GLINT_OVERRIDE -> buf.writeBoolean((Boolean) component.getValue());
+                case LORE -> {
+                    List<?> lines = (List<?>) component.getValue();
+                    writeVarInt(buf, lines.size());
+                    for (Object line : lines) writeNbt(buf, line);
+                }
+                default -> writeNbt(buf, component.getValue());
+            }
+        }
+    }
+
+    /** Network NBT: the root tag's type, then its unnamed payload. */
+    private static void writeNbt(ByteBuf buf, Object tag) {
+        buf.writeByte(tagType(tag));
+        writePayload(buf, tag);
+    }
+
+    private static int tagType(Object tag) {
+        if (tag instanceof Byte) return 1;
+        if (tag instanceof String) return 8;
+        if (tag instanceof List) return 9;
+        return 10;
+    }
+
+    private static void writePayload(ByteBuf buf, Object tag) {
+        if (tag instanceof Byte b) {
+            buf.writeByte(b);
+        } else if (tag instanceof String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            buf.writeShort(bytes.length);
+            buf.writeBytes(bytes);
+        } else if (tag instanceof List<?> list) {
+            buf.writeByte(list.isEmpty() ? 0 : tagType(list.get(0)));
+            buf.writeInt(list.size());
+            for (Object element : list) writePayload(buf, element);
+        } else {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) tag).entrySet()) {
+                buf.writeByte(tagType(entry.getValue()));
+                writePayload(buf, entry.getKey());
+                writePayload(buf, entry.getValue());
+            }
+            buf.writeByte(0);
+        }
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buf, bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+}
@@ -6,12 +6,15 @@ import dev.oakheart.stockcontrol.data.DataStore;
 import dev.oakheart.stockcontrol.data.SQLiteDataStore;
 import dev.oakheart.stockcontrol.listeners.PlayerQuitListener;
 import dev.oakheart.stockcontrol.listeners.ShopkeepersListener;
+import dev.oakheart.stockcontrol.managers.ChangeLogManager;
 import dev.oakheart.stockcontrol.managers.CooldownManager;
 import dev.oakheart.stockcontrol.managers.PacketManager;
 import dev.oakheart.stockcontrol.managers.PoolRotationManager;
 import dev.oakheart.stockcontrol.managers.TradeDataManager;
 import dev.oakheart.message.MessageManager;
 import dev.oakheart.stockcontrol.placeholders.StockControlExpansion;
+import dev.oakheart.stockcontrol.util.TaskScheduler;
+import dev.oakheart.stockcontrol.util.TradeMessages;
 import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -24,10 +27,13 @@ import java.util.logging.Level;
  */
 public final class ShopkeepersStockControl extends JavaPlugin {
 
+    private TaskScheduler taskScheduler;
     private ConfigManager configManager;
     private MessageManager messageManager;
+    private TradeMessages tradeMessages;
     private DataStore dataStore;
     private TradeDataManager tradeDataManager;
+    private ChangeLogManager changeLogManager;
     private PacketManager packetManager;
     private CooldownManager cooldownManager;
     private PoolRotationManager poolRotationManager;
@@ -60,9 +66,15 @@ public final class ShopkeepersStockControl extends JavaPlugin {
         if (packetManager != null) {
             packetManager.shutdown();
         }
+        if (changeLogManager != null) {
+            changeLogManager.shutdown();
+        }
         if (tradeDataManager != null) {
             tradeDataManager.shutdown();
         }
+        if (taskScheduler != null) {
+            taskScheduler.cancelAll();
+        }
         if (dataStore != null) {
             dataStore.close();
         }
@@ -85,11 +97,17 @@ public final class ShopkeepersStockControl extends JavaPlugin {
     }
 
     private void initializeComponents() {
+        // Region-aware scheduling (Folia and Paper)
+        taskScheduler = new TaskScheduler(this);
+
         // Configuration
         configManager = new ConfigManager(this);
         configManager.load();
         messageManager = new MessageManager(this, getLogger());
         messageManager.load();
+        // Trade-path messages, compiled once instead of parsed per send
+        tradeMessages = new TradeMessages(this);
+        tradeMessages.load();
 
         // Data layer
         initializeDataLayer();
@@ -124,6 +142,10 @@ public final class ShopkeepersStockControl extends JavaPlugin {
         tradeDataManager = new TradeDataManager(this, dataStore);
         tradeDataManager.initialize();
 
+        // Wired before any reset path can run so every reset is published
+        changeLogManager = new ChangeLogManager(this, dataStore, tradeDataManager);
+        changeLogManager.initialize();
+
         getLogger().info("Data layer initialized successfully (" + storageType + ")");
     }
 
@@ -164,9 +186,13 @@ public final class ShopkeepersStockControl extends JavaPlugin {
     public boolean reloadPluginConfig() {
         boolean success = configManager.reload();
         if (success) {
+            tradeDataManager.rebuildHandles();
             messageManager.reload();
+            tradeMessages.load();
             tradeDataManager.restartBatchWriteTask();
+            tradeDataManager.restartMemoryListener();
             cooldownManager.restart();
+            changeLogManager.restart();
             // Drop snapshots for pools that were removed / seed snapshots for new pools.
             // Existing pools keep their current rotation until the next scheduled boundary.
             poolRotationManager.reconcileWithConfig();
@@ -174,6 +200,10 @@ public final class ShopkeepersStockControl extends JavaPlugin {
         return success;
     }
 
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+
     public ConfigManager getConfigManager() {
         return configManager;
     }
@@ -182,6 +212,10 @@ public final class ShopkeepersStockControl extends JavaPlugin {
         return messageManager;
     }
 
+    public TradeMessages getTradeMessages() {
+        return tradeMessages;
+    }
+
     public DataStore getDataStore() {
         return dataStore;
     }
@@ -190,6 +224,10 @@ public final class ShopkeepersStockControl extends JavaPlugin {
         return tradeDataManager;
     }
 
+    public ChangeLogManager getChangeLogManager() {
+        return changeLogManager;
+    }
+
     public PacketManager getPacketManager() {
         return packetManager;
     }
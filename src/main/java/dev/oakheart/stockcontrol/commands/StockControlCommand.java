@@ -578,17 +578,61 @@ public class StockControlCommand {
                 + " v" + plugin.getPluginMeta().getVersion() + " ===");
         lines.add("Shops: " + shopsCount + " (" + pooledCount + " with pools)");
         lines.add("Trade cache: " + tdm.cacheSize() + " entries, dirty " + tdm.dirtyCount()
-                + ", tracked players " + tdm.trackedPlayerCount());
-        lines.add("Global cache: " + tdm.globalCacheSize() + " entries, dirty " + tdm.globalDirtyCount());
+                + ", tracked players " + tdm.trackedPlayerCount() + ", shop ledgers " + tdm.shopLedgerCount()
+                + ", scheduled expiries " + tdm.expiryQueueSize());
+        long lookups = tdm.cacheHits() + tdm.cacheMisses();
+        lines.add("Ledger cache: " + tdm.cacheHits() + " hits, " + tdm.cacheMisses() + " misses"
+                + (lookups > 0 ? " (" + (tdm.cacheHits() * 100 / lookups) + "% hit)" : "")
+                + ", evictions " + tdm.cacheEvictions() + ", bound " + plugin.getConfigManager().getCacheMaxPlayers()
+                + " players, memory-pressure trims " + tdm.memoryPressureTrims());
+        lines.add("Reset clock: " + dev.oakheart.stockcontrol.util.ResetClock.specCount() + " schedules, "
+                + dev.oakheart.stockcontrol.util.ResetClock.refreshCount() + " boundary refreshes");
+        long loads = tdm.loadRequests();
+        lines.add("Loader: " + tdm.inFlightLoadCount() + " in flight, " + loads + " requests, "
+                + tdm.loadsDeduplicated() + " deduplicated"
+                + (loads > 0 ? " (" + (tdm.loadsDeduplicated() * 100 / loads) + "%)" : ""));
+        lines.add("Restock generations: " + tdm.restockGenerationCount() + " restocked shops/trades");
+        lines.add("Global cache: " + tdm.globalCacheSize() + " entries, dirty " + tdm.globalDirtyCount()
+                + ", trade handles " + tdm.tradeHandleCount());
         lines.add("Open shops: " + pm.openShopCount()
                 + ", cached merchants " + pm.cachedMerchantDataCount()
-                + ", ui-maps " + pm.uiToSourceMapCount());
+                + ", ui-maps " + pm.uiToSourceMapCount()
+                + ", compiled layouts " + pm.compiledLayoutCount() + " (" + pm.layoutCompileCount() + " compiles)");
+        dev.oakheart.stockcontrol.managers.PacketManager.OfferSnapshotStats snapshots = pm.offerSnapshotStats();
+        lines.add("Offer snapshots: " + snapshots.snapshots() + " shared by " + snapshots.viewers() + " viewers ("
+                + snapshots.offersStored() + " offers stored, " + snapshots.offersReferenced() + " referenced, ~"
+                + snapshots.offersSavedPerViewer() + " saved per viewer), reused " + pm.snapshotReuseCount()
+                + ", built " + pm.snapshotBuildCount());
+        lines.add("Render memo: " + pm.renderMemoCount() + " viewers, reused " + pm.renderReuseCount()
+                + ", rebuilt " + pm.renderRebuildCount() + ", pushes suppressed " + pm.pushesSuppressedCount()
+                + ", loading fallbacks " + pm.pendingRenderCount() + " (corrected " + pm.correctivePushCount() + ")");
+        lines.add("Offer encoding: " + pm.encodedPatchCount() + " patched, " + pm.encodedSpliceCount() + " spliced, "
+                + pm.fullReEncodeCount() + " re-encoded");
+        lines.add("Trade slot resolution: " + pm.selectionHitCount() + " from selection, "
+                + pm.selectionFallbackCount() + " by recipe index (" + pm.recipeIndexCount() + " shops indexed, "
+                + pm.recipeIndexBuildCount() + " builds)");
+        lines.add("Trade messages: " + plugin.getTradeMessages().compiledCount() + "/3 precompiled");
+        long shopPushes = pm.shopPushCount();
+        lines.add("Push fan-out: " + pm.viewedShopCount() + " viewed shops, " + shopPushes + " pushes, "
+                + pm.viewersPushedCount() + " viewers"
+                + (shopPushes > 0 ? " (avg " + (pm.viewersPushedCount() / shopPushes) + ", max " + pm.maxPushFanOut() + ")" : ""));
         lines.add("Pending: cache " + pm.pendingCacheCount()
                 + ", stock-push " + pm.pendingStockPushCount()
-                + ", rotation-push " + pm.pendingRotationPushCount());
+                + ", rotation-push " + pm.pendingRotationPushCount()
+                + ", viewer queue " + pm.pushQueueDepth()
+                + " (ticks over budget " + pm.pushTicksOverBudget() + ")");
         lines.add("DB rows: player_trades " + rows.playerTrades()
                 + ", global_trades " + rows.globalTrades()
-                + ", pool_rotation_state " + rows.rotationStates());
+                + ", pool_rotation_state " + rows.rotationStates()
+                + ", change_log " + rows.changeLog());
+        dev.oakheart.stockcontrol.managers.ChangeLogManager clm = plugin.getChangeLogManager();
+        lines.add("Change log: " + (clm.isEnabled() ? "polling" : "disabled")
+                + ", cursor " + clm.cursor()
+                + ", published " + clm.publishedCount()
+                + ", applied " + clm.appliedCount());
+        dev.oakheart.stockcontrol.data.SharedCounterFile shm = tdm.getSharedCounters();
+        lines.add("Shared-memory counters: " + (shm == null ? "disabled"
+                : shm.getPath() + " (" + shm.claimedSlotCount() + "/" + shm.slotCount() + " slots)"));
 
         java.util.List<dev.oakheart.stockcontrol.data.RotationState> states = prm.allStates();
         lines.add("Rotation states: " + states.size());
@@ -612,7 +656,7 @@ public class StockControlCommand {
     // ===== Stress test =====
 
     /**
-     * Concurrency stress test. Simulates N virtual players performing canTrade/recordTrade
+     * Concurrency stress test. Simulates N virtual players performing trade attempts
      * at a realistic rate (not "as fast as possible" — that just starves the main thread and
      * tanks TPS without telling us anything useful about production behavior). Each virtual
      * player averages ~1 op per 20ms, distributed across a small worker pool.
@@ -631,7 +675,8 @@ public class StockControlCommand {
                     Placeholder.unparsed("shop", shopArg));
             return;
         }
-        if (shop.findTradeLimits(tradeKey) == null) {
+        final TradeHandle handle = plugin.getTradeDataManager().resolve(shop.getShopId(), tradeKey);
+        if (handle == null) {
             messageManager.sendCommand(sender, "error-trade-not-found",
                     Placeholder.unparsed("trade", tradeKey),
                     Placeholder.unparsed("shop", shop.getName()));
@@ -690,8 +735,8 @@ public class StockControlCommand {
                         long t0 = System.nanoTime();
                         try {
                             // Use the atomic compound entry point so "Success" only counts
-                            // trades that actually passed check+increment under the lock.
-                            if (plugin.getTradeDataManager().attemptTrade(id, shopId, tradeKey)) {
+                            // trades that actually passed the check+increment admission.
+                            if (plugin.getTradeDataManager().attemptTrade(id, handle).admitted()) {
                                 successes.incrementAndGet();
                             } else {
                                 blocks.incrementAndGet();
@@ -719,10 +764,10 @@ public class StockControlCommand {
             });
         }
 
-        // Interleave rotation force-advances on pooled shops. Runs on Bukkit scheduler
+        // Interleave rotation force-advances on pooled shops. Runs on the async scheduler
         // so it hits the same lock paths that natural rotation checks would.
-        final org.bukkit.scheduler.BukkitTask rotationTask = hasPools
-                ? org.bukkit.Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+        final io.papermc.paper.threadedregions.scheduler.ScheduledTask rotationTask = hasPools
+                ? plugin.getTaskScheduler().runAsyncTimer(() -> {
                     try {
                         plugin.getPoolRotationManager().forceAdvance(shopId, null);
                     } catch (Throwable t) {
@@ -732,7 +777,7 @@ public class StockControlCommand {
                 }, 100L, 100L)  // every 5 seconds
                 : null;
 
-        org.bukkit.Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+        plugin.getTaskScheduler().runAsyncLater(() -> {
             if (rotationTask != null) rotationTask.cancel();
             pool.shutdown();
             try { pool.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS); }
@@ -751,7 +796,7 @@ public class StockControlCommand {
             // instead of one line per fake player.
             plugin.getTradeDataManager().resetPlayersBulk(fakeIds);
 
-            org.bukkit.Bukkit.getScheduler().runTask(plugin, () -> {
+            plugin.getTaskScheduler().runGlobal(() -> {
                 java.util.List<String> result = new java.util.ArrayList<>();
                 result.add("=== Stress result ===");
                 result.add("Total ops: " + ops.get()
@@ -974,13 +1019,16 @@ public class StockControlCommand {
         messageManager.sendCommand(sender, "check-header",
                 Placeholder.unparsed("player", playerName));
 
+        dev.oakheart.stockcontrol.managers.TradeDataManager tdm = plugin.getTradeDataManager();
         for (PlayerTradeData data : playerTrades) {
-            int remaining = plugin.getTradeDataManager().getRemainingTrades(playerId, data.getShopId(), data.getTradeKey());
-            boolean cooldownExpired = plugin.getTradeDataManager().hasCooldownExpired(playerId, data.getShopId(), data.getTradeKey());
-            long timeRemaining = cooldownExpired ? 0 : plugin.getTradeDataManager().getTimeUntilReset(playerId, data.getShopId(), data.getTradeKey());
+            // Rows of trades no longer in the config have no handle — shown as used, no cooldown.
+            TradeHandle handle = tdm.resolve(data.getShopId(), data.getTradeKey());
+            int remaining = handle != null ? tdm.getRemainingTrades(playerId, handle) : 0;
+            boolean cooldownExpired = handle == null || tdm.hasCooldownExpired(playerId, handle);
+            long timeRemaining = cooldownExpired ? 0 : tdm.getTimeUntilReset(playerId, handle);
 
             ShopConfig shop = plugin.getConfigManager().getShop(data.getShopId());
-            TradeConfig resolved = shop != null ? shop.findTradeLimits(data.getTradeKey()) : null;
+            TradeConfig resolved = handle != null ? handle.getConfig() : null;
             boolean unlimited = resolved != null && resolved.isUnlimited();
             int maxTrades = resolved != null ? resolved.getMaxTrades() : data.getTradesUsed();
 
@@ -1001,7 +1049,7 @@ public class StockControlCommand {
                 messageManager.sendCommand(sender, "check-cooldown-never");
             } else if (timeRemaining > 0) {
                 String resetInfo = plugin.getTradeDataManager().formatDuration(timeRemaining);
-                String resetTime = plugin.getTradeDataManager().getResetTimeString(data.getShopId(), data.getTradeKey());
+                String resetTime = tdm.getResetTimeString(handle);
                 if (!resetTime.isEmpty() && !resetTime.equals("Never")) {
                     resetInfo += " (Resets at " + resetTime + ")";
                 }
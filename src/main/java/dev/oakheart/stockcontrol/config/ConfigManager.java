@@ -43,6 +43,17 @@ public class ConfigManager {
     private int batchWriteInterval;
     private boolean debugMode;
     private int purgeInactiveDays;
+    private int changeLogPollInterval;
+    private int changeLogRetentionHours;
+    private String sharedMemoryFile;
+    private int sharedMemorySlots;
+    private int cacheMaxPlayers;
+    private int cacheMemoryThreshold;
+    private int pushMaxPacketsPerTick;
+    private int pushMaxMillisPerTick;
+    private boolean nonBlockingRender;
+    private String loadingDisplay;
+    private boolean encodedOfferPatching;
 
     private static final Set<String> VALID_DAYS = Set.of(
             "MONDAY", "TUESDAY", "WEDNESDAY", "THURSDAY", "FRIDAY", "SATURDAY", "SUNDAY"
@@ -154,6 +165,17 @@ public class ConfigManager {
         batchWriteInterval = config.getInt("batch-write-interval", 30);
         debugMode = config.getBoolean("debug", false);
         purgeInactiveDays = config.getInt("purge-inactive-days", 0);
+        changeLogPollInterval = config.getInt("change-log-poll-interval", 0);
+        changeLogRetentionHours = config.getInt("change-log-retention-hours", 24);
+        sharedMemoryFile = config.getString("shared-memory-file", "");
+        sharedMemorySlots = config.getInt("shared-memory-slots", 4096);
+        cacheMaxPlayers = config.getInt("cache-max-players", 2000);
+        cacheMemoryThreshold = config.getInt("cache-memory-threshold", 85);
+        pushMaxPacketsPerTick = config.getInt("push-max-packets-per-tick", 200);
+        pushMaxMillisPerTick = config.getInt("push-max-millis-per-tick", 2);
+        nonBlockingRender = config.getBoolean("non-blocking-render", true);
+        loadingDisplay = config.getString("loading-display", "stock");
+        encodedOfferPatching = config.getBoolean("patch-encoded-offers", true);
     }
 
     /**
@@ -695,6 +717,38 @@ public class ConfigManager {
             warnings.add("purge-inactive-days must be >= 0 (0 to disable). Currently: " + purgeInactiveDays);
         }
 
+        if (changeLogPollInterval < 0 || changeLogPollInterval > 300) {
+            warnings.add("change-log-poll-interval should be between 0-300 seconds (0 to disable). Currently: " + changeLogPollInterval);
+        }
+
+        if (changeLogRetentionHours < 1) {
+            warnings.add("change-log-retention-hours must be >= 1 (currently: " + changeLogRetentionHours + ")");
+        }
+
+        if (sharedMemorySlots < 64 || sharedMemorySlots > 1_048_576) {
+            warnings.add("shared-memory-slots should be between 64-1048576 (currently: " + sharedMemorySlots + ")");
+        }
+
+        if (cacheMaxPlayers < 100) {
+            warnings.add("cache-max-players should be at least 100 (currently: " + cacheMaxPlayers + ")");
+        }
+
+        if (cacheMemoryThreshold < 0 || cacheMemoryThreshold > 99) {
+            warnings.add("cache-memory-threshold should be between 0-99 percent (0 to disable). Currently: " + cacheMemoryThreshold);
+        }
+
+        if (pushMaxPacketsPerTick < 1) {
+            warnings.add("push-max-packets-per-tick must be >= 1 (currently: " + pushMaxPacketsPerTick + ")");
+        }
+
+        if (pushMaxMillisPerTick < 1 || pushMaxMillisPerTick > 50) {
+            warnings.add("push-max-millis-per-tick should be between 1-50 (currently: " + pushMaxMillisPerTick + ")");
+        }
+
+        if (!loadingDisplay.equalsIgnoreCase("stock") && !loadingDisplay.equalsIgnoreCase("sold-out")) {
+            warnings.add("loading-display must be 'stock' or 'sold-out' (currently: " + loadingDisplay + ")");
+        }
+
         // Validate storage type
         if (!storageType.equalsIgnoreCase("sqlite")) {
             warnings.add("storage-type '" + storageType + "' is not supported. Only 'sqlite' is currently supported.");
@@ -783,6 +837,84 @@ public class ConfigManager {
         return purgeInactiveDays;
     }
 
+    /**
+     * Seconds between change-log polls for cross-server invalidation. 0 disables the change
+     * log entirely (no entries are written either).
+     */
+    public int getChangeLogPollInterval() {
+        return changeLogPollInterval;
+    }
+
+    public int getChangeLogRetentionHours() {
+        return Math.max(1, changeLogRetentionHours);
+    }
+
+    /**
+     * Path of the memory-mapped shared counter file, or empty when the shared-memory
+     * backend is disabled. Read once at startup — changing it requires a restart.
+     */
+    public String getSharedMemoryFile() {
+        return sharedMemoryFile;
+    }
+
+    public int getSharedMemorySlots() {
+        return Math.max(64, sharedMemorySlots);
+    }
+
+    /**
+     * Number of players whose trade counters may stay cached before idle offline players are
+     * evicted. Online players are never evicted, so this is a soft bound.
+     */
+    public int getCacheMaxPlayers() {
+        return Math.max(100, cacheMaxPlayers);
+    }
+
+    /**
+     * Heap usage (percent of the old generation's max) at which the cache drops every idle
+     * offline player. 0 disables it. Read once at startup.
+     */
+    public int getCacheMemoryThreshold() {
+        return Math.min(99, cacheMemoryThreshold);
+    }
+
+    /**
+     * Most live stock/rotation merchant packets sent per tick; further viewers wait a tick.
+     */
+    public int getPushMaxPacketsPerTick() {
+        return Math.max(1, pushMaxPacketsPerTick);
+    }
+
+    /**
+     * Main-thread time (milliseconds) the push task may spend per tick.
+     */
+    public int getPushMaxMillisPerTick() {
+        return Math.clamp(pushMaxMillisPerTick, 1, 50);
+    }
+
+    /**
+     * Whether merchant packets for players whose data isn't cached yet are painted from cached
+     * counters (and corrected after an async load) instead of loading on the packet thread.
+     */
+    public boolean isNonBlockingRender() {
+        return nonBlockingRender;
+    }
+
+    /**
+     * Whether offers still loading are painted sold out ({@code loading-display: sold-out})
+     * rather than from global stock / full stock.
+     */
+    public boolean isLoadingShownSoldOut() {
+        return "sold-out".equalsIgnoreCase(loadingDisplay);
+    }
+
+    /**
+     * Whether rewritten merchant packets are patched in their encoded bytes (falling back to a
+     * full re-encode whenever the layout can't be verified) instead of always re-encoded.
+     */
+    public boolean isEncodedOfferPatching() {
+        return encodedOfferPatching;
+    }
+
     public boolean hasShop(String shopId) {
         return shops.containsKey(shopId);
     }
@@ -0,0 +1,49 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.util.UUID;
+
+/**
+ * One row of the append-only {@code change_log} table.
+ * Every reset / restock / rotation path writes an entry so other servers sharing the same
+ * database can invalidate exactly the cache entries (and open UIs) that the change touched,
+ * instead of serving stale counters until their own TTLs run out.
+ *
+ * @param id        Monotonic row id assigned by the database (0 for entries not yet written)
+ * @param serverId  Instance id of the server that wrote the entry (used to skip our own writes)
+ * @param scope     What kind of change this is, which decides how wide the invalidation is
+ * @param shopId    Affected shop, or null for {@link Scope#PLAYER}
+ * @param key       Affected trade key — or pool name for {@link Scope#ROTATION} — or null
+ * @param playerId  Affected player for player scopes, otherwise null
+ * @param createdAt Epoch second the entry was written (used for pruning)
+ */
+public record ChangeLogEntry(long id, String serverId, Scope scope, String shopId,
+                             String key, UUID playerId, long createdAt) {
+
+    public enum Scope {
+        /** Every trade of one player. */
+        PLAYER,
+        /** Every trade of one player in one shop. */
+        PLAYER_SHOP,
+        /** One trade of one player. */
+        PLAYER_TRADE,
+        /** Global stock + per-player caps of every trade in one shop. */
+        GLOBAL_SHOP,
+        /** Global stock + per-player caps of one trade. */
+        GLOBAL_TRADE,
+        /** One rotation pool advanced or re-picked its active items. */
+        ROTATION;
+
+        /**
+         * Parses a scope name, returning null for unknown values so entries written by a newer
+         * plugin version are skipped rather than failing the whole poll.
+         */
+        public static Scope fromString(String value) {
+            if (value == null) return null;
+            try {
+                return valueOf(value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
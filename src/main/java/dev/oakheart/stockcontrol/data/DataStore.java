@@ -1,6 +1,7 @@
 package dev.oakheart.stockcontrol.data;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -53,11 +54,14 @@ public interface DataStore {
     void saveTradeData(PlayerTradeData data);
 
     /**
-     * Saves multiple trade data entries in a batch.
+     * Saves multiple trade data entries in a batch. A row is skipped if the change log holds a
+     * reset of it that {@code fence} hasn't accounted for (see {@link WriteFence}).
      *
      * @param dataList List of trade data to save
+     * @param fence    What the cached rows already reflect, or null to write unconditionally
+     * @return Number of rows written
      */
-    void batchSaveTradeData(List<PlayerTradeData> dataList);
+    int batchSaveTradeData(List<PlayerTradeData> dataList, WriteFence fence);
 
     /**
      * Deletes trade data for a specific player, shop, and trade.
@@ -92,6 +96,17 @@ public interface DataStore {
      */
     void deleteShopTradeData(String shopId, String tradeKey);
 
+    /**
+     * Deletes player rows of one trade whose period ended before {@code resetBefore}.
+     * Such rows already read as zero, so this is garbage collection, not a reset.
+     *
+     * @param shopId      The shop identifier
+     * @param tradeKey    The trade key
+     * @param resetBefore Rows with a reset epoch strictly below this are deleted
+     * @return Number of rows deleted
+     */
+    int deleteStaleTradeData(String shopId, String tradeKey, long resetBefore);
+
     /**
      * Deletes all trade data for a specific shop (all players).
      * Used to clean up orphaned data when a shop is removed from config.
@@ -134,11 +149,14 @@ public interface DataStore {
     void saveGlobalTradeData(GlobalTradeData data);
 
     /**
-     * Saves multiple global trade data entries in a batch.
+     * Saves multiple global trade data entries in a batch. A row is skipped if the change log
+     * holds a restock of it that {@code fence} hasn't accounted for (see {@link WriteFence}).
      *
      * @param dataList List of global trade data to save
+     * @param fence    What the cached rows already reflect, or null to write unconditionally
+     * @return Number of rows written
      */
-    void batchSaveGlobalTradeData(List<GlobalTradeData> dataList);
+    int batchSaveGlobalTradeData(List<GlobalTradeData> dataList, WriteFence fence);
 
     /**
      * Deletes global trade data for a specific shop and trade.
@@ -155,6 +173,44 @@ public interface DataStore {
      */
     void deleteGlobalShopData(String shopId);
 
+    // === Restock generations ===
+
+    /**
+     * Loads every persisted restock generation.
+     *
+     * @return shopId -> (tradeKey -> generation); the shop-wide generation uses the empty key
+     */
+    Map<String, Map<String, Integer>> loadRestockGenerations();
+
+    /**
+     * Loads one restock generation.
+     *
+     * @param shopId   The shop identifier
+     * @param tradeKey The trade key, or the empty string for the shop-wide generation
+     * @return The generation, or 0 if the shop/trade was never restocked
+     */
+    int loadRestockGeneration(String shopId, String tradeKey);
+
+    /**
+     * Atomically increments a restock generation.
+     *
+     * @param shopId   The shop identifier
+     * @param tradeKey The trade key, or the empty string for the shop-wide generation
+     * @return The generation after the increment, or -1 if it could not be persisted
+     */
+    int incrementRestockGeneration(String shopId, String tradeKey);
+
+    /**
+     * Deletes player rows of one trade written under an older restock generation.
+     * Such rows already read as zero, so this is garbage collection, not a reset.
+     *
+     * @param shopId     The shop identifier
+     * @param tradeKey   The trade key
+     * @param generation Rows stamped with a generation strictly below this are deleted
+     * @return Number of rows deleted
+     */
+    int deleteSupersededTradeData(String shopId, String tradeKey, int generation);
+
     /**
      * Loads every persisted pool rotation state.
      * Called once at startup so the manager can reconcile against current wall-clock.
@@ -178,6 +234,56 @@ public interface DataStore {
      */
     void deleteRotationState(String shopId, String poolName);
 
+    // === Change log (cross-server cache invalidation) ===
+
+    /**
+     * Appends one entry to the change log. The entry's {@code id} is ignored — the database
+     * assigns the next monotonic id.
+     *
+     * @param entry The change to record
+     * @return The id assigned to the entry, or 0 if it could not be written
+     */
+    long appendChange(ChangeLogEntry entry);
+
+    /**
+     * Runs {@code work} as one transaction: the store calls it makes (deletes, change log
+     * appends) are committed together or not at all, and no other connection sees the rows
+     * deleted before the change that explains it is logged.
+     *
+     * <p>A store call that fails inside {@code work} throws instead of logging and carrying
+     * on; the transaction is rolled back and the exception is rethrown to the caller.
+     *
+     * @param work Store calls to run; must not manage transactions itself
+     * @throws IllegalStateException If a store call failed and the transaction was rolled back
+     */
+    void atomically(Runnable work);
+
+    /**
+     * Loads change log entries with an id strictly greater than {@code afterId}, oldest first.
+     * Served by the primary-key index, so each poll only touches the new rows.
+     *
+     * @param afterId The last id already applied by the caller
+     * @param limit   Maximum number of entries to return
+     * @return List of entries (empty if nothing new)
+     */
+    List<ChangeLogEntry> loadChangesSince(long afterId, int limit);
+
+    /**
+     * Returns the highest change log id, or 0 if the log is empty.
+     * Used to start polling from "now" instead of replaying history on startup.
+     *
+     * @return The latest change id
+     */
+    long latestChangeId();
+
+    /**
+     * Deletes change log entries written before the given epoch second.
+     *
+     * @param olderThanEpoch Entries with {@code created_at} below this are removed
+     * @return Number of entries removed
+     */
+    int pruneChangeLog(long olderThanEpoch);
+
     /**
      * Checks if the data store is properly initialized and operational.
      *
@@ -192,5 +298,18 @@ public interface DataStore {
      */
     TableCounts countRows();
 
-    record TableCounts(long playerTrades, long globalTrades, long rotationStates) {}
+    record TableCounts(long playerTrades, long globalTrades, long rotationStates, long changeLog) {}
+
+    /**
+     * Guards a batch save against resets logged by other servers. The rows were drained from a
+     * cache that had applied every change up to {@code appliedThrough}; a later reset of a row
+     * that this server didn't publish itself (up to {@code ownThrough}, whose effects the cache
+     * already had when it was drained) means the cached row predates it and must not be written
+     * back over the reset.
+     *
+     * @param serverId       This server's change log id
+     * @param appliedThrough Highest change id applied to the cache when the rows were drained
+     * @param ownThrough     Highest change id this server had published at that point
+     */
+    record WriteFence(String serverId, long appliedThrough, long ownThrough) {}
 }
@@ -1,29 +1,37 @@
 package dev.oakheart.stockcontrol.data;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents global trade stock data for a shared-mode shop.
  * Tracks the combined stock pool that all players draw from.
  *
- * <p>{@code tradesUsed} is an {@link AtomicInteger} so concurrent
- * {@code incrementTradesUsed()} calls compose without lost updates. Real production
- * trades always fire on the main thread, but this guards against accidental concurrent
- * mutation from admin commands, Folia support, or other async paths.</p>
+ * <p>{@code tradesUsed} and {@code lastResetEpoch} are packed into one {@link AtomicLong}
+ * (epoch in the high 32 bits, count in the low 32 — the same layout as a
+ * {@link SharedCounterFile} slot). The epoch doubles as the period's version stamp, so
+ * {@link #tryAcquire} can reset an expired period and admit a trade in a single CAS
+ * without any lock.</p>
+ *
+ * <p>When bound to a {@link SharedCounterFile} slot, the mapped slot is the source of truth
+ * for {@code tradesUsed} and {@code lastResetEpoch} (shared by every server on the host) and
+ * the heap fields are ignored.</p>
  */
 public class GlobalTradeData {
     private final String shopId;
     private final String tradeKey;
-    private final AtomicInteger tradesUsed;
-    private volatile long lastResetEpoch;
+    private final AtomicLong state;
     private volatile int cooldownSeconds;
 
+    // Optional cross-process backing. The slot is written before the file reference so a
+    // reader that sees a non-null file always sees its slot.
+    private volatile int sharedSlot = -1;
+    private volatile SharedCounterFile sharedCounters;
+
     public GlobalTradeData(String shopId, String tradeKey,
                            int tradesUsed, long lastResetEpoch, int cooldownSeconds) {
         this.shopId = shopId;
         this.tradeKey = tradeKey;
-        this.tradesUsed = new AtomicInteger(tradesUsed);
-        this.lastResetEpoch = lastResetEpoch;
+        this.state = new AtomicLong(pack(lastResetEpoch, tradesUsed));
         this.cooldownSeconds = cooldownSeconds;
     }
 
@@ -36,32 +44,61 @@ public class GlobalTradeData {
     }
 
     public int getTradesUsed() {
-        return tradesUsed.get();
-    }
-
-    /**
-     * Atomically increments trades used and returns the new value. Use this in preference to
-     * {@code setTradesUsed(getTradesUsed() + 1)} — the latter has a read-modify-write race
-     * under concurrent mutation that can lose updates.
-     */
-    public int incrementTradesUsed() {
-        return tradesUsed.incrementAndGet();
+        SharedCounterFile counters = sharedCounters;
+        return counters != null ? counters.used(sharedSlot) : unpackUsed(state.get());
     }
 
     public long getLastResetEpoch() {
-        return lastResetEpoch;
+        SharedCounterFile counters = sharedCounters;
+        return counters != null ? counters.lastResetEpoch(sharedSlot) : unpackEpoch(state.get());
     }
 
     public int getCooldownSeconds() {
         return cooldownSeconds;
     }
 
-    public void setTradesUsed(int tradesUsed) {
-        this.tradesUsed.set(tradesUsed);
+    /**
+     * Moves this counter onto a shared-memory slot. The slot is seeded with the current heap
+     * values only if no process has written it yet, so a counter loaded from a stale DB row
+     * never overwrites live cross-server state.
+     */
+    public void bindSharedSlot(SharedCounterFile counters, int slot) {
+        long current = state.get();
+        counters.seedIfEmpty(slot, unpackUsed(current), unpackEpoch(current));
+        this.sharedSlot = slot;
+        this.sharedCounters = counters;
+    }
+
+    public boolean isSharedBound() {
+        return sharedCounters != null;
     }
 
-    public void setLastResetEpoch(long lastResetEpoch) {
-        this.lastResetEpoch = lastResetEpoch;
+    /**
+     * Atomically admits one trade: an expired period is reset and the cap is checked in the
+     * same CAS, so concurrent callers — threads here, or other servers when bound to shared
+     * memory — can never overshoot.
+     *
+     * @param maxTrades   Global cap for the period
+     * @param resetBefore Reset epochs strictly below this are expired
+     * @param now         Current epoch second
+     * @return The new used count, or -1 if the stock is exhausted
+     */
+    public int tryAcquire(int maxTrades, long resetBefore, long now) {
+        SharedCounterFile counters = sharedCounters;
+        if (counters != null) {
+            return counters.tryAcquire(sharedSlot, maxTrades, resetBefore, now);
+        }
+        while (true) {
+            long current = state.get();
+            long epoch = unpackEpoch(current);
+            int used = unpackUsed(current);
+            if (epoch == 0L || epoch < resetBefore) {
+                epoch = now;
+                used = 0;
+            }
+            if (used >= maxTrades) return -1;
+            if (state.compareAndSet(current, pack(epoch, used + 1))) return used + 1;
+        }
     }
 
     public void setCooldownSeconds(int cooldownSeconds) {
@@ -76,13 +113,25 @@ public class GlobalTradeData {
         return shopId + ":" + tradeKey;
     }
 
+    private static long pack(long epoch, int used) {
+        return (epoch << 32) | (used & 0xFFFFFFFFL);
+    }
+
+    private static long unpackEpoch(long state) {
+        return state >>> 32;
+    }
+
+    private static int unpackUsed(long state) {
+        return (int) state;
+    }
+
     @Override
     public String toString() {
         return "GlobalTradeData{" +
                 "shopId='" + shopId + '\'' +
                 ", tradeKey='" + tradeKey + '\'' +
-                ", tradesUsed=" + tradesUsed.get() +
-                ", lastResetEpoch=" + lastResetEpoch +
+                ", tradesUsed=" + getTradesUsed() +
+                ", lastResetEpoch=" + getLastResetEpoch() +
                 ", cooldownSeconds=" + cooldownSeconds +
                 '}';
     }
@@ -0,0 +1,104 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * All cached per-player trade counters of one player: a {@link ShopLedger} per shop, indexed
+ * by the shop's ordinal. Evicting a player (quit, purge, reset) drops this one object.
+ *
+ * <p>The shop array is copy-on-write under this object's monitor; lookups are lock-free.
+ *
+ * <p>The ledger also carries a small saturating access frequency used to pick eviction
+ * victims when the cache is over its bound. It is updated without synchronization — a lost
+ * increment only makes the estimate slightly colder, which is harmless.
+ */
+public final class PlayerLedger {
+
+    private static final ShopLedger[] EMPTY = new ShopLedger[0];
+    private static final int MAX_FREQUENCY = 15;
+
+    private final UUID playerId;
+    private volatile ShopLedger[] shops = EMPTY;
+    private int frequency;
+
+    public PlayerLedger(UUID playerId) {
+        this.playerId = playerId;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * @return The ledger for a shop, or null if nothing of that shop is cached
+     */
+    public ShopLedger shop(int shopOrdinal) {
+        ShopLedger[] current = shops;
+        return shopOrdinal < current.length ? current[shopOrdinal] : null;
+    }
+
+    /**
+     * Gets the ledger for a shop, creating it with room for {@code capacity} trades if absent.
+     */
+    public ShopLedger shopOrCreate(int shopOrdinal, String shopId, int capacity) {
+        ShopLedger existing = shop(shopOrdinal);
+        if (existing != null) return existing;
+        synchronized (this) {
+            ShopLedger[] current = shops;
+            if (shopOrdinal < current.length && current[shopOrdinal] != null) {
+                return current[shopOrdinal];
+            }
+            ShopLedger created = new ShopLedger(playerId, shopId, shopOrdinal, capacity);
+            ShopLedger[] next = shopOrdinal < current.length
+                    ? current.clone()
+                    : Arrays.copyOf(current, shopOrdinal + 1);
+            next[shopOrdinal] = created;
+            shops = next;
+            return created;
+        }
+    }
+
+    /**
+     * Drops a shop's ledger.
+     *
+     * @return The removed ledger, or null if there was none
+     */
+    public synchronized ShopLedger removeShop(int shopOrdinal) {
+        ShopLedger[] current = shops;
+        if (shopOrdinal >= current.length || current[shopOrdinal] == null) return null;
+        ShopLedger removed = current[shopOrdinal];
+        ShopLedger[] next = current.clone();
+        next[shopOrdinal] = null;
+        shops = next;
+        return removed;
+    }
+
+    /**
+     * @return Snapshot of the shop ledgers, indexed by shop ordinal (entries may be null)
+     */
+    public ShopLedger[] shops() {
+        return shops;
+    }
+
+    // ===== Eviction Frequency =====
+
+    /**
+     * Records an access (saturates at {@value #MAX_FREQUENCY}).
+     */
+    public void touch() {
+        int f = frequency;
+        if (f < MAX_FREQUENCY) frequency = f + 1;
+    }
+
+    public int frequency() {
+        return frequency;
+    }
+
+    /**
+     * Halves the frequency so entries that were hot long ago can eventually be evicted.
+     */
+    public void age() {
+        frequency >>>= 1;
+    }
+}
@@ -19,6 +19,7 @@ public class PlayerTradeData {
     private final AtomicInteger tradesUsed;
     private volatile long lastResetEpoch;           // Timestamp when cooldown started (limit reached)
     private volatile int cooldownSeconds;           // Cooldown duration from config
+    private final int generation;                   // Restock generation the row was written under
 
     /**
      * Creates a new PlayerTradeData instance.
@@ -32,12 +33,24 @@ public class PlayerTradeData {
      */
     public PlayerTradeData(UUID playerId, String shopId, String tradeKey,
                            int tradesUsed, long lastResetEpoch, int cooldownSeconds) {
+        this(playerId, shopId, tradeKey, tradesUsed, lastResetEpoch, cooldownSeconds, 0);
+    }
+
+    /**
+     * Creates a new PlayerTradeData instance stamped with a restock generation.
+     *
+     * @param generation       The (shop + trade) restock generation the counter belongs to;
+     *                         once a restock moves past it the row reads as unused
+     */
+    public PlayerTradeData(UUID playerId, String shopId, String tradeKey,
+                           int tradesUsed, long lastResetEpoch, int cooldownSeconds, int generation) {
         this.playerId = playerId;
         this.shopId = shopId;
         this.tradeKey = tradeKey;
         this.tradesUsed = new AtomicInteger(tradesUsed);
         this.lastResetEpoch = lastResetEpoch;
         this.cooldownSeconds = cooldownSeconds;
+        this.generation = generation;
     }
 
     // Getters
@@ -74,6 +87,10 @@ public class PlayerTradeData {
         return cooldownSeconds;
     }
 
+    public int getGeneration() {
+        return generation;
+    }
+
     // Setters
     public void setTradesUsed(int tradesUsed) {
         this.tradesUsed.set(tradesUsed);
@@ -104,6 +121,7 @@ public class PlayerTradeData {
                 ", tradesUsed=" + tradesUsed.get() +
                 ", lastResetEpoch=" + lastResetEpoch +
                 ", cooldownSeconds=" + cooldownSeconds +
+                ", generation=" + generation +
                 '}';
     }
 }
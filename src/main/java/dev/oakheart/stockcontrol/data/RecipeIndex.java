@@ -0,0 +1,97 @@
+package dev.oakheart.stockcontrol.data;
+
+import com.nisovin.shopkeepers.api.shopkeeper.TradingRecipe;
+import com.nisovin.shopkeepers.api.util.UnmodifiableItemStack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One shop's trading recipes keyed by a cheap fingerprint of their result and input items
+ * (type, amount and the stack's hash, which covers its components), so the source slot of a
+ * traded recipe is found with a hash lookup and one {@code isSimilar} confirmation instead of
+ * comparing it against every recipe.
+ *
+ * <p>Built from a single {@code getTradingRecipes} result and immutable afterwards; the owner
+ * drops it when Shopkeepers reports the shop's offers changed.</p>
+ */
+public final class RecipeIndex {
+
+    private final List<? extends TradingRecipe> recipes;
+    // Fingerprint -> source slots carrying it, in slot order (usually exactly one)
+    private final Map<Integer, int[]> slotsByFingerprint;
+
+    private RecipeIndex(List<? extends TradingRecipe> recipes, Map<Integer, int[]> slotsByFingerprint) {
+        this.recipes = recipes;
+        this.slotsByFingerprint = slotsByFingerprint;
+    }
+
+    public static RecipeIndex of(List<? extends TradingRecipe> recipes) {
+        Map<Integer, int[]> slots = new HashMap<>();
+        for (int slot = 0; slot < recipes.size(); slot++) {
+            slots.merge(fingerprint(recipes.get(slot)), new int[] {slot}, (current, added) -> {
+                int[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = added[0];
+                return next;
+            });
+        }
+        return new RecipeIndex(List.copyOf(recipes), slots);
+    }
+
+    /**
+     * @return The first source slot holding {@code recipe}, or -1 if no recipe has its
+     *         fingerprint
+     */
+    public int find(TradingRecipe recipe) {
+        int[] candidates = slotsByFingerprint.get(fingerprint(recipe));
+        if (candidates == null) return -1;
+        for (int slot : candidates) {
+            if (sameRecipe(recipes.get(slot), recipe)) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares {@code recipe} against every indexed recipe. Only for a fingerprint miss on a
+     * freshly built index, so a recipe whose stack hash isn't stable is still found.
+     *
+     * @return The first source slot holding {@code recipe}, or -1
+     */
+    public int scan(TradingRecipe recipe) {
+        for (int slot = 0; slot < recipes.size(); slot++) {
+            if (sameRecipe(recipes.get(slot), recipe)) return slot;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return recipes.size();
+    }
+
+    private static int fingerprint(TradingRecipe recipe) {
+        int hash = fingerprint(recipe.getResultItem());
+        hash = 31 * hash + fingerprint(recipe.getItem1());
+        return 31 * hash + fingerprint(recipe.getItem2());
+    }
+
+    private static int fingerprint(UnmodifiableItemStack item) {
+        if (item == null) return 0;
+        return 31 * (31 * item.getType().ordinal() + item.getAmount()) + item.hashCode();
+    }
+
+    private static boolean sameRecipe(TradingRecipe a, TradingRecipe b) {
+        return sameItem(a.getResultItem(), b.getResultItem())
+                && sameItem(a.getItem1(), b.getItem1())
+                && sameItem(a.getItem2(), b.getItem2());
+    }
+
+    /**
+     * Null-safe item comparison: {@code isSimilar} (type and meta/components) plus amount.
+     */
+    public static boolean sameItem(UnmodifiableItemStack a, UnmodifiableItemStack b) {
+        if (a == null || b == null) return a == b;
+        return a.isSimilar(b) && a.getAmount() == b.getAmount();
+    }
+}
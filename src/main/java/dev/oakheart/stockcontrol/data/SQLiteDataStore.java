@@ -5,9 +5,13 @@ import dev.oakheart.stockcontrol.ShopkeepersStockControl;
 import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * SQLite implementation of the DataStore interface.
@@ -15,7 +19,9 @@ import java.util.logging.Level;
  */
 public class SQLiteDataStore implements DataStore {
 
-    private final ShopkeepersStockControl plugin;
+    private final File databaseFile;
+    private final Logger logger;
+    private final BooleanSupplier debugMode;
     private Connection connection;
     private boolean operational;
 
@@ -28,6 +34,7 @@ public class SQLiteDataStore implements DataStore {
     private PreparedStatement deletePlayerStmt;
     private PreparedStatement deletePlayerShopStmt;
     private PreparedStatement deleteShopTradeStmt;
+    private PreparedStatement deleteStaleTradeStmt;
     private PreparedStatement deleteShopStmt;
     private PreparedStatement getAllPlayersStmt;
 
@@ -38,22 +45,51 @@ public class SQLiteDataStore implements DataStore {
     private PreparedStatement deleteGlobalTradeStmt;
     private PreparedStatement deleteGlobalShopStmt;
 
+    // Restock generation prepared statements
+    private PreparedStatement loadGenerationsStmt;
+    private PreparedStatement loadGenerationStmt;
+    private PreparedStatement incrementGenerationStmt;
+    private PreparedStatement deleteSupersededTradeStmt;
+
     // Pool rotation state prepared statements
     private PreparedStatement loadAllRotationStatesStmt;
     private PreparedStatement upsertRotationStateStmt;
     private PreparedStatement deleteRotationStateStmt;
 
+    // Change log prepared statements
+    private PreparedStatement appendChangeStmt;
+    private PreparedStatement lastInsertIdStmt;
+    private PreparedStatement loadChangesSinceStmt;
+    private PreparedStatement latestChangeIdStmt;
+    private PreparedStatement pruneChangeLogStmt;
+
+    // Set while atomically() runs its work. A failed write then aborts the transaction instead
+    // of being logged and skipped, so a change log entry never commits without its delete.
+    private boolean inTransaction;
+
     public SQLiteDataStore(ShopkeepersStockControl plugin) {
-        this.plugin = plugin;
+        this(new File(plugin.getDataFolder(), "stockcontrol.db"), plugin.getLogger(),
+                () -> plugin.getConfigManager().isDebugMode());
+    }
+
+    /**
+     * Creates a store on an explicit file, independent of the plugin instance.
+     *
+     * @param databaseFile The SQLite file; several stores (servers) may open the same one
+     * @param logger       Logger for errors and diagnostics
+     * @param debugMode    Whether to log batch sizes
+     */
+    public SQLiteDataStore(File databaseFile, Logger logger, BooleanSupplier debugMode) {
+        this.databaseFile = databaseFile;
+        this.logger = logger;
+        this.debugMode = debugMode;
         this.operational = false;
     }
 
     @Override
     public void initialize() {
         try {
-            // Create database file in plugin folder
-            File dbFile = new File(plugin.getDataFolder(), "stockcontrol.db");
-            String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+            String url = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
 
             // Load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
@@ -65,22 +101,26 @@ public class SQLiteDataStore implements DataStore {
             try (Statement stmt = connection.createStatement()) {
                 stmt.execute("PRAGMA journal_mode=WAL;");
                 stmt.execute("PRAGMA synchronous=NORMAL;");
+                // Several servers may share this file for cross-server invalidation —
+                // wait briefly on a competing writer instead of failing with SQLITE_BUSY.
+                stmt.execute("PRAGMA busy_timeout=5000;");
             }
 
             // Create tables
             createTables();
+            migrateSchema();
 
             // Prepare statements
             prepareStatements();
 
             operational = true;
-            plugin.getLogger().info("SQLite database initialized successfully at: " + dbFile.getAbsolutePath());
+            logger.info("SQLite database initialized successfully at: " + databaseFile.getAbsolutePath());
 
         } catch (ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE, "SQLite JDBC driver not found", e);
+            logger.log(Level.SEVERE, "SQLite JDBC driver not found", e);
             operational = false;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to initialize SQLite database", e);
+            logger.log(Level.SEVERE, "Failed to initialize SQLite database", e);
             operational = false;
         }
     }
@@ -107,6 +147,12 @@ public class SQLiteDataStore implements DataStore {
                 ON player_trades(player_uuid, shop_id);
                 """;
 
+        // Per-trade deletes (restocks, stale-period sweeps) filter on shop + trade + epoch.
+        String createShopTradeIndexSQL = """
+                CREATE INDEX IF NOT EXISTS idx_shop_trade_reset
+                ON player_trades(shop_id, trade_key, last_reset_epoch);
+                """;
+
         // Note: No separate (player_uuid, shop_id, trade_key) index needed —
         // the UNIQUE constraint already creates an equivalent index.
 
@@ -122,6 +168,16 @@ public class SQLiteDataStore implements DataStore {
                 );
                 """;
 
+        // One row per restocked shop ('' trade key) or trade; absent means generation 0.
+        String createGenerationTableSQL = """
+                CREATE TABLE IF NOT EXISTS restock_generations (
+                    shop_id TEXT NOT NULL,
+                    trade_key TEXT NOT NULL,
+                    generation INTEGER NOT NULL,
+                    PRIMARY KEY (shop_id, trade_key)
+                );
+                """;
+
         String createRotationTableSQL = """
                 CREATE TABLE IF NOT EXISTS pool_rotation_state (
                     shop_id TEXT NOT NULL,
@@ -133,14 +189,59 @@ public class SQLiteDataStore implements DataStore {
                 );
                 """;
 
+        // Append-only; readers poll by id (the rowid primary key), pruning goes by created_at.
+        String createChangeLogTableSQL = """
+                CREATE TABLE IF NOT EXISTS change_log (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    server_id TEXT NOT NULL,
+                    scope TEXT NOT NULL,
+                    shop_id TEXT,
+                    change_key TEXT,
+                    player_uuid TEXT,
+                    created_at BIGINT NOT NULL
+                );
+                """;
+
+        String createChangeLogCreatedIndexSQL = """
+                CREATE INDEX IF NOT EXISTS idx_change_log_created
+                ON change_log(created_at);
+                """;
+
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
             stmt.execute(createPlayerShopIndexSQL);
+            stmt.execute(createShopTradeIndexSQL);
             stmt.execute(createGlobalTableSQL);
+            stmt.execute(createGenerationTableSQL);
             stmt.execute(createRotationTableSQL);
+            stmt.execute(createChangeLogTableSQL);
+            stmt.execute(createChangeLogCreatedIndexSQL);
         }
 
-        plugin.getLogger().info("Database tables created/verified successfully");
+        logger.info("Database tables created/verified successfully");
+    }
+
+    /**
+     * Adds columns introduced after a table was first created.
+     */
+    private void migrateSchema() throws SQLException {
+        boolean hasGeneration = false;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(player_trades)")) {
+            while (rs.next()) {
+                if ("generation".equalsIgnoreCase(rs.getString("name"))) {
+                    hasGeneration = true;
+                    break;
+                }
+            }
+        }
+
+        if (!hasGeneration) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE player_trades ADD COLUMN generation INTEGER NOT NULL DEFAULT 0");
+            }
+            logger.info("Added restock generation column to player_trades");
+        }
     }
 
     /**
@@ -162,15 +263,26 @@ public class SQLiteDataStore implements DataStore {
                 "SELECT * FROM player_trades WHERE player_uuid = ? AND shop_id = ?"
         );
 
-        // Upsert trade data
+        // Upsert trade data, unless a reset or restock of the row that the writer hadn't seen
+        // yet was logged since (see WriteFence). Checked in the same statement, so another
+        // server's reset either lands before the check or deletes the row afterwards.
         upsertTradeStmt = connection.prepareStatement("""
-                INSERT INTO player_trades (player_uuid, shop_id, trade_key, trades_used, last_reset_epoch, cooldown_seconds)
-                VALUES (?, ?, ?, ?, ?, ?)
+                INSERT INTO player_trades (player_uuid, shop_id, trade_key, trades_used, last_reset_epoch, cooldown_seconds, generation)
+                SELECT ?, ?, ?, ?, ?, ?, ?
+                WHERE NOT EXISTS (
+                    SELECT 1 FROM change_log
+                    WHERE id > ? AND NOT (server_id = ? AND id <= ?)
+                      AND ((scope IN ('PLAYER', 'PLAYER_SHOP', 'PLAYER_TRADE') AND player_uuid = ?)
+                           OR scope IN ('GLOBAL_SHOP', 'GLOBAL_TRADE'))
+                      AND (shop_id IS NULL OR shop_id = ?)
+                      AND (change_key IS NULL OR change_key = ?)
+                )
                 ON CONFLICT(player_uuid, shop_id, trade_key)
                 DO UPDATE SET
                     trades_used = excluded.trades_used,
                     last_reset_epoch = excluded.last_reset_epoch,
-                    cooldown_seconds = excluded.cooldown_seconds
+                    cooldown_seconds = excluded.cooldown_seconds,
+                    generation = excluded.generation
                 """);
 
         // Delete single trade data
@@ -193,6 +305,11 @@ public class SQLiteDataStore implements DataStore {
                 "DELETE FROM player_trades WHERE shop_id = ? AND trade_key = ?"
         );
 
+        // Delete one trade's rows from finished periods (all players)
+        deleteStaleTradeStmt = connection.prepareStatement(
+                "DELETE FROM player_trades WHERE shop_id = ? AND trade_key = ? AND last_reset_epoch < ?"
+        );
+
         // Delete all trades for a specific shop (all players)
         deleteShopStmt = connection.prepareStatement(
                 "DELETE FROM player_trades WHERE shop_id = ?"
@@ -212,9 +329,17 @@ public class SQLiteDataStore implements DataStore {
                 "SELECT * FROM global_trades WHERE shop_id = ?"
         );
 
+        // Same fence as the player upsert, against restocks of the row
         upsertGlobalTradeStmt = connection.prepareStatement("""
                 INSERT INTO global_trades (shop_id, trade_key, trades_used, last_reset_epoch, cooldown_seconds)
-                VALUES (?, ?, ?, ?, ?)
+                SELECT ?, ?, ?, ?, ?
+                WHERE NOT EXISTS (
+                    SELECT 1 FROM change_log
+                    WHERE id > ? AND NOT (server_id = ? AND id <= ?)
+                      AND scope IN ('GLOBAL_SHOP', 'GLOBAL_TRADE')
+                      AND shop_id = ?
+                      AND (change_key IS NULL OR change_key = ?)
+                )
                 ON CONFLICT(shop_id, trade_key)
                 DO UPDATE SET
                     trades_used = excluded.trades_used,
@@ -230,6 +355,27 @@ public class SQLiteDataStore implements DataStore {
                 "DELETE FROM global_trades WHERE shop_id = ?"
         );
 
+        // Restock generation statements
+        loadGenerationsStmt = connection.prepareStatement(
+                "SELECT shop_id, trade_key, generation FROM restock_generations"
+        );
+
+        loadGenerationStmt = connection.prepareStatement(
+                "SELECT generation FROM restock_generations WHERE shop_id = ? AND trade_key = ?"
+        );
+
+        incrementGenerationStmt = connection.prepareStatement("""
+                INSERT INTO restock_generations (shop_id, trade_key, generation)
+                VALUES (?, ?, 1)
+                ON CONFLICT(shop_id, trade_key)
+                DO UPDATE SET generation = generation + 1
+                """);
+
+        // Delete one trade's rows written before its latest restock (all players)
+        deleteSupersededTradeStmt = connection.prepareStatement(
+                "DELETE FROM player_trades WHERE shop_id = ? AND trade_key = ? AND generation < ?"
+        );
+
         // Pool rotation state statements
         loadAllRotationStatesStmt = connection.prepareStatement(
                 "SELECT shop_id, pool_name, period_index, active_items, advances_at FROM pool_rotation_state"
@@ -248,6 +394,26 @@ public class SQLiteDataStore implements DataStore {
         deleteRotationStateStmt = connection.prepareStatement(
                 "DELETE FROM pool_rotation_state WHERE shop_id = ? AND pool_name = ?"
         );
+
+        // Change log statements
+        appendChangeStmt = connection.prepareStatement("""
+                INSERT INTO change_log (server_id, scope, shop_id, change_key, player_uuid, created_at)
+                VALUES (?, ?, ?, ?, ?, ?)
+                """);
+
+        lastInsertIdStmt = connection.prepareStatement("SELECT last_insert_rowid()");
+
+        loadChangesSinceStmt = connection.prepareStatement(
+                "SELECT * FROM change_log WHERE id > ? ORDER BY id LIMIT ?"
+        );
+
+        latestChangeIdStmt = connection.prepareStatement(
+                "SELECT COALESCE(MAX(id), 0) FROM change_log"
+        );
+
+        pruneChangeLogStmt = connection.prepareStatement(
+                "DELETE FROM change_log WHERE created_at < ?"
+        );
     }
 
     @Override
@@ -265,7 +431,7 @@ public class SQLiteDataStore implements DataStore {
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading trade data", e);
+            logger.log(Level.SEVERE, "Error loading trade data", e);
         }
 
         return null;
@@ -285,7 +451,7 @@ public class SQLiteDataStore implements DataStore {
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading player data", e);
+            logger.log(Level.SEVERE, "Error loading player data", e);
         }
 
         return result;
@@ -306,7 +472,7 @@ public class SQLiteDataStore implements DataStore {
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading player shop data", e);
+            logger.log(Level.SEVERE, "Error loading player shop data", e);
         }
 
         return result;
@@ -317,56 +483,61 @@ public class SQLiteDataStore implements DataStore {
         if (!operational) return;
 
         try {
-            upsertTradeStmt.setString(1, data.getPlayerId().toString());
-            upsertTradeStmt.setString(2, data.getShopId());
-            upsertTradeStmt.setString(3, data.getTradeKey());
-            upsertTradeStmt.setInt(4, data.getTradesUsed());
-            upsertTradeStmt.setLong(5, data.getLastResetEpoch());
-            upsertTradeStmt.setInt(6, data.getCooldownSeconds());
-
+            bindTradeRow(data, null);
             upsertTradeStmt.executeUpdate();
 
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error saving trade data", e);
+            fail("Error saving trade data", e);
         }
     }
 
     @Override
-    public synchronized void batchSaveTradeData(List<PlayerTradeData> dataList) {
-        if (!operational || dataList.isEmpty()) return;
+    public synchronized int batchSaveTradeData(List<PlayerTradeData> dataList, WriteFence fence) {
+        if (!operational || dataList.isEmpty()) return 0;
 
         try {
             connection.setAutoCommit(false);
 
             for (PlayerTradeData data : dataList) {
-                upsertTradeStmt.setString(1, data.getPlayerId().toString());
-                upsertTradeStmt.setString(2, data.getShopId());
-                upsertTradeStmt.setString(3, data.getTradeKey());
-                upsertTradeStmt.setInt(4, data.getTradesUsed());
-                upsertTradeStmt.setLong(5, data.getLastResetEpoch());
-                upsertTradeStmt.setInt(6, data.getCooldownSeconds());
+                bindTradeRow(data, fence);
                 upsertTradeStmt.addBatch();
             }
 
-            upsertTradeStmt.executeBatch();
+            int written = countWritten(upsertTradeStmt.executeBatch());
             connection.commit();
             connection.setAutoCommit(true);
 
-            if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Batch saved " + dataList.size() + " trade entries");
+            if (debugMode.getAsBoolean()) {
+                logger.info("Batch saved " + written + "/" + dataList.size() + " trade entries");
             }
+            return written;
 
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error batch saving trade data", e);
+            logger.log(Level.SEVERE, "Error batch saving trade data", e);
             try {
                 connection.rollback();
                 connection.setAutoCommit(true);
             } catch (SQLException ex) {
-                plugin.getLogger().log(Level.SEVERE, "Error rolling back transaction", ex);
+                logger.log(Level.SEVERE, "Error rolling back transaction", ex);
             }
+            return 0;
         }
     }
 
+    private void bindTradeRow(PlayerTradeData data, WriteFence fence) throws SQLException {
+        upsertTradeStmt.setString(1, data.getPlayerId().toString());
+        upsertTradeStmt.setString(2, data.getShopId());
+        upsertTradeStmt.setString(3, data.getTradeKey());
+        upsertTradeStmt.setInt(4, data.getTradesUsed());
+        upsertTradeStmt.setLong(5, data.getLastResetEpoch());
+        upsertTradeStmt.setInt(6, data.getCooldownSeconds());
+        upsertTradeStmt.setInt(7, data.getGeneration());
+        bindFence(upsertTradeStmt, 8, fence);
+        upsertTradeStmt.setString(11, data.getPlayerId().toString());
+        upsertTradeStmt.setString(12, data.getShopId());
+        upsertTradeStmt.setString(13, data.getTradeKey());
+    }
+
     @Override
     public synchronized void deleteTradeData(UUID playerId, String shopId, String tradeKey) {
         if (!operational) return;
@@ -377,7 +548,7 @@ public class SQLiteDataStore implements DataStore {
             deleteTradeStmt.setString(3, tradeKey);
             deleteTradeStmt.executeUpdate();
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting trade data", e);
+            fail("Error deleting trade data", e);
         }
     }
 
@@ -391,10 +562,10 @@ public class SQLiteDataStore implements DataStore {
             // Only log actual deletes — no-op deletes (e.g. stress cleanup for players that
             // never had any recorded trades) would otherwise spam one line per call.
             if (deleted > 0) {
-                plugin.getLogger().info("Deleted " + deleted + " trade entries for player " + playerId);
+                logger.info("Deleted " + deleted + " trade entries for player " + playerId);
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting player data", e);
+            fail("Error deleting player data", e);
         }
     }
 
@@ -407,7 +578,7 @@ public class SQLiteDataStore implements DataStore {
             deletePlayerShopStmt.setString(2, shopId);
             deletePlayerShopStmt.executeUpdate();
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting player shop data", e);
+            fail("Error deleting player shop data", e);
         }
     }
 
@@ -420,10 +591,25 @@ public class SQLiteDataStore implements DataStore {
             deleteShopTradeStmt.setString(2, tradeKey);
             int deleted = deleteShopTradeStmt.executeUpdate();
             if (deleted > 0) {
-                plugin.getLogger().info("Deleted " + deleted + " player trade entries for " + shopId + ":" + tradeKey);
+                logger.info("Deleted " + deleted + " player trade entries for " + shopId + ":" + tradeKey);
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting shop trade data", e);
+            fail("Error deleting shop trade data", e);
+        }
+    }
+
+    @Override
+    public synchronized int deleteStaleTradeData(String shopId, String tradeKey, long resetBefore) {
+        if (!operational) return 0;
+
+        try {
+            deleteStaleTradeStmt.setString(1, shopId);
+            deleteStaleTradeStmt.setString(2, tradeKey);
+            deleteStaleTradeStmt.setLong(3, resetBefore);
+            return deleteStaleTradeStmt.executeUpdate();
+        } catch (SQLException e) {
+            fail("Error deleting stale trade data", e);
+            return 0;
         }
     }
 
@@ -435,10 +621,10 @@ public class SQLiteDataStore implements DataStore {
             deleteShopStmt.setString(1, shopId);
             int deleted = deleteShopStmt.executeUpdate();
             if (deleted > 0) {
-                plugin.getLogger().info("Deleted " + deleted + " orphaned trade entries for shop " + shopId);
+                logger.info("Deleted " + deleted + " orphaned trade entries for shop " + shopId);
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting shop data", e);
+            fail("Error deleting shop data", e);
         }
     }
 
@@ -453,11 +639,11 @@ public class SQLiteDataStore implements DataStore {
                     UUID playerId = UUID.fromString(rs.getString("player_uuid"));
                     result.add(playerId);
                 } catch (IllegalArgumentException e) {
-                    plugin.getLogger().warning("Invalid UUID in database: " + rs.getString("player_uuid"));
+                    logger.warning("Invalid UUID in database: " + rs.getString("player_uuid"));
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error getting all players", e);
+            logger.log(Level.SEVERE, "Error getting all players", e);
         }
 
         return result;
@@ -479,7 +665,7 @@ public class SQLiteDataStore implements DataStore {
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading global trade data", e);
+            logger.log(Level.SEVERE, "Error loading global trade data", e);
         }
 
         return null;
@@ -499,7 +685,7 @@ public class SQLiteDataStore implements DataStore {
                 }
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading global shop data", e);
+            logger.log(Level.SEVERE, "Error loading global shop data", e);
         }
 
         return result;
@@ -510,54 +696,77 @@ public class SQLiteDataStore implements DataStore {
         if (!operational) return;
 
         try {
-            upsertGlobalTradeStmt.setString(1, data.getShopId());
-            upsertGlobalTradeStmt.setString(2, data.getTradeKey());
-            upsertGlobalTradeStmt.setInt(3, data.getTradesUsed());
-            upsertGlobalTradeStmt.setLong(4, data.getLastResetEpoch());
-            upsertGlobalTradeStmt.setInt(5, data.getCooldownSeconds());
-
+            bindGlobalRow(data, null);
             upsertGlobalTradeStmt.executeUpdate();
 
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error saving global trade data", e);
+            fail("Error saving global trade data", e);
         }
     }
 
     @Override
-    public synchronized void batchSaveGlobalTradeData(List<GlobalTradeData> dataList) {
-        if (!operational || dataList.isEmpty()) return;
+    public synchronized int batchSaveGlobalTradeData(List<GlobalTradeData> dataList, WriteFence fence) {
+        if (!operational || dataList.isEmpty()) return 0;
 
         try {
             connection.setAutoCommit(false);
 
             for (GlobalTradeData data : dataList) {
-                upsertGlobalTradeStmt.setString(1, data.getShopId());
-                upsertGlobalTradeStmt.setString(2, data.getTradeKey());
-                upsertGlobalTradeStmt.setInt(3, data.getTradesUsed());
-                upsertGlobalTradeStmt.setLong(4, data.getLastResetEpoch());
-                upsertGlobalTradeStmt.setInt(5, data.getCooldownSeconds());
+                bindGlobalRow(data, fence);
                 upsertGlobalTradeStmt.addBatch();
             }
 
-            upsertGlobalTradeStmt.executeBatch();
+            int written = countWritten(upsertGlobalTradeStmt.executeBatch());
             connection.commit();
             connection.setAutoCommit(true);
 
-            if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Batch saved " + dataList.size() + " global trade entries");
+            if (debugMode.getAsBoolean()) {
+                logger.info("Batch saved " + written + "/" + dataList.size() + " global trade entries");
             }
+            return written;
 
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error batch saving global trade data", e);
+            logger.log(Level.SEVERE, "Error batch saving global trade data", e);
             try {
                 connection.rollback();
                 connection.setAutoCommit(true);
             } catch (SQLException ex) {
-                plugin.getLogger().log(Level.SEVERE, "Error rolling back transaction", ex);
+                logger.log(Level.SEVERE, "Error rolling back transaction", ex);
             }
+            return 0;
         }
     }
 
+    private void bindGlobalRow(GlobalTradeData data, WriteFence fence) throws SQLException {
+        upsertGlobalTradeStmt.setString(1, data.getShopId());
+        upsertGlobalTradeStmt.setString(2, data.getTradeKey());
+        upsertGlobalTradeStmt.setInt(3, data.getTradesUsed());
+        upsertGlobalTradeStmt.setLong(4, data.getLastResetEpoch());
+        upsertGlobalTradeStmt.setInt(5, data.getCooldownSeconds());
+        bindFence(upsertGlobalTradeStmt, 6, fence);
+        upsertGlobalTradeStmt.setString(9, data.getShopId());
+        upsertGlobalTradeStmt.setString(10, data.getTradeKey());
+    }
+
+    /**
+     * Binds the three fence parameters starting at {@code index}. Without a fence no change
+     * id can exceed {@link Long#MAX_VALUE}, so the row is always written.
+     */
+    private static void bindFence(PreparedStatement stmt, int index, WriteFence fence) throws SQLException {
+        stmt.setLong(index, fence != null ? fence.appliedThrough() : Long.MAX_VALUE);
+        stmt.setString(index + 1, fence != null ? fence.serverId() : "");
+        stmt.setLong(index + 2, fence != null ? fence.ownThrough() : 0L);
+    }
+
+    private static int countWritten(int[] updateCounts) {
+        int written = 0;
+        for (int count : updateCounts) {
+            // SUCCESS_NO_INFO still means the row went through
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) written++;
+        }
+        return written;
+    }
+
     @Override
     public synchronized void deleteGlobalTradeData(String shopId, String tradeKey) {
         if (!operational) return;
@@ -567,7 +776,7 @@ public class SQLiteDataStore implements DataStore {
             deleteGlobalTradeStmt.setString(2, tradeKey);
             deleteGlobalTradeStmt.executeUpdate();
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting global trade data", e);
+            fail("Error deleting global trade data", e);
         }
     }
 
@@ -579,10 +788,93 @@ public class SQLiteDataStore implements DataStore {
             deleteGlobalShopStmt.setString(1, shopId);
             int deleted = deleteGlobalShopStmt.executeUpdate();
             if (deleted > 0) {
-                plugin.getLogger().info("Deleted " + deleted + " global trade entries for shop " + shopId);
+                logger.info("Deleted " + deleted + " global trade entries for shop " + shopId);
+            }
+        } catch (SQLException e) {
+            fail("Error deleting global shop data", e);
+        }
+    }
+
+    // === Restock generation methods ===
+
+    @Override
+    public synchronized Map<String, Map<String, Integer>> loadRestockGenerations() {
+        Map<String, Map<String, Integer>> result = new HashMap<>();
+        if (!operational) return result;
+
+        try (ResultSet rs = loadGenerationsStmt.executeQuery()) {
+            while (rs.next()) {
+                result.computeIfAbsent(rs.getString("shop_id"), k -> new HashMap<>())
+                        .put(rs.getString("trade_key"), rs.getInt("generation"));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error loading restock generations", e);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int loadRestockGeneration(String shopId, String tradeKey) {
+        if (!operational) return 0;
+
+        try {
+            loadGenerationStmt.setString(1, shopId);
+            loadGenerationStmt.setString(2, tradeKey);
+            try (ResultSet rs = loadGenerationStmt.executeQuery()) {
+                return rs.next() ? rs.getInt("generation") : 0;
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting global shop data", e);
+            logger.log(Level.SEVERE, "Error loading restock generation", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized int incrementRestockGeneration(String shopId, String tradeKey) {
+        if (!operational) return -1;
+
+        try {
+            // Increment and read back in one transaction so a second server sharing the file
+            // can't slip its own increment in between.
+            connection.setAutoCommit(false);
+            incrementGenerationStmt.setString(1, shopId);
+            incrementGenerationStmt.setString(2, tradeKey);
+            incrementGenerationStmt.executeUpdate();
+
+            loadGenerationStmt.setString(1, shopId);
+            loadGenerationStmt.setString(2, tradeKey);
+            int generation;
+            try (ResultSet rs = loadGenerationStmt.executeQuery()) {
+                generation = rs.next() ? rs.getInt("generation") : -1;
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            return generation;
+
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error incrementing restock generation", e);
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, "Error rolling back transaction", ex);
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized int deleteSupersededTradeData(String shopId, String tradeKey, int generation) {
+        if (!operational) return 0;
+
+        try {
+            deleteSupersededTradeStmt.setString(1, shopId);
+            deleteSupersededTradeStmt.setString(2, tradeKey);
+            deleteSupersededTradeStmt.setInt(3, generation);
+            return deleteSupersededTradeStmt.executeUpdate();
+        } catch (SQLException e) {
+            fail("Error deleting superseded trade data", e);
+            return 0;
         }
     }
 
@@ -604,7 +896,7 @@ public class SQLiteDataStore implements DataStore {
                 result.add(new RotationState(shopId, poolName, periodIndex, activeItems, advancesAt));
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error loading pool rotation states", e);
+            logger.log(Level.SEVERE, "Error loading pool rotation states", e);
         }
         return result;
     }
@@ -620,7 +912,7 @@ public class SQLiteDataStore implements DataStore {
             upsertRotationStateStmt.setLong(5, state.getAdvancesAt());
             upsertRotationStateStmt.executeUpdate();
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error saving pool rotation state", e);
+            fail("Error saving pool rotation state", e);
         }
     }
 
@@ -632,7 +924,108 @@ public class SQLiteDataStore implements DataStore {
             deleteRotationStateStmt.setString(2, poolName);
             deleteRotationStateStmt.executeUpdate();
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error deleting pool rotation state", e);
+            fail("Error deleting pool rotation state", e);
+        }
+    }
+
+    // === Change log methods ===
+
+    @Override
+    public synchronized long appendChange(ChangeLogEntry entry) {
+        if (!operational) return 0L;
+        try {
+            appendChangeStmt.setString(1, entry.serverId());
+            appendChangeStmt.setString(2, entry.scope().name());
+            appendChangeStmt.setString(3, entry.shopId());
+            appendChangeStmt.setString(4, entry.key());
+            appendChangeStmt.setString(5, entry.playerId() != null ? entry.playerId().toString() : null);
+            appendChangeStmt.setLong(6, entry.createdAt());
+            appendChangeStmt.executeUpdate();
+            try (ResultSet rs = lastInsertIdStmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        } catch (SQLException e) {
+            fail("Error appending change log entry", e);
+            return 0L;
+        }
+    }
+
+    @Override
+    public synchronized void atomically(Runnable work) {
+        if (!operational) {
+            work.run();
+            return;
+        }
+        try {
+            connection.setAutoCommit(false);
+            inTransaction = true;
+            try {
+                work.run();
+                connection.commit();
+            } catch (RuntimeException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                inTransaction = false;
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error committing atomic change", e);
+        }
+    }
+
+    /**
+     * Reports a failed write: logged outside a transaction, thrown inside {@link #atomically}
+     * so the whole transaction rolls back.
+     */
+    private void fail(String message, SQLException e) {
+        if (inTransaction) {
+            throw new IllegalStateException(message, e);
+        }
+        logger.log(Level.SEVERE, message, e);
+    }
+
+    @Override
+    public synchronized List<ChangeLogEntry> loadChangesSince(long afterId, int limit) {
+        List<ChangeLogEntry> result = new ArrayList<>();
+        if (!operational) return result;
+
+        try {
+            loadChangesSinceStmt.setLong(1, afterId);
+            loadChangesSinceStmt.setInt(2, limit);
+
+            try (ResultSet rs = loadChangesSinceStmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(extractChangeLogEntry(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error loading change log entries", e);
+        }
+
+        return result;
+    }
+
+    @Override
+    public synchronized long latestChangeId() {
+        if (!operational) return 0L;
+        try (ResultSet rs = latestChangeIdStmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error reading latest change log id", e);
+            return 0L;
+        }
+    }
+
+    @Override
+    public synchronized int pruneChangeLog(long olderThanEpoch) {
+        if (!operational) return 0;
+        try {
+            pruneChangeLogStmt.setLong(1, olderThanEpoch);
+            return pruneChangeLogStmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error pruning change log", e);
+            return 0;
         }
     }
 
@@ -643,15 +1036,16 @@ public class SQLiteDataStore implements DataStore {
 
     @Override
     public synchronized TableCounts countRows() {
-        if (!operational) return new TableCounts(0, 0, 0);
+        if (!operational) return new TableCounts(0, 0, 0, 0);
         try (Statement stmt = connection.createStatement()) {
             long playerTrades = scalarCount(stmt, "SELECT COUNT(*) FROM player_trades");
             long globalTrades = scalarCount(stmt, "SELECT COUNT(*) FROM global_trades");
             long rotationStates = scalarCount(stmt, "SELECT COUNT(*) FROM pool_rotation_state");
-            return new TableCounts(playerTrades, globalTrades, rotationStates);
+            long changeLog = scalarCount(stmt, "SELECT COUNT(*) FROM change_log");
+            return new TableCounts(playerTrades, globalTrades, rotationStates, changeLog);
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "Error counting rows", e);
-            return new TableCounts(-1, -1, -1);
+            logger.log(Level.WARNING, "Error counting rows", e);
+            return new TableCounts(-1, -1, -1, -1);
         }
     }
 
@@ -673,6 +1067,7 @@ public class SQLiteDataStore implements DataStore {
             if (deletePlayerStmt != null) deletePlayerStmt.close();
             if (deletePlayerShopStmt != null) deletePlayerShopStmt.close();
             if (deleteShopTradeStmt != null) deleteShopTradeStmt.close();
+            if (deleteStaleTradeStmt != null) deleteStaleTradeStmt.close();
             if (deleteShopStmt != null) deleteShopStmt.close();
             if (getAllPlayersStmt != null) getAllPlayersStmt.close();
             if (loadGlobalTradeStmt != null) loadGlobalTradeStmt.close();
@@ -680,20 +1075,29 @@ public class SQLiteDataStore implements DataStore {
             if (upsertGlobalTradeStmt != null) upsertGlobalTradeStmt.close();
             if (deleteGlobalTradeStmt != null) deleteGlobalTradeStmt.close();
             if (deleteGlobalShopStmt != null) deleteGlobalShopStmt.close();
+            if (loadGenerationsStmt != null) loadGenerationsStmt.close();
+            if (loadGenerationStmt != null) loadGenerationStmt.close();
+            if (incrementGenerationStmt != null) incrementGenerationStmt.close();
+            if (deleteSupersededTradeStmt != null) deleteSupersededTradeStmt.close();
             if (loadAllRotationStatesStmt != null) loadAllRotationStatesStmt.close();
             if (upsertRotationStateStmt != null) upsertRotationStateStmt.close();
             if (deleteRotationStateStmt != null) deleteRotationStateStmt.close();
+            if (appendChangeStmt != null) appendChangeStmt.close();
+            if (lastInsertIdStmt != null) lastInsertIdStmt.close();
+            if (loadChangesSinceStmt != null) loadChangesSinceStmt.close();
+            if (latestChangeIdStmt != null) latestChangeIdStmt.close();
+            if (pruneChangeLogStmt != null) pruneChangeLogStmt.close();
 
             // Close connection
             if (connection != null && !connection.isClosed()) {
                 connection.close();
-                plugin.getLogger().info("SQLite database connection closed");
+                logger.info("SQLite database connection closed");
             }
 
             operational = false;
 
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Error closing database connection", e);
+            logger.log(Level.SEVERE, "Error closing database connection", e);
         }
     }
 
@@ -707,8 +1111,9 @@ public class SQLiteDataStore implements DataStore {
         int tradesUsed = rs.getInt("trades_used");
         long lastResetEpoch = rs.getLong("last_reset_epoch");
         int cooldownSeconds = rs.getInt("cooldown_seconds");
+        int generation = rs.getInt("generation");
 
-        return new PlayerTradeData(playerId, shopId, tradeKey, tradesUsed, lastResetEpoch, cooldownSeconds);
+        return new PlayerTradeData(playerId, shopId, tradeKey, tradesUsed, lastResetEpoch, cooldownSeconds, generation);
     }
 
     /**
@@ -723,4 +1128,30 @@ public class SQLiteDataStore implements DataStore {
 
         return new GlobalTradeData(shopId, tradeKey, tradesUsed, lastResetEpoch, cooldownSeconds);
     }
+
+    /**
+     * Extracts a ChangeLogEntry from a ResultSet.
+     * Unknown scopes (written by a newer plugin version) come back with a null scope so the
+     * caller can still advance its cursor past them.
+     */
+    private ChangeLogEntry extractChangeLogEntry(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        String serverId = rs.getString("server_id");
+        ChangeLogEntry.Scope scope = ChangeLogEntry.Scope.fromString(rs.getString("scope"));
+        String shopId = rs.getString("shop_id");
+        String key = rs.getString("change_key");
+        long createdAt = rs.getLong("created_at");
+
+        UUID playerId = null;
+        String rawPlayer = rs.getString("player_uuid");
+        if (rawPlayer != null) {
+            try {
+                playerId = UUID.fromString(rawPlayer);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid UUID in change log: " + rawPlayer);
+            }
+        }
+
+        return new ChangeLogEntry(id, serverId, scope, shopId, key, playerId, createdAt);
+    }
 }
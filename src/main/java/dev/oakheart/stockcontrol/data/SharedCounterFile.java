@@ -0,0 +1,267 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size, memory-mapped table of global stock counters shared by every JVM on the same
+ * host that maps the same file. Used as the backing store of {@link GlobalTradeData} when
+ * {@code shared-memory-file} is configured, so cross-server admission for shared stock is a
+ * single CAS on shared memory instead of a database round trip.
+ *
+ * <p>Layout (native byte order, all fields 8-byte aligned):
+ * <pre>
+ *   header (64 bytes): magic, version, slot count
+ *   slot   (64 bytes each, one cache line to avoid false sharing):
+ *     +0  key   — 64-bit hash of "shopId:tradeKey", 0 = free
+ *     +8  state — (lastResetEpoch &lt;&lt; 32) | tradesUsed
+ * </pre>
+ *
+ * <p>The slot directory is open-addressed on the key hash; slots are claimed by CAS'ing the key
+ * from 0 and are never released (the table is sized for every configured shared trade). The
+ * reset epoch and the used count live in one 64-bit word so a period reset and an increment
+ * are a single atomic transition — a reader can never see a fresh count with a stale epoch.
+ *
+ * <p>Crash safety: every mutation is one CAS, so a process dying mid-trade leaves either the
+ * old or the new state. Header initialization happens under a file lock and writes the magic
+ * last, so a crash during setup is detected and redone by the next process. The database
+ * remains the durable copy — counters are flushed there as before, and slots that come up
+ * empty (e.g. after a reboot cleared {@code /dev/shm}) are seeded from it.
+ */
+public final class SharedCounterFile implements AutoCloseable {
+
+    private static final long MAGIC = 0x5353435343545231L; // "SSCSCTR1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 64;
+    private static final int KEY_OFFSET = 0;
+    private static final int STATE_OFFSET = 8;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int mask;
+    private final AtomicInteger claimedSlots = new AtomicInteger();
+
+    private SharedCounterFile(Path path, FileChannel channel, MappedByteBuffer buffer, int slotCount) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Maps (creating if needed) the counter file.
+     *
+     * @param path      File shared by every server on the host (e.g. under /dev/shm)
+     * @param slotCount Requested number of slots; rounded up to a power of two
+     * @return The mapped file
+     * @throws IOException if the file can't be mapped, or it was created with another slot count
+     */
+    public static SharedCounterFile open(Path path, int slotCount) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(64, slotCount - 1)) << 1;
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer;
+            // Serialize header validation/initialization across processes.
+            try (FileLock ignored = channel.lock()) {
+                if (channel.size() < size) {
+                    // Extending with zeroes never disturbs an existing valid table of this size.
+                    channel.write(java.nio.ByteBuffer.wrap(new byte[1]), size - 1);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+                long magic = (long) LONGS.getVolatile(buffer, 0);
+                if (magic == MAGIC) {
+                    int version = (int) INTS.getVolatile(buffer, 8);
+                    int existingSlots = (int) INTS.getVolatile(buffer, 12);
+                    if (version != VERSION || existingSlots != slots) {
+                        throw new IOException("Shared counter file " + path + " has version " + version
+                                + " with " + existingSlots + " slots; expected version " + VERSION
+                                + " with " + slots + " slots. Align shared-memory-slots on every server"
+                                + " or delete the file while all servers are stopped.");
+                    }
+                } else {
+                    // Fresh file, or a previous process died mid-initialization: zero everything,
+                    // then publish the magic last so nobody attaches to a half-written table.
+                    for (long offset = 0; offset < size; offset += 8) {
+                        LONGS.setVolatile(buffer, (int) offset, 0L);
+                    }
+                    INTS.setVolatile(buffer, 8, VERSION);
+                    INTS.setVolatile(buffer, 12, slots);
+                    LONGS.setVolatile(buffer, 0, MAGIC);
+                    buffer.force();
+                }
+            }
+
+            SharedCounterFile file = new SharedCounterFile(path, channel, buffer, slots);
+            file.claimedSlots.set(file.countClaimed());
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds or claims the slot for a (shop, trade) pair.
+     *
+     * @return Slot index, or -1 if the table is full
+     */
+    public int slotFor(String shopId, String tradeKey) {
+        long key = hashKey(shopId, tradeKey);
+        int start = (int) (key ^ (key >>> 32)) & mask;
+        for (int probe = 0; probe < slotCount; probe++) {
+            int slot = (start + probe) & mask;
+            int offset = slotOffset(slot) + KEY_OFFSET;
+            long existing = (long) LONGS.getVolatile(buffer, offset);
+            if (existing == key) return slot;
+            if (existing == 0L) {
+                if (LONGS.compareAndSet(buffer, offset, 0L, key)) {
+                    claimedSlots.incrementAndGet();
+                    return slot;
+                }
+                // Lost the race — re-check whether the winner claimed it for the same key.
+                if ((long) LONGS.getVolatile(buffer, offset) == key) return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Seeds a slot from persisted values if nobody has written it yet. Any write sets a
+     * non-zero epoch, so a zero state means "never used since the file was created".
+     */
+    public void seedIfEmpty(int slot, int tradesUsed, long lastResetEpoch) {
+        LONGS.compareAndSet(buffer, stateOffset(slot), 0L, pack(lastResetEpoch, tradesUsed));
+    }
+
+    public int used(int slot) {
+        return unpackUsed((long) LONGS.getVolatile(buffer, stateOffset(slot)));
+    }
+
+    public long lastResetEpoch(int slot) {
+        return unpackEpoch((long) LONGS.getVolatile(buffer, stateOffset(slot)));
+    }
+
+    /**
+     * Atomically admits one trade if the counter is below {@code max}. A counter whose epoch is
+     * below {@code resetBefore} belongs to an expired period and is treated as 0 — the reset
+     * and the increment happen in the same CAS.
+     *
+     * @param max         Stock cap for the period
+     * @param resetBefore Epochs strictly below this are expired ({@link Long#MIN_VALUE} = never)
+     * @param now         Current epoch second, stored as the new reset epoch on expiry
+     * @return The new used count, or -1 if the stock is exhausted
+     */
+    public int tryAcquire(int slot, int max, long resetBefore, long now) {
+        int offset = stateOffset(slot);
+        while (true) {
+            long state = (long) LONGS.getVolatile(buffer, offset);
+            long epoch = unpackEpoch(state);
+            int used = unpackUsed(state);
+            if (epoch == 0L || epoch < resetBefore) {
+                epoch = now;
+                used = 0;
+            }
+            if (used >= max) return -1;
+            if (LONGS.compareAndSet(buffer, offset, state, pack(epoch, used + 1))) {
+                return used + 1;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces both fields (restock / period reset).
+     */
+    public void set(int slot, int tradesUsed, long lastResetEpoch) {
+        LONGS.setVolatile(buffer, stateOffset(slot), pack(lastResetEpoch, tradesUsed));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Slots claimed by any process (approximate — other processes' claims after we
+     * opened the file are only counted once we probe past them).
+     */
+    public int claimedSlotCount() {
+        return claimedSlots.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself stays valid until GC; other processes keep their own mappings.
+        channel.close();
+    }
+
+    private int countClaimed() {
+        int claimed = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if ((long) LONGS.getVolatile(buffer, slotOffset(slot) + KEY_OFFSET) != 0L) claimed++;
+        }
+        return claimed;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static int stateOffset(int slot) {
+        return slotOffset(slot) + STATE_OFFSET;
+    }
+
+    private static long pack(long epoch, int used) {
+        return (epoch << 32) | (used & 0xFFFFFFFFL);
+    }
+
+    private static long unpackEpoch(long state) {
+        return state >>> 32;
+    }
+
+    private static int unpackUsed(long state) {
+        return (int) state;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes of "shopId:tradeKey", never 0 (0 marks a free slot).
+     * A 64-bit hash makes directory collisions between distinct trades practically impossible.
+     */
+    private static long hashKey(String shopId, String tradeKey) {
+        byte[] bytes = (shopId + ":" + tradeKey).getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0L ? 1L : hash;
+    }
+}
@@ -177,6 +177,15 @@ public class ShopConfig {
         return allTradesByKey.get(tradeKey);
     }
 
+    /**
+     * Gets every tracked trade of this shop — static trades and pool items alike.
+     *
+     * @return Unmodifiable map of trade key to TradeConfig
+     */
+    public Map<String, TradeConfig> getAllTrades() {
+        return allTradesByKey;
+    }
+
     /**
      * Resolves which TradeConfig corresponds to a Shopkeepers source slot.
      * Covers both static trades and pool items, so the trade-completion listener can
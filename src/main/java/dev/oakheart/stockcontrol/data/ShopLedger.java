@@ -0,0 +1,293 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One player's per-player counters for every trade of one shop, stored as parallel primitive
+ * arrays indexed by the trade's {@link TradeHandle#getTradeOrdinal() per-shop ordinal}.
+ * Replaces one {@link PlayerTradeData} object (plus its cache key and atomic) per trade.
+ *
+ * <p>Each slot has a state byte: {@code KNOWN} once the database has been consulted for it,
+ * {@code PRESENT} if a row exists (or was created by a trade), and {@code DIRTY} if it has
+ * changes not yet flushed. An unknown slot is loaded on first access; a known-but-absent slot
+ * answers "never traded" without touching the database again.
+ *
+ * <p>Every slot also records the {@link TradeHandle#generation() restock generation} its count
+ * was written under. A restock only bumps the generation; the manager treats a slot from an
+ * older generation as unused, so no ledger has to be visited to reset it.
+ *
+ * <p>Concurrency: readers (the packet thread rendering offers, placeholders) are lock-free and
+ * use acquire reads. Every write — including the copy-on-grow when a reload adds trades to the
+ * shop — runs under this object's monitor, so no write can land in an array that is being
+ * replaced, and {@link #tryAcquire} checks the cap and increments as one step. The monitor is
+ * uncontended in practice: a player's ledger is only mutated by that player's own trades, by
+ * loads of that player's rows, and by admin resets.
+ *
+ * <p>Every write also bumps a {@link #version() version stamp}, so a cached merchant render
+ * can tell whether anything it was built from changed without re-reading the slots.
+ */
+public final class ShopLedger {
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private static final byte KNOWN = 1;
+    private static final byte PRESENT = 2;
+    private static final byte DIRTY = 4;
+
+    private final UUID playerId;
+    private final String shopId;
+    private final int shopOrdinal;
+
+    // Replaced as a unit on growth (under the monitor) so readers never see mismatched lengths.
+    private volatile Slots slots;
+
+    // Bumped after every write; written only under the monitor, so the increment can't race.
+    private volatile int version;
+
+    public ShopLedger(UUID playerId, String shopId, int shopOrdinal, int capacity) {
+        this.playerId = playerId;
+        this.shopId = shopId;
+        this.shopOrdinal = shopOrdinal;
+        this.slots = new Slots(Math.max(1, capacity));
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public String getShopId() {
+        return shopId;
+    }
+
+    public int getShopOrdinal() {
+        return shopOrdinal;
+    }
+
+    public int capacity() {
+        return slots.state.length;
+    }
+
+    /**
+     * @return A stamp that changes whenever any slot of this ledger is written
+     */
+    public int version() {
+        return version;
+    }
+
+    // ===== Reads (lock-free) =====
+
+    public boolean isKnown(int slot) {
+        return (state(slot) & KNOWN) != 0;
+    }
+
+    public boolean isPresent(int slot) {
+        return (state(slot) & PRESENT) != 0;
+    }
+
+    public int used(int slot) {
+        Slots s = slots;
+        return slot < s.used.length ? (int) INTS.getAcquire(s.used, slot) : 0;
+    }
+
+    public long lastReset(int slot) {
+        Slots s = slots;
+        return slot < s.lastReset.length ? (long) LONGS.getAcquire(s.lastReset, slot) : 0L;
+    }
+
+    public int cooldown(int slot) {
+        Slots s = slots;
+        return slot < s.cooldown.length ? (int) INTS.getAcquire(s.cooldown, slot) : 0;
+    }
+
+    public int generation(int slot) {
+        Slots s = slots;
+        return slot < s.generation.length ? (int) INTS.getAcquire(s.generation, slot) : 0;
+    }
+
+    private byte state(int slot) {
+        Slots s = slots;
+        return slot < s.state.length ? (byte) BYTES.getAcquire(s.state, slot) : 0;
+    }
+
+    // ===== Writes (under the monitor) =====
+
+    /**
+     * Installs a loaded database row (or records that there is none) unless the slot is
+     * already known — a concurrent trade or an earlier load wins.
+     *
+     * @param row The persisted row, or null if the database has none
+     */
+    public synchronized void load(int slot, PlayerTradeData row) {
+        Slots s = ensureCapacity(slot + 1);
+        if ((s.state[slot] & KNOWN) != 0) return;
+        if (row != null) {
+            INTS.setRelease(s.used, slot, row.getTradesUsed());
+            LONGS.setRelease(s.lastReset, slot, row.getLastResetEpoch());
+            INTS.setRelease(s.cooldown, slot, row.getCooldownSeconds());
+            INTS.setRelease(s.generation, slot, row.getGeneration());
+            BYTES.setRelease(s.state, slot, (byte) (KNOWN | PRESENT));
+        } else {
+            BYTES.setRelease(s.state, slot, KNOWN);
+        }
+        version++;
+    }
+
+    /**
+     * Admits one use of a slot if it is below {@code limit}, creating it (used 0, reset now)
+     * if the player never traded it. A count from a finished period or an older restock
+     * generation is treated as 0 and restarted at now in the same step, so the check and the
+     * increment can't interleave with another admission.
+     *
+     * @param cooldownSeconds Cooldown stamped on a newly created slot
+     * @param generation      The trade's current restock generation, stamped on the slot
+     * @param resetBefore     Reset epochs strictly below this are a finished period
+     *                        ({@link Long#MIN_VALUE} = never); ignored when {@code rolling}
+     * @param rolling         Expire by the slot's own cooldown instead of {@code resetBefore}
+     * @return The new used count, or -1 if the slot is at its limit
+     */
+    public synchronized int tryAcquire(int slot, int limit, long now, int cooldownSeconds, int generation,
+                                       long resetBefore, boolean rolling) {
+        Slots s = ensureCapacity(slot + 1);
+        boolean present = (s.state[slot] & PRESENT) != 0;
+        boolean restart = present && (s.generation[slot] < generation || (rolling
+                ? now - s.lastReset[slot] >= s.cooldown[slot]
+                : s.lastReset[slot] < resetBefore));
+        int used = present && !restart ? s.used[slot] : 0;
+        if (used >= limit) return -1;
+
+        if (!present) {
+            LONGS.setRelease(s.lastReset, slot, now);
+            INTS.setRelease(s.cooldown, slot, cooldownSeconds);
+        } else if (restart) {
+            LONGS.setRelease(s.lastReset, slot, now);
+        }
+        INTS.setRelease(s.generation, slot, generation);
+        INTS.setRelease(s.used, slot, used + 1);
+        BYTES.setRelease(s.state, slot, (byte) (KNOWN | PRESENT | DIRTY));
+        version++;
+        return used + 1;
+    }
+
+    /**
+     * Gives back a use admitted by {@link #tryAcquire} when the rest of the trade was refused.
+     * A slot that drops back to 0 gets a zero reset epoch, so its next admission starts a
+     * fresh period instead of inheriting the refused attempt's timestamp.
+     */
+    public synchronized void release(int slot) {
+        Slots s = slots;
+        if (slot >= s.state.length || (s.state[slot] & PRESENT) == 0 || s.used[slot] <= 0) return;
+        int used = s.used[slot] - 1;
+        INTS.setRelease(s.used, slot, used);
+        if (used == 0) {
+            LONGS.setRelease(s.lastReset, slot, 0L);
+        }
+        BYTES.setRelease(s.state, slot, (byte) (s.state[slot] | DIRTY));
+        version++;
+    }
+
+    /**
+     * Marks a slot as known-absent (its row was just deleted), dropping unflushed changes.
+     */
+    public synchronized void clear(int slot) {
+        Slots s = slots;
+        if (slot >= s.state.length) return;
+        BYTES.setRelease(s.state, slot, KNOWN);
+        version++;
+    }
+
+    /**
+     * Forgets a slot entirely (including unflushed changes) so the next access reloads it
+     * from the database. Used when another writer changed the row.
+     */
+    public synchronized void forget(int slot) {
+        Slots s = slots;
+        if (slot >= s.state.length) return;
+        BYTES.setRelease(s.state, slot, (byte) 0);
+        version++;
+    }
+
+    /**
+     * Snapshots every dirty slot into database rows and clears the dirty flags.
+     *
+     * @param handlesByOrdinal This shop's handles indexed by trade ordinal (for the trade keys)
+     * @return Rows to save (empty if nothing was dirty)
+     */
+    public synchronized List<PlayerTradeData> drainDirty(TradeHandle[] handlesByOrdinal) {
+        Slots s = slots;
+        List<PlayerTradeData> rows = new ArrayList<>();
+        for (int slot = 0; slot < s.state.length; slot++) {
+            byte state = s.state[slot];
+            if ((state & DIRTY) == 0) continue;
+            BYTES.setRelease(s.state, slot, (byte) (state & ~DIRTY));
+            TradeHandle handle = slot < handlesByOrdinal.length ? handlesByOrdinal[slot] : null;
+            if (handle == null || (state & PRESENT) == 0) continue;
+            rows.add(new PlayerTradeData(playerId, shopId, handle.getTradeKey(),
+                    s.used[slot], s.lastReset[slot], s.cooldown[slot], s.generation[slot]));
+        }
+        return rows;
+    }
+
+    // ===== Diagnostics =====
+
+    public int presentCount() {
+        return count(PRESENT);
+    }
+
+    public int dirtyCount() {
+        return count(DIRTY);
+    }
+
+    private int count(byte flag) {
+        Slots s = slots;
+        int n = 0;
+        for (int slot = 0; slot < s.state.length; slot++) {
+            if (((byte) BYTES.getAcquire(s.state, slot) & flag) != 0) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Grows the arrays (copy, then publish) if a reload added trades past the current size.
+     * Caller holds the monitor.
+     */
+    private Slots ensureCapacity(int required) {
+        Slots s = slots;
+        if (required <= s.state.length) return s;
+        Slots grown = s.copyOf(Math.max(required, s.state.length * 2));
+        slots = grown;
+        return grown;
+    }
+
+    private static final class Slots {
+        final int[] used;
+        final long[] lastReset;
+        final int[] cooldown;
+        final int[] generation;
+        final byte[] state;
+
+        Slots(int capacity) {
+            this(new int[capacity], new long[capacity], new int[capacity], new int[capacity], new byte[capacity]);
+        }
+
+        Slots(int[] used, long[] lastReset, int[] cooldown, int[] generation, byte[] state) {
+            this.used = used;
+            this.lastReset = lastReset;
+            this.cooldown = cooldown;
+            this.generation = generation;
+            this.state = state;
+        }
+
+        Slots copyOf(int capacity) {
+            return new Slots(Arrays.copyOf(used, capacity), Arrays.copyOf(lastReset, capacity),
+                    Arrays.copyOf(cooldown, capacity), Arrays.copyOf(generation, capacity),
+                    Arrays.copyOf(state, capacity));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package dev.oakheart.stockcontrol.data;
 
+import dev.oakheart.stockcontrol.util.ResetClock;
+
 /**
  * Represents the configuration for a single trade.
  * Uses a stable trade key that doesn't change even if trades are reordered.
@@ -15,6 +17,7 @@ public class TradeConfig {
     private final String resetTime;         // HH:mm for daily/weekly modes
     private final String resetDay;          // Day of week for weekly mode (e.g., "MONDAY")
     private final int maxPerPlayer;         // Per-player cap in shared mode (0 = no cap)
+    private final ResetClock.Spec resetSpec; // Parsed daily/weekly schedule (null for rolling/none)
 
     /**
      * Creates a new TradeConfig instance with explicit source slot.
@@ -41,6 +44,7 @@ public class TradeConfig {
         this.resetTime = resetTime;
         this.resetDay = resetDay;
         this.maxPerPlayer = maxPerPlayer;
+        this.resetSpec = ResetClock.forCooldown(cooldownMode, resetTime, resetDay);
     }
 
     /**
@@ -93,6 +97,15 @@ public class TradeConfig {
         return maxPerPlayer;
     }
 
+    /**
+     * Gets the pre-parsed reset schedule for daily/weekly modes.
+     *
+     * @return The interned spec, or null for rolling/none modes
+     */
+    public ResetClock.Spec getResetSpec() {
+        return resetSpec;
+    }
+
     @Override
     public String toString() {
         return "TradeConfig{" +
@@ -0,0 +1,148 @@
+package dev.oakheart.stockcontrol.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A (shop, trade) pair resolved once against the loaded config.
+ * Hot paths — merchant rebuilds, trade admission, placeholders — take a handle instead of two
+ * strings, so they skip the per-call shop/trade lookups and key concatenation.
+ *
+ * <p>The dense {@link #getId() id} is interned per "shopId:tradeKey" and never reused, so it
+ * stays stable across reloads. The shop ordinal and the trade's ordinal within its shop are
+ * interned the same way and index the per-player {@link PlayerLedger}. The handle also
+ * owns the slot holding its global (shared-stock) counter; a reload re-creates the handle
+ * with the new {@link TradeConfig} but carries the same slot over, so the counter survives.
+ *
+ * <p>Likewise it holds the restock generation counters of its shop and of the trade itself
+ * (shared by every handle of the shop / carried over on reload). A restock bumps one of them;
+ * per-player counts stamped with a smaller {@link #generation()} then read as unused.
+ */
+public final class TradeHandle {
+
+    private final int id;
+    private final int shopOrdinal;
+    private final int tradeOrdinal;
+    private final String shopId;
+    private final String tradeKey;
+    private final TradeConfig config;
+    private final boolean shared;
+    private final AtomicReference<GlobalTradeData> global;
+    private final AtomicInteger shopGeneration;
+    private final AtomicInteger tradeGeneration;
+
+    private TradeHandle(int id, int shopOrdinal, int tradeOrdinal, String shopId, String tradeKey,
+                        TradeConfig config, boolean shared, AtomicReference<GlobalTradeData> global,
+                        AtomicInteger shopGeneration, AtomicInteger tradeGeneration) {
+        this.id = id;
+        this.shopOrdinal = shopOrdinal;
+        this.tradeOrdinal = tradeOrdinal;
+        this.shopId = shopId;
+        this.tradeKey = tradeKey;
+        this.config = config;
+        this.shared = shared;
+        this.global = global;
+        this.shopGeneration = shopGeneration;
+        this.tradeGeneration = tradeGeneration;
+    }
+
+    /**
+     * Creates the first handle for an interned id.
+     *
+     * @param shopGeneration  The shop-wide restock generation (one instance per shop)
+     * @param tradeGeneration This trade's own restock generation
+     */
+    public static TradeHandle create(int id, int shopOrdinal, int tradeOrdinal, ShopConfig shop, TradeConfig config,
+                                     AtomicInteger shopGeneration, AtomicInteger tradeGeneration) {
+        return new TradeHandle(id, shopOrdinal, tradeOrdinal, shop.getShopId(), config.getTradeKey(), config,
+                shop.isShared(), new AtomicReference<>(), shopGeneration, tradeGeneration);
+    }
+
+    /**
+     * Returns a handle for the same id carrying a reloaded config. The global counter slot is
+     * shared with this handle, so callers still holding the old handle see the same counter.
+     */
+    public TradeHandle rebind(ShopConfig shop, TradeConfig config) {
+        return new TradeHandle(id, shopOrdinal, tradeOrdinal, shopId, tradeKey, config, shop.isShared(), global,
+                shopGeneration, tradeGeneration);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getShopOrdinal() {
+        return shopOrdinal;
+    }
+
+    public int getTradeOrdinal() {
+        return tradeOrdinal;
+    }
+
+    public String getShopId() {
+        return shopId;
+    }
+
+    public String getTradeKey() {
+        return tradeKey;
+    }
+
+    public TradeConfig getConfig() {
+        return config;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    // ===== Restock Generation =====
+
+    /**
+     * Effective restock generation: shop-wide plus per-trade. Both only grow, so the sum grows
+     * whenever either is bumped.
+     */
+    public int generation() {
+        return shopGeneration.get() + tradeGeneration.get();
+    }
+
+    public AtomicInteger shopGeneration() {
+        return shopGeneration;
+    }
+
+    public AtomicInteger tradeGeneration() {
+        return tradeGeneration;
+    }
+
+    // ===== Global Counter Slot =====
+
+    /**
+     * @return The resident global counter, or null if it hasn't been loaded (or was evicted)
+     */
+    public GlobalTradeData getGlobal() {
+        return global.get();
+    }
+
+    /**
+     * Installs a freshly loaded counter unless another thread got there first.
+     *
+     * @return The counter now resident — {@code data} or the winner of the race
+     */
+    public GlobalTradeData installGlobal(GlobalTradeData data) {
+        GlobalTradeData witness = global.compareAndExchange(null, data);
+        return witness != null ? witness : data;
+    }
+
+    /**
+     * Drops the resident counter (reset / invalidation).
+     *
+     * @return The counter that was resident, or null
+     */
+    public GlobalTradeData clearGlobal() {
+        return global.getAndSet(null);
+    }
+
+    @Override
+    public String toString() {
+        return "TradeHandle{" + id + " " + shopId + ":" + tradeKey + '}';
+    }
+}
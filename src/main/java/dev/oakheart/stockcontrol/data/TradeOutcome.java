@@ -0,0 +1,48 @@
+package dev.oakheart.stockcontrol.data;
+
+/**
+ * Result of one trade admission, built in the same pass that checked and counted it, so a
+ * caller can report the trade without reading any counter again (where another thread's
+ * trade may already have moved it).
+ *
+ * @param admitted   Whether the trade was admitted and counted
+ * @param limitedBy  The counter that refused the trade, or — when admitted — the one with the
+ *                   fewest uses left (the one whose reset frees the player up again)
+ * @param remaining  Uses left after this trade on the tighter counter (0 when refused;
+ *                   {@code TradeDataManager.UNLIMITED_REMAINING} for unlimited trades)
+ * @param displayMax Cap to show next to {@code remaining}: the per-player cap on shared trades
+ *                   that have one, otherwise the trade's max-trades (-1 = unlimited)
+ * @param resetEpoch Epoch second when {@code limitedBy} resets, or {@link #NEVER}
+ * @param resetTime  The trade's configured reset time, for display ("" for rolling cooldowns)
+ */
+public record TradeOutcome(boolean admitted, Counter limitedBy, int remaining, int displayMax,
+                           long resetEpoch, String resetTime) {
+
+    /** Reset epoch of a counter that never resets (cooldown mode NONE). */
+    public static final long NEVER = -1L;
+
+    /** The counters a trade can be limited by. */
+    public enum Counter {
+        /** The player's own count (the only counter of a per-player trade). */
+        PLAYER,
+        /** A shared shop's global stock. */
+        GLOBAL
+    }
+
+    public static TradeOutcome admitted(Counter limitedBy, int remaining, int displayMax,
+                                        long resetEpoch, String resetTime) {
+        return new TradeOutcome(true, limitedBy, remaining, displayMax, resetEpoch, resetTime);
+    }
+
+    public static TradeOutcome denied(Counter limitedBy, int displayMax, long resetEpoch, String resetTime) {
+        return new TradeOutcome(false, limitedBy, 0, displayMax, resetEpoch, resetTime);
+    }
+
+    /**
+     * @return Seconds from {@code now} until {@link #limitedBy} resets (0 if already due), or -1
+     *         if it never does
+     */
+    public long secondsUntilReset(long now) {
+        return resetEpoch == NEVER ? -1 : Math.max(0, resetEpoch - now);
+    }
+}
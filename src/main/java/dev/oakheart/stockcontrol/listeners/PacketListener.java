@@ -9,6 +9,7 @@ import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMe
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
 import dev.oakheart.stockcontrol.managers.PacketManager;
 import dev.oakheart.stockcontrol.managers.TradeDataManager;
+import dev.oakheart.stockcontrol.util.MerchantOfferEncoding;
 import org.bukkit.entity.Player;
 
 import java.util.List;
@@ -49,19 +50,18 @@ public class PacketListener extends PacketListenerAbstract {
         }
 
         try {
+            // Where the body starts, before the wrapper reads past it
+            int bodyStart = MerchantOfferEncoding.bodyStart(event.getByteBuf());
+
             // Wrap the packet
             WrapperPlayServerMerchantOffers packet = new WrapperPlayServerMerchantOffers(event);
 
-            // Cache original offers before modification (only on first packet after shop open)
-            if (packetManager.shouldCachePacket(player.getUniqueId())) {
-                packetManager.cachePacketData(player.getUniqueId(), packet);
+            // Let PacketManager modify the packet. It patches the encoded bytes itself when it
+            // can; otherwise the wrapper's changes only reach the buffer if we re-encode.
+            if (packetManager.modifyMerchantPacket(player, packet, event.getByteBuf(), bodyStart)) {
+                event.markForReEncode(true);
             }
 
-            // Let PacketManager modify the packet. Changes made via the wrapper's setters
-            // don't reach the outgoing buffer unless we flag the event for re-encoding.
-            packetManager.modifyMerchantPacket(player, packet);
-            event.markForReEncode(true);
-
             if (plugin.getConfigManager().isDebugMode()) {
                 plugin.getLogger().info("Intercepted and modified MERCHANT_OFFERS for " + player.getName());
             }
@@ -75,6 +75,8 @@ public class PacketListener extends PacketListenerAbstract {
      * Intercepts inbound trade-selection packets and remaps the client's UI slot back to the
      * Shopkeepers source slot for pools-enabled shops. Required because we reorder/filter the
      * outgoing offer list, so the client's "slot 4" no longer matches Shopkeepers' "slot 4".
+     * The resulting source slot is recorded so the trade event can resolve the traded slot
+     * directly.
      */
     @Override
     public void onPacketReceive(PacketReceiveEvent event) {
@@ -87,21 +89,24 @@ public class PacketListener extends PacketListenerAbstract {
             return;
         }
 
-        List<Integer> mapping = packetManager.getUiToSourceMap(player.getUniqueId());
-        if (mapping == null) {
-            // No rebuilt UI open — legacy path, indices already match.
-            return;
-        }
-
         try {
             WrapperPlayClientSelectTrade packet = new WrapperPlayClientSelectTrade(event);
             int uiSlot = packet.getSlot();
-            if (uiSlot < 0 || uiSlot >= mapping.size()) {
+
+            int[] mapping = packetManager.getUiToSourceMap(player.getUniqueId());
+            if (mapping == null) {
+                // No rebuilt UI open — legacy path, indices already match.
+                packetManager.recordSelection(player.getUniqueId(), uiSlot);
+                return;
+            }
+
+            if (uiSlot < 0 || uiSlot >= mapping.length) {
                 plugin.getLogger().warning("Player " + player.getName() + " selected UI slot "
-                        + uiSlot + " which is outside the rebuilt mapping (size " + mapping.size() + ")");
+                        + uiSlot + " which is outside the rebuilt mapping (size " + mapping.length + ")");
                 return;
             }
-            int sourceSlot = mapping.get(uiSlot);
+            int sourceSlot = mapping[uiSlot];
+            packetManager.recordSelection(player.getUniqueId(), sourceSlot);
             if (sourceSlot != uiSlot) {
                 packet.setSlot(sourceSlot);
                 event.markForReEncode(true);
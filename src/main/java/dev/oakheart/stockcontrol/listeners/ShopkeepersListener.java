@@ -1,21 +1,32 @@
 package dev.oakheart.stockcontrol.listeners;
 
+import com.nisovin.shopkeepers.api.events.ShopkeeperEditedEvent;
 import com.nisovin.shopkeepers.api.events.ShopkeeperOpenUIEvent;
+import com.nisovin.shopkeepers.api.events.ShopkeeperRemoveEvent;
 import com.nisovin.shopkeepers.api.events.ShopkeeperTradeEvent;
 import com.nisovin.shopkeepers.api.shopkeeper.Shopkeeper;
+import com.nisovin.shopkeepers.api.shopkeeper.TradingRecipe;
 import com.nisovin.shopkeepers.api.util.UnmodifiableItemStack;
 
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
+import dev.oakheart.stockcontrol.data.RecipeIndex;
 import dev.oakheart.stockcontrol.data.ShopConfig;
 import dev.oakheart.stockcontrol.data.TradeConfig;
+import dev.oakheart.stockcontrol.data.TradeHandle;
+import dev.oakheart.stockcontrol.data.TradeOutcome;
 import dev.oakheart.stockcontrol.managers.PacketManager;
 import dev.oakheart.stockcontrol.managers.TradeDataManager;
-import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.Merchant;
+import org.bukkit.inventory.MerchantInventory;
+import org.bukkit.inventory.MerchantRecipe;
 
+import java.util.List;
 import java.util.logging.Level;
 
 /**
@@ -27,12 +38,14 @@ public class ShopkeepersListener implements Listener {
     private final ShopkeepersStockControl plugin;
     private final PacketManager packetManager;
     private final TradeDataManager tradeDataManager;
+    private final TradeFeedback feedback;
 
     public ShopkeepersListener(ShopkeepersStockControl plugin, PacketManager packetManager,
                                 TradeDataManager tradeDataManager) {
         this.plugin = plugin;
         this.packetManager = packetManager;
         this.tradeDataManager = tradeDataManager;
+        this.feedback = new TradeFeedback(plugin, packetManager);
     }
 
     /**
@@ -56,6 +69,31 @@ public class ShopkeepersListener implements Listener {
         }
     }
 
+    /**
+     * Called when a player closes any inventory. Merchant closes drop the player's shop mapping
+     * (one tick later, so a close caused by opening another shopkeeper keeps the new mapping).
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        if (!(event.getInventory() instanceof MerchantInventory)) return;
+        if (!(event.getPlayer() instanceof Player player)) return;
+        plugin.getTaskScheduler().runForLater(player, () -> packetManager.handleMerchantClosed(player), 1L);
+    }
+
+    /**
+     * Drops a shop's recipe index once its offers were edited (or the shop removed), so the
+     * next lookup rebuilds it from the new offers.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onShopkeeperEdited(ShopkeeperEditedEvent event) {
+        packetManager.invalidateRecipeIndex(event.getShopkeeper().getUniqueId().toString());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onShopkeeperRemove(ShopkeeperRemoveEvent event) {
+        packetManager.invalidateRecipeIndex(event.getShopkeeper().getUniqueId().toString());
+    }
+
     /**
      * Called when a player attempts to trade with a Shopkeeper.
      * We validate the trade and record it if allowed.
@@ -90,8 +128,9 @@ public class ShopkeepersListener implements Listener {
 
         // Try to match the trade to our configured trades
         String matchedTradeKey = findMatchingTradeKey(shopConfig, event);
+        TradeHandle handle = matchedTradeKey != null ? tradeDataManager.resolve(shopId, matchedTradeKey) : null;
 
-        if (matchedTradeKey == null) {
+        if (handle == null) {
             // No matching config, allow trade (not tracked)
             if (plugin.getConfigManager().isDebugMode()) {
                 plugin.getLogger().info("No matching trade config for shop " + shopId +
@@ -100,130 +139,80 @@ public class ShopkeepersListener implements Listener {
             return;
         }
 
-        // Atomic "reset-if-expired + canTrade + recordTrade" — prevents a compound race
-        // where concurrent callers all pass the cap check and all increment past it.
-        if (!tradeDataManager.attemptTrade(player.getUniqueId(), shopId, matchedTradeKey)) {
+        // Atomic "check + record" per counter — prevents a compound race where concurrent
+        // callers all pass the cap check and all increment past it.
+        TradeOutcome outcome = tradeDataManager.attemptTrade(player.getUniqueId(), handle);
+        // Shift-click trades fire once per unit; the stock push and the feedback message are
+        // emitted once at the end of the tick from the last outcome.
+        feedback.record(player, shopConfig, handle, outcome);
+        if (!outcome.admitted()) {
             event.setCancelled(true);
 
-            // Send message to player (if configured). Reads are lock-free and fine to do
-            // after the atomic attempt has already decided.
-            long timeRemaining = tradeDataManager.getTimeUntilReset(player.getUniqueId(), shopId, matchedTradeKey);
-            plugin.getMessageManager().send(player, "trade-limit-reached",
-                    Placeholder.unparsed("time_remaining", tradeDataManager.formatDuration(timeRemaining)),
-                    Placeholder.unparsed("reset_time", tradeDataManager.getResetTimeString(shopId, matchedTradeKey)));
-
             if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Blocked trade for " + player.getName() +
-                        " - limit reached (cooldown: " + tradeDataManager.formatDuration(timeRemaining) + ")");
+                plugin.getLogger().info("Blocked trade for " + player.getName() + " - "
+                        + outcome.limitedBy().name().toLowerCase() + " limit reached");
             }
             return;
         }
 
-        // Schedule debounced stock push for other viewers of shared shops
-        if (shopConfig.isShared()) {
-            packetManager.scheduleSharedStockPush(shopId);
-        }
-
-        // Get remaining trades for feedback message
-        int remaining = tradeDataManager.getRemainingTrades(player.getUniqueId(), shopId, matchedTradeKey);
-
-        // Send feedback message
-        if (remaining == 0) {
-            // Player just used their last trade (or global stock depleted)
-            long timeUntilReset = shopConfig.isShared()
-                    ? tradeDataManager.getGlobalTimeUntilReset(shopId, matchedTradeKey)
-                    : tradeDataManager.getTimeUntilReset(player.getUniqueId(), shopId, matchedTradeKey);
-            plugin.getMessageManager().send(player, "cooldown-active",
-                    Placeholder.unparsed("time_remaining", tradeDataManager.formatDuration(timeUntilReset)),
-                    Placeholder.unparsed("reset_time", tradeDataManager.getResetTimeString(shopId, matchedTradeKey)));
-        } else {
-            // Show remaining trades
-            TradeConfig tradeConfig = shopConfig.getTrade(matchedTradeKey);
-            if (tradeConfig != null) {
-                int displayMax = (shopConfig.isShared() && tradeConfig.getMaxPerPlayer() > 0)
-                        ? tradeConfig.getMaxPerPlayer()
-                        : tradeConfig.getMaxTrades();
-                plugin.getMessageManager().send(player, "trades-remaining",
-                        Placeholder.unparsed("remaining", String.valueOf(remaining)),
-                        Placeholder.unparsed("max", String.valueOf(displayMax)));
-            }
-        }
-
         if (plugin.getConfigManager().isDebugMode()) {
             plugin.getLogger().info("Recorded trade for " + player.getName() +
-                    " at " + shopId + ":" + matchedTradeKey +
-                    " (remaining: " + remaining + ")");
+                    " at " + shopId + ":" + matchedTradeKey);
         }
     }
 
     private String findMatchingTradeKey(ShopConfig shopConfig, ShopkeeperTradeEvent event) {
         try {
             var clickedRecipe = event.getTradingRecipe();
-            var shopkeeper = event.getShopkeeper();
             var player = event.getPlayer();
 
-            // Get all trading recipes from the shopkeeper and find the clicked one
-            var allRecipes = shopkeeper.getTradingRecipes(player);
-
-            if (allRecipes == null || allRecipes.isEmpty()) {
-                if (plugin.getConfigManager().isDebugMode()) {
-                    plugin.getLogger().warning("Shopkeeper has no trading recipes");
-                }
-                return null;
+            // The slot the client selected (remapped to Shopkeepers' order) is the traded one
+            // unless the selection is stale — e.g. inputs placed by hand matched another offer.
+            // One recipe comparison confirms it; shift-click trades hit this for every unit.
+            int selected = packetManager.getSelectedSourceSlot(player.getUniqueId());
+            if (selected >= 0 && selectionMatches(player, selected, clickedRecipe)) {
+                packetManager.recordSlotResolution(true);
+                return tradeKeyForSlot(shopConfig, selected);
             }
-
-            if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Shopkeeper has " + allRecipes.size() + " recipes");
-                plugin.getLogger().info("Clicked recipe: " + clickedRecipe.toString());
-                for (int i = 0; i < allRecipes.size(); i++) {
-                    plugin.getLogger().info("  Recipe " + i + ": " + allRecipes.get(i).toString());
-                    plugin.getLogger().info("    Equals? " + allRecipes.get(i).equals(clickedRecipe));
-                    plugin.getLogger().info("    Same ref? " + (allRecipes.get(i) == clickedRecipe));
-                }
-            }
-
-            // Find the index of the clicked recipe by comparing items
-            int clickedIndex = -1;
-            for (int i = 0; i < allRecipes.size(); i++) {
-                var recipe = allRecipes.get(i);
-
-                // Compare the items (result, item1, item2)
-                boolean resultMatches = itemsEqual(recipe.getResultItem(), clickedRecipe.getResultItem());
-                boolean item1Matches = itemsEqual(recipe.getItem1(), clickedRecipe.getItem1());
-                boolean item2Matches = itemsEqual(recipe.getItem2(), clickedRecipe.getItem2());
-
-                if (resultMatches && item1Matches && item2Matches) {
-                    clickedIndex = i;
+            packetManager.recordSlotResolution(false);
+
+            // No usable selection (e.g. a trade driven by another plugin): look the recipe up in
+            // the shop's fingerprint index. While a merchant UI is open, the slot is confirmed
+            // against it too, since a player shop's offers can change without an edit event.
+            String shopId = event.getShopkeeper().getUniqueId().toString();
+            RecipeIndex index = packetManager.getRecipeIndex(shopId);
+            int clickedIndex = index != null ? index.find(clickedRecipe) : -1;
+            boolean merchantOpen = player.getOpenInventory().getTopInventory() instanceof MerchantInventory;
+            if (clickedIndex < 0 || (merchantOpen && !selectionMatches(player, clickedIndex, clickedRecipe))) {
+                // Missing or stale index: rebuild it from the shopkeeper's current recipes
+                var allRecipes = event.getShopkeeper().getTradingRecipes(player);
+                if (allRecipes == null || allRecipes.isEmpty()) {
                     if (plugin.getConfigManager().isDebugMode()) {
-                        plugin.getLogger().info("Found match at index " + i + " by comparing items");
+                        plugin.getLogger().warning("Shopkeeper has no trading recipes");
                     }
-                    break;
+                    return null;
+                }
+                index = RecipeIndex.of(allRecipes);
+                packetManager.putRecipeIndex(shopId, index);
+                clickedIndex = index.find(clickedRecipe);
+                if (clickedIndex < 0) {
+                    clickedIndex = index.scan(clickedRecipe);
                 }
-            }
 
-            if (clickedIndex == -1) {
                 if (plugin.getConfigManager().isDebugMode()) {
-                    plugin.getLogger().warning("Could not find clicked recipe in shopkeeper's recipe list");
+                    plugin.getLogger().info("Indexed " + allRecipes.size() + " recipes of shop " + shopId
+                            + "; clicked recipe " + clickedRecipe + " is at index " + clickedIndex);
                 }
-                return null;
             }
 
-            // Resolve by Shopkeepers source slot — covers both static trades and pool items.
-            TradeConfig tradeConfig = shopConfig.findBySourceSlot(clickedIndex);
-
-            if (tradeConfig == null) {
-                // This slot is not configured for tracking
+            if (clickedIndex == -1) {
                 if (plugin.getConfigManager().isDebugMode()) {
-                    plugin.getLogger().info("Slot " + clickedIndex + " is not configured for tracking - allowing trade");
+                    plugin.getLogger().warning("Could not find clicked recipe in shopkeeper's recipe list");
                 }
                 return null;
             }
 
-            if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Matched slot " + clickedIndex + " to trade key: " + tradeConfig.getTradeKey());
-            }
-
-            return tradeConfig.getTradeKey();
+            return tradeKeyForSlot(shopConfig, clickedIndex);
 
         } catch (Exception e) {
             if (plugin.getConfigManager().isDebugMode()) {
@@ -234,42 +223,49 @@ public class ShopkeepersListener implements Listener {
         return null;
     }
 
-    /**
-     * Compares two items for equality (null-safe).
-     * Uses Shopkeepers' UnmodifiableItemStack API with isSimilar() for full comparison
-     * including type, amount, and item meta/NBT data.
-     *
-     * @param item1 First item (can be null)
-     * @param item2 Second item (can be null)
-     * @return true if both are null or both represent the same item
-     */
-    private boolean itemsEqual(Object item1, Object item2) {
-        // Both null
-        if (item1 == null && item2 == null) {
-            return true;
-        }
-        // One null, one not
-        if (item1 == null || item2 == null) {
-            return false;
-        }
+    private String tradeKeyForSlot(ShopConfig shopConfig, int sourceSlot) {
+        // Resolve by Shopkeepers source slot — covers both static trades and pool items.
+        TradeConfig tradeConfig = shopConfig.findBySourceSlot(sourceSlot);
 
-        // Use Shopkeepers' UnmodifiableItemStack
-        if (!(item1 instanceof UnmodifiableItemStack stack1) ||
-            !(item2 instanceof UnmodifiableItemStack stack2)) {
+        if (tradeConfig == null) {
+            // This slot is not configured for tracking
             if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("      itemsEqual: not UnmodifiableItemStack instances = false");
+                plugin.getLogger().info("Slot " + sourceSlot + " is not configured for tracking - allowing trade");
             }
-            return false;
+            return null;
         }
 
-        // Use isSimilar for full comparison (type and meta/NBT) + explicit amount check
-        boolean match = stack1.isSimilar(stack2) && stack1.getAmount() == stack2.getAmount();
-
         if (plugin.getConfigManager().isDebugMode()) {
-            plugin.getLogger().info("      itemsEqual: " + stack1.getType() + " x" + stack1.getAmount() +
-                    " vs " + stack2.getType() + " x" + stack2.getAmount() + " = " + match);
+            plugin.getLogger().info("Matched slot " + sourceSlot + " to trade key: " + tradeConfig.getTradeKey());
         }
-        return match;
+
+        return tradeConfig.getTradeKey();
     }
 
+    /**
+     * Checks a source slot against the recipe actually traded, using the recipe the open
+     * merchant holds at that index (Shopkeepers sets them in source order).
+     */
+    private boolean selectionMatches(Player player, int sourceSlot, TradingRecipe clicked) {
+        if (!(player.getOpenInventory().getTopInventory() instanceof MerchantInventory inventory)) return false;
+        Merchant merchant = inventory.getMerchant();
+        if (sourceSlot >= merchant.getRecipeCount()) return false;
+
+        MerchantRecipe recipe = merchant.getRecipe(sourceSlot);
+        List<ItemStack> ingredients = recipe.getIngredients();
+        return sameItem(clicked.getResultItem(), recipe.getResult())
+                && sameItem(clicked.getItem1(), ingredients.isEmpty() ? null : ingredients.get(0))
+                && sameItem(clicked.getItem2(), ingredients.size() > 1 ? ingredients.get(1) : null);
+    }
+
+    /**
+     * Like {@link RecipeIndex#sameItem}, for a Shopkeepers item against a Bukkit one (air = no item).
+     */
+    private static boolean sameItem(UnmodifiableItemStack expected, ItemStack actual) {
+        boolean actualEmpty = actual == null || actual.getType().isAir();
+        if (expected == null || actualEmpty) {
+            return expected == null && actualEmpty;
+        }
+        return expected.isSimilar(actual) && expected.getAmount() == actual.getAmount();
+    }
 }
@@ -0,0 +1,140 @@
+package dev.oakheart.stockcontrol.listeners;
+
+import dev.oakheart.stockcontrol.ShopkeepersStockControl;
+import dev.oakheart.stockcontrol.data.ShopConfig;
+import dev.oakheart.stockcontrol.data.TradeHandle;
+import dev.oakheart.stockcontrol.data.TradeOutcome;
+import dev.oakheart.stockcontrol.managers.PacketManager;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces the feedback of a player's trades within one tick. A shift-click purchase fires
+ * one trade event per unit; admission still happens per unit, but the chat message and the
+ * shared-stock push are emitted once, a tick later, from the last unit's {@link TradeOutcome} —
+ * one message for a stack of 64 instead of 64, and no counter is read again to build it.
+ *
+ * <p>A player's trade events and the flush all run on the thread owning that player, so a
+ * batch is only ever touched by one thread; the map itself is concurrent because different
+ * players' threads (on Folia) share it.</p>
+ */
+public final class TradeFeedback {
+
+    /** Runs a batch's flush on the player's thread a tick later. */
+    interface FlushScheduler {
+        /**
+         * @param retired Run instead of {@code flush} if the player is gone by then
+         */
+        void nextTick(Player player, Runnable flush, Runnable retired);
+    }
+
+    /** Emits the feedback of a flushed batch. */
+    interface Emitter {
+        /**
+         * @param admitted How many units of the batch were admitted
+         * @param last     The outcome of the batch's last unit
+         */
+        void emit(Player player, ShopConfig shopConfig, TradeHandle handle, int admitted, TradeOutcome last);
+    }
+
+    private final FlushScheduler scheduler;
+    private final Emitter emitter;
+
+    private final Map<UUID, Batch> batches = new ConcurrentHashMap<>();
+
+    /** One player's outcomes for a single trade since the last flush. */
+    private static final class Batch {
+        final Player player;
+        final ShopConfig shopConfig;
+        final TradeHandle handle;
+        int admitted;
+        TradeOutcome last;
+
+        Batch(Player player, ShopConfig shopConfig, TradeHandle handle) {
+            this.player = player;
+            this.shopConfig = shopConfig;
+            this.handle = handle;
+        }
+    }
+
+    public TradeFeedback(ShopkeepersStockControl plugin, PacketManager packetManager) {
+        this((player, flush, retired) -> plugin.getTaskScheduler().runForLater(player, flush, retired, 1L),
+                (player, shopConfig, handle, admitted, last) ->
+                        emit(plugin, packetManager, player, shopConfig, handle, admitted, last));
+    }
+
+    TradeFeedback(FlushScheduler scheduler, Emitter emitter) {
+        this.scheduler = scheduler;
+        this.emitter = emitter;
+    }
+
+    /**
+     * Records the outcome of one unit of a trade.
+     */
+    public void record(Player player, ShopConfig shopConfig, TradeHandle handle, TradeOutcome outcome) {
+        Batch batch = batchFor(player, shopConfig, handle);
+        if (outcome.admitted()) batch.admitted++;
+        batch.last = outcome;
+    }
+
+    /**
+     * Returns the player's open batch for this trade, starting one (and scheduling its flush for
+     * the next tick) if there is none. A different trade in the same tick flushes the previous
+     * batch first so its feedback isn't lost.
+     */
+    private Batch batchFor(Player player, ShopConfig shopConfig, TradeHandle handle) {
+        UUID playerId = player.getUniqueId();
+        Batch batch = batches.get(playerId);
+        if (batch != null && batch.handle == handle) return batch;
+        if (batch != null && batches.remove(playerId, batch)) {
+            flush(batch);
+        }
+
+        Batch created = new Batch(player, shopConfig, handle);
+        batches.put(playerId, created);
+        scheduler.nextTick(player,
+                () -> {
+                    if (batches.remove(playerId, created)) flush(created);
+                },
+                () -> batches.remove(playerId, created));
+        return created;
+    }
+
+    private void flush(Batch batch) {
+        if (batch.last == null) return;
+        emitter.emit(batch.player, batch.shopConfig, batch.handle, batch.admitted, batch.last);
+    }
+
+    /**
+     * Emits a batch's push and single message from its last outcome.
+     */
+    private static void emit(ShopkeepersStockControl plugin, PacketManager packetManager, Player player,
+                             ShopConfig shopConfig, TradeHandle handle, int admitted, TradeOutcome outcome) {
+        // Schedule debounced stock push for other viewers of shared shops
+        if (admitted > 0 && shopConfig.isShared()) {
+            packetManager.scheduleSharedStockPush(shopConfig.getShopId(), player.getUniqueId());
+        }
+        if (!player.isOnline()) return;
+
+        long now = System.currentTimeMillis() / 1000;
+        if (admitted == 0) {
+            // Only refusals this tick
+            plugin.getTradeMessages().sendLimitReached(player, outcome.secondsUntilReset(now), outcome.resetTime());
+        } else if (outcome.remaining() == 0) {
+            // Player just used their last trade (or the counter limiting them is depleted)
+            plugin.getTradeMessages().sendCooldownActive(player, outcome.secondsUntilReset(now), outcome.resetTime());
+        } else {
+            plugin.getTradeMessages().sendRemaining(player, outcome.remaining(), outcome.displayMax());
+        }
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Trade feedback for " + player.getName() + " at " + shopConfig.getShopId()
+                    + ":" + handle.getTradeKey() + " — " + admitted + " unit(s)"
+                    + (outcome.admitted() ? "" : ", then refused") + " (remaining: " + outcome.remaining()
+                    + ", limited by " + outcome.limitedBy().name().toLowerCase() + ")");
+        }
+    }
+}
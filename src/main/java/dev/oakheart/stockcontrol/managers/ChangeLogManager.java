@@ -0,0 +1,236 @@
+package dev.oakheart.stockcontrol.managers;
+
+import dev.oakheart.stockcontrol.ShopkeepersStockControl;
+import dev.oakheart.stockcontrol.data.ChangeLogEntry;
+import dev.oakheart.stockcontrol.data.DataStore;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Cross-server cache invalidation through the database's append-only {@code change_log} table.
+ *
+ * <p>Every reset, restock and rotation path calls {@link #publish} after its own DB delete
+ * (resets and restocks in the same transaction), tagged with this instance's random server
+ * id. A scheduled async poll reads only the rows past the last applied id (a primary-key
+ * range scan), skips our own entries, and hands the rest to {@link TradeDataManager} /
+ * {@link PoolRotationManager} as targeted cache-only invalidations. Affected open merchant
+ * UIs are re-pushed so players on other servers see the restock without closing and
+ * reopening the shop.
+ *
+ * <p>The same log fences this server's batch flushes: {@link #fence()} tells the store which
+ * entries the cache has already applied, so a row another server reset in the meantime isn't
+ * written back with its pre-reset count.
+ *
+ * <p>Setting {@code change-log-poll-interval} to 0 disables both publishing and polling —
+ * single-server setups pay nothing.
+ */
+public class ChangeLogManager {
+
+    // Upper bound per query so a long backlog (e.g. after a stress-test cleanup on another
+    // server) is drained in chunks instead of one giant result set.
+    private static final int POLL_BATCH_LIMIT = 500;
+
+    // Pruning is cheap (indexed range delete) but there is no reason to run it every poll.
+    private static final long PRUNE_INTERVAL_SECONDS = 3600L;
+
+    private final ShopkeepersStockControl plugin;
+    private final DataStore dataStore;
+    private final TradeDataManager tradeDataManager;
+
+    // Random per process — a restarted server must not skip entries its previous run wrote
+    // while this run was still starting up.
+    private final String serverId = UUID.randomUUID().toString();
+
+    // Highest change id already applied (or skipped) by this server. Only advanced once the
+    // entry's invalidation is done, since flushes read it as "the cache reflects this".
+    private final AtomicLong cursor = new AtomicLong();
+    // Highest change id published by this server.
+    private final AtomicLong ownThrough = new AtomicLong();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong appliedCount = new AtomicLong();
+
+    private volatile long lastPruneEpoch;
+    private ScheduledTask pollTask;
+
+    public ChangeLogManager(ShopkeepersStockControl plugin, DataStore dataStore, TradeDataManager tradeDataManager) {
+        this.plugin = plugin;
+        this.dataStore = dataStore;
+        this.tradeDataManager = tradeDataManager;
+    }
+
+    /**
+     * Starts polling from the current end of the log. History written before this server
+     * started is not replayed — the caches are empty at that point anyway.
+     */
+    public void initialize() {
+        cursor.set(dataStore.latestChangeId());
+        startPollTask();
+
+        if (isEnabled()) {
+            plugin.getLogger().info("ChangeLogManager initialized (poll interval: "
+                    + plugin.getConfigManager().getChangeLogPollInterval() + "s, starting after id " + cursor.get() + ")");
+        }
+    }
+
+    /**
+     * Restarts the poll task with the current config interval.
+     * Called after config reload to pick up interval changes.
+     */
+    public void restart() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        startPollTask();
+    }
+
+    public void shutdown() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return plugin.getConfigManager().getChangeLogPollInterval() > 0;
+    }
+
+    /**
+     * Returns the fence for a batch flush of rows drained now, or null if the change log is
+     * disabled (the cache never applies remote changes then, so there is nothing to fence).
+     * Must be read under the same lock as the drain, which resets and invalidations also hold.
+     */
+    public DataStore.WriteFence fence() {
+        if (!isEnabled()) return null;
+        return new DataStore.WriteFence(serverId, cursor.get(), ownThrough.get());
+    }
+
+    /**
+     * Appends a change made by this server. Must be called after the change's own DB writes
+     * so another server that applies the entry reloads post-change state.
+     *
+     * @param scope    How wide the invalidation should be
+     * @param shopId   Affected shop (null for {@link ChangeLogEntry.Scope#PLAYER})
+     * @param key      Trade key, pool name for {@link ChangeLogEntry.Scope#ROTATION}, or null
+     * @param playerId Affected player for player scopes, otherwise null
+     */
+    public void publish(ChangeLogEntry.Scope scope, String shopId, String key, UUID playerId) {
+        if (!isEnabled()) return;
+        long now = System.currentTimeMillis() / 1000;
+        long id = dataStore.appendChange(new ChangeLogEntry(0L, serverId, scope, shopId, key, playerId, now));
+        if (id > 0) ownThrough.accumulateAndGet(id, Math::max);
+        publishedCount.incrementAndGet();
+    }
+
+    private void startPollTask() {
+        int interval = plugin.getConfigManager().getChangeLogPollInterval();
+        if (interval <= 0) return;
+        pollTask = plugin.getTaskScheduler().runAsyncTimer(
+                this::poll,
+                interval * 20L,
+                interval * 20L
+        );
+    }
+
+    private void poll() {
+        try {
+            List<ChangeLogEntry> entries;
+            do {
+                entries = dataStore.loadChangesSince(cursor.get(), POLL_BATCH_LIMIT);
+                for (ChangeLogEntry entry : entries) {
+                    if (entry.scope() != null && !serverId.equals(entry.serverId())) {
+                        apply(entry);
+                        appliedCount.incrementAndGet();
+                    }
+                    cursor.set(entry.id());
+                }
+            } while (entries.size() == POLL_BATCH_LIMIT);
+
+            pruneIfDue();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Error polling change log", e);
+        }
+    }
+
+    /**
+     * Applies one remote change as a cache-only invalidation. The originating server already
+     * deleted the DB rows, so the next read here simply reloads post-change state.
+     */
+    private void apply(ChangeLogEntry entry) {
+        PacketManager packetManager = plugin.getPacketManager();
+        String shopId = entry.shopId();
+
+        switch (entry.scope()) {
+            case PLAYER -> {
+                if (entry.playerId() == null) return;
+                tradeDataManager.invalidatePlayer(entry.playerId());
+                String openShop = packetManager.getOpenShopId(entry.playerId());
+                if (openShop != null) packetManager.scheduleSharedStockPush(openShop);
+            }
+            case PLAYER_SHOP -> {
+                if (entry.playerId() == null || shopId == null) return;
+                tradeDataManager.invalidatePlayerShop(entry.playerId(), shopId);
+                packetManager.scheduleSharedStockPush(shopId);
+            }
+            case PLAYER_TRADE -> {
+                if (entry.playerId() == null || shopId == null || entry.key() == null) return;
+                tradeDataManager.invalidatePlayerTrade(entry.playerId(), shopId, entry.key());
+                packetManager.scheduleSharedStockPush(shopId);
+            }
+            case GLOBAL_SHOP -> {
+                if (shopId == null) return;
+                tradeDataManager.invalidateGlobalShop(shopId);
+                packetManager.scheduleSharedStockPush(shopId);
+            }
+            case GLOBAL_TRADE -> {
+                if (shopId == null || entry.key() == null) return;
+                tradeDataManager.invalidateGlobalTrade(shopId, entry.key());
+                packetManager.scheduleSharedStockPush(shopId);
+            }
+            case ROTATION -> {
+                if (shopId == null || entry.key() == null) return;
+                plugin.getPoolRotationManager().reloadState(shopId, entry.key());
+                packetManager.scheduleRotationPush(shopId);
+            }
+        }
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Applied remote change #" + entry.id() + " " + entry.scope()
+                    + " (shop " + shopId + ", key " + entry.key() + ", player " + entry.playerId() + ")");
+        }
+    }
+
+    private void pruneIfDue() {
+        long now = System.currentTimeMillis() / 1000;
+        if (now - lastPruneEpoch < PRUNE_INTERVAL_SECONDS) return;
+        lastPruneEpoch = now;
+
+        long retentionSeconds = plugin.getConfigManager().getChangeLogRetentionHours() * 3600L;
+        int pruned = dataStore.pruneChangeLog(now - retentionSeconds);
+        if (pruned > 0 && plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Pruned " + pruned + " change log entries");
+        }
+    }
+
+    // ===== Diagnostics =====
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    public long cursor() {
+        return cursor.get();
+    }
+
+    public long publishedCount() {
+        return publishedCount.get();
+    }
+
+    public long appliedCount() {
+        return appliedCount.get();
+    }
+}
@@ -1,8 +1,7 @@
 package dev.oakheart.stockcontrol.managers;
 
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
 import java.util.logging.Level;
 
@@ -15,9 +14,9 @@ public class CooldownManager {
     private final ShopkeepersStockControl plugin;
     private final TradeDataManager tradeDataManager;
 
-    private BukkitTask cleanupTask;
-    private BukkitTask purgeTask;
-    private BukkitTask initialPurgeTask;
+    private ScheduledTask cleanupTask;
+    private ScheduledTask purgeTask;
+    private ScheduledTask initialPurgeTask;
 
     public CooldownManager(ShopkeepersStockControl plugin, TradeDataManager tradeDataManager) {
         this.plugin = plugin;
@@ -79,8 +78,7 @@ public class CooldownManager {
 
     private void startCleanupTask() {
         int interval = plugin.getConfigManager().getCooldownCheckInterval();
-        cleanupTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin,
+        cleanupTask = plugin.getTaskScheduler().runAsyncTimer(
                 this::performCleanup,
                 interval * 20L,
                 interval * 20L
@@ -117,14 +115,13 @@ public class CooldownManager {
         if (purgeDays <= 0) return;
 
         // Initial purge 5 seconds after startup
-        initialPurgeTask = Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> {
+        initialPurgeTask = plugin.getTaskScheduler().runAsyncLater(() -> {
             initialPurgeTask = null;
             performPurge();
         }, 100L);
 
         // Daily repeating purge (24 hours = 1,728,000 ticks)
-        purgeTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin,
+        purgeTask = plugin.getTaskScheduler().runAsyncTimer(
                 this::performPurge,
                 1_728_000L,
                 1_728_000L
@@ -6,11 +6,17 @@ import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMe
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
 import dev.oakheart.stockcontrol.data.PoolConfig;
 import dev.oakheart.stockcontrol.data.PoolItemConfig;
+import dev.oakheart.stockcontrol.data.RecipeIndex;
 import dev.oakheart.stockcontrol.data.RotationState;
 import dev.oakheart.stockcontrol.data.ShopConfig;
-import dev.oakheart.stockcontrol.data.ShopContext;
+import dev.oakheart.stockcontrol.data.ShopLedger;
 import dev.oakheart.stockcontrol.data.TradeConfig;
+import dev.oakheart.stockcontrol.data.TradeHandle;
 import dev.oakheart.stockcontrol.listeners.PacketListener;
+import dev.oakheart.stockcontrol.util.MerchantOfferEncoding;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
@@ -19,12 +25,20 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.MerchantInventory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 /**
@@ -36,53 +50,186 @@ public class PacketManager {
     private final ShopkeepersStockControl plugin;
     private final TradeDataManager tradeDataManager;
 
-    // Cache to map players to their currently open shop
+    // One session per player with a merchant UI open (see MerchantSession).
     // Thread-safe for packet thread access
-    private final Map<UUID, ShopContext> playerShopCache;
+    private final Map<UUID, MerchantSession> sessions;
 
-    // Cached original merchant packet data per player (for pushing shared stock updates)
-    private final Map<UUID, CachedMerchantData> playerMerchantData;
+    // Reverse index of sessions (shopId -> players with that shop open), so a push only
+    // visits the viewers of its own shop. Maintained inside the sessions compute calls,
+    // which serialize per player, so a player is never indexed under two shops at once.
+    private final Map<String, Set<UUID>> viewersByShop;
 
-    // Players whose next MERCHANT_OFFERS packet should be cached (set on shop open, consumed by packet listener)
-    private final Set<UUID> pendingCache;
+    // Push fan-out metrics (diagnostics)
+    private final LongAdder shopPushes = new LongAdder();
+    private final LongAdder viewersPushed = new LongAdder();
+    private final AtomicInteger maxFanOut = new AtomicInteger();
+
+    // Latest source-offer snapshot per shop. Viewers who receive identical offers share one
+    // snapshot instead of each holding a deep copy; it is replaced only when the offers differ.
+    private final Map<String, OfferSnapshot> offerSnapshots;
+
+    // Compiled UI layout per pooled shop (see ShopLayout)
+    private final Map<String, ShopLayout> shopLayouts = new ConcurrentHashMap<>();
+    private final LongAdder layoutCompiles = new LongAdder();
+    private final LongAdder snapshotReuses = new LongAdder();
+    private final LongAdder snapshotBuilds = new LongAdder();
 
     // Stock pushes are collected across the current tick window and drained together on the next
-    // tick. Adding a shopId is idempotent (ConcurrentHashMap.newKeySet dedupes), so two trades on
-    // the same shop in the same tick produce one push.
+    // tick by the push task. Adding a shopId is idempotent (ConcurrentHashMap.newKeySet dedupes),
+    // so two trades on the same shop in the same tick produce one push.
     private final Set<String> pendingStockPushes;
     // Rotation pushes behave like stock pushes but additionally return any merchant input items to
     // each viewer's inventory, clearing any stale trade selection that the rotation invalidated.
     private final Set<String> pendingRotationPushes;
 
-    // Per-player UI→Shopkeepers-source slot mapping for the currently open merchant.
-    // Populated when a pooled-shop packet is rebuilt; consumed by the inbound
-    // SELECT_TRADE listener to remap the client's index back to what Shopkeepers expects.
-    private final Map<UUID, List<Integer>> uiToSourceMaps;
+    // Per-viewer push queue, drained within a per-tick packet and time budget (see PushQueue)
+    private final PushQueue pushQueue = new PushQueue(RECENT_TRADE_MILLIS, System::nanoTime);
+    private final LongAdder pushTicksOverBudget = new LongAdder();
+    private volatile int pushQueueDepth;
+    private ScheduledTask pushTask;
+
+    // Each viewer's last rendered offers, stamped with the versions they were computed from.
+    // Render memo counters. A rebuild whose stamps all match reuses the offers; a push whose
+    // output would be identical to what the viewer was last sent is skipped.
+    private final LongAdder renderReuses = new LongAdder();
+    private final LongAdder renderRebuilds = new LongAdder();
+    private final LongAdder pushesSuppressed = new LongAdder();
+
+    // Non-blocking rewrites: renders that fell back to cached-only counters because the
+    // viewer's data was still loading, and the pushes that later corrected them.
+    private final LongAdder pendingRenders = new LongAdder();
+    private final LongAdder correctivePushes = new LongAdder();
+
+    // How rewritten MERCHANT_OFFERS reached the wire: uses/maxUses patched into the encoded
+    // bytes, pooled offers spliced from the encoded bytes, or a full PacketEvents re-encode.
+    private final LongAdder encodedPatches = new LongAdder();
+    private final LongAdder encodedSplices = new LongAdder();
+    private final LongAdder fullReEncodes = new LongAdder();
+
+    // Trades resolved from the recorded SELECT_TRADE slot vs. through the recipe index
+    private final LongAdder selectionHits = new LongAdder();
+    private final LongAdder selectionFallbacks = new LongAdder();
+
+    // Per-shop fingerprint index of Shopkeepers' trading recipes, for trades without a usable
+    // selection. Built from one getTradingRecipes() call; dropped when the shop is edited.
+    private final Map<String, RecipeIndex> recipeIndexes = new ConcurrentHashMap<>();
+    private final LongAdder recipeIndexBuilds = new LongAdder();
 
     private PacketListener packetListener;
 
+    private static final long RECENT_TRADE_MILLIS = 3000L;
+
+    /**
+     * Everything tracked for one player's open merchant window: the shop, the window id and
+     * snapshot of the offers Shopkeepers sent (to rebuild pushes from), the pooled UI→source
+     * map and the last render. Created when the shop opens and replaced — never reused — when
+     * another one opens; removed on close or quit. The TTL is only a safety net for a close
+     * that was missed.
+     *
+     * <p>Written by the packet thread and read by pushes on the player's thread: the snapshot is
+     * published after the container id, and every other field is a single reference.</p>
+     */
+    private static final class MerchantSession {
+        final String shopId;
+        // Pushed back on every packet lookup; a session past it is reaped.
+        volatile long expiresAt;
+        // Set until the window's first MERCHANT_OFFERS packet has been cached.
+        final AtomicBoolean awaitingOffers = new AtomicBoolean(true);
+        int containerId;
+        volatile OfferSnapshot snapshot;
+        // Pooled shops: Shopkeepers source slot of each UI slot last sent, null for in-place
+        // shops. May be a compiled layout's own array, so never written to.
+        volatile int[] uiToSource;
+        volatile RenderMemo memo;
+        // Shopkeepers source slot of the client's last SELECT_TRADE (-1 = none yet).
+        volatile int selectedSlot = -1;
+
+        MerchantSession(String shopId, long expiresAt) {
+            this.shopId = shopId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     /**
-     * Cached data from a player's original merchant offers packet.
-     * Used to reconstruct and push updated packets for shared stock changes.
+     * Immutable copy of the source offers (and merchant header) Shopkeepers sent for a shop.
+     * Never mutated after creation — pushes copy offers out of it before applying per-viewer
+     * uses/maxUses — so any number of viewers can reference the same instance.
+     *
+     * @param encoding Where the offers sit in the encoded packet, learned from the first packet
+     *                 that needs it (null until then)
      */
-    private record CachedMerchantData(
-            int containerId,
+    private record OfferSnapshot(
             List<MerchantOffer> offers,
+            int contentHash,
             int villagerLevel,
             int villagerXp,
             boolean showProgress,
-            boolean canRestock
-    ) {}
+            boolean canRestock,
+            AtomicReference<MerchantOfferEncoding> encoding
+    ) {
+        boolean matches(WrapperPlayServerMerchantOffers packet) {
+            List<MerchantOffer> other = packet.getMerchantOffers();
+            if (villagerLevel != packet.getVillagerLevel() || villagerXp != packet.getVillagerXp()
+                    || showProgress != packet.isShowProgress() || canRestock != packet.isCanRestock()
+                    || offers.size() != other.size()) {
+                return false;
+            }
+            for (int i = 0; i < offers.size(); i++) {
+                if (!sameOffer(offers.get(i), other.get(i))) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * What one viewer's rendered offers were computed from. References are compared by
+     * identity: a reload replaces the ShopConfig, a new window may bring a new snapshot, and an
+     * evicted ledger comes back as a new object whose version restarts.
+     */
+    private record RenderKey(ShopConfig config, OfferSnapshot source, long stockVersion, long layoutVersion,
+                             ShopLedger ledger, int ledgerVersion) {
+        boolean sameAs(RenderKey other) {
+            return config == other.config && source == other.source
+                    && stockVersion == other.stockVersion && layoutVersion == other.layoutVersion
+                    && ledger == other.ledger && ledgerVersion == other.ledgerVersion;
+        }
+    }
+
+    /**
+     * A viewer's last rendered offer vector (never mutated after it is stored).
+     *
+     * @param uiToSource The pooled UI→source map that went with it, or null for in-place shops
+     * @param validUntil Epoch second at which a reset boundary or cooldown may change the numbers
+     */
+    private record RenderMemo(RenderKey key, List<MerchantOffer> offers, int[] uiToSource,
+                              long validUntil) {
+        boolean isCurrent(RenderKey current, long now) {
+            return key.sameAs(current) && now < validUntil;
+        }
+    }
+
+    /**
+     * Offer snapshot sharing figures for diagnostics.
+     *
+     * @param snapshots        Distinct snapshots referenced by open merchant windows
+     * @param viewers          Open merchant windows with cached data
+     * @param offersReferenced Offers the viewers reference in total (what per-viewer copies would hold)
+     * @param offersStored     Offers actually held by the distinct snapshots
+     */
+    public record OfferSnapshotStats(int snapshots, int viewers, long offersReferenced, long offersStored) {
+        public long offersSavedPerViewer() {
+            return viewers > 0 ? (offersReferenced - offersStored) / viewers : 0;
+        }
+    }
 
     public PacketManager(ShopkeepersStockControl plugin, TradeDataManager tradeDataManager) {
         this.plugin = plugin;
         this.tradeDataManager = tradeDataManager;
-        this.playerShopCache = new ConcurrentHashMap<>();
-        this.playerMerchantData = new ConcurrentHashMap<>();
-        this.pendingCache = ConcurrentHashMap.newKeySet();
+        this.sessions = new ConcurrentHashMap<>();
+        this.viewersByShop = new ConcurrentHashMap<>();
+        this.offerSnapshots = new ConcurrentHashMap<>();
         this.pendingStockPushes = ConcurrentHashMap.newKeySet();
         this.pendingRotationPushes = ConcurrentHashMap.newKeySet();
-        this.uiToSourceMaps = new ConcurrentHashMap<>();
     }
 
     /**
@@ -96,6 +243,7 @@ public class PacketManager {
         } catch (Exception e) {
             plugin.getLogger().log(Level.WARNING, "Failed to initialize PacketEvents — UI stock display will be disabled", e);
         }
+        pushTask = plugin.getTaskScheduler().runGlobalTimer(this::processPendingPushes, 1L, 1L);
     }
 
     /**
@@ -109,18 +257,24 @@ public class PacketManager {
         } catch (Exception e) {
             // Ignore - PacketEvents might not be available
         }
+        if (pushTask != null) {
+            pushTask.cancel();
+            pushTask = null;
+        }
 
-        playerShopCache.clear();
-        playerMerchantData.clear();
-        pendingCache.clear();
+        sessions.clear();
+        viewersByShop.clear();
+        offerSnapshots.clear();
+        shopLayouts.clear();
+        recipeIndexes.clear();
         pendingStockPushes.clear();
         pendingRotationPushes.clear();
-        uiToSourceMaps.clear();
+        pushQueue.clear();
         plugin.getLogger().info("PacketManager shutdown complete");
     }
 
     /**
-     * Adds a player -> shop mapping to the cache.
+     * Starts a new merchant session for a player, replacing any previous one.
      * Called when a player opens a Shopkeeper.
      *
      * @param playerId The player's UUID
@@ -130,9 +284,14 @@ public class PacketManager {
         long cacheTTL = plugin.getConfigManager().getCacheTTL();
         long expiryTime = System.currentTimeMillis() + (cacheTTL * 1000L);
 
-        ShopContext context = new ShopContext(shopId, expiryTime);
-        playerShopCache.put(playerId, context);
-        pendingCache.add(playerId);
+        MerchantSession session = new MerchantSession(shopId, expiryTime);
+        sessions.compute(playerId, (key, previous) -> {
+            if (previous != null && !previous.shopId.equals(shopId)) {
+                unindexViewer(previous.shopId, key);
+            }
+            indexViewer(shopId, key);
+            return session;
+        });
 
         if (plugin.getConfigManager().isDebugMode()) {
             plugin.getLogger().info("Added shop mapping: " + playerId + " -> " + shopId +
@@ -141,41 +300,93 @@ public class PacketManager {
     }
 
     /**
-     * Removes a player -> shop mapping from the cache.
+     * Ends a player's merchant session (window closed or player quit).
      *
      * @param playerId The player's UUID
      */
     public void removeShopMapping(UUID playerId) {
-        ShopContext removed = playerShopCache.remove(playerId);
-        playerMerchantData.remove(playerId);
-        pendingCache.remove(playerId);
-        uiToSourceMaps.remove(playerId);
+        MerchantSession[] removedRef = new MerchantSession[1];
+        sessions.computeIfPresent(playerId, (key, session) -> {
+            unindexViewer(session.shopId, key);
+            removedRef[0] = session;
+            return null;
+        });
+        MerchantSession removed = removedRef[0];
 
         if (removed != null && plugin.getConfigManager().isDebugMode()) {
-            plugin.getLogger().info("Removed shop mapping: " + playerId + " -> " + removed.shopId());
+            plugin.getLogger().info("Removed shop mapping: " + playerId + " -> " + removed.shopId);
         }
     }
 
     /**
-     * Gets the shop context for a player.
-     * Automatically removes expired contexts and refreshes TTL on active ones.
+     * Looks up a player's session on the packet path and pushes its TTL back. A session past
+     * its TTL (its close was missed) is reaped instead. Allocation-free unless it expires.
      *
      * @param playerId The player's UUID
-     * @return ShopContext or null if not found or expired
-     */
-    public ShopContext getShopContext(UUID playerId) {
-        return playerShopCache.computeIfPresent(playerId, (key, context) -> {
-            if (context.isExpired()) {
-                playerMerchantData.remove(playerId);
-                if (plugin.getConfigManager().isDebugMode()) {
-                    plugin.getLogger().info("Removed expired shop mapping: " + playerId + " -> " + context.shopId());
-                }
-                return null;
-            }
-            // Refresh TTL to keep mapping alive while trading window is open
-            long cacheTTL = plugin.getConfigManager().getCacheTTL();
-            long newExpiry = System.currentTimeMillis() + (cacheTTL * 1000L);
-            return new ShopContext(context.shopId(), newExpiry);
+     * @return The session, or null if there is none or it expired
+     */
+    private MerchantSession session(UUID playerId) {
+        MerchantSession session = sessions.get(playerId);
+        if (session == null) return null;
+        long now = System.currentTimeMillis();
+        if (now > session.expiresAt) {
+            expire(playerId, session);
+            return null;
+        }
+        // Refresh TTL to keep the session alive while the trading window is open
+        session.expiresAt = now + plugin.getConfigManager().getCacheTTL() * 1000L;
+        return session;
+    }
+
+    private void expire(UUID playerId, MerchantSession session) {
+        sessions.computeIfPresent(playerId, (key, current) -> {
+            if (current != session) return current; // replaced by a newer open meanwhile
+            unindexViewer(current.shopId, key);
+            return null;
+        });
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Removed expired shop mapping: " + playerId + " -> " + session.shopId);
+        }
+    }
+
+    /**
+     * Returns the shop a player currently has mapped, without refreshing or expiring the TTL.
+     * Used by background callers (e.g. cross-server invalidation) that only need to know
+     * which UI to re-push.
+     *
+     * @param playerId The player's UUID
+     * @return The shop ID, or null if the player has no shop mapping
+     */
+    public String getOpenShopId(UUID playerId) {
+        MerchantSession session = sessions.get(playerId);
+        return session != null ? session.shopId : null;
+    }
+
+    /**
+     * Removes a player's shop mapping once they have closed the merchant UI. Deferred a tick
+     * by the caller: opening another shopkeeper closes the old view after the new mapping was
+     * added, so the mapping is only dropped if no merchant UI is open any more.
+     *
+     * @param player The player who closed a merchant inventory
+     */
+    public void handleMerchantClosed(Player player) {
+        if (!player.isOnline()) return; // quit handler cleans up
+        if (player.getOpenInventory().getTopInventory() instanceof MerchantInventory) return;
+        if (sessions.containsKey(player.getUniqueId())) {
+            removeShopMapping(player.getUniqueId());
+        }
+    }
+
+    private void indexViewer(String shopId, UUID playerId) {
+        viewersByShop.computeIfAbsent(shopId, k -> ConcurrentHashMap.newKeySet()).add(playerId);
+    }
+
+    private void unindexViewer(String shopId, UUID playerId) {
+        viewersByShop.computeIfPresent(shopId, (k, viewers) -> {
+            viewers.remove(playerId);
+            if (!viewers.isEmpty()) return viewers;
+            offerSnapshots.remove(k); // last viewer gone; the next open snapshots afresh
+            return null;
         });
     }
 
@@ -183,50 +394,253 @@ public class PacketManager {
      * Modifies merchant offers for a player based on their trade limits.
      * This is the core packet modification logic.
      *
-     * @param player The player
-     * @param packet The merchant offers packet to modify
+     * <p>When the packet carries exactly the viewer's snapshot, the result is written straight
+     * into the outgoing bytes (see {@link MerchantOfferEncoding}) and the caller doesn't need to
+     * have PacketEvents re-encode it.</p>
+     *
+     * @param player    The player
+     * @param packet    The merchant offers packet to modify
+     * @param buffer    The event's encoded packet buffer
+     * @param bodyStart Reader index of the packet body in {@code buffer}, taken before the
+     *                  wrapper read it (-1 if unknown)
+     * @return true if the wrapper was changed and the event must be re-encoded
      */
-    public void modifyMerchantPacket(Player player, WrapperPlayServerMerchantOffers packet) {
-        ShopContext context = getShopContext(player.getUniqueId());
+    public boolean modifyMerchantPacket(Player player, WrapperPlayServerMerchantOffers packet,
+                                        Object buffer, int bodyStart) {
+        MerchantSession session = session(player.getUniqueId());
 
-        // Not a tracked shop or context expired
-        if (context == null) {
-            uiToSourceMaps.remove(player.getUniqueId());
+        // Not a tracked shop or session expired
+        if (session == null) {
             if (plugin.getConfigManager().isDebugMode()) {
                 plugin.getLogger().info("No shop context for " + player.getName() + " - not modifying packet");
             }
-            return;
+            return false;
+        }
+
+        // The window's first packet carries Shopkeepers' original offers; keep them for pushes.
+        if (session.awaitingOffers.compareAndSet(true, false)) {
+            cacheOffers(session, packet);
+        }
+
+        ShopConfig shopConfig = plugin.getConfigManager().getShop(session.shopId);
+        if (shopConfig == null || !shopConfig.isEnabled()) {
+            applyPacketModifications(player, session, packet, shopConfig, null);
+            return false;
+        }
+
+        // Vanilla re-sends the offers after every trade. When they are still the offers the
+        // viewer's snapshot holds, the render can be memoized against it.
+        OfferSnapshot cached = session.snapshot;
+        OfferSnapshot source = cached != null && cached.contentHash() == contentHash(packet)
+                && cached.matches(packet) ? cached : null;
+
+        if (plugin.getConfigManager().isNonBlockingRender()
+                && !tradeDataManager.isResident(player.getUniqueId(), session.shopId)) {
+            renderPending(player, session, packet, shopConfig);
+        } else {
+            applyPacketModifications(player, session, packet, shopConfig, source);
+        }
+
+        if (source != null && writeEncoded(session, packet, shopConfig, source, buffer, bodyStart)) {
+            return false;
+        }
+        fullReEncodes.increment();
+        return true;
+    }
+
+    /**
+     * Writes a finished render into the packet's encoded bytes: uses/maxUses (and the
+     * out-of-stock flag) patched in place for in-place shops, the shown offers spliced from the
+     * packet's own bytes in UI order for pooled ones. The snapshot's layout is learned from the
+     * first packet that carries it.
+     *
+     * @return false if the bytes couldn't be vouched for — the caller re-encodes instead
+     */
+    private boolean writeEncoded(MerchantSession session, WrapperPlayServerMerchantOffers packet,
+                                 ShopConfig shopConfig, OfferSnapshot source, Object buffer, int bodyStart) {
+        if (!plugin.getConfigManager().isEncodedOfferPatching() || bodyStart < 0) return false;
+
+        MerchantOfferEncoding encoding = source.encoding().get();
+        if (encoding == null) {
+            int[] offerLengths = encodedLengths(packet, source.offers());
+            source.encoding().compareAndSet(null, offerLengths == null ? MerchantOfferEncoding.UNAVAILABLE
+                    : MerchantOfferEncoding.locate(buffer, bodyStart, source.offers(), offerLengths,
+                            source.villagerLevel(), source.villagerXp(), source.showProgress(), source.canRestock()));
+            encoding = source.encoding().get();
+        }
+        if (!encoding.matches(buffer, bodyStart, source.offers())) return false;
+
+        if (!shopConfig.hasPools()) {
+            encoding.patchUses(buffer, bodyStart, packet.getMerchantOffers());
+            encodedPatches.increment();
+            return true;
         }
+        int[] uiToSource = session.uiToSource;
+        if (uiToSource == null || !encoding.splice(buffer, bodyStart, uiToSource, packet.getMerchantOffers())) {
+            return false;
+        }
+        encodedSplices.increment();
+        return true;
+    }
 
-        applyPacketModifications(player, packet, context.shopId());
+    /**
+     * Encoded length of each offer, measured with the packet's own wrapper (so with its protocol
+     * version and registries): a body holding just that offer minus a body holding none. The
+     * wrapper's buffer and offers are restored afterwards.
+     *
+     * @return The lengths, or null if the writer failed (the snapshot is then re-encoded)
+     */
+    private int[] encodedLengths(WrapperPlayServerMerchantOffers packet, List<MerchantOffer> offers) {
+        Object buffer = packet.getBuffer();
+        List<MerchantOffer> rendered = packet.getMerchantOffers();
+        ByteBuf scratch = Unpooled.buffer();
+        try {
+            packet.setBuffer(scratch);
+            packet.setMerchantOffers(List.of());
+            packet.write();
+            int emptyLength = scratch.writerIndex();
+
+            int[] lengths = new int[offers.size()];
+            for (int i = 0; i < offers.size(); i++) {
+                scratch.clear();
+                packet.setMerchantOffers(List.of(offers.get(i)));
+                packet.write();
+                lengths[i] = scratch.writerIndex() - emptyLength;
+            }
+            return lengths;
+        } catch (RuntimeException e) {
+            if (plugin.getConfigManager().isDebugMode()) {
+                plugin.getLogger().log(Level.INFO, "Couldn't measure encoded merchant offers", e);
+            }
+            return null;
+        } finally {
+            packet.setBuffer(buffer);
+            packet.setMerchantOffers(rendered);
+            scratch.release();
+        }
+    }
+
+    /**
+     * Renders a shop whose counters aren't all cached yet. This runs on the netty thread, which
+     * serves many players and must never wait on the database, so the offers are painted from
+     * cached counters only (or as sold out, per {@code loading-display}); the player's data is
+     * then loaded off-thread and a corrective push sends the real numbers.
+     */
+    private void renderPending(Player player, MerchantSession session, WrapperPlayServerMerchantOffers packet,
+                               ShopConfig shopConfig) {
+        UUID playerId = player.getUniqueId();
+        String shopId = shopConfig.getShopId();
+        pendingRenders.increment();
+        session.memo = null;
+
+        long now = System.currentTimeMillis() / 1000;
+        if (shopConfig.hasPools()) {
+            rebuildWithPools(player, session, packet, shopConfig, now, true);
+        } else {
+            session.uiToSource = null;
+            modifyInPlace(player, packet, shopConfig, now, true);
+        }
+
+        // Joins the preload the shop open already started, if it's still running.
+        tradeDataManager.preloadShopData(playerId, shopId).whenComplete((ignored, error) -> {
+            if (error != null || !player.isOnline() || sessions.get(playerId) != session) return;
+            correctivePushes.increment();
+            plugin.getTaskScheduler().runFor(player, () -> pushStockUpdate(player, shopId, false));
+        });
     }
 
     /**
      * Applies packet modifications when the shopId is already known, bypassing the
      * TTL-guarded context lookup. Used by the live stock push so an expired TTL doesn't
      * leak an un-rebuilt 5-offer packet to a player still viewing the shop.
+     *
+     * <p>If {@code source} is given (the packet's offers are exactly that snapshot's) and the
+     * viewer's last render was built from the same versions, its offers are reused instead of
+     * rebuilding.</p>
+     *
+     * @param source The snapshot the packet's offers came from, or null to render unmemoized
+     * @return true if the packet's offers differ from what the viewer was last sent
      */
-    private void applyPacketModifications(Player player, WrapperPlayServerMerchantOffers packet, String shopId) {
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
+    private boolean applyPacketModifications(Player player, MerchantSession session,
+                                             WrapperPlayServerMerchantOffers packet, ShopConfig shopConfig,
+                                             OfferSnapshot source) {
         if (shopConfig == null || !shopConfig.isEnabled()) {
-            uiToSourceMaps.remove(player.getUniqueId());
+            session.uiToSource = null;
+            session.memo = null;
             if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Shop " + shopId + " not tracked or disabled - not modifying packet");
+                plugin.getLogger().info("Shop " + session.shopId + " not tracked or disabled - not modifying packet");
             }
-            return;
+            return true;
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        RenderKey key = source != null ? renderKey(player.getUniqueId(), shopConfig, source) : null;
+        RenderMemo previous = session.memo;
+        if (key != null && previous != null && previous.isCurrent(key, now)) {
+            renderReuses.increment();
+            packet.setMerchantOffers(previous.offers());
+            session.uiToSource = previous.uiToSource();
+            return false;
         }
+        renderRebuilds.increment();
 
+        long validUntil;
+        int[] uiToSource = null;
         if (shopConfig.hasPools()) {
-            rebuildWithPools(player, packet, shopConfig);
+            validUntil = rebuildWithPools(player, session, packet, shopConfig, now, false);
+            uiToSource = session.uiToSource;
         } else {
             // No pools configured — legacy in-place path. UI slot == Shopkeepers source.
-            uiToSourceMaps.remove(player.getUniqueId());
-            modifyInPlace(player, packet, shopConfig);
+            session.uiToSource = null;
+            validUntil = modifyInPlace(player, packet, shopConfig, now, false);
+        }
+
+        if (key == null) {
+            session.memo = null;
+            return true;
+        }
+        List<MerchantOffer> offers = List.copyOf(packet.getMerchantOffers());
+        session.memo = new RenderMemo(key, offers, uiToSource, validUntil);
+        return previous == null || !sameOutput(previous, offers, uiToSource);
+    }
+
+    /**
+     * Stamps a render with everything it reads. Returns null when the stamps can't vouch for
+     * the result: shared stock that other servers write through shared memory.
+     */
+    private RenderKey renderKey(UUID playerId, ShopConfig shopConfig, OfferSnapshot source) {
+        String shopId = shopConfig.getShopId();
+        if (shopConfig.isShared() && tradeDataManager.hasForeignStockWriters()) return null;
+        ShopLedger ledger = tradeDataManager.peekLedger(playerId, shopId);
+        return new RenderKey(shopConfig, source,
+                tradeDataManager.stockVersion(shopId),
+                shopConfig.hasPools() ? plugin.getPoolRotationManager().layoutVersion(shopId) : 0L,
+                ledger, ledger != null ? ledger.version() : 0);
+    }
+
+    /**
+     * Whether a fresh render shows the viewer exactly what their previous one did: the same
+     * source offers in the same order with the same uses/maxUses.
+     */
+    private static boolean sameOutput(RenderMemo previous, List<MerchantOffer> offers, int[] uiToSource) {
+        if (previous.key().source() == null || !Arrays.equals(previous.uiToSource(), uiToSource)) return false;
+        List<MerchantOffer> before = previous.offers();
+        if (before.size() != offers.size()) return false;
+        for (int i = 0; i < offers.size(); i++) {
+            if (before.get(i).getUses() != offers.get(i).getUses()
+                    || before.get(i).getMaxUses() != offers.get(i).getMaxUses()) return false;
         }
+        return true;
     }
 
-    private void modifyInPlace(Player player, WrapperPlayServerMerchantOffers packet, ShopConfig shopConfig) {
+    /**
+     * @param pending Paint from cached counters only (see {@link #renderPending})
+     * @return Epoch second until which the written numbers stay valid without any write
+     */
+    private long modifyInPlace(Player player, WrapperPlayServerMerchantOffers packet, ShopConfig shopConfig,
+                               long now, boolean pending) {
         Map<Integer, TradeConfig> slotMap = shopConfig.getTradesBySlot();
+        Map<String, TradeHandle> handles = tradeDataManager.handles(shopConfig.getShopId());
         var offers = packet.getMerchantOffers();
 
         if (plugin.getConfigManager().isDebugMode()) {
@@ -234,107 +648,106 @@ public class PacketManager {
                     + slotMap.size() + " configured slots");
         }
 
+        long validUntil = Long.MAX_VALUE;
         for (int slot = 0; slot < offers.size(); slot++) {
             TradeConfig tradeConfig = slotMap.get(slot);
             if (tradeConfig == null) continue;
+            TradeHandle handle = handles.get(tradeConfig.getTradeKey());
+            if (handle == null) continue;
 
             var offer = offers.get(slot);
-            applyLimitsToOffer(player, shopConfig, tradeConfig.getTradeKey(),
-                    tradeConfig.getMaxTrades(), tradeConfig.getMaxPerPlayer(), offer);
+            validUntil = Math.min(validUntil, applyLimitsToOffer(player, handle, offer, now, pending));
 
             if (plugin.getConfigManager().isDebugMode()) {
                 plugin.getLogger().info("Slot " + slot + " [" + tradeConfig.getTradeKey()
                         + "]: uses=" + offer.getUses() + "/" + offer.getMaxUses());
             }
         }
+        return validUntil;
     }
 
     /**
      * Rebuilds the outgoing offer list in UI order, hiding pool items that aren't currently active.
      * Also records the per-player UI→source slot map so inbound SELECT_TRADE can be remapped.
+     *
+     * @param pending Paint from cached counters only (see {@link #renderPending})
+     * @return Epoch second until which the written numbers stay valid without any write
      */
-    private void rebuildWithPools(Player player, WrapperPlayServerMerchantOffers packet, ShopConfig shopConfig) {
+    private long rebuildWithPools(Player player, MerchantSession session, WrapperPlayServerMerchantOffers packet,
+                                  ShopConfig shopConfig, long now, boolean pending) {
         List<MerchantOffer> originals = packet.getMerchantOffers();
-        Map<Integer, TradeConfig> staticByUi = shopConfig.getTradesBySlot();
-
-        // Build assignment: which (pool, item) occupies each UI slot this period.
-        Map<Integer, PoolSlotAssignment> poolByUi = new HashMap<>();
-        int maxUiSlot = -1;
-        for (TradeConfig t : shopConfig.getTrades().values()) {
-            maxUiSlot = Math.max(maxUiSlot, t.getSlot());
-        }
-        for (PoolConfig pool : shopConfig.getPools().values()) {
-            RotationState state = plugin.getPoolRotationManager().getState(shopConfig.getShopId(), pool.getName());
-            if (state == null) continue;
-            List<String> active = state.getActiveItems();
-            List<Integer> uiSlots = pool.getUiSlots();
-            for (int i = 0; i < uiSlots.size() && i < active.size(); i++) {
-                int ui = uiSlots.get(i);
-                poolByUi.put(ui, new PoolSlotAssignment(pool, active.get(i)));
-                maxUiSlot = Math.max(maxUiSlot, ui);
+        ShopLayout layout = layoutFor(shopConfig);
+
+        List<MerchantOffer> newOffers = new ArrayList<>(layout.size());
+        // Shares the layout's array unless the packet is missing a source offer.
+        int[] uiToSource = layout.sourceSlots();
+        long validUntil = Long.MAX_VALUE;
+
+        for (int i = 0; i < layout.size(); i++) {
+            MerchantOffer offer = cloneSingle(originals, layout.sourceSlots()[i]);
+            if (offer == null) {
+                if (uiToSource == layout.sourceSlots()) {
+                    uiToSource = layout.sourceSlots().clone();
+                }
+                continue;
             }
-        }
-
-        List<MerchantOffer> newOffers = new ArrayList<>();
-        List<Integer> uiToSource = new ArrayList<>();
-
-        for (int ui = 0; ui <= maxUiSlot; ui++) {
-            TradeConfig staticTrade = staticByUi.get(ui);
-            PoolSlotAssignment poolAssign = poolByUi.get(ui);
-
-            if (staticTrade != null) {
-                int src = staticTrade.getSourceSlot();
-                MerchantOffer offer = cloneSingle(originals, src);
-                if (offer == null) continue;
-                applyLimitsToOffer(player, shopConfig, staticTrade.getTradeKey(),
-                        staticTrade.getMaxTrades(), staticTrade.getMaxPerPlayer(), offer);
-                newOffers.add(offer);
-                uiToSource.add(src);
-            } else if (poolAssign != null) {
-                PoolItemConfig item = poolAssign.pool().getItem(poolAssign.itemKey());
-                if (item == null) continue;
-                int src = item.getSourceSlot();
-                MerchantOffer offer = cloneSingle(originals, src);
-                if (offer == null) continue;
-                applyLimitsToOffer(player, shopConfig, item.getItemKey(),
-                        item.getMaxTrades(), item.getMaxPerPlayer(), offer);
-                newOffers.add(offer);
-                uiToSource.add(src);
+            validUntil = Math.min(validUntil, applyLimitsToOffer(player, layout.handles()[i], offer, now, pending));
+            if (uiToSource != layout.sourceSlots()) {
+                uiToSource[newOffers.size()] = layout.sourceSlots()[i];
             }
-            // UI slot has neither static nor pool assignment → not appended (no offer at this position).
+            newOffers.add(offer);
+        }
+        if (uiToSource.length != newOffers.size()) {
+            uiToSource = Arrays.copyOf(uiToSource, newOffers.size());
         }
 
         packet.setMerchantOffers(newOffers);
-        uiToSourceMaps.put(player.getUniqueId(), List.copyOf(uiToSource));
+        session.uiToSource = uiToSource;
 
         if (plugin.getConfigManager().isDebugMode()) {
             plugin.getLogger().info("Rebuilt merchant packet for " + player.getName()
                     + " in shop " + shopConfig.getShopId()
                     + ": " + originals.size() + " source offers → " + newOffers.size() + " shown"
-                    + " (uiToSource=" + uiToSource + ")");
+                    + " (uiToSource=" + Arrays.toString(uiToSource) + ")");
         }
+        return validUntil;
     }
 
     /**
      * Applies the correct uses/maxUses to an offer based on the player's remaining trades.
      * For shared shops with a per-player cap, the cap is used as the display max.
+     *
+     * @param pending The player's counters may not be cached: never load, and paint either the
+     *                cached-only estimate or sold out, per {@code loading-display}
+     * @return Epoch second from which the painted numbers may go stale on their own
      */
-    private void applyLimitsToOffer(Player player, ShopConfig shopConfig, String tradeKey,
-                                    int maxTrades, int maxPerPlayer, MerchantOffer offer) {
-        int remaining = tradeDataManager.getRemainingTrades(player.getUniqueId(), shopConfig.getShopId(), tradeKey);
-        boolean unlimited = maxTrades < 0 && !(shopConfig.isShared() && maxPerPlayer > 0);
+    private long applyLimitsToOffer(Player player, TradeHandle handle, MerchantOffer offer, long now,
+                                    boolean pending) {
+        int remaining;
+        if (!pending) {
+            remaining = tradeDataManager.getRemainingTrades(player.getUniqueId(), handle);
+        } else if (plugin.getConfigManager().isLoadingShownSoldOut()) {
+            remaining = 0;
+        } else {
+            remaining = tradeDataManager.peekRemainingTrades(player.getUniqueId(), handle);
+        }
+        int maxTrades = handle.getConfig().getMaxTrades();
+        int maxPerPlayer = handle.getConfig().getMaxPerPlayer();
+        boolean unlimited = maxTrades < 0 && !(handle.isShared() && maxPerPlayer > 0);
         if (unlimited) {
             // Vanilla merchant offers can't represent "no cap", so we paint a high uses=0/max
             // pair: the trade always shows in stock and the player isn't shown a counter that
             // misrepresents the rotation-as-throttle design.
             offer.setUses(0);
             offer.setMaxUses(Integer.MAX_VALUE);
-            return;
+            return Long.MAX_VALUE;
         }
-        int displayMax = (shopConfig.isShared() && maxPerPlayer > 0) ? maxPerPlayer : maxTrades;
+        int displayMax = (handle.isShared() && maxPerPlayer > 0) ? maxPerPlayer : maxTrades;
         int used = displayMax - remaining;
         offer.setUses(Math.max(0, used));
         offer.setMaxUses(displayMax);
+        if (pending || used <= 0) return Long.MAX_VALUE;
+        return tradeDataManager.displayValidUntil(player.getUniqueId(), handle, now);
     }
 
     private static MerchantOffer cloneSingle(List<MerchantOffer> originals, int sourceSlot) {
@@ -357,24 +770,164 @@ public class PacketManager {
      * Returns the recorded UI→source mapping for a player (inbound SELECT_TRADE remap).
      * Returns null if the player doesn't have a rebuilt merchant UI open.
      */
-    public List<Integer> getUiToSourceMap(UUID playerId) {
-        return uiToSourceMaps.get(playerId);
+    public int[] getUiToSourceMap(UUID playerId) {
+        MerchantSession session = sessions.get(playerId);
+        return session != null ? session.uiToSource : null;
     }
 
-    private record PoolSlotAssignment(PoolConfig pool, String itemKey) {}
+    /**
+     * Records the trade a player selected (already remapped to the Shopkeepers source slot),
+     * so the trade event can resolve the traded slot without scanning every recipe.
+     */
+    public void recordSelection(UUID playerId, int sourceSlot) {
+        MerchantSession session = sessions.get(playerId);
+        if (session != null) {
+            session.selectedSlot = sourceSlot;
+        }
+    }
+
+    /**
+     * @return The source slot of the player's last trade selection in their open shop, or -1
+     */
+    public int getSelectedSourceSlot(UUID playerId) {
+        MerchantSession session = sessions.get(playerId);
+        return session != null ? session.selectedSlot : -1;
+    }
+
+    /**
+     * Counts how a trade was resolved to its slot (diagnostics).
+     *
+     * @param fromSelection true if the recorded selection was verified and used, false if the
+     *                      recipe index had to be consulted
+     */
+    public void recordSlotResolution(boolean fromSelection) {
+        (fromSelection ? selectionHits : selectionFallbacks).increment();
+    }
+
+    /**
+     * @return The shop's recipe index, or null if none is built (or it was invalidated)
+     */
+    public RecipeIndex getRecipeIndex(String shopId) {
+        return recipeIndexes.get(shopId);
+    }
+
+    public void putRecipeIndex(String shopId, RecipeIndex index) {
+        recipeIndexes.put(shopId, index);
+        recipeIndexBuilds.increment();
+    }
+
+    /**
+     * Drops a shop's recipe index after its offers changed.
+     */
+    public void invalidateRecipeIndex(String shopId) {
+        recipeIndexes.remove(shopId);
+    }
+
+    // ===== Compiled Pool Layouts =====
+
+    /**
+     * A pooled shop's UI for the current rotation period: for each shown position, in UI order,
+     * the Shopkeepers source slot and the trade's handle. {@code sourceSlots} doubles as the
+     * viewers' UI→source map. Immutable and shared by every viewer;
+     * recompiled only when the rotation layout version, the shop config or the handle map
+     * (both replaced on reload) change.
+     */
+    private record ShopLayout(ShopConfig config, Map<String, TradeHandle> handleMap, long version,
+                              int[] sourceSlots, TradeHandle[] handles) {
+        int size() {
+            return sourceSlots.length;
+        }
+    }
+
+    private ShopLayout layoutFor(ShopConfig shopConfig) {
+        String shopId = shopConfig.getShopId();
+        // Version first: a rotation landing mid-compile then only costs one extra recompile.
+        long version = plugin.getPoolRotationManager().layoutVersion(shopId);
+        Map<String, TradeHandle> handleMap = tradeDataManager.handles(shopId);
+        ShopLayout layout = shopLayouts.get(shopId);
+        if (layout != null && layout.config() == shopConfig && layout.handleMap() == handleMap
+                && layout.version() == version) {
+            return layout;
+        }
+        layout = compileLayout(shopConfig, handleMap, version);
+        shopLayouts.put(shopId, layout);
+        layoutCompiles.increment();
+        return layout;
+    }
+
+    /**
+     * Resolves which static trade or active pool item occupies each UI slot this period.
+     * UI slots with neither (or whose trade has no handle) are left out, so later offers
+     * shift up exactly as Shopkeepers' own list would.
+     */
+    private ShopLayout compileLayout(ShopConfig shopConfig, Map<String, TradeHandle> handleMap, long version) {
+        Map<Integer, TradeConfig> staticByUi = shopConfig.getTradesBySlot();
+
+        Map<Integer, PoolItemConfig> poolByUi = new HashMap<>();
+        int maxUiSlot = -1;
+        for (TradeConfig t : shopConfig.getTrades().values()) {
+            maxUiSlot = Math.max(maxUiSlot, t.getSlot());
+        }
+        for (PoolConfig pool : shopConfig.getPools().values()) {
+            RotationState state = plugin.getPoolRotationManager().getState(shopConfig.getShopId(), pool.getName());
+            if (state == null) continue;
+            List<String> active = state.getActiveItems();
+            List<Integer> uiSlots = pool.getUiSlots();
+            for (int i = 0; i < uiSlots.size() && i < active.size(); i++) {
+                PoolItemConfig item = pool.getItem(active.get(i));
+                if (item == null) continue;
+                int ui = uiSlots.get(i);
+                poolByUi.put(ui, item);
+                maxUiSlot = Math.max(maxUiSlot, ui);
+            }
+        }
+
+        List<Integer> sources = new ArrayList<>();
+        List<TradeHandle> handles = new ArrayList<>();
+        for (int ui = 0; ui <= maxUiSlot; ui++) {
+            TradeConfig staticTrade = staticByUi.get(ui);
+            PoolItemConfig poolItem = poolByUi.get(ui);
+            TradeHandle handle;
+            int src;
+            if (staticTrade != null) {
+                handle = handleMap.get(staticTrade.getTradeKey());
+                src = staticTrade.getSourceSlot();
+            } else if (poolItem != null) {
+                handle = handleMap.get(poolItem.getItemKey());
+                src = poolItem.getSourceSlot();
+            } else {
+                continue;
+            }
+            if (handle == null) continue;
+            sources.add(src);
+            handles.add(handle);
+        }
+
+        int[] sourceSlots = sources.stream().mapToInt(Integer::intValue).toArray();
+        return new ShopLayout(shopConfig, handleMap, version, sourceSlots,
+                handles.toArray(new TradeHandle[0]));
+    }
 
     // ===== Diagnostics =====
 
     public int openShopCount() {
-        return playerShopCache.size();
+        return sessions.size();
     }
 
     public int cachedMerchantDataCount() {
-        return playerMerchantData.size();
+        int count = 0;
+        for (MerchantSession session : sessions.values()) {
+            if (session.snapshot != null) count++;
+        }
+        return count;
     }
 
     public int pendingCacheCount() {
-        return pendingCache.size();
+        int count = 0;
+        for (MerchantSession session : sessions.values()) {
+            if (session.awaitingOffers.get()) count++;
+        }
+        return count;
     }
 
     public int pendingStockPushCount() {
@@ -385,60 +938,219 @@ public class PacketManager {
         return pendingRotationPushes.size();
     }
 
+    public int pushQueueDepth() {
+        return pushQueueDepth;
+    }
+
+    public long pushTicksOverBudget() {
+        return pushTicksOverBudget.sum();
+    }
+
     public int uiToSourceMapCount() {
-        return uiToSourceMaps.size();
+        int count = 0;
+        for (MerchantSession session : sessions.values()) {
+            if (session.uiToSource != null) count++;
+        }
+        return count;
+    }
+
+    public int renderMemoCount() {
+        int count = 0;
+        for (MerchantSession session : sessions.values()) {
+            if (session.memo != null) count++;
+        }
+        return count;
+    }
+
+    public long renderReuseCount() {
+        return renderReuses.sum();
+    }
+
+    public long renderRebuildCount() {
+        return renderRebuilds.sum();
+    }
+
+    public long pushesSuppressedCount() {
+        return pushesSuppressed.sum();
+    }
+
+    public long pendingRenderCount() {
+        return pendingRenders.sum();
+    }
+
+    public long correctivePushCount() {
+        return correctivePushes.sum();
+    }
+
+    public long encodedPatchCount() {
+        return encodedPatches.sum();
+    }
+
+    public long encodedSpliceCount() {
+        return encodedSplices.sum();
+    }
+
+    public long fullReEncodeCount() {
+        return fullReEncodes.sum();
+    }
+
+    public long selectionHitCount() {
+        return selectionHits.sum();
+    }
+
+    public long selectionFallbackCount() {
+        return selectionFallbacks.sum();
+    }
+
+    public int recipeIndexCount() {
+        return recipeIndexes.size();
+    }
+
+    public long recipeIndexBuildCount() {
+        return recipeIndexBuilds.sum();
+    }
+
+    public int compiledLayoutCount() {
+        return shopLayouts.size();
+    }
+
+    public long layoutCompileCount() {
+        return layoutCompiles.sum();
+    }
+
+    public long snapshotReuseCount() {
+        return snapshotReuses.sum();
+    }
+
+    public long snapshotBuildCount() {
+        return snapshotBuilds.sum();
+    }
+
+    public OfferSnapshotStats offerSnapshotStats() {
+        Set<OfferSnapshot> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        long referenced = 0;
+        int viewers = 0;
+        for (MerchantSession session : sessions.values()) {
+            OfferSnapshot snapshot = session.snapshot;
+            if (snapshot == null) continue;
+            distinct.add(snapshot);
+            referenced += snapshot.offers().size();
+            viewers++;
+        }
+        long stored = 0;
+        for (OfferSnapshot snapshot : distinct) {
+            stored += snapshot.offers().size();
+        }
+        return new OfferSnapshotStats(distinct.size(), viewers, referenced, stored);
+    }
+
+    public int viewedShopCount() {
+        return viewersByShop.size();
+    }
+
+    public long shopPushCount() {
+        return shopPushes.sum();
+    }
+
+    public long viewersPushedCount() {
+        return viewersPushed.sum();
+    }
+
+    public int maxPushFanOut() {
+        return maxFanOut.get();
     }
 
     // ===== Shared Stock Live Updates =====
 
     /**
-     * Checks and consumes the pending cache flag for a player.
-     * Called by PacketListener to decide whether to cache the original offers.
+     * Caches the original (pre-modification) offers of a session's first merchant packet.
+     * Called before the packet is modified.
      *
-     * @param playerId The player's UUID
-     * @return true if this packet should be cached (first packet after shop open)
+     * @param session The viewer's session
+     * @param packet  The original merchant offers packet
      */
-    public boolean shouldCachePacket(UUID playerId) {
-        return pendingCache.remove(playerId);
+    private void cacheOffers(MerchantSession session, WrapperPlayServerMerchantOffers packet) {
+        OfferSnapshot snapshot = snapshotFor(session.shopId, packet);
+        session.containerId = packet.getContainerId();
+        session.snapshot = snapshot;
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Cached merchant data for " + session.shopId +
+                    " (containerId=" + packet.getContainerId() + ", offers=" + snapshot.offers().size()
+                    + ", snapshot=" + Integer.toHexString(snapshot.contentHash()) + ")");
+        }
     }
 
     /**
-     * Caches the original (pre-modification) merchant packet data for a player.
-     * Called by PacketListener before modifying the packet.
-     *
-     * @param playerId The player's UUID
-     * @param packet   The original merchant offers packet
-     */
-    public void cachePacketData(UUID playerId, WrapperPlayServerMerchantOffers packet) {
-        List<MerchantOffer> originalOffers = cloneOffers(packet.getMerchantOffers());
-        playerMerchantData.put(playerId, new CachedMerchantData(
-                packet.getContainerId(),
-                originalOffers,
-                packet.getVillagerLevel(),
-                packet.getVillagerXp(),
-                packet.isShowProgress(),
-                packet.isCanRestock()
-        ));
+     * Returns the shop's current snapshot if the packet carries the same offers, otherwise
+     * copies the packet into a new snapshot and makes that the shop's current one. A viewer
+     * keeps whichever snapshot it was given, so replacing the shop's entry never changes what
+     * an already-open window is rebuilt from.
+     */
+    private OfferSnapshot snapshotFor(String shopId, WrapperPlayServerMerchantOffers packet) {
+        int hash = contentHash(packet);
+        OfferSnapshot current = offerSnapshots.get(shopId);
+        if (current != null && current.contentHash() == hash && current.matches(packet)) {
+            snapshotReuses.increment();
+            return current;
+        }
+        OfferSnapshot created = newSnapshot(packet, hash);
+        offerSnapshots.put(shopId, created);
+        snapshotBuilds.increment();
+        return created;
+    }
 
-        if (plugin.getConfigManager().isDebugMode()) {
-            plugin.getLogger().info("Cached merchant data for " + playerId +
-                    " (containerId=" + packet.getContainerId() + ", offers=" + originalOffers.size() + ")");
+    private static OfferSnapshot newSnapshot(WrapperPlayServerMerchantOffers packet, int hash) {
+        return new OfferSnapshot(List.copyOf(cloneOffers(packet.getMerchantOffers())), hash,
+                packet.getVillagerLevel(), packet.getVillagerXp(), packet.isShowProgress(), packet.isCanRestock(),
+                new AtomicReference<>());
+    }
+
+    private static int contentHash(WrapperPlayServerMerchantOffers packet) {
+        int hash = Objects.hash(packet.getVillagerLevel(), packet.getVillagerXp(),
+                packet.isShowProgress(), packet.isCanRestock());
+        for (MerchantOffer offer : packet.getMerchantOffers()) {
+            hash = 31 * hash + Objects.hash(offer.getFirstInputItem(), offer.getSecondInputItem(),
+                    offer.getOutputItem(), offer.getUses(), offer.getMaxUses(), offer.getXp(),
+                    offer.getSpecialPrice(), offer.getPriceMultiplier(), offer.getDemand());
         }
+        return hash;
+    }
+
+    private static boolean sameOffer(MerchantOffer a, MerchantOffer b) {
+        return Objects.equals(a.getFirstInputItem(), b.getFirstInputItem())
+                && Objects.equals(a.getSecondInputItem(), b.getSecondInputItem())
+                && Objects.equals(a.getOutputItem(), b.getOutputItem())
+                && a.getUses() == b.getUses()
+                && a.getMaxUses() == b.getMaxUses()
+                && a.getXp() == b.getXp()
+                && a.getSpecialPrice() == b.getSpecialPrice()
+                && Float.compare(a.getPriceMultiplier(), b.getPriceMultiplier()) == 0
+                && a.getDemand() == b.getDemand();
     }
 
     /**
      * Schedules a debounced stock push for a shared shop.
      * Multiple trades within the same tick are collapsed into a single push on the next tick,
-     * avoiding O(n²) packet storms when many players trade rapidly.
+     * avoiding O(n²) packet storms when many players trade rapidly. Safe from any thread: it
+     * only marks the shop, and the persistent push task picks it up.
      *
      * @param shopId The shop identifier
      */
     public void scheduleSharedStockPush(String shopId) {
         pendingStockPushes.add(shopId);
-        // Schedule unconditionally from either thread; the drain-on-next-tick handler is a no-op
-        // when the set is already empty. A per-call Bukkit task is far cheaper than the
-        // cross-thread synchronization a debounce flag would require.
-        Bukkit.getScheduler().runTaskLater(plugin, this::processPendingPushes, 1L);
+    }
+
+    /**
+     * Schedules a stock push caused by a player's trade. The trader's own window is updated
+     * ahead of other viewers when the push has to be spread over several ticks.
+     *
+     * @param shopId The shop identifier
+     * @param trader The player who just traded
+     */
+    public void scheduleSharedStockPush(String shopId, UUID trader) {
+        pushQueue.recordTrade(trader, System.currentTimeMillis());
+        pendingStockPushes.add(shopId);
     }
 
     /**
@@ -448,82 +1160,144 @@ public class PacketManager {
      */
     public void scheduleRotationPush(String shopId) {
         pendingRotationPushes.add(shopId);
-        Bukkit.getScheduler().runTaskLater(plugin, this::processPendingPushes, 1L);
     }
 
     /**
-     * Processes all pending stock pushes. Runs on the next tick after trades or rotations.
-     * Drains the pending sets and pushes updated packets to all viewers of each affected shop.
-     * Shops that appear in both sets are treated as rotation pushes (superset of the normal push).
+     * Push task body, every tick on the global region thread. Moves newly pending shops'
+     * viewers into the viewer queue, then sends as many queued pushes as the per-tick packet
+     * and time budgets allow; the rest wait for the next tick. Shops that appear in both sets
+     * are treated as rotation pushes (superset of the normal push).
      */
     private void processPendingPushes() {
-        Set<String> rotationShops = pendingRotationPushes.isEmpty()
-                ? Set.of() : Set.copyOf(pendingRotationPushes);
-        pendingRotationPushes.clear();
-
-        Set<String> stockShops = pendingStockPushes.isEmpty()
-                ? Set.of() : Set.copyOf(pendingStockPushes);
-        pendingStockPushes.clear();
-
-        for (String shopId : rotationShops) {
-            pushSharedStockUpdate(shopId, true);
+        if (!pendingRotationPushes.isEmpty() || !pendingStockPushes.isEmpty()) {
+            Set<String> rotationShops = pendingRotationPushes.isEmpty()
+                    ? Set.of() : Set.copyOf(pendingRotationPushes);
+            pendingRotationPushes.removeAll(rotationShops);
+
+            Set<String> stockShops = pendingStockPushes.isEmpty()
+                    ? Set.of() : Set.copyOf(pendingStockPushes);
+            pendingStockPushes.removeAll(stockShops);
+
+            pushQueue.expireTraders(System.currentTimeMillis());
+            for (String shopId : rotationShops) {
+                enqueueViewers(shopId, true);
+            }
+            for (String shopId : stockShops) {
+                if (rotationShops.contains(shopId)) continue; // already handled as rotation push
+                enqueueViewers(shopId, false);
+            }
         }
-        for (String shopId : stockShops) {
-            if (rotationShops.contains(shopId)) continue; // already handled as rotation push
-            pushSharedStockUpdate(shopId, false);
+
+        if (!pushQueue.isEmpty()) {
+            drainViewerQueue();
         }
+        pushQueueDepth = pushQueue.size();
     }
 
     /**
-     * Pushes updated stock information to all players currently viewing a shared shop.
-     * Rebuilds each viewer's packet from cached original data with current stock values.
+     * Queues a push for every player currently viewing a shop. A viewer already queued keeps
+     * one entry: a rotation request upgrades a stock one, and a request for the shop the
+     * viewer has since switched to replaces the old one.
      *
      * @param shopId The shop identifier
      */
-    private void pushSharedStockUpdate(String shopId, boolean returnInputs) {
-        for (Map.Entry<UUID, ShopContext> entry : playerShopCache.entrySet()) {
-            UUID viewerId = entry.getKey();
-            ShopContext context = entry.getValue();
+    private void enqueueViewers(String shopId, boolean returnInputs) {
+        Set<UUID> viewers = viewersByShop.get(shopId);
+        if (viewers == null) return;
 
+        int fanOut = 0;
+        for (UUID viewerId : viewers) {
             // Don't skip on TTL expiry — TTL is a stale-entry safety net, not a "shop closed"
             // signal. Players can sit in an open merchant UI longer than the TTL window between
-            // activity. The isOnline() check below covers the real liveness question.
-            if (!context.shopId().equals(shopId)) continue;
+            // activity. Liveness is checked when the push is sent.
+            MerchantSession session = sessions.get(viewerId);
+            if (session == null || session.snapshot == null) continue;
+
+            pushQueue.enqueue(viewerId, shopId, returnInputs);
+            fanOut++;
+        }
 
-            CachedMerchantData cached = playerMerchantData.get(viewerId);
-            if (cached == null) continue;
+        shopPushes.increment();
+        viewersPushed.add(fanOut);
+        maxFanOut.accumulateAndGet(fanOut, Math::max);
+    }
+
+    /**
+     * Sends queued pushes until the queue is empty or this tick's budget is spent. Each viewer
+     * is handled on the thread that owns them (their region on Folia), since the rotation
+     * variant touches their inventory.
+     */
+    private void drainViewerQueue() {
+        boolean overBudget = pushQueue.drain(plugin.getConfigManager().getPushMaxPacketsPerTick(),
+                plugin.getConfigManager().getPushMaxMillisPerTick(), (viewerId, shopId, returnInputs) -> {
+                    Player viewer = Bukkit.getPlayer(viewerId);
+                    if (viewer == null || !viewer.isOnline()) return false;
+                    plugin.getTaskScheduler().runFor(viewer, () -> pushStockUpdate(viewer, shopId, returnInputs));
+                    return true;
+                });
+        if (overBudget) {
+            pushTicksOverBudget.increment();
+        }
+    }
 
-            Player viewer = Bukkit.getPlayer(viewerId);
-            if (viewer == null || !viewer.isOnline()) continue;
+    /**
+     * Rebuilds one viewer's packet from cached original data with current stock values.
+     * Runs on the viewer's owning thread.
+     */
+    private void pushStockUpdate(Player viewer, String shopId, boolean returnInputs) {
+        MerchantSession session = sessions.get(viewer.getUniqueId());
+        if (session == null || !session.shopId.equals(shopId) || !viewer.isOnline()) return;
+        OfferSnapshot snapshot = session.snapshot;
+        if (snapshot == null) return;
+
+        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
 
-            // Rotation pushes: return any in-progress trade inputs before re-sending the packet
-            // so a previously-selected (now stale) trade can't complete against the new item.
-            if (returnInputs) {
-                returnMerchantInputs(viewer);
+        // Nothing this viewer's numbers depend on moved since they were last sent (e.g. another
+        // player used up their own per-player cap) — the push would repaint the same offers.
+        if (!returnInputs && shopConfig != null && shopConfig.isEnabled()) {
+            RenderKey key = renderKey(viewer.getUniqueId(), shopConfig, snapshot);
+            RenderMemo previous = session.memo;
+            if (key != null && previous != null && previous.isCurrent(key, System.currentTimeMillis() / 1000)) {
+                pushesSuppressed.increment();
+                return;
             }
+        }
 
-            // Clone offers from cache so modifications don't corrupt the originals
-            List<MerchantOffer> offers = cloneOffers(cached.offers());
+        // Rotation pushes: return any in-progress trade inputs before re-sending the packet
+        // so a previously-selected (now stale) trade can't complete against the new item.
+        if (returnInputs) {
+            returnMerchantInputs(viewer);
+        }
 
-            // Build a new packet with the cloned offers
-            WrapperPlayServerMerchantOffers packet = new WrapperPlayServerMerchantOffers(
-                    cached.containerId(), offers, cached.villagerLevel(),
-                    cached.villagerXp(), cached.showProgress(), cached.canRestock()
-            );
+        // The snapshot is shared with other viewers and must never be modified. Pooled shops copy
+        // each shown offer out of the source list themselves, so it is handed over as-is; only
+        // the in-place path overwrites uses/maxUses on the packet's own offers and needs a copy.
+        // The config is resolved once so a reload can't switch paths after this decision.
+        boolean inPlace = shopConfig != null && shopConfig.isEnabled() && !shopConfig.hasPools();
+        List<MerchantOffer> offers = inPlace ? cloneOffers(snapshot.offers()) : snapshot.offers();
 
-            // Apply current stock modifications for this viewer using the known shopId.
-            // Bypasses TTL-guarded context lookup — viewers still watching after their TTL expired
-            // would otherwise get an unmodified 5-offer packet leaked to their client.
-            applyPacketModifications(viewer, packet, shopId);
+        WrapperPlayServerMerchantOffers packet = new WrapperPlayServerMerchantOffers(
+                session.containerId, offers, snapshot.villagerLevel(),
+                snapshot.villagerXp(), snapshot.showProgress(), snapshot.canRestock()
+        );
 
-            // Send silently — sendPacket would re-trigger our own PacketListener and double-rebuild
-            // the already-rebuilt offer list, treating it as if it were the raw 5-offer Shopkeepers packet.
-            PacketEvents.getAPI().getPlayerManager().sendPacketSilently(viewer, packet);
+        // Apply current stock modifications for this viewer using the known shopId.
+        // Bypasses TTL-guarded context lookup — viewers still watching after their TTL expired
+        // would otherwise get an unmodified 5-offer packet leaked to their client.
+        boolean changed = applyPacketModifications(viewer, session, packet, shopConfig, snapshot);
+        if (!changed && !returnInputs) {
+            // Re-rendered because a version moved, but the viewer's numbers came out the same.
+            pushesSuppressed.increment();
+            return;
+        }
 
-            if (plugin.getConfigManager().isDebugMode()) {
-                plugin.getLogger().info("Pushed " + (returnInputs ? "rotation " : "")
-                        + "stock update to " + viewer.getName() + " for shop " + shopId);
-            }
+        // Send silently — sendPacket would re-trigger our own PacketListener and double-rebuild
+        // the already-rebuilt offer list, treating it as if it were the raw 5-offer Shopkeepers packet.
+        PacketEvents.getAPI().getPlayerManager().sendPacketSilently(viewer, packet);
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Pushed " + (returnInputs ? "rotation " : "")
+                    + "stock update to " + viewer.getName() + " for shop " + shopId);
         }
     }
 
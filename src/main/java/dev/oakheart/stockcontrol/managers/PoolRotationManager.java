@@ -1,13 +1,13 @@
 package dev.oakheart.stockcontrol.managers;
 
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
+import dev.oakheart.stockcontrol.data.ChangeLogEntry;
 import dev.oakheart.stockcontrol.data.DataStore;
 import dev.oakheart.stockcontrol.data.PoolConfig;
 import dev.oakheart.stockcontrol.data.RotationState;
 import dev.oakheart.stockcontrol.data.ShopConfig;
 import dev.oakheart.stockcontrol.util.RotationScheduler;
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
 import java.time.ZonedDateTime;
 import java.util.HashSet;
@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -44,7 +45,11 @@ public class PoolRotationManager {
     // Map<shopId, Map<poolName, RotationState>>
     private final Map<String, Map<String, RotationState>> states = new ConcurrentHashMap<>();
 
-    private BukkitTask checkTask;
+    // Per-shop layout version, bumped whenever any pool state of the shop is replaced or
+    // dropped, so cached merchant renders know when the active items moved.
+    private final Map<String, AtomicLong> layoutVersions = new ConcurrentHashMap<>();
+
+    private ScheduledTask checkTask;
 
     public PoolRotationManager(ShopkeepersStockControl plugin,
                                DataStore dataStore,
@@ -60,8 +65,7 @@ public class PoolRotationManager {
      */
     public void initialize() {
         for (RotationState state : dataStore.loadAllRotationStates()) {
-            states.computeIfAbsent(state.getShopId(), k -> new ConcurrentHashMap<>())
-                    .put(state.getPoolName(), state);
+            putState(state);
         }
 
         reconcileWithConfig();
@@ -112,8 +116,10 @@ public class PoolRotationManager {
                 }
             }
             stalePools.forEach(shopEntry.getValue()::remove);
+            if (!stalePools.isEmpty()) bumpLayoutVersion(shopId);
         }
         staleShops.forEach(states::remove);
+        staleShops.forEach(this::bumpLayoutVersion);
 
         // Seed new pools, advance stale ones.
         for (ShopConfig shop : shops.values()) {
@@ -176,6 +182,31 @@ public class PoolRotationManager {
         return all;
     }
 
+    /**
+     * Re-reads one pool's persisted state, replacing the in-memory copy. Applied when another
+     * server sharing the database advanced or re-picked the pool, so this server's UI rebuilds
+     * show the same active items without waiting for its own boundary check.
+     *
+     * @param shopId   The owning shop ID
+     * @param poolName The pool name
+     */
+    public void reloadState(String shopId, String poolName) {
+        ShopConfig shop = plugin.getConfigManager().getShop(shopId);
+        if (shop == null || shop.getPool(poolName) == null) return;
+
+        for (RotationState state : dataStore.loadAllRotationStates()) {
+            if (state.getShopId().equals(shopId) && state.getPoolName().equals(poolName)) {
+                putState(state);
+                if (plugin.getConfigManager().isDebugMode()) {
+                    plugin.getLogger().info("Reloaded pool '" + poolName + "' in shop " + shopId
+                            + " from database (period " + state.getPeriodIndex()
+                            + ", active: " + state.getActiveItems() + ")");
+                }
+                return;
+            }
+        }
+    }
+
     /**
      * Forces an advance for every pool of the given shop, or one specific pool when poolName
      * is non-null. Counters are wiped the same as a natural boundary crossing.
@@ -206,8 +237,7 @@ public class PoolRotationManager {
     }
 
     private void startCheckTask() {
-        checkTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin,
+        checkTask = plugin.getTaskScheduler().runAsyncTimer(
                 this::performCheck,
                 CHECK_INTERVAL_TICKS,
                 CHECK_INTERVAL_TICKS
@@ -272,6 +302,7 @@ public class PoolRotationManager {
         RotationState refreshed = new RotationState(
                 shopId, pool.getName(), existing.getPeriodIndex(), newActive, advancesAt);
         storeState(refreshed);
+        publishRotation(shopId, pool.getName());
         plugin.getPacketManager().scheduleRotationPush(shopId);
         plugin.getLogger().info("Pool '" + pool.getName() + "' in shop " + shopId
                 + " re-picked active items at period " + existing.getPeriodIndex()
@@ -295,14 +326,15 @@ public class PoolRotationManager {
         long advancesAt = RotationScheduler.advancesAt(pool, newPeriodIndex, now);
 
         // Per user preference: every rotation tick resets all currently-active items.
-        // Use resetGlobalTrade — it wipes both per-player and global DB rows + cache entries,
-        // and is a safe no-op for per-player shops (global side is empty there).
+        // Use resetGlobalTrade — it supersedes every per-player count (one generation bump) and
+        // wipes the global row + counter; the global side is empty for per-player shops.
         for (String itemKey : newActive) {
             tradeDataManager.resetGlobalTrade(shopId, itemKey);
         }
 
         RotationState fresh = new RotationState(shopId, pool.getName(), newPeriodIndex, newActive, advancesAt);
         storeState(fresh);
+        publishRotation(shopId, pool.getName());
 
         // Live-update anyone currently viewing the shop so their merchant UI reflects the new
         // rotation without requiring a close + reopen. Uses the rotation-specific push which
@@ -314,9 +346,34 @@ public class PoolRotationManager {
                 + " advanced to period " + newPeriodIndex + " (active: " + newActive + ")");
     }
 
+    private void publishRotation(String shopId, String poolName) {
+        // Null only if startup failed before the change log was wired.
+        ChangeLogManager changeLog = plugin.getChangeLogManager();
+        if (changeLog != null) {
+            changeLog.publish(ChangeLogEntry.Scope.ROTATION, shopId, poolName, null);
+        }
+    }
+
     private void storeState(RotationState state) {
+        putState(state);
+        dataStore.saveRotationState(state);
+    }
+
+    private void putState(RotationState state) {
         states.computeIfAbsent(state.getShopId(), k -> new ConcurrentHashMap<>())
                 .put(state.getPoolName(), state);
-        dataStore.saveRotationState(state);
+        bumpLayoutVersion(state.getShopId());
+    }
+
+    /**
+     * Version of a shop's rotation layout; changes whenever any of its pool states does.
+     */
+    public long layoutVersion(String shopId) {
+        AtomicLong version = layoutVersions.get(shopId);
+        return version != null ? version.get() : 0L;
+    }
+
+    private void bumpLayoutVersion(String shopId) {
+        layoutVersions.computeIfAbsent(shopId, k -> new AtomicLong()).incrementAndGet();
     }
 }
@@ -0,0 +1,129 @@
+package dev.oakheart.stockcontrol.managers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The push task's per-viewer queue: filled from the pending shop sets and drained within a
+ * per-tick packet and time budget, so a large fan-out spreads over several ticks.
+ *
+ * <p>One entry per viewer; later requests coalesce into it. Viewers who traded within the
+ * recent-trade window are served from a priority deque first, so a trader's own window is
+ * updated before the rest of the fan-out.</p>
+ *
+ * <p>Only the push task enqueues and drains, so the queue itself needs no synchronization;
+ * {@link #recordTrade} is called from the trading players' threads.</p>
+ */
+final class PushQueue {
+
+    /** Sends one queued push. */
+    interface Sender {
+        /**
+         * @return Whether a packet went out (false if the viewer is gone; it doesn't count
+         *         against the budget)
+         */
+        boolean send(UUID viewerId, String shopId, boolean returnInputs);
+    }
+
+    /** A queued viewer push: the shop it re-renders and whether merchant inputs are returned. */
+    private record Push(String shopId, boolean returnInputs) {}
+
+    private final long recentTradeMillis;
+    private final LongSupplier nanoClock;
+
+    private final Map<UUID, Push> queued = new HashMap<>();
+    private final ArrayDeque<UUID> priorityViewers = new ArrayDeque<>();
+    private final ArrayDeque<UUID> viewers = new ArrayDeque<>();
+    // Players who traded in the last recentTradeMillis (epoch millis of their last trade)
+    private final Map<UUID, Long> recentTraders = new ConcurrentHashMap<>();
+
+    /**
+     * @param recentTradeMillis How long after a trade a viewer is served first
+     * @param nanoClock         Time source for the per-tick time budget
+     */
+    PushQueue(long recentTradeMillis, LongSupplier nanoClock) {
+        this.recentTradeMillis = recentTradeMillis;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Marks a player as a recent trader. Safe from any thread.
+     */
+    void recordTrade(UUID trader, long nowMillis) {
+        recentTraders.put(trader, nowMillis);
+    }
+
+    /**
+     * Forgets traders whose trade is older than the recent-trade window.
+     */
+    void expireTraders(long nowMillis) {
+        recentTraders.values().removeIf(tradedAt -> nowMillis - tradedAt >= recentTradeMillis);
+    }
+
+    /**
+     * Queues a push for a viewer. A viewer already queued keeps one entry: a rotation request
+     * upgrades a stock one, and a request for the shop the viewer has since switched to
+     * replaces the old one.
+     */
+    void enqueue(UUID viewerId, String shopId, boolean returnInputs) {
+        Push existing = queued.get(viewerId);
+        boolean rotation = returnInputs
+                || (existing != null && existing.shopId().equals(shopId) && existing.returnInputs());
+        queued.put(viewerId, new Push(shopId, rotation));
+        if (recentTraders.containsKey(viewerId)) {
+            // May also sit in the normal deque; whichever copy comes second finds no entry.
+            priorityViewers.add(viewerId);
+        } else if (existing == null) {
+            viewers.add(viewerId);
+        }
+    }
+
+    /**
+     * Hands queued pushes to {@code sender} until the queue is empty or this tick's budget is
+     * spent.
+     *
+     * @param maxPackets Pushes sent at most this tick
+     * @param maxMillis  Time after which no further push is started this tick
+     * @return Whether pushes are left for the next tick
+     */
+    boolean drain(int maxPackets, long maxMillis, Sender sender) {
+        long deadline = nanoClock.getAsLong() + maxMillis * 1_000_000L;
+
+        int sent = 0;
+        while (sent < maxPackets && nanoClock.getAsLong() < deadline) {
+            UUID viewerId = priorityViewers.poll();
+            if (viewerId == null) viewerId = viewers.poll();
+            if (viewerId == null) break;
+
+            Push push = queued.remove(viewerId);
+            if (push == null) continue; // second copy of a prioritized viewer
+
+            if (sender.send(viewerId, push.shopId(), push.returnInputs())) sent++;
+        }
+
+        if (!queued.isEmpty()) return true;
+        // Only stale duplicates can be left behind
+        priorityViewers.clear();
+        viewers.clear();
+        return false;
+    }
+
+    int size() {
+        return queued.size();
+    }
+
+    boolean isEmpty() {
+        return queued.isEmpty();
+    }
+
+    void clear() {
+        queued.clear();
+        priorityViewers.clear();
+        viewers.clear();
+        recentTraders.clear();
+    }
+}
@@ -2,15 +2,37 @@ package dev.oakheart.stockcontrol.managers;
 
 import dev.oakheart.stockcontrol.ShopkeepersStockControl;
 import dev.oakheart.stockcontrol.data.*;
+import dev.oakheart.stockcontrol.util.ResetClock;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
-
-import java.time.DayOfWeek;
-import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
+import org.bukkit.entity.Player;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 
 /**
@@ -30,45 +52,122 @@ public class TradeDataManager {
     private final ShopkeepersStockControl plugin;
     private final DataStore dataStore;
 
-    // In-memory cache: cacheKey -> PlayerTradeData
-    private final Map<String, PlayerTradeData> tradeCache;
-
-    // Dirty tracking for batch writes
-    private final Set<String> dirtyKeys;
-
-    // Player-keyed index for O(1) eviction: playerId -> set of cache keys
-    private final Map<UUID, Set<String>> playerCacheKeys;
-
-    // Global trade cache for shared stock mode: "shopId:tradeKey" -> GlobalTradeData
-    private final Map<String, GlobalTradeData> globalTradeCache;
-    private final Set<String> globalDirtyKeys;
+    // In-memory cache: one ledger per player, holding per-shop arrays indexed by trade ordinal
+    private final Map<UUID, PlayerLedger> ledgers;
+
+    // Dirty tracking for batch writes: shop ledgers with at least one unflushed slot. Compared
+    // by identity; every mutation runs under tradeLock and every reset or invalidation evicts
+    // under writeResetLock, so a ledger evicted by a reset can't be re-marked afterwards. A quit
+    // eviction (evictPlayer) only takes tradeLock: resets are still excluded while it drains,
+    // and a trade that re-marks the ledger after the drain is written by the next flush.
+    private final Set<ShopLedger> dirtyLedgers;
+
+    // Global counters for shared stock mode live in their TradeHandle's slot; only the
+    // dirty set is kept here.
+    private final Set<GlobalTradeData> globalDirty;
+
+    // Trade handle registry. Ids are interned per "shopId:tradeKey" and never reused, so handles
+    // and cache keys stay valid across reloads. handlesById also keeps retired handles (trades
+    // removed from config) so data cached under them can still be found and evicted.
+    private final Map<String, Integer> tradeIds = new ConcurrentHashMap<>();
+    private int nextTradeId;  // guarded by rebuildHandles()
+    private volatile TradeHandle[] handlesById = new TradeHandle[0];
+    private volatile Map<String, Map<String, TradeHandle>> handlesByShop = Map.of();
+    // Shop and per-shop trade ordinals, interned like the ids (guarded by rebuildHandles()).
+    // handlesByShopOrdinal maps a ledger slot back to its handle, retired handles included.
+    private final Map<String, Integer> shopOrdinals = new ConcurrentHashMap<>();
+    private final Map<String, Integer> tradeCountsByShop = new HashMap<>();
+    private volatile TradeHandle[][] handlesByShopOrdinal = new TradeHandle[0][];
+
+    // Expiry schedule: min-heap of per-player counter deadlines, so the periodic cleanup only
+    // touches entries that are due instead of scanning every cached counter. Entries carry the
+    // slot's reset epoch at registration and are dropped on pop if the slot has moved on.
+    private final PriorityQueue<Expiry> expiryQueue = new PriorityQueue<>(Comparator.comparingLong(Expiry::deadline));
+
+    // Restock generations, keyed "shopId:tradeKey" ("shopId:" for the shop-wide one). Handles
+    // hold these counters directly; the map only resolves them by name. A restock bumps one
+    // counter instead of touching every cached and persisted per-player count.
+    private final Map<String, AtomicInteger> restockGenerations = new ConcurrentHashMap<>();
+
+    // Per-shop stock version: bumped whenever a global counter of the shop changes on this
+    // server (admission, restock, invalidation, eviction). Cached merchant renders compare it
+    // instead of re-reading every counter. Per-player counts are versioned by their ledger.
+    private final Map<String, AtomicLong> stockVersions = new ConcurrentHashMap<>();
+
+    // Daily/weekly trades: last period boundary whose stale rows were swept, by trade id.
+    private final Map<Integer, Long> sweptBoundaries = new ConcurrentHashMap<>();
+
+    // Serializes destructive operations (resets, cleanup, invalidations) against the flush's
+    // drain of the dirty sets. Trades take the shared side: they run in parallel with each
+    // other (the counters admit by CAS / per-ledger monitor) and only wait for a reset or a
+    // drain in progress — never for the SQLite write that follows the drain.
+    private final ReentrantReadWriteLock resetLock = new ReentrantReadWriteLock();
+    private final Lock tradeLock = resetLock.readLock();
+    private final Lock writeResetLock = resetLock.writeLock();
+
+    // Held by a flush from its drain until its write is done, and by local resets around their
+    // delete. Without it a flush could drain a row, yield, and — after a reset here wipes the
+    // cache + DB row — write the stale row back, silently undoing the reset. Resets on other
+    // servers are caught by the change log fence instead (DataStore.WriteFence).
+    // Lock order: flushLock before writeResetLock.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // Rows of players evicted on quit, waiting for their async write. Drained under flushLock,
+    // so a local reset writes them out before its delete rather than after.
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private record PendingWrite(List<PlayerTradeData> rows, DataStore.WriteFence fence) {
+    }
 
-    // Serializes destructive operations (resets, cleanup) against the batch-write flush.
-    // Without this, the flush can snapshot a cache entry, yield, and — after a concurrent reset
-    // wipes the cache + DB row — write the stale snapshot back, silently undoing the reset.
-    private final Object writeResetLock = new Object();
+    // Ledger cache bound: once more than cache-max-players ledgers are resident, clean ledgers
+    // of offline players are evicted, least frequently used first. A heap collection-usage
+    // threshold notification (live data still above the threshold after a GC) drops every
+    // evictable ledger.
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
+    private final LongAdder memoryPressureTrims = new LongAdder();
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+    private volatile boolean memoryPressure;
+    private volatile long lastTrimMillis;
+    private NotificationListener memoryListener;
+    private final List<ArmedPool> armedPools = new ArrayList<>();
+
+    // Cache-miss loader: concurrent requests for the same (player, shop) or (player, trade)
+    // share one in-flight load. Background loads run on virtual threads; the DataStore is
+    // synchronized (which pins a virtual thread in Java 21), so only a couple may queue on it.
+    private final Map<LoadKey, CompletableFuture<Void>> inFlightLoads = new ConcurrentHashMap<>();
+    private final ExecutorService loader = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore loadPermits = new Semaphore(2);
+    private final LongAdder loadRequests = new LongAdder();
+    private final LongAdder loadsDeduplicated = new LongAdder();
+
+    // Optional host-wide shared-memory backing for global (shared-stock) counters
+    private SharedCounterFile sharedCounters;
 
     // Scheduled tasks
-    private BukkitTask batchWriteTask;
+    private ScheduledTask batchWriteTask;
 
     public TradeDataManager(ShopkeepersStockControl plugin, DataStore dataStore) {
         this.plugin = plugin;
         this.dataStore = dataStore;
-        this.tradeCache = new ConcurrentHashMap<>();
-        this.dirtyKeys = ConcurrentHashMap.newKeySet();
-        this.playerCacheKeys = new ConcurrentHashMap<>();
-        this.globalTradeCache = new ConcurrentHashMap<>();
-        this.globalDirtyKeys = ConcurrentHashMap.newKeySet();
+        this.ledgers = new ConcurrentHashMap<>();
+        this.dirtyLedgers = ConcurrentHashMap.newKeySet();
+        this.globalDirty = ConcurrentHashMap.newKeySet();
     }
 
     /**
      * Initializes the manager and starts scheduled tasks.
      */
     public void initialize() {
+        loadRestockGenerations();
+        rebuildHandles();
+        openSharedCounters();
+        registerMemoryListener();
+
         // Start batch write task
         int batchInterval = plugin.getConfigManager().getBatchWriteInterval();
-        batchWriteTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin,
+        batchWriteTask = plugin.getTaskScheduler().runAsyncTimer(
                 this::flushDirtyData,
                 batchInterval * 20L, // Convert seconds to ticks
                 batchInterval * 20L
@@ -86,8 +185,7 @@ public class TradeDataManager {
             batchWriteTask.cancel();
         }
         int batchInterval = plugin.getConfigManager().getBatchWriteInterval();
-        batchWriteTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin,
+        batchWriteTask = plugin.getTaskScheduler().runAsyncTimer(
                 this::flushDirtyData,
                 batchInterval * 20L,
                 batchInterval * 20L
@@ -105,194 +203,156 @@ public class TradeDataManager {
         }
 
         // Flush all dirty data synchronously
+        loader.shutdownNow();
+        unregisterMemoryListener();
         flushAllDirtyData();
 
+        if (sharedCounters != null) {
+            try {
+                sharedCounters.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to close shared counter file", e);
+            }
+            sharedCounters = null;
+        }
+
         plugin.getLogger().info("TradeDataManager shutdown complete");
     }
 
-    // ===== Core Trade Logic =====
+    // ===== Trade Handles =====
 
     /**
-     * Resets expired cooldowns on a player's trade data if applicable.
-     * Called before recording a trade to ensure state is current.
-     * Separated from canTrade() to keep the check pure (read-only).
-     *
-     * @param playerId The player's UUID
-     * @param shopId   The shop identifier
-     * @param tradeKey The trade key
+     * Re-resolves every configured trade into a {@link TradeHandle}. Called on startup and
+     * after each config reload; existing ids and ordinals — and the global counters the
+     * handles hold — carry over, so cached data stays attached to the reloaded trade.
      */
-    public void resetIfExpired(UUID playerId, String shopId, String tradeKey) {
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
-        if (shopConfig != null && shopConfig.isShared()) {
-            resetIfExpiredShared(playerId, shopId, tradeKey, shopConfig);
-            return;
-        }
-
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
-        if (data == null) return;
-
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        CooldownMode mode = tradeConfig != null ? tradeConfig.getCooldownMode() : CooldownMode.ROLLING;
-        long now = System.currentTimeMillis() / 1000;
-
-        switch (mode) {
-            case DAILY:
-            case WEEKLY:
-                if (isExpired(data, tradeConfig)) {
-                    data.setTradesUsed(0);
-                    data.setLastResetEpoch(now);
-                    markDirty(data.getCacheKey());
-                }
-                break;
-            case ROLLING:
-                long elapsed = now - data.getLastResetEpoch();
-                if (elapsed < 0) elapsed = 0;
-                if (elapsed >= data.getCooldownSeconds()) {
-                    data.setTradesUsed(0);
-                    data.setLastResetEpoch(now);
-                    markDirty(data.getCacheKey());
+    public synchronized void rebuildHandles() {
+        TradeHandle[] previous = handlesById;
+        List<TradeHandle> rebuilt = new ArrayList<>();
+        Map<String, Map<String, TradeHandle>> byShop = new HashMap<>();
+
+        for (ShopConfig shop : plugin.getConfigManager().getShops().values()) {
+            String shopId = shop.getShopId();
+            Map<String, TradeHandle> trades = new HashMap<>();
+            for (TradeConfig tradeConfig : shop.getAllTrades().values()) {
+                int id = tradeIds.computeIfAbsent(shopId + ":" + tradeConfig.getTradeKey(), k -> nextTradeId++);
+                TradeHandle old = id < previous.length ? previous[id] : null;
+                TradeHandle handle;
+                if (old != null) {
+                    handle = old.rebind(shop, tradeConfig);
+                } else {
+                    int shopOrdinal = shopOrdinals.computeIfAbsent(shopId, k -> shopOrdinals.size());
+                    int tradeOrdinal = tradeCountsByShop.merge(shopId, 1, Integer::sum) - 1;
+                    handle = TradeHandle.create(id, shopOrdinal, tradeOrdinal, shop, tradeConfig,
+                            generationCounter(shopId, ""), generationCounter(shopId, tradeConfig.getTradeKey()));
                 }
-                break;
-            case NONE:
-            default:
-                break;
+                trades.put(tradeConfig.getTradeKey(), handle);
+                rebuilt.add(handle);
+            }
+            byShop.put(shopId, Map.copyOf(trades));
         }
-    }
-
-    /**
-     * Resets expired cooldowns for shared-mode shops.
-     */
-    private void resetIfExpiredShared(UUID playerId, String shopId, String tradeKey, ShopConfig shopConfig) {
-        TradeConfig tradeConfig = shopConfig.findTradeLimits(tradeKey);
-        if (tradeConfig == null) return;
-
-        long now = System.currentTimeMillis() / 1000;
 
-        // Reset global stock if expired
-        GlobalTradeData globalData = getGlobalTradeData(shopId, tradeKey);
-        if (globalData != null && tradeConfig.getCooldownMode() != CooldownMode.NONE) {
-            if (isGlobalExpired(globalData, tradeConfig)) {
-                globalData.setTradesUsed(0);
-                globalData.setLastResetEpoch(now);
-                globalDirtyKeys.add(globalData.getCacheKey());
-            }
+        TradeHandle[] byId = Arrays.copyOf(previous, nextTradeId);
+        for (TradeHandle handle : rebuilt) {
+            byId[handle.getId()] = handle;
         }
 
-        // Reset per-player cap if expired
-        int maxPerPlayer = tradeConfig.getMaxPerPlayer();
-        if (maxPerPlayer > 0) {
-            PlayerTradeData playerData = getTradeData(playerId, shopId, tradeKey);
-            if (playerData != null && tradeConfig.getCooldownMode() != CooldownMode.NONE
-                    && isExpired(playerData, tradeConfig)) {
-                playerData.setTradesUsed(0);
-                playerData.setLastResetEpoch(now);
-                markDirty(playerData.getCacheKey());
+        // Ledger index: [shop ordinal][trade ordinal], retired handles included.
+        TradeHandle[][] byOrdinal = new TradeHandle[shopOrdinals.size()][];
+        for (Map.Entry<String, Integer> shop : shopOrdinals.entrySet()) {
+            byOrdinal[shop.getValue()] = new TradeHandle[tradeCountsByShop.getOrDefault(shop.getKey(), 0)];
+        }
+        for (TradeHandle handle : byId) {
+            if (handle != null) {
+                byOrdinal[handle.getShopOrdinal()][handle.getTradeOrdinal()] = handle;
             }
         }
+
+        handlesById = byId;
+        handlesByShopOrdinal = byOrdinal;
+        handlesByShop = Map.copyOf(byShop);
+
+        // Cooldown settings may have changed — recompute every deadline against the new config.
+        rescheduleExpiries();
     }
 
     /**
-     * Checks if a player can perform a trade (considering cooldowns and limits).
-     * This is a pure read-only check — call resetIfExpired() before this to ensure
-     * expired cooldowns are cleared.
+     * Resolves a configured trade. Callers on hot paths should resolve once and keep the
+     * handle for the rest of the operation.
      *
-     * @param playerId The player's UUID
      * @param shopId   The shop identifier
-     * @param tradeKey The trade key
-     * @return true if the player can trade, false otherwise
+     * @param tradeKey The trade key (static trade or pool item)
+     * @return The handle, or null if the shop or trade isn't configured
      */
-    public boolean canTrade(UUID playerId, String shopId, String tradeKey) {
-        // Dispatch to shared mode if applicable
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
-        if (shopConfig != null && shopConfig.isShared()) {
-            return canTradeShared(playerId, shopId, tradeKey, shopConfig);
-        }
-
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
-
-        // First time trading - always allowed
-        if (data == null) {
-            return true;
-        }
-
-        int limit = getTradeLimit(shopId, tradeKey);
-        if (limit < 0) return true; // Unlimited (-1 sentinel)
-        return data.getTradesUsed() < limit;
+    public TradeHandle resolve(String shopId, String tradeKey) {
+        Map<String, TradeHandle> trades = handlesByShop.get(shopId);
+        return trades != null ? trades.get(tradeKey) : null;
     }
 
     /**
-     * Checks if a player can trade in a shared-mode shop (pure read-only).
+     * Gets every configured trade of a shop, keyed by trade key.
+     *
+     * @return Unmodifiable map (empty if the shop isn't configured)
      */
-    private boolean canTradeShared(UUID playerId, String shopId, String tradeKey, ShopConfig shopConfig) {
-        TradeConfig tradeConfig = shopConfig.findTradeLimits(tradeKey);
-        if (tradeConfig == null) return true; // Untracked trade
-
-        // Check global stock (skipped when unlimited — -1 means "no per-period cap").
-        if (!tradeConfig.isUnlimited()) {
-            GlobalTradeData globalData = getGlobalTradeData(shopId, tradeKey);
-            int globalUsed = globalData != null ? globalData.getTradesUsed() : 0;
-            if (globalUsed >= tradeConfig.getMaxTrades()) {
-                return false;
-            }
-        }
+    public Map<String, TradeHandle> handles(String shopId) {
+        return handlesByShop.getOrDefault(shopId, Map.of());
+    }
 
-        // Check per-player cap if configured
-        int maxPerPlayer = tradeConfig.getMaxPerPlayer();
-        if (maxPerPlayer > 0) {
-            PlayerTradeData playerData = getTradeData(playerId, shopId, tradeKey);
-            if (playerData != null && playerData.getTradesUsed() >= maxPerPlayer) {
-                return false;
-            }
-        }
+    /**
+     * Like {@link #resolve} but also finds retired handles — used to evict data cached under a
+     * trade that has since been removed from config.
+     */
+    private TradeHandle knownHandle(String shopId, String tradeKey) {
+        Integer id = tradeIds.get(shopId + ":" + tradeKey);
+        if (id == null) return null;
+        TradeHandle[] handles = handlesById;
+        return id < handles.length ? handles[id] : null;
+    }
 
-        return true;
+    /**
+     * A shop's handles indexed by trade ordinal (retired ones included), or an empty array.
+     */
+    private TradeHandle[] shopHandles(int shopOrdinal) {
+        TradeHandle[][] handles = handlesByShopOrdinal;
+        return shopOrdinal < handles.length ? handles[shopOrdinal] : new TradeHandle[0];
     }
 
+    // ===== Core Trade Logic =====
+
     /**
      * Gets the number of remaining trades for a player.
      *
      * @param playerId The player's UUID
-     * @param shopId   The shop identifier
-     * @param tradeKey The trade key
+     * @param handle   The resolved trade
      * @return Number of remaining trades
      */
-    public int getRemainingTrades(UUID playerId, String shopId, String tradeKey) {
+    public int getRemainingTrades(UUID playerId, TradeHandle handle) {
         // Dispatch to shared mode if applicable
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
-        if (shopConfig != null && shopConfig.isShared()) {
-            return getRemainingTradesShared(playerId, shopId, tradeKey, shopConfig);
+        if (handle.isShared()) {
+            return getRemainingTradesShared(playerId, handle);
         }
 
-        int limit = getTradeLimit(shopId, tradeKey);
+        TradeConfig tradeConfig = handle.getConfig();
+        int limit = tradeConfig.getMaxTrades();
         if (limit < 0) return UNLIMITED_REMAINING;
 
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
-
-        if (data == null) {
-            return limit;
-        }
-
-        if (hasCooldownExpired(playerId, shopId, tradeKey)) {
-            return limit;
-        }
-
-        return Math.max(0, limit - data.getTradesUsed());
+        ShopLedger ledger = ledger(playerId, handle);
+        return Math.max(0, limit - usedInPeriod(ledger, handle));
     }
 
     /**
      * Gets remaining trades for a shared-mode shop.
      * Returns min(globalRemaining, playerCapRemaining) when per-player cap is set.
      */
-    private int getRemainingTradesShared(UUID playerId, String shopId, String tradeKey, ShopConfig shopConfig) {
-        TradeConfig tradeConfig = shopConfig.findTradeLimits(tradeKey);
-        if (tradeConfig == null) return 0;
+    private int getRemainingTradesShared(UUID playerId, TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
 
         // Global remaining
-        GlobalTradeData globalData = getGlobalTradeData(shopId, tradeKey);
+        GlobalTradeData globalData = getGlobalTradeData(handle);
         if (globalData != null && tradeConfig.getCooldownMode() != CooldownMode.NONE
                 && isGlobalExpired(globalData, tradeConfig)) {
             // Expired — full stock
-            return computeEffectiveRemaining(tradeConfig.getMaxTrades(), playerId, shopId, tradeKey, tradeConfig);
+            return computeEffectiveRemaining(tradeConfig.getMaxTrades(), playerId, handle);
         }
 
         int globalUsed = globalData != null ? globalData.getTradesUsed() : 0;
@@ -303,15 +363,7 @@ public class TradeDataManager {
         // If per-player cap exists, cap the remaining
         int maxPerPlayer = tradeConfig.getMaxPerPlayer();
         if (maxPerPlayer > 0) {
-            PlayerTradeData playerData = getTradeData(playerId, shopId, tradeKey);
-            int playerUsed = 0;
-            if (playerData != null) {
-                if (tradeConfig.getCooldownMode() != CooldownMode.NONE && isExpired(playerData, tradeConfig)) {
-                    playerUsed = 0;
-                } else {
-                    playerUsed = playerData.getTradesUsed();
-                }
-            }
+            int playerUsed = usedInPeriod(ledger(playerId, handle), handle);
             int playerRemaining = Math.max(0, maxPerPlayer - playerUsed);
             return Math.min(globalRemaining, playerRemaining);
         }
@@ -322,16 +374,14 @@ public class TradeDataManager {
     /**
      * Helper to compute effective remaining when global stock is full (after reset).
      */
-    private int computeEffectiveRemaining(int globalMax, UUID playerId, String shopId,
-                                           String tradeKey, TradeConfig tradeConfig) {
+    private int computeEffectiveRemaining(int globalMax, UUID playerId, TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
         int effectiveGlobalMax = tradeConfig.isUnlimited() ? UNLIMITED_REMAINING : globalMax;
         int maxPerPlayer = tradeConfig.getMaxPerPlayer();
         if (maxPerPlayer > 0) {
-            PlayerTradeData playerData = getTradeData(playerId, shopId, tradeKey);
             int playerUsed = 0;
-            if (playerData != null && tradeConfig.getCooldownMode() != CooldownMode.NONE
-                    && !isExpired(playerData, tradeConfig)) {
-                playerUsed = playerData.getTradesUsed();
+            if (tradeConfig.getCooldownMode() != CooldownMode.NONE) {
+                playerUsed = usedInPeriod(ledger(playerId, handle), handle);
             }
             int playerRemaining = Math.max(0, maxPerPlayer - playerUsed);
             return Math.min(effectiveGlobalMax, playerRemaining);
@@ -343,16 +393,14 @@ public class TradeDataManager {
      * Gets global remaining trades (without per-player cap consideration).
      * Used by PlaceholderAPI for explicit global stock display.
      *
-     * @param shopId   The shop identifier
-     * @param tradeKey The trade key
+     * @param handle The resolved trade
      * @return Global remaining trades
      */
-    public int getGlobalRemainingTrades(String shopId, String tradeKey) {
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        if (tradeConfig == null) return 0;
+    public int getGlobalRemainingTrades(TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
         if (tradeConfig.isUnlimited()) return UNLIMITED_REMAINING;
 
-        GlobalTradeData data = getGlobalTradeData(shopId, tradeKey);
+        GlobalTradeData data = getGlobalTradeData(handle);
         if (data == null) return tradeConfig.getMaxTrades();
 
         if (tradeConfig.getCooldownMode() != CooldownMode.NONE && isGlobalExpired(data, tradeConfig)) {
@@ -362,80 +410,162 @@ public class TradeDataManager {
         return Math.max(0, tradeConfig.getMaxTrades() - data.getTradesUsed());
     }
 
+    // ===== Atomic trade attempt =====
+
     /**
-     * Records a trade (increments count and starts cooldown if limit reached).
+     * Atomic "check + record" for one trade. Each counter admits with a single step that
+     * resets an expired period, checks the cap and increments together — a CAS on the packed
+     * global counter, the ledger's monitor for the per-player one — so concurrent callers can
+     * never push a counter past its cap, and trades in different shops or by different players
+     * no longer queue behind each other.
      *
-     * @param playerId The player's UUID
-     * @param shopId   The shop identifier
-     * @param tradeKey The trade key
+     * Trades hold the shared side of the reset lock: they only wait for a reset, cleanup or
+     * flush in progress. It is also the only mutating entry point, which is what lets the
+     * dirty sets track entries by identity.
+     *
+     * The outcome's remaining count and reset epoch come from the counts this admission just
+     * wrote, so feedback never re-reads a counter another player's trade may have moved since.
+     *
+     * @return The outcome: whether the trade was recorded, and which counter limits it
      */
-    public void recordTrade(UUID playerId, String shopId, String tradeKey) {
-        // Dispatch to shared mode if applicable
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
-        if (shopConfig != null && shopConfig.isShared()) {
-            recordSharedTrade(playerId, shopId, tradeKey, shopConfig);
-            return;
+    public TradeOutcome attemptTrade(UUID playerId, TradeHandle handle) {
+        tradeLock.lock();
+        try {
+            return handle.isShared() ? admitShared(playerId, handle) : admitPlayer(playerId, handle);
+        } finally {
+            tradeLock.unlock();
         }
+    }
 
-        PlayerTradeData data = getOrCreateTradeData(playerId, shopId, tradeKey);
-
-        // Atomic increment — safe even if this were ever called from multiple threads.
-        int newUsed = data.incrementTradesUsed();
-        markDirty(data.getCacheKey());
+    private TradeOutcome admitPlayer(UUID playerId, TradeHandle handle) {
+        int limit = handle.getConfig().getMaxTrades();
+        ShopLedger ledger = ledger(playerId, handle);
+        int newUsed = acquirePlayer(playerId, handle, ledger, limit < 0 ? Integer.MAX_VALUE : limit); // -1 = unlimited
+        long resetEpoch = playerResetEpoch(ledger, handle);
+        if (newUsed < 0) {
+            return TradeOutcome.denied(TradeOutcome.Counter.PLAYER, limit, resetEpoch, getResetTimeString(handle));
+        }
 
         if (plugin.getConfigManager().isDebugMode()) {
-            int limit = getTradeLimit(shopId, tradeKey);
-            plugin.getLogger().info("Recorded trade for " + playerId + " at " + shopId + ":" + tradeKey +
-                    " (used: " + newUsed + "/" + limit + ")");
+            plugin.getLogger().info("Recorded trade for " + playerId + " at " + handle.getShopId() + ":"
+                    + handle.getTradeKey() + " (used: " + newUsed + "/" + limit + ")");
         }
+        return TradeOutcome.admitted(TradeOutcome.Counter.PLAYER, limit < 0 ? UNLIMITED_REMAINING : limit - newUsed,
+                limit, resetEpoch, getResetTimeString(handle));
     }
 
     /**
-     * Records a trade in a shared-mode shop.
-     * Increments both the global counter and per-player counter (if per-player cap exists).
+     * Shared-stock admission with an optional per-player cap: two counters that must both
+     * admit. The player's counter is reserved first — only that player's own trades contend on
+     * it — and given back if the global stock then refuses, so a refused trade never leaves
+     * either counter incremented and the global counter never over-reserves for others.
      */
-    private void recordSharedTrade(UUID playerId, String shopId, String tradeKey, ShopConfig shopConfig) {
-        // Atomic increments — prevents lost updates if recordTrade is ever called concurrently.
-        GlobalTradeData globalData = getOrCreateGlobalTradeData(shopId, tradeKey);
-        int newGlobalUsed = globalData.incrementTradesUsed();
-        globalDirtyKeys.add(globalData.getCacheKey());
+    private TradeOutcome admitShared(UUID playerId, TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
+        int maxPerPlayer = tradeConfig.getMaxPerPlayer();
+        int displayMax = maxPerPlayer > 0 ? maxPerPlayer : tradeConfig.getMaxTrades();
+        String resetTime = getResetTimeString(handle);
 
-        // Increment per-player counter if per-player cap is configured
-        TradeConfig tradeConfig = shopConfig.findTradeLimits(tradeKey);
-        if (tradeConfig != null && tradeConfig.getMaxPerPlayer() > 0) {
-            PlayerTradeData playerData = getOrCreateTradeData(playerId, shopId, tradeKey);
-            playerData.incrementTradesUsed();
-            markDirty(playerData.getCacheKey());
+        ShopLedger ledger = null;
+        int playerRemaining = UNLIMITED_REMAINING;
+        if (maxPerPlayer > 0) {
+            ledger = ledger(playerId, handle);
+            int newUsed = acquirePlayer(playerId, handle, ledger, maxPerPlayer);
+            if (newUsed < 0) {
+                return TradeOutcome.denied(TradeOutcome.Counter.PLAYER, displayMax,
+                        playerResetEpoch(ledger, handle), resetTime);
+            }
+            playerRemaining = maxPerPlayer - newUsed;
+        }
+
+        GlobalTradeData globalData = getOrCreateGlobalTradeData(handle);
+        long now = System.currentTimeMillis() / 1000;
+        int maxTrades = tradeConfig.isUnlimited() ? Integer.MAX_VALUE : tradeConfig.getMaxTrades();
+        int globalUsed = globalData.tryAcquire(maxTrades,
+                expiryThreshold(tradeConfig, globalData.getCooldownSeconds(), now), now);
+        if (globalUsed < 0) {
+            if (ledger != null) {
+                ledger.release(handle.getTradeOrdinal());
+            }
+            return TradeOutcome.denied(TradeOutcome.Counter.GLOBAL, displayMax,
+                    globalResetEpoch(globalData, tradeConfig), resetTime);
         }
+        globalDirty.add(globalData);
+        bumpStockVersion(handle.getShopId());
 
         if (plugin.getConfigManager().isDebugMode()) {
-            plugin.getLogger().info("Recorded shared trade for " + playerId + " at " + shopId + ":" + tradeKey +
-                    " (global used: " + newGlobalUsed + "/" + getTradeLimit(shopId, tradeKey) + ")");
+            plugin.getLogger().info("Recorded shared trade for " + playerId + " at " + handle.getShopId() + ":"
+                    + handle.getTradeKey() + " (global used: " + globalUsed + "/"
+                    + tradeConfig.getMaxTrades() + ")");
         }
-    }
 
-    // ===== Atomic trade attempt =====
+        int globalRemaining = tradeConfig.isUnlimited() ? UNLIMITED_REMAINING : maxTrades - globalUsed;
+        if (ledger != null && playerRemaining <= globalRemaining) {
+            return TradeOutcome.admitted(TradeOutcome.Counter.PLAYER, playerRemaining, displayMax,
+                    playerResetEpoch(ledger, handle), resetTime);
+        }
+        return TradeOutcome.admitted(TradeOutcome.Counter.GLOBAL, globalRemaining, displayMax,
+                globalResetEpoch(globalData, tradeConfig), resetTime);
+    }
 
     /**
-     * Atomic "reset-expired + check + record" under the writeResetLock so the decision to
-     * trade and the stock increment are one unit of work. This prevents a compound race
-     * where many concurrent threads all read {@code globalUsed = maxTrades - 1}, all decide
-     * canTrade is true, and all increment — pushing the counter past the cap.
+     * Admits one use of a player's counter if it is below {@code limit}. A count from a finished
+     * period or an older restock generation reads as 0 and is restarted in the same step.
      *
-     * Main-thread Bukkit events are already serial so production never hits this race, but
-     * using the atomic entry point is cheaper than reasoning about every possible caller.
-     *
-     * @return true if the trade was allowed and recorded; false if blocked
+     * @return The new count, or -1 if the player is at the limit
      */
-    public boolean attemptTrade(UUID playerId, String shopId, String tradeKey) {
-        synchronized (writeResetLock) {
-            resetIfExpired(playerId, shopId, tradeKey);
-            if (!canTrade(playerId, shopId, tradeKey)) {
-                return false;
-            }
-            recordTrade(playerId, shopId, tradeKey);
-            return true;
+    private int acquirePlayer(UUID playerId, TradeHandle handle, ShopLedger ledger, int limit) {
+        TradeConfig tradeConfig = handle.getConfig();
+        long now = System.currentTimeMillis() / 1000;
+        boolean rolling = tradeConfig.getCooldownMode() == CooldownMode.ROLLING;
+        long resetBefore = rolling ? Long.MIN_VALUE : expiryThreshold(tradeConfig, 0, now);
+        int newUsed = ledger.tryAcquire(handle.getTradeOrdinal(), limit, now, tradeConfig.getCooldownSeconds(),
+                handle.generation(), resetBefore, rolling);
+        if (newUsed < 0) return -1;
+
+        markDirty(ledger);
+        if (newUsed == 1) {
+            // First use of a period — the slot now has something to expire.
+            scheduleExpiry(playerId, handle, ledger);
         }
+        return newUsed;
+    }
+
+    /**
+     * Lowest reset epoch that still belongs to the current period — the same boundary
+     * {@link #isGlobalExpired} compares against, expressed as a single threshold.
+     */
+    private long expiryThreshold(TradeConfig tradeConfig, int cooldownSeconds, long now) {
+        return switch (tradeConfig.getCooldownMode()) {
+            case DAILY, WEEKLY -> getPreviousResetTime(tradeConfig);
+            case ROLLING -> now - cooldownSeconds + 1;
+            case NONE -> Long.MIN_VALUE;
+        };
+    }
+
+    /**
+     * Epoch second when a player's counter for a trade resets, read right after an admission
+     * touched it (only the player's own trades write the slot).
+     */
+    private long playerResetEpoch(ShopLedger ledger, TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
+        int slot = handle.getTradeOrdinal();
+        return switch (tradeConfig.getCooldownMode()) {
+            case DAILY, WEEKLY -> getNextResetTime(tradeConfig);
+            case ROLLING -> ledger.lastReset(slot) + ledger.cooldown(slot);
+            case NONE -> TradeOutcome.NEVER;
+        };
+    }
+
+    /**
+     * Epoch second when a shared trade's global stock resets.
+     */
+    private long globalResetEpoch(GlobalTradeData data, TradeConfig tradeConfig) {
+        return switch (tradeConfig.getCooldownMode()) {
+            case DAILY, WEEKLY -> getNextResetTime(tradeConfig);
+            case ROLLING -> data.getLastResetEpoch() + data.getCooldownSeconds();
+            case NONE -> TradeOutcome.NEVER;
+        };
     }
 
     // ===== Reset Time & Duration =====
@@ -443,9 +573,8 @@ public class TradeDataManager {
     /**
      * Gets the reset time display string for a specific trade.
      */
-    public String getResetTimeString(String shopId, String tradeKey) {
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        if (tradeConfig == null) return "";
+    public String getResetTimeString(TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
 
         switch (tradeConfig.getCooldownMode()) {
             case DAILY:
@@ -480,59 +609,13 @@ public class TradeDataManager {
     }
 
     private long getNextResetTime(TradeConfig tradeConfig) {
-        String[] parts = tradeConfig.getResetTime().split(":");
-        int hour = Integer.parseInt(parts[0]);
-        int minute = Integer.parseInt(parts[1]);
-
-        ZonedDateTime now = ZonedDateTime.now();
-
-        if (tradeConfig.getCooldownMode() == CooldownMode.WEEKLY) {
-            DayOfWeek targetDay = DayOfWeek.valueOf(tradeConfig.getResetDay());
-            ZonedDateTime candidate = now
-                    .with(TemporalAdjusters.nextOrSame(targetDay))
-                    .withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-
-            if (!candidate.isAfter(now)) {
-                candidate = now.with(TemporalAdjusters.next(targetDay))
-                        .withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-            }
-            return candidate.toEpochSecond();
-        }
-
-        // DAILY mode
-        ZonedDateTime todayReset = now.withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-        if (!now.isBefore(todayReset)) {
-            todayReset = todayReset.plusDays(1);
-        }
-        return todayReset.toEpochSecond();
+        ResetClock.Spec spec = tradeConfig.getResetSpec();
+        return spec != null ? spec.next(System.currentTimeMillis() / 1000) : Long.MAX_VALUE;
     }
 
     private long getPreviousResetTime(TradeConfig tradeConfig) {
-        String[] parts = tradeConfig.getResetTime().split(":");
-        int hour = Integer.parseInt(parts[0]);
-        int minute = Integer.parseInt(parts[1]);
-
-        ZonedDateTime now = ZonedDateTime.now();
-
-        if (tradeConfig.getCooldownMode() == CooldownMode.WEEKLY) {
-            DayOfWeek targetDay = DayOfWeek.valueOf(tradeConfig.getResetDay());
-            ZonedDateTime candidate = now
-                    .with(TemporalAdjusters.previousOrSame(targetDay))
-                    .withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-
-            if (candidate.isAfter(now)) {
-                candidate = now.with(TemporalAdjusters.previous(targetDay))
-                        .withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-            }
-            return candidate.toEpochSecond();
-        }
-
-        // DAILY mode
-        ZonedDateTime todayReset = now.withHour(hour).withMinute(minute).withSecond(0).withNano(0);
-        if (todayReset.isAfter(now)) {
-            todayReset = todayReset.minusDays(1);
-        }
-        return todayReset.toEpochSecond();
+        ResetClock.Spec spec = tradeConfig.getResetSpec();
+        return spec != null ? spec.previous(System.currentTimeMillis() / 1000) : Long.MIN_VALUE;
     }
 
     // ===== Cooldown Checks =====
@@ -540,33 +623,33 @@ public class TradeDataManager {
     /**
      * Checks if cooldown has expired for a specific trade.
      */
-    public boolean hasCooldownExpired(UUID playerId, String shopId, String tradeKey) {
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
+    public boolean hasCooldownExpired(UUID playerId, TradeHandle handle) {
+        ShopLedger ledger = ledger(playerId, handle);
+        int slot = handle.getTradeOrdinal();
 
-        if (data == null) {
+        if (!ledger.isPresent(slot)) {
             return true; // No data means no cooldown
         }
 
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        return isExpired(data, tradeConfig);
+        return isSuperseded(ledger, slot, handle) || isExpired(ledger, slot, handle.getConfig());
     }
 
     /**
      * Gets the time remaining until cooldown expires (in seconds).
      * Returns -1 for NONE mode (never resets).
      */
-    public long getTimeUntilReset(UUID playerId, String shopId, String tradeKey) {
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
+    public long getTimeUntilReset(UUID playerId, TradeHandle handle) {
+        ShopLedger ledger = ledger(playerId, handle);
+        int slot = handle.getTradeOrdinal();
 
-        if (data == null) {
+        if (!ledger.isPresent(slot) || isSuperseded(ledger, slot, handle)) {
             return 0;
         }
 
         long now = System.currentTimeMillis() / 1000;
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        CooldownMode mode = tradeConfig != null ? tradeConfig.getCooldownMode() : CooldownMode.ROLLING;
+        TradeConfig tradeConfig = handle.getConfig();
 
-        switch (mode) {
+        switch (tradeConfig.getCooldownMode()) {
             case DAILY:
             case WEEKLY: {
                 long nextResetTime = getNextResetTime(tradeConfig);
@@ -576,8 +659,8 @@ public class TradeDataManager {
                 return -1; // Never resets
             case ROLLING:
             default: {
-                long elapsed = now - data.getLastResetEpoch();
-                long remaining = data.getCooldownSeconds() - elapsed;
+                long elapsed = now - ledger.lastReset(slot);
+                long remaining = ledger.cooldown(slot) - elapsed;
                 return Math.max(0, remaining);
             }
         }
@@ -587,14 +670,12 @@ public class TradeDataManager {
      * Gets the time remaining for a shared shop's global cooldown.
      * Returns -1 for NONE mode.
      */
-    public long getGlobalTimeUntilReset(String shopId, String tradeKey) {
-        TradeConfig tradeConfig = getTradeConfig(shopId, tradeKey);
-        if (tradeConfig == null) return 0;
-
+    public long getGlobalTimeUntilReset(TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
         if (tradeConfig.getCooldownMode() == CooldownMode.NONE) return -1;
 
-        GlobalTradeData data = getGlobalTradeData(shopId, tradeKey);
-        if (data == null) return 0;
+        GlobalTradeData data = getGlobalTradeData(handle);
+        if (data == null || data.getLastResetEpoch() == 0L) return 0; // never traded
 
         long now = System.currentTimeMillis() / 1000;
 
@@ -615,54 +696,39 @@ public class TradeDataManager {
     }
 
     /**
-     * Checks if a trade data entry's cooldown has expired.
+     * Count a trade's slot holds for the current period — zero if there is no row, its period
+     * has ended, or a restock has happened since it was written.
      */
-    private boolean isExpired(PlayerTradeData data, TradeConfig tradeConfig) {
-        if (tradeConfig == null) {
-            long elapsed = (System.currentTimeMillis() / 1000) - data.getLastResetEpoch();
-            return elapsed >= data.getCooldownSeconds();
-        }
-
-        switch (tradeConfig.getCooldownMode()) {
-            case DAILY:
-            case WEEKLY: {
-                long previousReset = getPreviousResetTime(tradeConfig);
-                return data.getLastResetEpoch() < previousReset;
-            }
-            case NONE:
-                return false; // Never expires
-            case ROLLING:
-            default: {
-                long elapsed = (System.currentTimeMillis() / 1000) - data.getLastResetEpoch();
-                return elapsed >= data.getCooldownSeconds();
-            }
-        }
+    private int usedInPeriod(ShopLedger ledger, TradeHandle handle) {
+        int slot = handle.getTradeOrdinal();
+        if (!ledger.isPresent(slot) || isSuperseded(ledger, slot, handle)
+                || isExpired(ledger, slot, handle.getConfig())) return 0;
+        return ledger.used(slot);
     }
 
     /**
-     * Checks if a trade data entry's cooldown has expired, using a cache for reset time computations.
+     * Checks if a ledger slot was written before the trade's latest restock.
      */
-    private boolean isExpiredCached(PlayerTradeData data, TradeConfig tradeConfig, Map<String, Long> resetTimeCache) {
-        if (tradeConfig == null) {
-            long elapsed = (System.currentTimeMillis() / 1000) - data.getLastResetEpoch();
-            return elapsed >= data.getCooldownSeconds();
-        }
+    private boolean isSuperseded(ShopLedger ledger, int slot, TradeHandle handle) {
+        return ledger.generation(slot) < handle.generation();
+    }
 
+    /**
+     * Checks if a ledger slot's cooldown has expired.
+     */
+    private boolean isExpired(ShopLedger ledger, int slot, TradeConfig tradeConfig) {
         switch (tradeConfig.getCooldownMode()) {
             case DAILY:
             case WEEKLY: {
-                String configKey = tradeConfig.getCooldownMode() + ":" +
-                        tradeConfig.getResetTime() + ":" + tradeConfig.getResetDay();
-                long previousReset = resetTimeCache.computeIfAbsent(configKey,
-                        k -> getPreviousResetTime(tradeConfig));
-                return data.getLastResetEpoch() < previousReset;
+                long previousReset = getPreviousResetTime(tradeConfig);
+                return ledger.lastReset(slot) < previousReset;
             }
             case NONE:
                 return false; // Never expires
             case ROLLING:
             default: {
-                long elapsed = (System.currentTimeMillis() / 1000) - data.getLastResetEpoch();
-                return elapsed >= data.getCooldownSeconds();
+                long elapsed = (System.currentTimeMillis() / 1000) - ledger.lastReset(slot);
+                return elapsed >= ledger.cooldown(slot);
             }
         }
     }
@@ -696,12 +762,15 @@ public class TradeDataManager {
      * Resets a specific player's specific trade.
      */
     public void resetPlayerTrade(UUID playerId, String shopId, String tradeKey) {
-        synchronized (writeResetLock) {
-            String cacheKey = buildCacheKey(playerId, shopId, tradeKey);
-            tradeCache.remove(cacheKey);
-            dirtyKeys.remove(cacheKey);
-            untrackCacheKey(playerId, cacheKey);
-            dataStore.deleteTradeData(playerId, shopId, tradeKey);
+        beginReset();
+        try {
+            evictPlayerTradeEntry(playerId, shopId, tradeKey);
+            dataStore.atomically(() -> {
+                dataStore.deleteTradeData(playerId, shopId, tradeKey);
+                publishChange(ChangeLogEntry.Scope.PLAYER_TRADE, shopId, tradeKey, playerId);
+            });
+        } finally {
+            endReset();
         }
 
         plugin.getLogger().info("Reset trade " + tradeKey + " for player " + playerId + " in shop " + shopId);
@@ -711,20 +780,15 @@ public class TradeDataManager {
      * Resets all trades for a specific player in a specific shop.
      */
     public void resetPlayerShopTrades(UUID playerId, String shopId) {
-        synchronized (writeResetLock) {
-            String prefix = playerId + ":" + shopId + ":";
-            Set<String> keys = playerCacheKeys.get(playerId);
-            if (keys != null) {
-                keys.removeIf(key -> {
-                    if (key.startsWith(prefix)) {
-                        tradeCache.remove(key);
-                        dirtyKeys.remove(key);
-                        return true;
-                    }
-                    return false;
-                });
-            }
-            dataStore.deletePlayerShopData(playerId, shopId);
+        beginReset();
+        try {
+            evictPlayerShopEntries(playerId, shopId);
+            dataStore.atomically(() -> {
+                dataStore.deletePlayerShopData(playerId, shopId);
+                publishChange(ChangeLogEntry.Scope.PLAYER_SHOP, shopId, null, playerId);
+            });
+        } finally {
+            endReset();
         }
         plugin.getLogger().info("Reset all trades for player " + playerId + " in shop " + shopId);
     }
@@ -733,15 +797,15 @@ public class TradeDataManager {
      * Resets all trades for a specific player.
      */
     public void resetPlayerTrades(UUID playerId) {
-        synchronized (writeResetLock) {
-            Set<String> keys = playerCacheKeys.remove(playerId);
-            if (keys != null) {
-                for (String key : keys) {
-                    tradeCache.remove(key);
-                    dirtyKeys.remove(key);
-                }
-            }
-            dataStore.deletePlayerData(playerId);
+        beginReset();
+        try {
+            evictPlayerEntries(playerId);
+            dataStore.atomically(() -> {
+                dataStore.deletePlayerData(playerId);
+                publishChange(ChangeLogEntry.Scope.PLAYER, null, null, playerId);
+            });
+        } finally {
+            endReset();
         }
         plugin.getLogger().info("Reset all trades for player " + playerId);
     }
@@ -753,17 +817,19 @@ public class TradeDataManager {
      */
     public void resetPlayersBulk(java.util.Collection<UUID> playerIds) {
         if (playerIds.isEmpty()) return;
-        synchronized (writeResetLock) {
+        beginReset();
+        try {
             for (UUID playerId : playerIds) {
-                Set<String> keys = playerCacheKeys.remove(playerId);
-                if (keys != null) {
-                    for (String key : keys) {
-                        tradeCache.remove(key);
-                        dirtyKeys.remove(key);
-                    }
-                }
-                dataStore.deletePlayerData(playerId);
+                evictPlayerEntries(playerId);
             }
+            dataStore.atomically(() -> {
+                for (UUID playerId : playerIds) {
+                    dataStore.deletePlayerData(playerId);
+                    publishChange(ChangeLogEntry.Scope.PLAYER, null, null, playerId);
+                }
+            });
+        } finally {
+            endReset();
         }
         plugin.getLogger().info("Bulk reset: cleared trade data for " + playerIds.size() + " player(s)");
     }
@@ -771,222 +837,494 @@ public class TradeDataManager {
     /**
      * Restocks a specific trade in a shared-mode shop.
      * Resets global stock and all per-player purchase caps for this trade.
+     *
+     * The per-player caps are reset by bumping the trade's restock generation, which makes
+     * every cached and persisted count of the trade read as zero; their rows are deleted
+     * afterwards in the background.
      */
     public void resetGlobalTrade(String shopId, String tradeKey) {
-        synchronized (writeResetLock) {
-            String cacheKey = shopId + ":" + tradeKey;
-            globalTradeCache.remove(cacheKey);
-            globalDirtyKeys.remove(cacheKey);
-            dataStore.deleteGlobalTradeData(shopId, tradeKey);
-
-            // Evict per-player caps from cache for this trade
-            tradeCache.entrySet().removeIf(e -> {
-                PlayerTradeData data = e.getValue();
-                if (data.getShopId().equals(shopId) && data.getTradeKey().equals(tradeKey)) {
-                    dirtyKeys.remove(e.getKey());
-                    untrackCacheKey(data.getPlayerId(), e.getKey());
-                    return true;
-                }
-                return false;
+        beginReset();
+        try {
+            advanceGeneration(shopId, tradeKey);
+            TradeHandle handle = knownHandle(shopId, tradeKey);
+            if (handle != null) {
+                evictGlobal(handle);
+            }
+            clearSharedSlot(shopId, tradeKey);
+            dataStore.atomically(() -> {
+                dataStore.deleteGlobalTradeData(shopId, tradeKey);
+                publishChange(ChangeLogEntry.Scope.GLOBAL_TRADE, shopId, tradeKey, null);
             });
-
-            // Single-query delete of all player entries for this shop+trade
-            dataStore.deleteShopTradeData(shopId, tradeKey);
+        } finally {
+            endReset();
         }
+        deleteSupersededAsync(shopId, List.of(tradeKey));
         plugin.getLogger().info("Restocked trade " + tradeKey + " in shop " + shopId);
     }
 
     /**
      * Restocks all trades in a shared-mode shop.
-     * Resets global stock and all per-player purchase caps.
+     * Resets global stock and all per-player purchase caps (via the shop-wide generation).
      */
     public void resetGlobalShop(String shopId) {
-        synchronized (writeResetLock) {
-            globalTradeCache.entrySet().removeIf(e -> e.getValue().getShopId().equals(shopId));
-            globalDirtyKeys.removeIf(key -> key.startsWith(shopId + ":"));
-            dataStore.deleteGlobalShopData(shopId);
-
-            // Also reset per-player caps for this shop
-            evictShopPlayerData(shopId);
-            dataStore.deleteShopData(shopId);
+        Set<String> tradeKeys = handles(shopId).keySet();
+        beginReset();
+        try {
+            advanceGeneration(shopId, "");
+            evictShopGlobals(shopId);
+            for (String tradeKey : tradeKeys) {
+                clearSharedSlot(shopId, tradeKey);
+            }
+            dataStore.atomically(() -> {
+                dataStore.deleteGlobalShopData(shopId);
+                publishChange(ChangeLogEntry.Scope.GLOBAL_SHOP, shopId, null, null);
+            });
+        } finally {
+            endReset();
         }
+        deleteSupersededAsync(shopId, tradeKeys);
         plugin.getLogger().info("Restocked all trades in shop " + shopId);
     }
 
-    // ===== Data Retrieval =====
-
     /**
-     * Gets all trade data for a specific player.
+     * Takes the locks a reset runs under. Eviction writes still queued go out first, so none
+     * of them lands after the reset's delete.
      */
-    public List<PlayerTradeData> getPlayerTrades(UUID playerId) {
-        List<PlayerTradeData> trades = dataStore.loadPlayerData(playerId);
-
-        for (PlayerTradeData data : trades) {
-            String cacheKey = data.getCacheKey();
-            tradeCache.putIfAbsent(cacheKey, data);
-            trackCacheKey(playerId, cacheKey);
+    private void beginReset() {
+        flushLock.lock();
+        try {
+            writePendingLocked();
+        } catch (RuntimeException e) {
+            flushLock.unlock();
+            throw e;
         }
-
-        return trades;
+        writeResetLock.lock();
     }
 
-    /**
-     * Pre-loads all trade data for a player+shop into cache asynchronously.
-     * For shared shops, also pre-loads global trade data.
-     */
-    public void preloadShopData(UUID playerId, String shopId) {
-        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
-        if (shopConfig == null) return;
-
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            try {
-                // Always pre-load player data (for per-player mode or per-player caps in shared mode)
-                List<PlayerTradeData> trades = dataStore.loadPlayerShopData(playerId, shopId);
-                for (PlayerTradeData data : trades) {
-                    String cacheKey = data.getCacheKey();
-                    tradeCache.putIfAbsent(cacheKey, data);
-                    trackCacheKey(playerId, cacheKey);
-                }
+    private void endReset() {
+        writeResetLock.unlock();
+        flushLock.unlock();
+    }
 
-                // For shared shops, also pre-load global trade data
-                if (shopConfig.isShared()) {
-                    List<GlobalTradeData> globalTrades = dataStore.loadGlobalShopData(shopId);
-                    for (GlobalTradeData data : globalTrades) {
-                        globalTradeCache.putIfAbsent(data.getCacheKey(), data);
-                    }
-                }
+    // ===== Restock Generations =====
 
-                if (plugin.getConfigManager().isDebugMode()) {
-                    plugin.getLogger().info("Pre-loaded " + trades.size() +
-                            " trade entries for " + playerId + " in shop " + shopId);
-                }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.WARNING,
-                        "Failed to pre-load trade data for " + playerId + " in shop " + shopId, e);
+    private void loadRestockGenerations() {
+        for (Map.Entry<String, Map<String, Integer>> shop : dataStore.loadRestockGenerations().entrySet()) {
+            for (Map.Entry<String, Integer> trade : shop.getValue().entrySet()) {
+                generationCounter(shop.getKey(), trade.getKey()).set(trade.getValue());
             }
-        });
+        }
     }
 
-    // ===== Eviction & Cleanup =====
+    /**
+     * The generation counter for a trade, or the shop-wide one for an empty trade key.
+     */
+    private AtomicInteger generationCounter(String shopId, String tradeKey) {
+        return restockGenerations.computeIfAbsent(shopId + ":" + tradeKey, k -> new AtomicInteger());
+    }
 
     /**
-     * Evicts all data for a shop from cache and dirty tracking.
+     * Persists and applies one restock. The local counter always moves forward — even if the
+     * database write failed, cached counts are superseded for the rest of this run.
+     * Caller holds writeResetLock.
      */
-    public void evictShop(String shopId) {
-        evictShopPlayerData(shopId);
+    private void advanceGeneration(String shopId, String tradeKey) {
+        int persisted = dataStore.incrementRestockGeneration(shopId, tradeKey);
+        if (persisted < 0) {
+            plugin.getLogger().warning("Could not persist restock generation for " + shopId + ":" + tradeKey
+                    + " — stored per-player counts will come back after a restart");
+        }
+        generationCounter(shopId, tradeKey).updateAndGet(current -> Math.max(current + 1, persisted));
+        bumpStockVersion(shopId);
+    }
 
-        // Also evict global data for the shop
-        globalTradeCache.entrySet().removeIf(e -> e.getValue().getShopId().equals(shopId));
-        globalDirtyKeys.removeIf(key -> key.startsWith(shopId + ":"));
+    /**
+     * Catches up with a restock another server persisted. Caller holds writeResetLock.
+     */
+    private void refreshGeneration(String shopId, String tradeKey) {
+        int persisted = dataStore.loadRestockGeneration(shopId, tradeKey);
+        generationCounter(shopId, tradeKey).accumulateAndGet(persisted, Math::max);
+        bumpStockVersion(shopId);
     }
 
     /**
-     * Evicts player trade data for a specific shop from cache.
+     * Deletes the per-player rows a restock superseded, one statement per trade. The rows
+     * already read as zero, so this runs off-thread and outside writeResetLock.
      */
-    private void evictShopPlayerData(String shopId) {
-        tradeCache.entrySet().removeIf(e -> {
-            if (e.getValue().getShopId().equals(shopId)) {
-                untrackCacheKey(e.getValue().getPlayerId(), e.getKey());
-                return true;
+    private void deleteSupersededAsync(String shopId, Collection<String> tradeKeys) {
+        plugin.getTaskScheduler().runAsync(() -> {
+            int deleted = 0;
+            for (String tradeKey : tradeKeys) {
+                int generation = generationCounter(shopId, "").get() + generationCounter(shopId, tradeKey).get();
+                deleted += dataStore.deleteSupersededTradeData(shopId, tradeKey, generation);
+            }
+            if (plugin.getConfigManager().isDebugMode()) {
+                plugin.getLogger().info("Deleted " + deleted + " superseded player trade entries in shop " + shopId);
             }
-            return false;
-        });
-        String suffix = ":" + shopId + ":";
-        dirtyKeys.removeIf(key -> {
-            int firstColon = key.indexOf(':');
-            return firstColon >= 0 && key.startsWith(suffix, firstColon);
         });
     }
 
     /**
-     * Evicts a player's data from cache (e.g., on player quit).
-     * Flushes dirty data asynchronously to avoid blocking the main thread.
+     * Number of shops and trades that have been restocked at least once (diagnostics).
      */
-    public void evictPlayer(UUID playerId) {
-        // Collect dirty data before removing from cache (must happen on main thread)
-        Set<String> keys = playerCacheKeys.remove(playerId);
-        List<PlayerTradeData> dataToFlush = new ArrayList<>();
-
-        if (keys != null) {
-            for (String key : keys) {
-                if (dirtyKeys.remove(key)) {
-                    PlayerTradeData data = tradeCache.get(key);
-                    if (data != null) {
-                        dataToFlush.add(data);
-                    }
-                }
-                tradeCache.remove(key);
-            }
+    public int restockGenerationCount() {
+        int count = 0;
+        for (AtomicInteger generation : restockGenerations.values()) {
+            if (generation.get() > 0) count++;
         }
+        return count;
+    }
 
-        // Flush asynchronously to avoid blocking the main thread
-        if (!dataToFlush.isEmpty()) {
-            Bukkit.getScheduler().runTaskAsynchronously(plugin,
-                    () -> dataStore.batchSaveTradeData(dataToFlush));
-        }
+    // ===== Remote Invalidation =====
+    //
+    // Cache-only counterparts of the resets above, applied when another server sharing the
+    // database published a change. The originating server already deleted the DB rows, so
+    // dropping the cached entries (including unflushed dirty flags, which would otherwise
+    // write pre-reset counters back) makes the next read reload post-change state.
+    // Restocks instead re-read the persisted generation, which supersedes the cached counts.
+    // Rows a flush drained before the invalidation ran are held back by the write fence.
 
-        if (plugin.getConfigManager().isDebugMode()) {
-            plugin.getLogger().info("Evicted cache for player " + playerId);
+    /**
+     * Drops every cached entry of one player.
+     */
+    public void invalidatePlayer(UUID playerId) {
+        writeResetLock.lock();
+        try {
+            evictPlayerEntries(playerId);
+        } finally {
+            writeResetLock.unlock();
         }
     }
 
     /**
-     * Cleans up expired cooldowns from cache.
-     * Skips NONE mode entries (they never expire).
+     * Drops the cached entries of one player in one shop.
      */
-    public int cleanupExpiredCooldowns() {
-        int cleaned;
-        synchronized (writeResetLock) {
-            // Clean up per-player entries
-            List<String> toRemove = new ArrayList<>();
-            Map<String, Long> resetTimeCache = new HashMap<>();
+    public void invalidatePlayerShop(UUID playerId, String shopId) {
+        writeResetLock.lock();
+        try {
+            evictPlayerShopEntries(playerId, shopId);
+        } finally {
+            writeResetLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the cached entry of one player's trade.
+     */
+    public void invalidatePlayerTrade(UUID playerId, String shopId, String tradeKey) {
+        writeResetLock.lock();
+        try {
+            evictPlayerTradeEntry(playerId, shopId, tradeKey);
+        } finally {
+            writeResetLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the cached global counter of one trade and picks up its new restock generation.
+     */
+    public void invalidateGlobalTrade(String shopId, String tradeKey) {
+        writeResetLock.lock();
+        try {
+            refreshGeneration(shopId, tradeKey);
+            TradeHandle handle = knownHandle(shopId, tradeKey);
+            if (handle != null) {
+                evictGlobal(handle);
+            }
+        } finally {
+            writeResetLock.unlock();
+        }
+    }
+
+    /**
+     * Drops every cached global counter of one shop and picks up its new shop-wide generation.
+     */
+    public void invalidateGlobalShop(String shopId) {
+        writeResetLock.lock();
+        try {
+            refreshGeneration(shopId, "");
+            evictShopGlobals(shopId);
+        } finally {
+            writeResetLock.unlock();
+        }
+    }
+
+    private void evictPlayerTradeEntry(UUID playerId, String shopId, String tradeKey) {
+        TradeHandle handle = knownHandle(shopId, tradeKey);
+        if (handle == null) return; // Never resolved, so nothing can be cached under it
+
+        PlayerLedger player = ledgers.get(playerId);
+        ShopLedger ledger = player != null ? player.shop(handle.getShopOrdinal()) : null;
+        if (ledger != null) {
+            ledger.forget(handle.getTradeOrdinal());
+        }
+    }
+
+    private void evictPlayerShopEntries(UUID playerId, String shopId) {
+        Integer shopOrdinal = shopOrdinals.get(shopId);
+        PlayerLedger player = ledgers.get(playerId);
+        if (shopOrdinal == null || player == null) return;
+
+        ShopLedger removed = player.removeShop(shopOrdinal);
+        if (removed != null) {
+            dirtyLedgers.remove(removed);
+        }
+    }
+
+    private void evictPlayerEntries(UUID playerId) {
+        PlayerLedger player = ledgers.remove(playerId);
+        if (player != null) {
+            for (ShopLedger ledger : player.shops()) {
+                if (ledger != null) dirtyLedgers.remove(ledger);
+            }
+        }
+    }
+
+    private void evictGlobal(TradeHandle handle) {
+        GlobalTradeData data = handle.clearGlobal();
+        if (data != null) {
+            globalDirty.remove(data);
+            bumpStockVersion(handle.getShopId());
+        }
+    }
+
+    private void publishChange(ChangeLogEntry.Scope scope, String shopId, String key, UUID playerId) {
+        // Null only if startup failed before the change log was wired.
+        ChangeLogManager changeLog = plugin.getChangeLogManager();
+        if (changeLog != null) {
+            changeLog.publish(scope, shopId, key, playerId);
+        }
+    }
+
+    // ===== Data Retrieval =====
+
+    /**
+     * Gets all trade data for a specific player.
+     */
+    public List<PlayerTradeData> getPlayerTrades(UUID playerId) {
+        List<PlayerTradeData> trades = dataStore.loadPlayerData(playerId);
+
+        for (PlayerTradeData data : trades) {
+            // Rows of trades that were never configured this run have no handle — not cached.
+            TradeHandle handle = knownHandle(data.getShopId(), data.getTradeKey());
+            if (handle == null) continue;
+            loadSlot(playerId, handle, shopLedger(playerId, handle), data);
+        }
 
-            for (Map.Entry<String, PlayerTradeData> entry : tradeCache.entrySet()) {
-                PlayerTradeData data = entry.getValue();
-                if (data.getTradesUsed() <= 0) continue;
+        return trades;
+    }
+
+    /**
+     * Pre-loads all trade data for a player+shop into cache asynchronously.
+     * For shared shops, also pre-loads global trade data; trades without a global row get an
+     * empty counter, so the whole shop is {@link #isResident resident} afterwards.
+     *
+     * @return Completes once the load has finished (successfully or not)
+     */
+    public CompletableFuture<Void> preloadShopData(UUID playerId, String shopId) {
+        ShopConfig shopConfig = plugin.getConfigManager().getShop(shopId);
+        if (shopConfig == null) return CompletableFuture.completedFuture(null);
+        Map<String, TradeHandle> handles = handles(shopId);
+
+        // Re-opening the shop while this load is still running joins it instead of re-querying.
+        return loadOnce(new LoadKey(playerId, shopId, null), true, () -> {
+            try {
+                // Always pre-load player data (for per-player mode or per-player caps in shared mode)
+                List<PlayerTradeData> trades = dataStore.loadPlayerShopData(playerId, shopId);
+                Map<String, PlayerTradeData> rows = new HashMap<>();
+                for (PlayerTradeData data : trades) {
+                    rows.put(data.getTradeKey(), data);
+                }
+                // One query answered every trade of the shop — trades without a row are
+                // recorded as known-absent so they never hit the database on their own.
+                for (TradeHandle handle : handles.values()) {
+                    loadSlot(playerId, handle, shopLedger(playerId, handle), rows.get(handle.getTradeKey()));
+                }
 
-                TradeConfig tradeConfig = getTradeConfig(data.getShopId(), data.getTradeKey());
-                if (tradeConfig != null && tradeConfig.getCooldownMode() == CooldownMode.NONE) continue;
+                // For shared shops, also pre-load global trade data
+                if (shopConfig.isShared()) {
+                    List<GlobalTradeData> globalTrades = dataStore.loadGlobalShopData(shopId);
+                    for (GlobalTradeData data : globalTrades) {
+                        TradeHandle handle = handles.get(data.getTradeKey());
+                        if (handle == null || handle.getGlobal() != null) continue;
+                        bindSharedCounter(data);
+                        handle.installGlobal(data);
+                    }
+                    // No row means never traded: an empty counter (reset epoch 0 reads as
+                    // expired) answers that without querying again. Nothing is dirty, so
+                    // nothing is written until a trade happens.
+                    for (TradeHandle handle : handles.values()) {
+                        if (handle.getGlobal() != null) continue;
+                        GlobalTradeData empty = new GlobalTradeData(shopId, handle.getTradeKey(), 0, 0L,
+                                handle.getConfig().getCooldownSeconds());
+                        bindSharedCounter(empty);
+                        handle.installGlobal(empty);
+                    }
+                }
 
-                if (isExpiredCached(data, tradeConfig, resetTimeCache)) {
-                    toRemove.add(entry.getKey());
+                if (plugin.getConfigManager().isDebugMode()) {
+                    plugin.getLogger().info("Pre-loaded " + trades.size() +
+                            " trade entries for " + playerId + " in shop " + shopId);
                 }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING,
+                        "Failed to pre-load trade data for " + playerId + " in shop " + shopId, e);
+            }
+        });
+    }
+
+    // ===== Eviction & Cleanup =====
+
+    /**
+     * Evicts all data for a shop from cache and dirty tracking.
+     */
+    public void evictShop(String shopId) {
+        evictShopPlayerData(shopId);
+        evictShopGlobals(shopId);
+    }
+
+    /**
+     * Evicts the global counters of a shop (retired handles included).
+     */
+    private void evictShopGlobals(String shopId) {
+        for (TradeHandle handle : handlesById) {
+            if (handle != null && handle.getShopId().equals(shopId)) {
+                evictGlobal(handle);
+            }
+        }
+    }
+
+    /**
+     * Evicts player trade data for a specific shop from cache.
+     */
+    private void evictShopPlayerData(String shopId) {
+        Integer shopOrdinal = shopOrdinals.get(shopId);
+        if (shopOrdinal == null) return;
+
+        for (PlayerLedger player : ledgers.values()) {
+            ShopLedger removed = player.removeShop(shopOrdinal);
+            if (removed != null) {
+                dirtyLedgers.remove(removed);
             }
+        }
+    }
 
-            for (String key : toRemove) {
-                PlayerTradeData data = tradeCache.remove(key);
-                dirtyKeys.remove(key);
-                if (data != null) {
-                    untrackCacheKey(data.getPlayerId(), key);
-                    // Delete from DB so the row doesn't get reloaded and re-detected as expired next tick.
-                    dataStore.deleteTradeData(data.getPlayerId(), data.getShopId(), data.getTradeKey());
+    /**
+     * Evicts a player's data from cache (e.g., on player quit).
+     * Flushes dirty data asynchronously to avoid blocking the main thread.
+     */
+    public void evictPlayer(UUID playerId) {
+        // Collect dirty data while removing from cache. The shared side of the reset lock is
+        // enough to keep resets and invalidations (and so the fence) still during the drain;
+        // a trade racing the quit only re-marks the ledger for the next flush.
+        List<PlayerTradeData> dataToFlush = new ArrayList<>();
+        DataStore.WriteFence fence;
+        tradeLock.lock();
+        try {
+            fence = writeFence();
+            PlayerLedger player = ledgers.remove(playerId);
+            if (player != null) {
+                for (ShopLedger ledger : player.shops()) {
+                    if (ledger != null && dirtyLedgers.remove(ledger)) {
+                        dataToFlush.addAll(ledger.drainDirty(shopHandles(ledger.getShopOrdinal())));
+                    }
                 }
             }
-            cleaned = toRemove.size();
+        } finally {
+            tradeLock.unlock();
+        }
+
+        // Flush asynchronously to avoid blocking the main thread
+        if (!dataToFlush.isEmpty()) {
+            pendingWrites.add(new PendingWrite(dataToFlush, fence));
+            plugin.getTaskScheduler().runAsync(this::writePending);
+        }
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Evicted cache for player " + playerId);
+        }
+    }
+
+    /**
+     * Cleans up expired cooldowns from cache.
+     * Rolling per-player entries come off the expiry schedule, so only counters whose deadline
+     * has passed are looked at. Daily/weekly rows are swept from the database once per
+     * boundary instead. Global counters (at most one per configured trade) are scanned.
+     * Skips NONE mode entries (they never expire).
+     *
+     * <p>The cache is cleared under writeResetLock; the database rows are deleted after it is
+     * released, so trades on other threads don't wait for SQLite. flushLock stays held until
+     * the deletes are done, so a counter a trade re-creates meanwhile can't be flushed before
+     * the delete of its expired row.</p>
+     */
+    public int cleanupExpiredCooldowns() {
+        List<ExpiredRow> expired = new ArrayList<>();
+        beginReset();
+        try {
+            try {
+                // Clean up per-player entries
+                long now = System.currentTimeMillis() / 1000;
+                List<Expiry> due = new ArrayList<>();
+                synchronized (expiryQueue) {
+                    while (!expiryQueue.isEmpty() && expiryQueue.peek().deadline() <= now) {
+                        due.add(expiryQueue.poll());
+                    }
+                }
+
+                for (Expiry expiry : due) {
+                    PlayerLedger player = ledgers.get(expiry.playerId());
+                    ShopLedger ledger = player != null ? player.shop(expiry.handle().getShopOrdinal()) : null;
+                    int slot = expiry.handle().getTradeOrdinal();
+                    // Evicted, cleared, or reset since registration (a newer entry exists then).
+                    if (ledger == null || !ledger.isPresent(slot) || ledger.lastReset(slot) != expiry.stamp()) continue;
+                    if (ledger.used(slot) <= 0) continue;
+
+                    TradeHandle handle = currentHandle(expiry.handle());
+                    TradeConfig tradeConfig = handle.getConfig();
+                    if (tradeConfig.getCooldownMode() == CooldownMode.NONE) continue;
+
+                    if (isExpired(ledger, slot, tradeConfig)) {
+                        ledger.clear(slot);
+                        // Deleted below so the row doesn't get reloaded and re-detected as expired next tick.
+                        expired.add(new ExpiredRow(expiry.playerId(), handle.getShopId(), handle.getTradeKey()));
+                    } else {
+                        // Not due after all (clock stepped back) — try again at the recomputed deadline.
+                        scheduleExpiry(expiry.playerId(), handle, ledger);
+                    }
+                }
 
-            // Clean up expired global entries
-            List<String> globalToRemove = new ArrayList<>();
-            for (Map.Entry<String, GlobalTradeData> entry : globalTradeCache.entrySet()) {
-                GlobalTradeData data = entry.getValue();
-                if (data.getTradesUsed() <= 0) continue;
+                // Clean up expired global entries
+                for (TradeHandle handle : handlesById) {
+                    if (handle == null) continue;
+                    GlobalTradeData data = handle.getGlobal();
+                    if (data == null || data.getTradesUsed() <= 0) continue;
 
-                TradeConfig tradeConfig = getTradeConfig(data.getShopId(), data.getTradeKey());
-                if (tradeConfig != null && tradeConfig.getCooldownMode() == CooldownMode.NONE) continue;
+                    TradeConfig tradeConfig = handle.getConfig();
+                    if (tradeConfig.getCooldownMode() == CooldownMode.NONE) continue;
 
-                if (isGlobalExpired(data, tradeConfig)) {
-                    globalToRemove.add(entry.getKey());
+                    if (isGlobalExpired(data, tradeConfig)) {
+                        evictGlobal(handle);
+                        expired.add(new ExpiredRow(null, data.getShopId(), data.getTradeKey()));
+                    }
                 }
+            } finally {
+                writeResetLock.unlock();
             }
 
-            for (String key : globalToRemove) {
-                GlobalTradeData data = globalTradeCache.remove(key);
-                globalDirtyKeys.remove(key);
-                if (data != null) {
-                    dataStore.deleteGlobalTradeData(data.getShopId(), data.getTradeKey());
+            for (ExpiredRow row : expired) {
+                if (row.playerId() != null) {
+                    dataStore.deleteTradeData(row.playerId(), row.shopId(), row.tradeKey());
+                } else {
+                    dataStore.deleteGlobalTradeData(row.shopId(), row.tradeKey());
                 }
             }
-            cleaned += globalToRemove.size();
+        } finally {
+            flushLock.unlock();
         }
+        int cleaned = expired.size();
+
+        // Outside the lock: these rows already read as zero, so racing a flush is harmless.
+        cleaned += sweepStalePeriods();
 
         if (plugin.getConfigManager().isDebugMode() && cleaned > 0) {
             plugin.getLogger().info("Cleaned up " + cleaned + " expired cooldown entries from cache");
@@ -995,6 +1333,27 @@ public class TradeDataManager {
         return cleaned;
     }
 
+    /**
+     * Deletes the database rows daily/weekly trades left behind in finished periods — one
+     * statement per trade per boundary rather than one delete per player.
+     */
+    private int sweepStalePeriods() {
+        long now = System.currentTimeMillis() / 1000;
+        int deleted = 0;
+        for (Map<String, TradeHandle> trades : handlesByShop.values()) {
+            for (TradeHandle handle : trades.values()) {
+                ResetClock.Spec spec = handle.getConfig().getResetSpec();
+                if (spec == null) continue;
+                long boundary = spec.previous(now);
+                Long swept = sweptBoundaries.get(handle.getId());
+                if (swept != null && swept >= boundary) continue;
+                deleted += dataStore.deleteStaleTradeData(handle.getShopId(), handle.getTradeKey(), boundary);
+                sweptBoundaries.put(handle.getId(), boundary);
+            }
+        }
+        return deleted;
+    }
+
     // ===== Auto-Purge =====
 
     /**
@@ -1014,31 +1373,32 @@ public class TradeDataManager {
         CompletableFuture<Integer> future = new CompletableFuture<>();
 
         // Step 1: Load all player UUIDs from DB (async-safe — synchronized DB method)
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+        plugin.getTaskScheduler().runAsync(() -> {
             List<UUID> allPlayers = dataStore.getAllPlayers();
 
-            // Step 2: Resolve last-played on main thread (Bukkit API safety)
-            Bukkit.getScheduler().runTask(plugin, () -> {
+            // Step 2: Resolve last-played on the global tick thread (Bukkit API safety)
+            plugin.getTaskScheduler().runGlobal(() -> {
                 List<UUID> toPurge = new ArrayList<>();
                 for (UUID playerId : allPlayers) {
                     long lastPlayed = Bukkit.getOfflinePlayer(playerId).getLastSeen();
                     if (lastPlayed > 0 && lastPlayed < thresholdMillis) {
                         toPurge.add(playerId);
+                    }
+                }
 
-                        // Evict from cache (main thread — safe to modify caches)
-                        Set<String> keys = playerCacheKeys.remove(playerId);
-                        if (keys != null) {
-                            for (String key : keys) {
-                                tradeCache.remove(key);
-                                dirtyKeys.remove(key);
-                            }
-                        }
+                // Evict from cache — trades may run on other region threads, so take the lock
+                writeResetLock.lock();
+                try {
+                    for (UUID playerId : toPurge) {
+                        evictPlayerEntries(playerId);
                     }
+                } finally {
+                    writeResetLock.unlock();
                 }
 
                 // Step 3: Delete from database async
                 if (!toPurge.isEmpty()) {
-                    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                    plugin.getTaskScheduler().runAsync(() -> {
                         for (UUID playerId : toPurge) {
                             dataStore.deletePlayerData(playerId);
                         }
@@ -1053,48 +1413,104 @@ public class TradeDataManager {
         return future;
     }
 
+    // ===== Expiry Schedule =====
+
+    /**
+     * Registers a slot's next expiry (no-op for modes that never expire).
+     */
+    private void scheduleExpiry(UUID playerId, TradeHandle handle, ShopLedger ledger) {
+        int slot = handle.getTradeOrdinal();
+        long deadline = expiryDeadline(ledger, slot, handle.getConfig());
+        if (deadline == Long.MAX_VALUE) return;
+        synchronized (expiryQueue) {
+            expiryQueue.add(new Expiry(deadline, playerId, handle, ledger.lastReset(slot)));
+        }
+    }
+
+    /**
+     * Epoch second at which {@link #isExpired} starts returning true for a slot, or
+     * {@link Long#MAX_VALUE} if it isn't scheduled.
+     */
+    private long expiryDeadline(ShopLedger ledger, int slot, TradeConfig tradeConfig) {
+        // Daily/weekly counters reset lazily: a stale period reads as zero and its rows are
+        // swept per trade (sweepStalePeriods), so only rolling cooldowns are scheduled.
+        if (tradeConfig.getCooldownMode() != CooldownMode.ROLLING) return Long.MAX_VALUE;
+        return ledger.lastReset(slot) + ledger.cooldown(slot);
+    }
+
+    /**
+     * Rebuilds the schedule from every resident counter. Called after each handle rebuild so
+     * deadlines follow changed cooldown settings.
+     */
+    private void rescheduleExpiries() {
+        synchronized (expiryQueue) {
+            expiryQueue.clear();
+            for (PlayerLedger player : ledgers.values()) {
+                for (ShopLedger ledger : player.shops()) {
+                    if (ledger == null) continue;
+                    TradeHandle[] handles = shopHandles(ledger.getShopOrdinal());
+                    for (int slot = 0; slot < handles.length; slot++) {
+                        TradeHandle handle = handles[slot];
+                        if (handle != null && ledger.isPresent(slot) && ledger.used(slot) > 0) {
+                            scheduleExpiry(player.getPlayerId(), handle, ledger);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The handle currently registered for a (possibly pre-reload) handle's ordinals.
+     */
+    private TradeHandle currentHandle(TradeHandle handle) {
+        TradeHandle[] handles = shopHandles(handle.getShopOrdinal());
+        int slot = handle.getTradeOrdinal();
+        return slot < handles.length && handles[slot] != null ? handles[slot] : handle;
+    }
+
+    /**
+     * One scheduled expiry. {@code stamp} is the slot's reset epoch when it was registered.
+     */
+    private record Expiry(long deadline, UUID playerId, TradeHandle handle, long stamp) {
+    }
+
+    /** A database row whose cached counter expired; a null player marks a global row. */
+    private record ExpiredRow(UUID playerId, String shopId, String tradeKey) {
+    }
+
     // ===== Flush / Persistence =====
 
     /**
      * Flushes dirty data to database asynchronously.
      */
     private void flushDirtyData() {
-        // Serialize against reset/cleanup so a concurrent wipe can't be silently re-inserted
-        // by a snapshot taken just before the wipe happened.
-        synchronized (writeResetLock) {
-            // Flush per-player data
-            if (!dirtyKeys.isEmpty()) {
-                List<PlayerTradeData> dataToSave = new ArrayList<>();
-                Iterator<String> it = dirtyKeys.iterator();
-                while (it.hasNext()) {
-                    String key = it.next();
-                    it.remove();
-                    PlayerTradeData data = tradeCache.get(key);
-                    if (data != null) {
-                        dataToSave.add(data);
-                    }
-                }
-                if (!dataToSave.isEmpty()) {
-                    dataStore.batchSaveTradeData(dataToSave);
-                }
+        // Only the drain holds writeResetLock; the write runs under flushLock alone, so trades
+        // keep going while SQLite works and local resets wait for the write to land.
+        flushLock.lock();
+        try {
+            writePendingLocked();
+
+            List<PlayerTradeData> dataToSave;
+            List<GlobalTradeData> globalToSave;
+            DataStore.WriteFence fence;
+            writeResetLock.lock();
+            try {
+                fence = writeFence();
+                dataToSave = drainDirtyLedgers();
+                globalToSave = drainGlobalDirty();
+            } finally {
+                writeResetLock.unlock();
             }
 
-            // Flush global data
-            if (!globalDirtyKeys.isEmpty()) {
-                List<GlobalTradeData> globalToSave = new ArrayList<>();
-                Iterator<String> git = globalDirtyKeys.iterator();
-                while (git.hasNext()) {
-                    String key = git.next();
-                    git.remove();
-                    GlobalTradeData data = globalTradeCache.get(key);
-                    if (data != null) {
-                        globalToSave.add(data);
-                    }
-                }
-                if (!globalToSave.isEmpty()) {
-                    dataStore.batchSaveGlobalTradeData(globalToSave);
-                }
+            if (!dataToSave.isEmpty()) {
+                dataStore.batchSaveTradeData(dataToSave, fence);
+            }
+            if (!globalToSave.isEmpty()) {
+                dataStore.batchSaveGlobalTradeData(globalToSave, fence);
             }
+        } finally {
+            flushLock.unlock();
         }
     }
 
@@ -1102,198 +1518,707 @@ public class TradeDataManager {
      * Flushes a specific player's dirty data.
      */
     public void flushPlayerData(UUID playerId) {
-        synchronized (writeResetLock) {
-            Set<String> keys = playerCacheKeys.get(playerId);
-            if (keys == null || keys.isEmpty()) return;
-
+        flushLock.lock();
+        try {
             List<PlayerTradeData> dataToSave = new ArrayList<>();
-            for (String key : keys) {
-                if (dirtyKeys.remove(key)) {
-                    PlayerTradeData data = tradeCache.get(key);
-                    if (data != null) {
-                        dataToSave.add(data);
+            DataStore.WriteFence fence;
+            writeResetLock.lock();
+            try {
+                PlayerLedger player = ledgers.get(playerId);
+                if (player == null) return;
+
+                fence = writeFence();
+                for (ShopLedger ledger : player.shops()) {
+                    if (ledger != null && dirtyLedgers.remove(ledger)) {
+                        dataToSave.addAll(ledger.drainDirty(shopHandles(ledger.getShopOrdinal())));
                     }
                 }
+            } finally {
+                writeResetLock.unlock();
             }
 
             if (!dataToSave.isEmpty()) {
-                dataStore.batchSaveTradeData(dataToSave);
+                dataStore.batchSaveTradeData(dataToSave, fence);
             }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the rows queued by {@link #evictPlayer}.
+     */
+    private void writePending() {
+        flushLock.lock();
+        try {
+            writePendingLocked();
+        } finally {
+            flushLock.unlock();
         }
     }
 
+    private void writePendingLocked() {
+        PendingWrite pending;
+        while ((pending = pendingWrites.poll()) != null) {
+            dataStore.batchSaveTradeData(pending.rows(), pending.fence());
+        }
+    }
+
+    /**
+     * The fence for rows drained now. Caller holds either side of the reset lock, so no
+     * invalidation or reset is half-applied.
+     */
+    private DataStore.WriteFence writeFence() {
+        // Null only if startup failed before the change log was wired.
+        ChangeLogManager changeLog = plugin.getChangeLogManager();
+        return changeLog != null ? changeLog.fence() : null;
+    }
+
     /**
      * Flushes all dirty data synchronously (for shutdown).
      */
     private void flushAllDirtyData() {
-        // Per-player data
-        if (!dirtyKeys.isEmpty()) {
-            plugin.getLogger().info("Flushing " + dirtyKeys.size() + " dirty player entries...");
+        boolean flushed = false;
+        flushLock.lock();
+        try {
+            writePendingLocked();
+        } finally {
+            flushLock.unlock();
+        }
+        DataStore.WriteFence fence = writeFence();
 
-            List<PlayerTradeData> dataToSave = new ArrayList<>();
-            for (String key : dirtyKeys) {
-                PlayerTradeData data = tradeCache.get(key);
-                if (data != null) {
-                    dataToSave.add(data);
-                }
-            }
-            dirtyKeys.clear();
+        // Per-player data
+        if (!dirtyLedgers.isEmpty()) {
+            List<PlayerTradeData> dataToSave = drainDirtyLedgers();
+            plugin.getLogger().info("Flushing " + dataToSave.size() + " dirty player entries...");
 
             if (!dataToSave.isEmpty()) {
-                dataStore.batchSaveTradeData(dataToSave);
+                dataStore.batchSaveTradeData(dataToSave, fence);
             }
             plugin.getLogger().info("Flushed " + dataToSave.size() + " player entries successfully");
+            flushed = true;
         }
 
         // Global data
-        if (!globalDirtyKeys.isEmpty()) {
-            plugin.getLogger().info("Flushing " + globalDirtyKeys.size() + " dirty global entries...");
-
-            List<GlobalTradeData> globalToSave = new ArrayList<>();
-            for (String key : globalDirtyKeys) {
-                GlobalTradeData data = globalTradeCache.get(key);
-                if (data != null) {
-                    globalToSave.add(data);
-                }
-            }
-            globalDirtyKeys.clear();
+        if (!globalDirty.isEmpty()) {
+            plugin.getLogger().info("Flushing " + globalDirty.size() + " dirty global entries...");
+
+            List<GlobalTradeData> globalToSave = new ArrayList<>(globalDirty);
+            globalDirty.clear();
 
             if (!globalToSave.isEmpty()) {
-                dataStore.batchSaveGlobalTradeData(globalToSave);
+                dataStore.batchSaveGlobalTradeData(globalToSave, fence);
             }
             plugin.getLogger().info("Flushed " + globalToSave.size() + " global entries successfully");
+            flushed = true;
         }
 
-        if (dirtyKeys.isEmpty() && globalDirtyKeys.isEmpty()) {
+        if (!flushed) {
             plugin.getLogger().info("No dirty data to flush");
         }
     }
 
+    /**
+     * Removes every ledger from the dirty set and snapshots its dirty slots into rows.
+     */
+    private List<PlayerTradeData> drainDirtyLedgers() {
+        List<PlayerTradeData> rows = new ArrayList<>();
+        Iterator<ShopLedger> it = dirtyLedgers.iterator();
+        while (it.hasNext()) {
+            ShopLedger ledger = it.next();
+            it.remove();
+            rows.addAll(ledger.drainDirty(shopHandles(ledger.getShopOrdinal())));
+        }
+        return rows;
+    }
+
+    /**
+     * Removes every counter from the global dirty set.
+     */
+    private List<GlobalTradeData> drainGlobalDirty() {
+        List<GlobalTradeData> drained = new ArrayList<>();
+        Iterator<GlobalTradeData> it = globalDirty.iterator();
+        while (it.hasNext()) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
     // ===== Global Data Helpers =====
 
     /**
      * Gets global trade data from cache or database.
      */
-    private GlobalTradeData getGlobalTradeData(String shopId, String tradeKey) {
-        String cacheKey = shopId + ":" + tradeKey;
-        GlobalTradeData cached = globalTradeCache.get(cacheKey);
+    private GlobalTradeData getGlobalTradeData(TradeHandle handle) {
+        GlobalTradeData cached = handle.getGlobal();
         if (cached != null) return cached;
 
-        GlobalTradeData data = dataStore.loadGlobalTradeData(shopId, tradeKey);
+        GlobalTradeData data = dataStore.loadGlobalTradeData(handle.getShopId(), handle.getTradeKey());
+        if (data == null && sharedCounters != null) {
+            // No DB row yet doesn't mean no usage — another server on the host may have
+            // counted trades it hasn't flushed. Attach to the shared slot regardless.
+            data = new GlobalTradeData(handle.getShopId(), handle.getTradeKey(), 0, 0L,
+                    handle.getConfig().getCooldownSeconds());
+        }
         if (data != null) {
-            globalTradeCache.put(cacheKey, data);
+            bindSharedCounter(data);
+            return handle.installGlobal(data);
         }
-        return data;
+        return null;
     }
 
     /**
      * Gets or creates global trade data.
      */
-    private GlobalTradeData getOrCreateGlobalTradeData(String shopId, String tradeKey) {
-        GlobalTradeData data = getGlobalTradeData(shopId, tradeKey);
+    private GlobalTradeData getOrCreateGlobalTradeData(TradeHandle handle) {
+        GlobalTradeData data = getGlobalTradeData(handle);
         if (data == null) {
-            int cooldown = getCooldownSeconds(shopId, tradeKey);
             long now = System.currentTimeMillis() / 1000;
-            data = new GlobalTradeData(shopId, tradeKey, 0, now, cooldown);
-            globalTradeCache.put(data.getCacheKey(), data);
+            data = new GlobalTradeData(handle.getShopId(), handle.getTradeKey(), 0, now,
+                    handle.getConfig().getCooldownSeconds());
+            bindSharedCounter(data);
+            data = handle.installGlobal(data);
         }
         return data;
     }
 
+    // ===== Shared-Memory Counters =====
+
+    private void openSharedCounters() {
+        String file = plugin.getConfigManager().getSharedMemoryFile();
+        if (file == null || file.isBlank()) return;
+
+        Path path = Path.of(file);
+        if (!path.isAbsolute()) {
+            path = plugin.getDataFolder().toPath().resolve(path);
+        }
+        try {
+            sharedCounters = SharedCounterFile.open(path, plugin.getConfigManager().getSharedMemorySlots());
+            plugin.getLogger().info("Shared-memory stock counters mapped at " + path
+                    + " (" + sharedCounters.slotCount() + " slots, " + sharedCounters.claimedSlotCount() + " in use)");
+        } catch (IOException | RuntimeException e) {
+            sharedCounters = null;
+            plugin.getLogger().log(Level.SEVERE,
+                    "Failed to map shared counter file " + path + " — falling back to per-server counters", e);
+        }
+    }
+
+    /**
+     * Moves a freshly cached global counter onto its shared-memory slot (no-op when the
+     * backend is disabled). Falls back to the heap counter, with a warning, if the slot
+     * directory is full.
+     */
+    private void bindSharedCounter(GlobalTradeData data) {
+        if (sharedCounters == null || data.isSharedBound()) return;
+        int slot = sharedCounters.slotFor(data.getShopId(), data.getTradeKey());
+        if (slot < 0) {
+            plugin.getLogger().warning("Shared counter file is full — " + data.getCacheKey()
+                    + " uses a per-server counter. Increase shared-memory-slots.");
+            return;
+        }
+        data.bindSharedSlot(sharedCounters, slot);
+    }
+
+    private void clearSharedSlot(String shopId, String tradeKey) {
+        if (sharedCounters == null) return;
+        int slot = sharedCounters.slotFor(shopId, tradeKey);
+        if (slot >= 0) {
+            sharedCounters.set(slot, 0, System.currentTimeMillis() / 1000);
+        }
+    }
+
     // ===== Per-Player Data Helpers =====
 
-    private PlayerTradeData getTradeData(UUID playerId, String shopId, String tradeKey) {
-        String cacheKey = buildCacheKey(playerId, shopId, tradeKey);
+    /**
+     * Gets the player's ledger for the handle's shop, loading the handle's slot from the
+     * database the first time it is touched. A missing row is remembered as known-absent,
+     * so players who never bought a trade don't cost a query per render.
+     */
+    private ShopLedger ledger(UUID playerId, TradeHandle handle) {
+        ShopLedger ledger = shopLedger(playerId, handle);
+        int slot = handle.getTradeOrdinal();
+        if (ledger.isKnown(slot)) {
+            cacheHits.increment();
+            return ledger;
+        }
+        cacheMisses.increment();
+
+        try {
+            // A shop preload in flight answers this slot too — wait for it rather than racing it.
+            CompletableFuture<Void> shopLoad = inFlightLoads.get(new LoadKey(playerId, handle.getShopId(), null));
+            if (shopLoad != null) {
+                loadRequests.increment();
+                loadsDeduplicated.increment();
+                shopLoad.join();
+                if (ledger.isKnown(slot)) return ledger;
+            }
+            loadOnce(new LoadKey(playerId, handle.getShopId(), handle.getTradeKey()), false, () ->
+                    loadSlot(playerId, handle, ledger,
+                            dataStore.loadTradeData(playerId, handle.getShopId(), handle.getTradeKey()))).join();
+        } catch (CompletionException | CancellationException e) {
+            // Slot stays unknown (reads as never traded) and is retried on the next access.
+            plugin.getLogger().log(Level.WARNING, "Failed to load trade data for " + playerId + " at " + handle, e);
+        }
+        return ledger;
+    }
+
+    // ===== Single-Flight Loader =====
 
-        PlayerTradeData cached = tradeCache.get(cacheKey);
-        if (cached != null) return cached;
+    /**
+     * Runs a load unless one for the same key is already in flight, in which case the caller
+     * shares that load's future. Loaded rows are installed with {@link ShopLedger#load}, which
+     * never overwrites a slot that is already known, so a load racing a trade can't clobber it.
+     *
+     * @param async Run on the loader's virtual threads; otherwise the first caller runs the load
+     *              itself (it would block on the result anyway) and later callers join it
+     * @return Completes once the load's results are installed
+     */
+    private CompletableFuture<Void> loadOnce(LoadKey key, boolean async, Runnable load) {
+        loadRequests.increment();
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlightLoads.putIfAbsent(key, created);
+        if (existing != null) {
+            loadsDeduplicated.increment();
+            return existing;
+        }
 
-        PlayerTradeData data = dataStore.loadTradeData(playerId, shopId, tradeKey);
-        if (data != null) {
-            tradeCache.put(cacheKey, data);
-            trackCacheKey(playerId, cacheKey);
+        Runnable task = () -> {
+            try {
+                load.run();
+                created.complete(null);
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                inFlightLoads.remove(key, created);
+            }
+        };
+        if (!async) {
+            task.run();
+            return created;
+        }
+        try {
+            loader.execute(() -> {
+                try {
+                    loadPermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    inFlightLoads.remove(key, created);
+                    created.cancel(false);
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    loadPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down — nothing left to load into.
+            inFlightLoads.remove(key, created);
+            created.cancel(false);
         }
+        return created;
+    }
 
-        return data;
+    /**
+     * A load in flight: one trade of a player, or (null trade key) all of a player's rows in a shop.
+     */
+    private record LoadKey(UUID playerId, String shopId, String tradeKey) {
     }
 
-    private PlayerTradeData getOrCreateTradeData(UUID playerId, String shopId, String tradeKey) {
-        PlayerTradeData data = getTradeData(playerId, shopId, tradeKey);
+    /**
+     * Installs a loaded row into its slot and schedules its expiry.
+     */
+    private void loadSlot(UUID playerId, TradeHandle handle, ShopLedger ledger, PlayerTradeData row) {
+        ledger.load(handle.getTradeOrdinal(), row);
+        if (row != null && row.getTradesUsed() > 0) {
+            scheduleExpiry(playerId, handle, ledger);
+        }
+    }
 
-        if (data == null) {
-            int cooldown = getCooldownSeconds(shopId, tradeKey);
-            long now = System.currentTimeMillis() / 1000;
-            data = new PlayerTradeData(playerId, shopId, tradeKey, 0, now, cooldown);
-            String cacheKey = data.getCacheKey();
-            tradeCache.put(cacheKey, data);
-            trackCacheKey(playerId, cacheKey);
+    /**
+     * Gets (or creates) the player's ledger for the handle's shop without loading anything.
+     */
+    private ShopLedger shopLedger(UUID playerId, TradeHandle handle) {
+        PlayerLedger player = ledgers.get(playerId);
+        if (player == null) {
+            player = ledgers.computeIfAbsent(playerId, PlayerLedger::new);
+            if (ledgers.size() > plugin.getConfigManager().getCacheMaxPlayers()) {
+                scheduleTrim();
+            }
         }
+        player.touch();
+        int shopOrdinal = handle.getShopOrdinal();
+        return player.shopOrCreate(shopOrdinal, handle.getShopId(), shopHandles(shopOrdinal).length);
+    }
 
-        return data;
+    private void markDirty(ShopLedger ledger) {
+        dirtyLedgers.add(ledger);
+    }
+
+    // ===== Cache Bound =====
+
+    /**
+     * Queues a trim unless one is already pending. Size-triggered trims are spaced at least a
+     * second apart so a cache held over its bound by online players (who are pinned) doesn't
+     * rescan on every new ledger. The online players are read on the global thread (Bukkit
+     * API), the scan itself runs async.
+     */
+    private void scheduleTrim() {
+        if (!memoryPressure && System.currentTimeMillis() - lastTrimMillis < 1000) return;
+        if (!trimScheduled.compareAndSet(false, true)) return;
+        plugin.getTaskScheduler().runGlobal(() -> {
+            Set<UUID> online = new HashSet<>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                online.add(player.getUniqueId());
+            }
+            plugin.getTaskScheduler().runAsync(() -> runTrim(online));
+        });
+    }
+
+    private void runTrim(Set<UUID> online) {
+        try {
+            boolean pressure = memoryPressure;
+            memoryPressure = false;
+            if (pressure) memoryPressureTrims.increment();
+            trimLedgers(pressure ? 0 : plugin.getConfigManager().getCacheMaxPlayers(), online);
+        } finally {
+            lastTrimMillis = System.currentTimeMillis();
+            trimScheduled.set(false);
+        }
+        // A threshold notification that arrived mid-trim still gets its own pass.
+        if (memoryPressure) scheduleTrim();
+    }
+
+    /**
+     * Evicts clean ledgers of offline players, least frequently used first, until at most
+     * {@code target} ledgers remain. Online players' ledgers and ledgers with unflushed
+     * changes are never evicted, so the cache may stay above the target. Every ledger's
+     * frequency is halved on the way through so old popularity decays.
+     *
+     * <p>The scan and sort run without any lock; only the final removals take writeResetLock,
+     * re-checking each candidate for changes made since it was picked. A player who joined
+     * after {@code online} was taken may still be evicted — their next trade simply reloads.</p>
+     *
+     * @param online Players online when the trim was scheduled
+     * @return Number of ledgers evicted
+     */
+    private int trimLedgers(int target, Set<UUID> online) {
+        if (ledgers.size() <= target) return 0;
+
+        List<EvictionCandidate> candidates = new ArrayList<>();
+        for (PlayerLedger player : ledgers.values()) {
+            int frequency = player.frequency();
+            player.age();
+            if (online.contains(player.getPlayerId())) continue; // pinned while online
+            if (hasDirtyShop(player)) continue;
+            candidates.add(new EvictionCandidate(player, frequency));
+        }
+        candidates.sort(Comparator.comparingInt(EvictionCandidate::frequency));
+
+        int evicted = 0;
+        // Dirty marks are only added under the shared side of this lock, so "clean" can't
+        // change between the re-check and the removal.
+        writeResetLock.lock();
+        try {
+            int excess = ledgers.size() - target;
+            for (int i = 0; i < candidates.size() && evicted < excess; i++) {
+                PlayerLedger player = candidates.get(i).ledger();
+                if (hasDirtyShop(player)) continue;
+                if (ledgers.remove(player.getPlayerId(), player)) {
+                    evicted++;
+                }
+            }
+        } finally {
+            writeResetLock.unlock();
+        }
+        cacheEvictions.add(evicted);
+
+        if (plugin.getConfigManager().isDebugMode() && evicted > 0) {
+            plugin.getLogger().info("Evicted " + evicted + " idle player ledgers (target " + target + ")");
+        }
+        return evicted;
+    }
+
+    private boolean hasDirtyShop(PlayerLedger player) {
+        for (ShopLedger ledger : player.shops()) {
+            if (ledger != null && dirtyLedgers.contains(ledger)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Re-arms the memory-pressure threshold with the current config.
+     * Called after config reload to pick up cache-memory-threshold changes.
+     */
+    public synchronized void restartMemoryListener() {
+        unregisterMemoryListener();
+        registerMemoryListener();
+    }
+
+    /**
+     * Arms a collection usage threshold on the heap pools that support one (the old
+     * generation under G1) and trims the cache when it is crossed. Collection usage is
+     * measured right after a GC, so only live data counts — garbage waiting for the next
+     * collection doesn't trigger a trim. The thresholds found are restored on unregister.
+     */
+    private synchronized void registerMemoryListener() {
+        int percent = plugin.getConfigManager().getCacheMemoryThreshold();
+        if (percent <= 0) return;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            long max = pool.getUsage().getMax();
+            if (max <= 0) continue;
+            long threshold = max / 100 * percent;
+            armedPools.add(new ArmedPool(pool, pool.getCollectionUsageThreshold(), threshold));
+            pool.setCollectionUsageThreshold(threshold);
+        }
+        if (armedPools.isEmpty()) {
+            plugin.getLogger().info("No heap pool supports collection usage thresholds — memory-pressure cache trimming disabled");
+            return;
+        }
+
+        memoryListener = (notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                memoryPressure = true;
+                scheduleTrim();
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                .addNotificationListener(memoryListener, null, null);
+    }
+
+    private synchronized void unregisterMemoryListener() {
+        // Give the JVM back the thresholds we replaced, unless someone moved them since.
+        for (ArmedPool armed : armedPools) {
+            if (armed.pool().getCollectionUsageThreshold() == armed.threshold()) {
+                armed.pool().setCollectionUsageThreshold(armed.previous());
+            }
+        }
+        armedPools.clear();
+
+        if (memoryListener == null) return;
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(memoryListener);
+        } catch (ListenerNotFoundException ignored) {
+            // Never registered — nothing to remove
+        }
+        memoryListener = null;
+    }
+
+    /**
+     * A heap pool whose collection usage threshold we set, and the value it had before.
+     */
+    private record ArmedPool(MemoryPoolMXBean pool, long previous, long threshold) {
+    }
+
+    private record EvictionCandidate(PlayerLedger ledger, int frequency) {
+    }
+
+    // ===== Render Versions =====
+
+    /**
+     * Version of a shop's shared stock as seen by this server. Changes whenever one of its
+     * global counters or restock generations changes here; counters written by other servers
+     * through shared memory are not seen (see {@link #hasForeignStockWriters()}).
+     */
+    public long stockVersion(String shopId) {
+        AtomicLong version = stockVersions.get(shopId);
+        return version != null ? version.get() : 0L;
     }
 
-    // ===== Config Helpers =====
+    private void bumpStockVersion(String shopId) {
+        stockVersions.computeIfAbsent(shopId, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * @return true if other processes can change global counters without this server noticing
+     *         (shared-memory counters), so {@link #stockVersion} can't vouch for shared shops
+     */
+    public boolean hasForeignStockWriters() {
+        return sharedCounters != null;
+    }
+
+    /**
+     * The player's cached ledger for a shop, without loading anything. Its identity and
+     * {@link ShopLedger#version() version} together stamp the player's per-player counts.
+     *
+     * @return The ledger, or null if nothing of that shop is cached for the player
+     */
+    public ShopLedger peekLedger(UUID playerId, String shopId) {
+        Integer shopOrdinal = shopOrdinals.get(shopId);
+        PlayerLedger player = ledgers.get(playerId);
+        return shopOrdinal != null && player != null ? player.shop(shopOrdinal) : null;
+    }
 
-    private TradeConfig getTradeConfig(String shopId, String tradeKey) {
-        ShopConfig shop = plugin.getConfigManager().getShop(shopId);
-        if (shop == null) return null;
-        // Unified lookup covers both static trades and pool items.
-        return shop.findTradeLimits(tradeKey);
+    /**
+     * Whether every counter a render of the shop reads is cached, so rendering it can't touch
+     * the database.
+     */
+    public boolean isResident(UUID playerId, String shopId) {
+        ShopLedger ledger = peekLedger(playerId, shopId);
+        for (TradeHandle handle : handles(shopId).values()) {
+            TradeConfig tradeConfig = handle.getConfig();
+            boolean needsLedger = handle.isShared() ? tradeConfig.getMaxPerPlayer() > 0 : tradeConfig.getMaxTrades() >= 0;
+            if (needsLedger && (ledger == null || !ledger.isKnown(handle.getTradeOrdinal()))) return false;
+            if (handle.isShared() && !tradeConfig.isUnlimited() && handle.getGlobal() == null) return false;
+        }
+        return true;
     }
 
-    private int getTradeLimit(String shopId, String tradeKey) {
-        TradeConfig trade = getTradeConfig(shopId, tradeKey);
-        return trade == null ? 1 : trade.getMaxTrades();
+    /**
+     * {@link #getRemainingTrades} from cached counters only — never loads. A counter that
+     * isn't cached reads as unused, so a shared shop shows its global stock and a per-player
+     * shop shows full stock until the real counts arrive.
+     */
+    public int peekRemainingTrades(UUID playerId, TradeHandle handle) {
+        TradeConfig tradeConfig = handle.getConfig();
+        ShopLedger ledger = peekLedger(playerId, handle.getShopId());
+        int playerUsed = ledger != null && ledger.isKnown(handle.getTradeOrdinal()) ? usedInPeriod(ledger, handle) : 0;
+
+        if (!handle.isShared()) {
+            int limit = tradeConfig.getMaxTrades();
+            return limit < 0 ? UNLIMITED_REMAINING : Math.max(0, limit - playerUsed);
+        }
+
+        GlobalTradeData globalData = handle.getGlobal();
+        int globalRemaining;
+        if (tradeConfig.isUnlimited()) {
+            globalRemaining = UNLIMITED_REMAINING;
+        } else if (globalData == null || (tradeConfig.getCooldownMode() != CooldownMode.NONE
+                && isGlobalExpired(globalData, tradeConfig))) {
+            globalRemaining = tradeConfig.getMaxTrades();
+        } else {
+            globalRemaining = Math.max(0, tradeConfig.getMaxTrades() - globalData.getTradesUsed());
+        }
+
+        int maxPerPlayer = tradeConfig.getMaxPerPlayer();
+        return maxPerPlayer > 0 ? Math.min(globalRemaining, Math.max(0, maxPerPlayer - playerUsed)) : globalRemaining;
     }
 
-    private int getCooldownSeconds(String shopId, String tradeKey) {
-        TradeConfig trade = getTradeConfig(shopId, tradeKey);
-        return trade == null ? 86400 : trade.getCooldownSeconds();
+    /**
+     * Epoch second from which a trade's displayed remaining count may change with no write at
+     * all — a daily/weekly boundary or a rolling cooldown running out.
+     *
+     * @return The epoch second, or {@link Long#MAX_VALUE} if time alone never changes it
+     */
+    public long displayValidUntil(UUID playerId, TradeHandle handle, long now) {
+        TradeConfig tradeConfig = handle.getConfig();
+        switch (tradeConfig.getCooldownMode()) {
+            case DAILY:
+            case WEEKLY:
+                return getNextResetTime(tradeConfig);
+            case ROLLING: {
+                long until = Long.MAX_VALUE;
+                if (!handle.isShared() || tradeConfig.getMaxPerPlayer() > 0) {
+                    long remaining = getTimeUntilReset(playerId, handle);
+                    if (remaining > 0) until = now + remaining;
+                }
+                if (handle.isShared()) {
+                    long remaining = getGlobalTimeUntilReset(handle);
+                    if (remaining > 0) until = Math.min(until, now + remaining);
+                }
+                return until;
+            }
+            case NONE:
+            default:
+                return Long.MAX_VALUE;
+        }
     }
 
     // ===== Diagnostics =====
 
     public int cacheSize() {
-        return tradeCache.size();
+        int present = 0;
+        for (PlayerLedger player : ledgers.values()) {
+            for (ShopLedger ledger : player.shops()) {
+                if (ledger != null) present += ledger.presentCount();
+            }
+        }
+        return present;
     }
 
     public int globalCacheSize() {
-        return globalTradeCache.size();
+        int resident = 0;
+        for (TradeHandle handle : handlesById) {
+            if (handle != null && handle.getGlobal() != null) resident++;
+        }
+        return resident;
     }
 
     public int dirtyCount() {
-        return dirtyKeys.size();
+        int dirty = 0;
+        for (ShopLedger ledger : dirtyLedgers) {
+            dirty += ledger.dirtyCount();
+        }
+        return dirty;
     }
 
-    public int globalDirtyCount() {
-        return globalDirtyKeys.size();
+    public long cacheHits() {
+        return cacheHits.sum();
     }
 
-    public int trackedPlayerCount() {
-        return playerCacheKeys.size();
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long cacheEvictions() {
+        return cacheEvictions.sum();
+    }
+
+    public long memoryPressureTrims() {
+        return memoryPressureTrims.sum();
+    }
+
+    public int expiryQueueSize() {
+        synchronized (expiryQueue) {
+            return expiryQueue.size();
+        }
+    }
+
+    public int inFlightLoadCount() {
+        return inFlightLoads.size();
+    }
+
+    public long loadRequests() {
+        return loadRequests.sum();
     }
 
-    // ===== Cache Key Helpers =====
+    public long loadsDeduplicated() {
+        return loadsDeduplicated.sum();
+    }
 
-    private void markDirty(String cacheKey) {
-        dirtyKeys.add(cacheKey);
+    public int globalDirtyCount() {
+        return globalDirty.size();
     }
 
-    private String buildCacheKey(UUID playerId, String shopId, String tradeKey) {
-        return playerId + ":" + shopId + ":" + tradeKey;
+    public int tradeHandleCount() {
+        return handlesById.length;
     }
 
-    private void trackCacheKey(UUID playerId, String cacheKey) {
-        playerCacheKeys.computeIfAbsent(playerId, k -> ConcurrentHashMap.newKeySet()).add(cacheKey);
+    public int trackedPlayerCount() {
+        return ledgers.size();
     }
 
-    private void untrackCacheKey(UUID playerId, String cacheKey) {
-        Set<String> keys = playerCacheKeys.get(playerId);
-        if (keys != null) {
-            keys.remove(cacheKey);
-            if (keys.isEmpty()) {
-                playerCacheKeys.remove(playerId);
+    /**
+     * Counts the shop ledgers (player × shop pairs) currently resident.
+     */
+    public int shopLedgerCount() {
+        int count = 0;
+        for (PlayerLedger player : ledgers.values()) {
+            for (ShopLedger ledger : player.shops()) {
+                if (ledger != null) count++;
             }
         }
+        return count;
+    }
+
+    /**
+     * Returns the mapped shared counter file, or null when the shared-memory backend is off.
+     */
+    public SharedCounterFile getSharedCounters() {
+        return sharedCounters;
     }
 }
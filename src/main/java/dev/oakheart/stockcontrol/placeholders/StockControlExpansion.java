@@ -6,6 +6,7 @@ import dev.oakheart.stockcontrol.data.PoolConfig;
 import dev.oakheart.stockcontrol.data.RotationState;
 import dev.oakheart.stockcontrol.data.ShopConfig;
 import dev.oakheart.stockcontrol.data.TradeConfig;
+import dev.oakheart.stockcontrol.data.TradeHandle;
 import dev.oakheart.stockcontrol.managers.TradeDataManager;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import org.bukkit.OfflinePlayer;
@@ -94,11 +95,10 @@ public class StockControlExpansion extends PlaceholderExpansion {
         }
 
         // Trade-level placeholders — pool items resolve through the unified lookup.
-        String tradeKey = rest;
-        TradeConfig tradeConfig = shopConfig.findTradeLimits(tradeKey);
-        if (tradeConfig == null) return null;
-
         TradeDataManager tdm = plugin.getTradeDataManager();
+        TradeHandle handle = tdm.resolve(shopId, rest);
+        if (handle == null) return null;
+        TradeConfig tradeConfig = handle.getConfig();
 
         // Determine effective max for the player (per-player cap for shared mode).
         // Render unlimited (-1) as "∞" — placeholders are display-only, so callers can
@@ -113,11 +113,11 @@ public class StockControlExpansion extends PlaceholderExpansion {
         switch (action) {
             case "remaining": {
                 if (unlimitedEffective) return "∞";
-                return String.valueOf(tdm.getRemainingTrades(player.getUniqueId(), shopId, tradeKey));
+                return String.valueOf(tdm.getRemainingTrades(player.getUniqueId(), handle));
             }
 
             case "used": {
-                int remaining = tdm.getRemainingTrades(player.getUniqueId(), shopId, tradeKey);
+                int remaining = tdm.getRemainingTrades(player.getUniqueId(), handle);
                 if (unlimitedEffective) return String.valueOf(Math.max(0, TradeDataManager.UNLIMITED_REMAINING - remaining));
                 return String.valueOf(effectiveMax - remaining);
             }
@@ -128,18 +128,18 @@ public class StockControlExpansion extends PlaceholderExpansion {
             case "cooldown": {
                 if (tradeConfig.getCooldownMode() == CooldownMode.NONE) {
                     if (unlimitedEffective) return "Available";
-                    int remaining = tdm.getRemainingTrades(player.getUniqueId(), shopId, tradeKey);
+                    int remaining = tdm.getRemainingTrades(player.getUniqueId(), handle);
                     return remaining > 0 ? "Available" : "Sold out";
                 }
-                if (tdm.hasCooldownExpired(player.getUniqueId(), shopId, tradeKey)) {
+                if (tdm.hasCooldownExpired(player.getUniqueId(), handle)) {
                     return "Ready";
                 }
-                long timeLeft = tdm.getTimeUntilReset(player.getUniqueId(), shopId, tradeKey);
+                long timeLeft = tdm.getTimeUntilReset(player.getUniqueId(), handle);
                 return tdm.formatDuration(timeLeft);
             }
 
             case "resettime":
-                return tdm.getResetTimeString(shopId, tradeKey);
+                return tdm.getResetTimeString(handle);
 
             case "globalmax":
                 return tradeConfig.isUnlimited() ? "∞" : String.valueOf(tradeConfig.getMaxTrades());
@@ -147,7 +147,7 @@ public class StockControlExpansion extends PlaceholderExpansion {
             case "globalremaining":
                 if (tradeConfig.isUnlimited()) return "∞";
                 if (!shopConfig.isShared()) return String.valueOf(tradeConfig.getMaxTrades());
-                return String.valueOf(tdm.getGlobalRemainingTrades(shopId, tradeKey));
+                return String.valueOf(tdm.getGlobalRemainingTrades(handle));
 
             default:
                 return null;
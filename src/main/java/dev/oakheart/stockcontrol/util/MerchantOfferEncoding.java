@@ -0,0 +1,251 @@
+package dev.oakheart.stockcontrol.util;
+
+import com.github.retrooper.packetevents.protocol.recipe.data.MerchantOffer;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Where each offer sits inside an encoded MERCHANT_OFFERS body, so a rewrite that only changes
+ * uses/maxUses, or shows a subset of the offers in another order, can be applied to the
+ * outgoing bytes instead of having PacketEvents re-encode every item stack (and all of its
+ * data components) of the packet.
+ *
+ * <p>Body layout: container id (VarInt), offer count (VarInt), the offers, then villager level
+ * (VarInt), villager xp (VarInt), show-progress and can-restock (one byte each). Every offer
+ * ends in the same 25 fixed-width bytes — the out-of-stock flag, then uses, maxUses, xp,
+ * specialPrice, priceMultiplier and demand — so a new uses/maxUses never changes the packet's
+ * length and can be written in place.</p>
+ *
+ * <p>Items are variable-length, so offsets are learned once per offer snapshot by walking the
+ * offers: each starts where the previous one ended and is as long as PacketEvents' writer
+ * encodes it. The layout is only accepted if every offer's tail reads back as its source
+ * values and the last offer ends where the footer starts. Before each use the layout is
+ * checked again against the packet at hand (length, header and every tail); anything that
+ * doesn't line up is left to a normal re-encode.</p>
+ *
+ * <p>Holds offsets only; a splice copies the offers out of the packet at hand. Immutable after
+ * {@link #locate}; one instance is shared by every viewer of a snapshot.</p>
+ */
+public final class MerchantOfferEncoding {
+
+    private static final int TAIL_BYTES = 25;
+    private static final int OUT_OF_STOCK_FROM_END = 25;
+    private static final int USES_FROM_END = 24;
+    private static final int MAX_USES_FROM_END = 20;
+
+    /** Remembered when a snapshot's layout couldn't be verified, so it isn't walked again. */
+    public static final MerchantOfferEncoding UNAVAILABLE = new MerchantOfferEncoding(new int[0], new int[0], 0, 0);
+
+    // Start and end of each offer, relative to the first offer's start.
+    private final int[] offerStarts;
+    private final int[] offerEnds;
+    private final int offersLength;
+    private final int footerLength;
+
+    private MerchantOfferEncoding(int[] offerStarts, int[] offerEnds, int offersLength, int footerLength) {
+        this.offerStarts = offerStarts;
+        this.offerEnds = offerEnds;
+        this.offersLength = offersLength;
+        this.footerLength = footerLength;
+    }
+
+    /**
+     * @return The reader index of the packet body in an outgoing buffer, or -1 if the buffer
+     *         isn't a netty buffer this class can patch
+     */
+    public static int bodyStart(Object buffer) {
+        return buffer instanceof ByteBuf buf ? buf.readerIndex() : -1;
+    }
+
+    /**
+     * Learns the layout of an encoded body that carries exactly {@code offers}.
+     *
+     * @param offerLengths Encoded length of each offer, as the packet's writer produces it
+     * @return The verified layout, or {@link #UNAVAILABLE} if it can't be pinned down
+     */
+    public static MerchantOfferEncoding locate(Object buffer, int bodyStart, List<MerchantOffer> offers,
+                                               int[] offerLengths, int villagerLevel, int villagerXp,
+                                               boolean showProgress, boolean canRestock) {
+        if (!(buffer instanceof ByteBuf buf) || bodyStart < 0 || offers.isEmpty()
+                || offerLengths.length != offers.size()) {
+            return UNAVAILABLE;
+        }
+        int offersStart = offersStart(buf, bodyStart, offers.size());
+        int footerLength = varIntSize(villagerLevel) + varIntSize(villagerXp) + 2;
+        int footerStart = buf.writerIndex() - footerLength;
+        if (offersStart < 0 || footerStart < offersStart) return UNAVAILABLE;
+
+        // Footer must read back as the snapshot's merchant header.
+        byte[] footer = new byte[footerLength];
+        buf.getBytes(footerStart, footer);
+        long level = readVarInt(footer, 0);
+        long xp = level >= 0 ? readVarInt(footer, varIntSize(villagerLevel)) : -1;
+        if (level != villagerLevel || xp != villagerXp
+                || footer[footerLength - 2] != (showProgress ? 1 : 0)
+                || footer[footerLength - 1] != (canRestock ? 1 : 0)) {
+            return UNAVAILABLE;
+        }
+
+        int[] offerStarts = new int[offers.size()];
+        int[] offerEnds = new int[offers.size()];
+        int pos = offersStart;
+        for (int i = 0; i < offers.size(); i++) {
+            int length = offerLengths[i];
+            if (length < TAIL_BYTES || length > footerStart - pos) return UNAVAILABLE;
+            offerStarts[i] = pos - offersStart;
+            pos += length;
+            if (!tailMatches(buf, pos, offers.get(i))) return UNAVAILABLE;
+            offerEnds[i] = pos - offersStart;
+        }
+        if (pos != footerStart) return UNAVAILABLE;
+        return new MerchantOfferEncoding(offerStarts, offerEnds, footerStart - offersStart, footerLength);
+    }
+
+    public boolean isAvailable() {
+        return this != UNAVAILABLE;
+    }
+
+    /**
+     * Whether a buffer still holds {@code source} laid out exactly as learned: same body length
+     * after the header, and every offer's tail where it is expected with the source values.
+     */
+    public boolean matches(Object buffer, int bodyStart, List<MerchantOffer> source) {
+        if (!isAvailable() || !(buffer instanceof ByteBuf buf) || bodyStart < 0
+                || source.size() != offerEnds.length) {
+            return false;
+        }
+        int offersStart = offersStart(buf, bodyStart, offerEnds.length);
+        if (offersStart < 0 || buf.writerIndex() - offersStart != offersLength + footerLength) return false;
+        for (int i = 0; i < offerEnds.length; i++) {
+            if (!tailMatches(buf, offersStart + offerEnds[i], source.get(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes rendered uses/maxUses (and the out-of-stock flag that follows from them) over the
+     * source offers, in place. Only valid when the render kept every offer in source order and
+     * {@link #matches} held for this buffer.
+     */
+    public void patchUses(Object buffer, int bodyStart, List<MerchantOffer> rendered) {
+        ByteBuf buf = (ByteBuf) buffer;
+        int offersStart = offersStart(buf, bodyStart, offerEnds.length);
+        for (int i = 0; i < offerEnds.length; i++) {
+            writeUses(buf, offersStart + offerEnds[i], rendered.get(i));
+        }
+    }
+
+    /**
+     * Rewrites the body as a subset/reordering of the source offers, copying each shown offer's
+     * encoded bytes from this buffer and writing its rendered uses/maxUses. Only valid when
+     * {@link #matches} held for this buffer.
+     *
+     * @param uiToSource Source slot of each rendered offer, in UI order
+     * @return false (buffer untouched) if the mapping doesn't fit this layout
+     */
+    public boolean splice(Object buffer, int bodyStart, int[] uiToSource, List<MerchantOffer> rendered) {
+        if (uiToSource.length != rendered.size()) return false;
+        int length = 0;
+        for (int source : uiToSource) {
+            if (source < 0 || source >= offerEnds.length) return false;
+            length += offerEnds[source] - offerStarts[source];
+        }
+
+        ByteBuf buf = (ByteBuf) buffer;
+        int offersStart = offersStart(buf, bodyStart, offerEnds.length);
+        int containerIdLength = offersStart - bodyStart - varIntSize(offerEnds.length);
+        ByteBuf body = buf.alloc().buffer(containerIdLength + varIntSize(rendered.size()) + length + footerLength);
+        try {
+            body.writeBytes(buf, bodyStart, containerIdLength);
+            writeVarInt(body, rendered.size());
+            for (int i = 0; i < rendered.size(); i++) {
+                int source = uiToSource[i];
+                body.writeBytes(buf, offersStart + offerStarts[source], offerEnds[source] - offerStarts[source]);
+                writeUses(body, body.writerIndex(), rendered.get(i));
+            }
+            body.writeBytes(buf, offersStart + offersLength, footerLength);
+
+            buf.writerIndex(bodyStart);
+            buf.writeBytes(body);
+        } finally {
+            body.release();
+        }
+        return true;
+    }
+
+    // ===== Encoding Helpers =====
+
+    /** Writes an offer's out-of-stock flag and uses/maxUses into its tail, ending at {@code offerEnd}. */
+    private static void writeUses(ByteBuf buf, int offerEnd, MerchantOffer offer) {
+        buf.setByte(offerEnd - OUT_OF_STOCK_FROM_END, isOutOfStock(offer) ? 1 : 0);
+        buf.setInt(offerEnd - USES_FROM_END, offer.getUses());
+        buf.setInt(offerEnd - MAX_USES_FROM_END, offer.getMaxUses());
+    }
+
+    /** Whether the offer's fixed-width tail, ending at {@code offerEnd}, holds its values. */
+    private static boolean tailMatches(ByteBuf buf, int offerEnd, MerchantOffer offer) {
+        int t = offerEnd - TAIL_BYTES;
+        return buf.getByte(t) == (isOutOfStock(offer) ? 1 : 0)
+                && buf.getInt(t + 1) == offer.getUses()
+                && buf.getInt(t + 5) == offer.getMaxUses()
+                && buf.getInt(t + 9) == offer.getXp()
+                && buf.getInt(t + 13) == offer.getSpecialPrice()
+                && buf.getInt(t + 17) == Float.floatToIntBits(offer.getPriceMultiplier())
+                && buf.getInt(t + 21) == offer.getDemand();
+    }
+
+    /** The flag vanilla writes for an offer: every use taken. */
+    private static boolean isOutOfStock(MerchantOffer offer) {
+        return offer.getUses() >= offer.getMaxUses();
+    }
+
+    /** Skips the container id and checks the offer count; -1 if the header doesn't parse. */
+    private static int offersStart(byte[] body, int count) {
+        int afterId = skipVarInt(body, 0);
+        if (afterId < 0 || readVarInt(body, afterId) != count) return -1;
+        return afterId + varIntSize(count);
+    }
+
+    private static int offersStart(ByteBuf buf, int bodyStart, int count) {
+        byte[] header = new byte[Math.min(10, buf.writerIndex() - bodyStart)];
+        if (header.length <= 0) return -1;
+        buf.getBytes(bodyStart, header);
+        int start = offersStart(header, count);
+        return start < 0 ? -1 : bodyStart + start;
+    }
+
+    private static int skipVarInt(byte[] data, int pos) {
+        for (int i = 0; i < 5 && pos + i < data.length; i++) {
+            if ((data[pos + i] & 0x80) == 0) return pos + i + 1;
+        }
+        return -1;
+    }
+
+    private static long readVarInt(byte[] data, int pos) {
+        int value = 0;
+        for (int i = 0; i < 5 && pos + i < data.length; i++) {
+            byte b = data[pos + i];
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) return value;
+        }
+        return -1;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+}
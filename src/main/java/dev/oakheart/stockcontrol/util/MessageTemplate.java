@@ -0,0 +1,154 @@
+package dev.oakheart.stockcontrol.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.Tag;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import org.bukkit.entity.Player;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * A MiniMessage string parsed once into a component tree with numbered slots, so sending it
+ * only copies the few nodes on the way to a slot instead of parsing the string again.
+ *
+ * <p>Each slot tag is parsed as an inserted text component holding a private-use marker
+ * character; it inherits the surrounding style like any inserted placeholder would. Resource
+ * packs put their glyphs in the same range, so the markers are picked per template among the
+ * characters that don't occur in its text, and a glyph can't be taken for a slot. Compaction
+ * is disabled while parsing so a marker always stays a node of its own, and {@link #compile}
+ * rejects a tree where it doesn't (the caller falls back to a normal parse).</p>
+ *
+ * <p>Immutable; safe to send from any thread.</p>
+ */
+public final class MessageTemplate {
+
+    /** Where a template is shown. */
+    public enum Display { CHAT, ACTION_BAR }
+
+    // Private Use Area; markers are taken from the top down, glyphs tend to start at the bottom.
+    private static final char FIRST_MARKER = '\uE000';
+    private static final char LAST_MARKER = '\uF8FF';
+
+    // Keep each slot's marker a node of its own (the default post-processor compacts).
+    private static final MiniMessage PARSER = MiniMessage.builder()
+            .postProcessor(UnaryOperator.identity())
+            .build();
+
+    private final Component root;
+    private final Display display;
+    private final char firstMarker;
+    private final int slotCount;
+
+    private MessageTemplate(Component root, Display display, char firstMarker, int slotCount) {
+        this.root = root;
+        this.display = display;
+        this.firstMarker = firstMarker;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Parses a template whose {@code slots} are filled, in order, by {@link #send}.
+     *
+     * @return The template, or null if a slot could not be isolated in the parsed tree
+     */
+    public static @Nullable MessageTemplate compile(String text, Display display, String... slots) {
+        char firstMarker = freeMarkers(text, slots.length);
+        if (firstMarker == 0) return null;
+        TagResolver.Builder resolvers = TagResolver.builder();
+        for (int i = 0; i < slots.length; i++) {
+            Component marker = Component.text(String.valueOf((char) (firstMarker + i)));
+            resolvers.tag(slots[i], Tag.selfClosingInserting(marker));
+        }
+        Component root = PARSER.deserialize(text, resolvers.build());
+        return isolated(root, firstMarker, slots.length)
+                ? new MessageTemplate(root, display, firstMarker, slots.length)
+                : null;
+    }
+
+    /**
+     * Picks {@code count} consecutive private-use characters none of which occur in
+     * {@code text}, so the parsed tree holds them only where a slot was inserted.
+     *
+     * @return The first of them, or 0 if the text leaves no such run free
+     */
+    private static char freeMarkers(String text, int count) {
+        for (int first = LAST_MARKER - count + 1; first >= FIRST_MARKER; first--) {
+            boolean free = true;
+            for (int i = 0; i < count && free; i++) {
+                free = text.indexOf(first + i) < 0;
+            }
+            if (free) return (char) first;
+        }
+        return 0;
+    }
+
+    /**
+     * Sends the template with each slot replaced by the matching value.
+     */
+    public void send(Player player, String... values) {
+        Component message = render(values);
+        switch (display) {
+            case ACTION_BAR -> player.sendActionBar(message);
+            case CHAT -> player.sendMessage(message);
+        }
+    }
+
+    /**
+     * Builds the message with each slot replaced by the matching value.
+     */
+    Component render(String... values) {
+        if (values.length != slotCount) {
+            throw new IllegalArgumentException("Expected " + slotCount + " values, got " + values.length);
+        }
+        return fill(root, values);
+    }
+
+    /**
+     * Copies the path from {@code node} to every slot, sharing every subtree without one.
+     */
+    private Component fill(Component node, String[] values) {
+        Component filled = node;
+        if (node instanceof TextComponent text) {
+            int slot = slotOf(text.content(), firstMarker, values.length);
+            if (slot >= 0) filled = text.content(values[slot]);
+        }
+
+        List<Component> children = node.children();
+        List<Component> replaced = null;
+        for (int i = 0; i < children.size(); i++) {
+            Component child = children.get(i);
+            Component result = fill(child, values);
+            if (result != child && replaced == null) {
+                replaced = new ArrayList<>(children);
+            }
+            if (replaced != null) replaced.set(i, result);
+        }
+        return replaced != null ? filled.children(replaced) : filled;
+    }
+
+    private static int slotOf(String content, char firstMarker, int slotCount) {
+        if (content.length() != 1) return -1;
+        int slot = content.charAt(0) - firstMarker;
+        return slot >= 0 && slot < slotCount ? slot : -1;
+    }
+
+    /** Whether every marker in the tree is the whole content of its node. */
+    private static boolean isolated(Component node, char firstMarker, int slotCount) {
+        if (node instanceof TextComponent text && slotOf(text.content(), firstMarker, slotCount) < 0) {
+            String content = text.content();
+            for (int i = 0; i < content.length(); i++) {
+                int slot = content.charAt(i) - firstMarker;
+                if (slot >= 0 && slot < slotCount) return false;
+            }
+        }
+        for (Component child : node.children()) {
+            if (!isolated(child, firstMarker, slotCount)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package dev.oakheart.stockcontrol.util;
+
+import dev.oakheart.stockcontrol.data.CooldownMode;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wall-clock reset boundaries for daily and weekly schedules.
+ *
+ * <p>Each distinct (schedule, reset-time, reset-day) is parsed once into an interned
+ * {@link Spec} when the config is loaded. A spec caches the boundary window containing
+ * "now" — the last reset and the next one — and only recomputes it with calendar math
+ * when a timestamp falls outside that window. Expiry checks on the hot path are then a
+ * single comparison against {@link Spec#previous(long)}.</p>
+ */
+public final class ResetClock {
+
+    private static final Map<String, Spec> SPECS = new ConcurrentHashMap<>();
+    private static final LongAdder REFRESHES = new LongAdder();
+
+    private ResetClock() {}
+
+    /**
+     * Returns the spec for a trade's cooldown schedule.
+     *
+     * @return The interned spec, or null for rolling / none modes or an unparseable
+     *         reset-time / reset-day (config validation reports those separately)
+     */
+    public static @Nullable Spec forCooldown(CooldownMode mode, String resetTime, String resetDay) {
+        return switch (mode) {
+            case DAILY -> daily(resetTime);
+            case WEEKLY -> weekly(resetDay, resetTime);
+            case ROLLING, NONE -> null;
+        };
+    }
+
+    /**
+     * @return The interned daily spec, or null if {@code resetTime} isn't HH:mm
+     */
+    public static @Nullable Spec daily(String resetTime) {
+        return intern(null, resetTime);
+    }
+
+    /**
+     * @return The interned weekly spec, or null if the day or time can't be parsed
+     */
+    public static @Nullable Spec weekly(String resetDay, String resetTime) {
+        DayOfWeek day;
+        try {
+            day = DayOfWeek.valueOf(resetDay);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+        return intern(day, resetTime);
+    }
+
+    private static @Nullable Spec intern(@Nullable DayOfWeek day, String resetTime) {
+        String key = (day != null ? day.name() : "DAILY") + "@" + resetTime;
+        Spec existing = SPECS.get(key);
+        if (existing != null) return existing;
+
+        int hour;
+        int minute;
+        try {
+            String[] parts = resetTime.split(":");
+            hour = Integer.parseInt(parts[0]);
+            minute = Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) return null;
+        return SPECS.computeIfAbsent(key, k -> new Spec(day, hour, minute));
+    }
+
+    /** Number of distinct schedules interned so far (diagnostics). */
+    public static int specCount() {
+        return SPECS.size();
+    }
+
+    /** Number of boundary-window recomputations across all specs (diagnostics). */
+    public static long refreshCount() {
+        return REFRESHES.sum();
+    }
+
+    /**
+     * One daily (null day) or weekly reset schedule.
+     */
+    public static final class Spec {
+        private final @Nullable DayOfWeek day;
+        private final int hour;
+        private final int minute;
+
+        // [previous, next) boundary window; replaced as a unit so readers see a consistent pair.
+        private volatile Window window = new Window(Long.MAX_VALUE, Long.MIN_VALUE);
+
+        private Spec(@Nullable DayOfWeek day, int hour, int minute) {
+            this.day = day;
+            this.hour = hour;
+            this.minute = minute;
+        }
+
+        /**
+         * @param nowEpoch Epoch seconds
+         * @return Epoch seconds of the most recent boundary at or before {@code nowEpoch}
+         */
+        public long previous(long nowEpoch) {
+            return windowAt(nowEpoch).previous;
+        }
+
+        /**
+         * @param nowEpoch Epoch seconds
+         * @return Epoch seconds of the first boundary after {@code nowEpoch}
+         */
+        public long next(long nowEpoch) {
+            return windowAt(nowEpoch).next;
+        }
+
+        private Window windowAt(long nowEpoch) {
+            Window w = window;
+            if (nowEpoch >= w.previous && nowEpoch < w.next) return w;
+            return refresh(nowEpoch);
+        }
+
+        // Recomputes on a boundary crossing (or a clock step backwards). Lookups for far-off
+        // timestamps replace the cached window too, so callers should pass the current time.
+        private synchronized Window refresh(long nowEpoch) {
+            Window w = window;
+            if (nowEpoch >= w.previous && nowEpoch < w.next) return w;
+
+            ZonedDateTime now = ZonedDateTime.ofInstant(Instant.ofEpochSecond(nowEpoch), ZoneId.systemDefault());
+            ZonedDateTime previous;
+            ZonedDateTime next;
+            if (day == null) {
+                previous = now.withHour(hour).withMinute(minute).withSecond(0).withNano(0);
+                if (previous.isAfter(now)) previous = previous.minusDays(1);
+                next = previous.plusDays(1);
+            } else {
+                previous = now.with(TemporalAdjusters.previousOrSame(day))
+                        .withHour(hour).withMinute(minute).withSecond(0).withNano(0);
+                if (previous.isAfter(now)) previous = previous.minusWeeks(1);
+                next = previous.plusWeeks(1);
+            }
+
+            Window refreshed = new Window(previous.toEpochSecond(), next.toEpochSecond());
+            window = refreshed;
+            REFRESHES.increment();
+            return refreshed;
+        }
+
+        @Override
+        public String toString() {
+            return (day != null ? day + " " : "daily ") + String.format("%02d:%02d", hour, minute);
+        }
+    }
+
+    private record Window(long previous, long next) {
+    }
+}
@@ -5,9 +5,7 @@ import dev.oakheart.stockcontrol.data.RotationMode;
 import dev.oakheart.stockcontrol.data.SubpoolConfig;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.time.DayOfWeek;
 import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -34,8 +32,9 @@ public final class RotationScheduler {
      */
     public static long currentPeriodIndex(PoolConfig pool, ZonedDateTime now) {
         return switch (pool.getSchedule()) {
-            case DAILY -> previousDailyBoundary(now, pool.getResetTime()).toEpochSecond() / 86400L;
-            case WEEKLY -> previousWeeklyBoundary(now, pool.getResetDay(), pool.getResetTime()).toEpochSecond() / 604800L;
+            case DAILY -> ResetClock.daily(pool.getResetTime()).previous(now.toEpochSecond()) / 86400L;
+            case WEEKLY -> ResetClock.weekly(pool.getResetDay(), pool.getResetTime())
+                    .previous(now.toEpochSecond()) / 604800L;
             case MONTHLY -> {
                 ZonedDateTime boundary = previousMonthlyBoundary(now, pool.getResetTime());
                 yield boundary.getYear() * 12L + boundary.getMonthValue();
@@ -56,9 +55,9 @@ public final class RotationScheduler {
         // Always anchored to the next natural wall-clock boundary. periodIndex may be a monotonic
         // counter bumped by force-advance, but the NEXT rotation should fire on schedule regardless.
         return switch (pool.getSchedule()) {
-            case DAILY -> previousDailyBoundary(reference, pool.getResetTime()).plusDays(1).toEpochSecond();
-            case WEEKLY -> previousWeeklyBoundary(reference, pool.getResetDay(), pool.getResetTime())
-                    .plusWeeks(1).toEpochSecond();
+            case DAILY -> ResetClock.daily(pool.getResetTime()).next(reference.toEpochSecond());
+            case WEEKLY -> ResetClock.weekly(pool.getResetDay(), pool.getResetTime())
+                    .next(reference.toEpochSecond());
             case MONTHLY -> previousMonthlyBoundary(reference, pool.getResetTime())
                     .plusMonths(1).toEpochSecond();
             case INTERVAL -> {
@@ -166,23 +165,6 @@ public final class RotationScheduler {
         return h;
     }
 
-    private static ZonedDateTime previousDailyBoundary(ZonedDateTime now, String resetTime) {
-        int[] hm = parseHm(resetTime);
-        ZonedDateTime today = now.withHour(hm[0]).withMinute(hm[1]).withSecond(0).withNano(0);
-        return today.isAfter(now) ? today.minusDays(1) : today;
-    }
-
-    private static ZonedDateTime previousWeeklyBoundary(ZonedDateTime now, String resetDay, String resetTime) {
-        int[] hm = parseHm(resetTime);
-        DayOfWeek targetDay = DayOfWeek.valueOf(resetDay);
-        ZonedDateTime candidate = now.with(TemporalAdjusters.previousOrSame(targetDay))
-                .withHour(hm[0]).withMinute(hm[1]).withSecond(0).withNano(0);
-        return candidate.isAfter(now)
-                ? now.with(TemporalAdjusters.previous(targetDay))
-                        .withHour(hm[0]).withMinute(hm[1]).withSecond(0).withNano(0)
-                : candidate;
-    }
-
     private static ZonedDateTime previousMonthlyBoundary(ZonedDateTime now, String resetTime) {
         int[] hm = parseHm(resetTime);
         ZonedDateTime thisMonth = now.withDayOfMonth(1)
@@ -0,0 +1,124 @@
+package dev.oakheart.stockcontrol.util;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thin wrapper over Paper's region-aware schedulers, so every task the plugin starts says
+ * which thread it needs:
+ * <ul>
+ *   <li><b>global</b> — the global region tick (server-wide state, rotation pushes)</li>
+ *   <li><b>async</b> — off-tick work (database, periodic maintenance)</li>
+ *   <li><b>entity</b> — the thread owning a player (inventories, per-viewer packets)</li>
+ *   <li><b>region</b> — the thread owning a location</li>
+ * </ul>
+ * On Folia these are separate threads; on regular Paper global, entity and region all run on
+ * the main thread, so behaviour there is unchanged. The legacy {@code BukkitScheduler} is
+ * never used — Folia rejects it.
+ *
+ * <p>Delays and periods are in ticks throughout; async ones are converted at 50 ms/tick.</p>
+ */
+public final class TaskScheduler {
+
+    private static final long MILLIS_PER_TICK = 50L;
+
+    private final Plugin plugin;
+
+    public TaskScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    // ===== Global =====
+
+    public void runGlobal(Runnable task) {
+        Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+    }
+
+    public ScheduledTask runGlobalLater(Runnable task, long delayTicks) {
+        return Bukkit.getGlobalRegionScheduler().runDelayed(plugin, t -> task.run(), Math.max(1L, delayTicks));
+    }
+
+    public ScheduledTask runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+        return Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, t -> task.run(),
+                Math.max(1L, delayTicks), Math.max(1L, periodTicks));
+    }
+
+    // ===== Async =====
+
+    public ScheduledTask runAsync(Runnable task) {
+        return Bukkit.getAsyncScheduler().runNow(plugin, t -> task.run());
+    }
+
+    public ScheduledTask runAsyncLater(Runnable task, long delayTicks) {
+        return Bukkit.getAsyncScheduler().runDelayed(plugin, t -> task.run(),
+                Math.max(0L, delayTicks) * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledTask runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+        return Bukkit.getAsyncScheduler().runAtFixedRate(plugin, t -> task.run(),
+                Math.max(0L, delayTicks) * MILLIS_PER_TICK, Math.max(1L, periodTicks) * MILLIS_PER_TICK,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // ===== Entity / Region =====
+
+    /**
+     * Runs a task on the thread owning an entity — inline if the caller already is that
+     * thread, otherwise on the entity's next tick.
+     *
+     * @return false if the entity was removed and the task will not run
+     */
+    public boolean runFor(Entity entity, Runnable task) {
+        if (Bukkit.isOwnedByCurrentRegion(entity)) {
+            task.run();
+            return true;
+        }
+        return entity.getScheduler().execute(plugin, task, null, 1L);
+    }
+
+    /**
+     * Runs a task on the thread owning an entity after a delay.
+     *
+     * @return The task, or null if the entity was removed and the task will not run
+     */
+    public @Nullable ScheduledTask runForLater(Entity entity, Runnable task, long delayTicks) {
+        return runForLater(entity, task, null, delayTicks);
+    }
+
+    /**
+     * Runs a task on the thread owning an entity after a delay, or {@code retired} instead if
+     * the entity is removed first (e.g. the player quits).
+     *
+     * @return The task, or null if the entity was already removed and neither will run
+     */
+    public @Nullable ScheduledTask runForLater(Entity entity, Runnable task, @Nullable Runnable retired,
+                                               long delayTicks) {
+        return entity.getScheduler().runDelayed(plugin, t -> task.run(), retired, Math.max(1L, delayTicks));
+    }
+
+    /**
+     * Runs a task on the thread owning a location (inline if the caller already owns it).
+     */
+    public void runAt(Location location, Runnable task) {
+        if (Bukkit.isOwnedByCurrentRegion(location)) {
+            task.run();
+            return;
+        }
+        Bukkit.getRegionScheduler().execute(plugin, location, task);
+    }
+
+    /**
+     * Cancels every task this plugin still has queued on the global and async schedulers.
+     * Entity-bound tasks are dropped with their entity.
+     */
+    public void cancelAll() {
+        Bukkit.getGlobalRegionScheduler().cancelTasks(plugin);
+        Bukkit.getAsyncScheduler().cancelTasks(plugin);
+    }
+}
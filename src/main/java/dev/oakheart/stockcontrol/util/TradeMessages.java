@@ -0,0 +1,148 @@
+package dev.oakheart.stockcontrol.util;
+
+import dev.oakheart.stockcontrol.ShopkeepersStockControl;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The gameplay messages sent on the trade path, compiled from messages.yml into
+ * {@link MessageTemplate}s at load and reload. A send only formats its numbers and durations
+ * into the template's slots; the MiniMessage string is not parsed again.
+ *
+ * <p>A message that can't be compiled (missing, an unknown display, or a slot the template
+ * can't isolate) is sent through the {@code MessageManager} as before, so nothing is lost —
+ * it just isn't precompiled. Text set to "" disables the message, as it does there.</p>
+ */
+public final class TradeMessages {
+
+    private static final String LIMIT_REACHED = "trade-limit-reached";
+    private static final String COOLDOWN_ACTIVE = "cooldown-active";
+    private static final String TRADES_REMAINING = "trades-remaining";
+
+    private static final String[] RESET_SLOTS = {"time_remaining", "reset_time"};
+    private static final String[] REMAINING_SLOTS = {"remaining", "max"};
+
+    private final ShopkeepersStockControl plugin;
+    private final File messagesFile;
+
+    /** Templates of one load, swapped as a whole on reload. */
+    private record Compiled(Map<String, MessageTemplate> templates, Set<String> disabled) {}
+
+    private volatile Compiled compiled = new Compiled(Map.of(), Set.of());
+
+    public TradeMessages(ShopkeepersStockControl plugin) {
+        this.plugin = plugin;
+        this.messagesFile = new File(plugin.getDataFolder(), "messages.yml");
+    }
+
+    /**
+     * (Re)compiles the trade messages from messages.yml.
+     */
+    public void load() {
+        YamlConfiguration messages = YamlConfiguration.loadConfiguration(messagesFile);
+        Map<String, MessageTemplate> templates = new HashMap<>();
+        Set<String> disabled = new HashSet<>();
+        compile(messages, LIMIT_REACHED, RESET_SLOTS, templates, disabled);
+        compile(messages, COOLDOWN_ACTIVE, RESET_SLOTS, templates, disabled);
+        compile(messages, TRADES_REMAINING, REMAINING_SLOTS, templates, disabled);
+        compiled = new Compiled(Map.copyOf(templates), Set.copyOf(disabled));
+
+        if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Compiled " + templates.size() + " trade message template(s)"
+                    + (disabled.isEmpty() ? "" : ", " + disabled.size() + " disabled"));
+        }
+    }
+
+    private void compile(YamlConfiguration messages, String key, String[] slots,
+                         Map<String, MessageTemplate> templates, Set<String> disabled) {
+        ConfigurationSection section = messages.getConfigurationSection(key);
+        String text = section != null ? section.getString("text") : null;
+        if (text == null) return;
+        if (text.isEmpty()) {
+            disabled.add(key);
+            return;
+        }
+
+        MessageTemplate.Display display = switch (section.getString("display", "chat").toLowerCase()) {
+            case "chat" -> MessageTemplate.Display.CHAT;
+            case "action_bar" -> MessageTemplate.Display.ACTION_BAR;
+            default -> null;
+        };
+        MessageTemplate template = null;
+        if (display != null) {
+            try {
+                template = MessageTemplate.compile(text, display, slots);
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Could not parse message '" + key + "': " + e.getMessage());
+            }
+        }
+        if (template != null) {
+            templates.put(key, template);
+        } else if (plugin.getConfigManager().isDebugMode()) {
+            plugin.getLogger().info("Message '" + key + "' is not precompiled; sending it unparsed");
+        }
+    }
+
+    // ===== Sends =====
+
+    /**
+     * Sends trade-limit-reached: a trade was refused.
+     *
+     * @param secondsUntilReset Time left until the limit resets (-1 = never)
+     */
+    public void sendLimitReached(Player player, long secondsUntilReset, String resetTime) {
+        sendReset(player, LIMIT_REACHED, secondsUntilReset, resetTime);
+    }
+
+    /**
+     * Sends cooldown-active: the player just used their last trade.
+     *
+     * @param secondsUntilReset Time left until the limit resets (-1 = never)
+     */
+    public void sendCooldownActive(Player player, long secondsUntilReset, String resetTime) {
+        sendReset(player, COOLDOWN_ACTIVE, secondsUntilReset, resetTime);
+    }
+
+    private void sendReset(Player player, String key, long secondsUntilReset, String resetTime) {
+        String timeRemaining = plugin.getTradeDataManager().formatDuration(secondsUntilReset);
+        Compiled current = compiled;
+        if (current.disabled().contains(key)) return;
+        MessageTemplate template = current.templates().get(key);
+        if (template != null) {
+            template.send(player, timeRemaining, resetTime);
+            return;
+        }
+        plugin.getMessageManager().send(player, key,
+                Placeholder.unparsed("time_remaining", timeRemaining),
+                Placeholder.unparsed("reset_time", resetTime));
+    }
+
+    /**
+     * Sends trades-remaining.
+     */
+    public void sendRemaining(Player player, int remaining, int max) {
+        Compiled current = compiled;
+        if (current.disabled().contains(TRADES_REMAINING)) return;
+        MessageTemplate template = current.templates().get(TRADES_REMAINING);
+        if (template != null) {
+            template.send(player, String.valueOf(remaining), String.valueOf(max));
+            return;
+        }
+        plugin.getMessageManager().send(player, TRADES_REMAINING,
+                Placeholder.unparsed("remaining", String.valueOf(remaining)),
+                Placeholder.unparsed("max", String.valueOf(max)));
+    }
+
+    /** Number of compiled templates (diagnostics). */
+    public int compiledCount() {
+        return compiled.templates().size();
+    }
+}
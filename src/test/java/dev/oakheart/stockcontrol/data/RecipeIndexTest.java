@@ -0,0 +1,117 @@
+package dev.oakheart.stockcontrol.data;
+
+import com.nisovin.shopkeepers.api.shopkeeper.TradingRecipe;
+import com.nisovin.shopkeepers.api.util.UnmodifiableItemStack;
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Recipes sharing a fingerprint — identical offers, or different items whose stack hashes
+ * collide — resolve to the right source slot, and a recipe whose hash changed is still found
+ * by the scan.
+ */
+class RecipeIndexTest {
+
+    /** What a fake stack is made of; {@code meta} stands in for its components. */
+    private record Item(Material type, int amount, String meta, int hash) {}
+
+    private static final UnmodifiableItemStack EMERALDS = item(Material.EMERALD, 5, "", 1);
+    private static final UnmodifiableItemStack BREAD = item(Material.BREAD, 3, "", 2);
+
+    @Test
+    void identicalOffersResolveToTheFirstSlot() {
+        TradingRecipe sword = recipe(item(Material.PAPER, 1, "sword", 7), EMERALDS, null);
+        List<TradingRecipe> recipes = List.of(recipe(BREAD, EMERALDS, null), sword,
+                recipe(BREAD, EMERALDS, EMERALDS), sword);
+        RecipeIndex index = RecipeIndex.of(recipes);
+
+        // A fresh copy of the offer, as Shopkeepers hands to the trade event
+        TradingRecipe traded = recipe(item(Material.PAPER, 1, "sword", 7), item(Material.EMERALD, 5, "", 1), null);
+        assertEquals(1, index.find(traded));
+        assertEquals(1, index.scan(traded));
+    }
+
+    @Test
+    void collidingFingerprintsAreToldApartByIsSimilar() {
+        // Same type, amount and stack hash: only the components differ
+        TradingRecipe sword = recipe(item(Material.PAPER, 1, "sword", 7), EMERALDS, null);
+        TradingRecipe shield = recipe(item(Material.PAPER, 1, "shield", 7), EMERALDS, null);
+        TradingRecipe bow = recipe(item(Material.PAPER, 1, "bow", 7), EMERALDS, null);
+        RecipeIndex index = RecipeIndex.of(List.of(sword, shield, bow));
+
+        assertEquals(0, index.find(recipe(item(Material.PAPER, 1, "sword", 7), EMERALDS, null)));
+        assertEquals(1, index.find(recipe(item(Material.PAPER, 1, "shield", 7), EMERALDS, null)));
+        assertEquals(2, index.find(recipe(item(Material.PAPER, 1, "bow", 7), EMERALDS, null)));
+        assertEquals(-1, index.find(recipe(item(Material.PAPER, 1, "axe", 7), EMERALDS, null)));
+    }
+
+    @Test
+    void amountAndSecondInputArePartOfTheMatch() {
+        TradingRecipe one = recipe(BREAD, EMERALDS, null);
+        TradingRecipe two = recipe(BREAD, EMERALDS, BREAD);
+        RecipeIndex index = RecipeIndex.of(List.of(one, two));
+
+        assertEquals(0, index.find(recipe(BREAD, EMERALDS, null)));
+        assertEquals(1, index.find(recipe(BREAD, EMERALDS, BREAD)));
+        assertEquals(-1, index.find(recipe(item(Material.BREAD, 4, "", 2), EMERALDS, null)));
+        assertEquals(-1, index.scan(recipe(item(Material.BREAD, 4, "", 2), EMERALDS, null)));
+    }
+
+    @Test
+    void unstableHashMissesTheIndexButNotTheScan() {
+        RecipeIndex index = RecipeIndex.of(List.of(recipe(BREAD, EMERALDS, null),
+                recipe(item(Material.PAPER, 1, "sword", 7), EMERALDS, null)));
+
+        TradingRecipe rehashed = recipe(item(Material.PAPER, 1, "sword", 8), EMERALDS, null);
+        assertEquals(-1, index.find(rehashed));
+        assertEquals(1, index.scan(rehashed));
+    }
+
+    private static UnmodifiableItemStack item(Material type, int amount, String meta, int hash) {
+        return (UnmodifiableItemStack) Proxy.newProxyInstance(RecipeIndexTest.class.getClassLoader(),
+                new Class<?>[] {UnmodifiableItemStack.class}, new FakeStack(new Item(type, amount, meta, hash)));
+    }
+
+    /**
+     * A fake stack: {@code isSimilar} compares type and meta, and {@code hashCode} returns
+     * {@code hash} so collisions can be forced.
+     */
+    private record FakeStack(Item item) implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "getType" -> item.type();
+                case "getAmount" -> item.amount();
+                case "isSimilar" -> {
+                    Item other = ((FakeStack) Proxy.getInvocationHandler(args[0])).item();
+                    yield other.type() == item.type() && other.meta().equals(item.meta());
+                }
+                case "hashCode" -> item.hash();
+                case "equals" -> proxy == args[0];
+                case "toString" -> item.toString();
+                default -> throw new UnsupportedOperationException(method.getName());
+            };
+        }
+    }
+
+    private static TradingRecipe recipe(UnmodifiableItemStack result, UnmodifiableItemStack item1,
+                                        UnmodifiableItemStack item2) {
+        return (TradingRecipe) Proxy.newProxyInstance(RecipeIndexTest.class.getClassLoader(),
+                new Class<?>[] {TradingRecipe.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getResultItem" -> result;
+                    case "getItem1" -> item1;
+                    case "getItem2" -> item2;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "recipe";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,214 @@
+package dev.oakheart.stockcontrol.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two stores on one database file stand in for two servers: A resets rows while B still holds
+ * them dirty in its cache, and B's batch flush must not write them back over the reset.
+ */
+class SQLiteDataStoreFenceTest {
+
+    private static final String SERVER_A = "server-a";
+    private static final String SERVER_B = "server-b";
+    private static final String SHOP = "shop";
+    private static final String TRADE = "trade";
+
+    @TempDir
+    Path dir;
+
+    private SQLiteDataStore serverA;
+    private SQLiteDataStore serverB;
+
+    @BeforeEach
+    void open() {
+        File file = dir.resolve("stockcontrol.db").toFile();
+        Logger logger = Logger.getLogger(getClass().getName());
+        serverA = new SQLiteDataStore(file, logger, () -> false);
+        serverB = new SQLiteDataStore(file, logger, () -> false);
+        serverA.initialize();
+        serverB.initialize();
+        assertTrue(serverA.isOperational() && serverB.isOperational());
+    }
+
+    @AfterEach
+    void close() {
+        serverA.close();
+        serverB.close();
+    }
+
+    @Test
+    void playerResetOnOtherServerIsNotUndoneByStaleFlush() {
+        UUID player = UUID.randomUUID();
+        long now = epochNow();
+        serverB.batchSaveTradeData(List.of(row(player, 2, now)), null);
+
+        // B drains its cache before it has seen A's reset
+        DataStore.WriteFence drained = new DataStore.WriteFence(SERVER_B, serverB.latestChangeId(), 0L);
+        List<PlayerTradeData> stale = List.of(row(player, 3, now));
+
+        long resetId = resetPlayerTrade(serverA, player);
+
+        assertEquals(0, serverB.batchSaveTradeData(stale, drained));
+        assertNull(serverA.loadTradeData(player, SHOP, TRADE));
+
+        // Once B has applied the reset, what it caches afterwards is written normally
+        DataStore.WriteFence applied = new DataStore.WriteFence(SERVER_B, resetId, 0L);
+        assertEquals(1, serverB.batchSaveTradeData(List.of(row(player, 1, now)), applied));
+        assertEquals(1, serverA.loadTradeData(player, SHOP, TRADE).getTradesUsed());
+    }
+
+    @Test
+    void playerWideResetFencesEveryShopOfThePlayer() {
+        UUID player = UUID.randomUUID();
+        long now = epochNow();
+        DataStore.WriteFence drained = new DataStore.WriteFence(SERVER_B, serverB.latestChangeId(), 0L);
+
+        serverA.atomically(() -> {
+            serverA.deletePlayerData(player);
+            serverA.appendChange(change(SERVER_A, ChangeLogEntry.Scope.PLAYER, null, null, player));
+        });
+
+        PlayerTradeData otherShop = new PlayerTradeData(player, "other-shop", TRADE, 4, now, 0);
+        assertEquals(0, serverB.batchSaveTradeData(List.of(row(player, 4, now), otherShop), drained));
+        assertTrue(serverA.loadPlayerData(player).isEmpty());
+    }
+
+    @Test
+    void unrelatedResetDoesNotFenceRow() {
+        UUID player = UUID.randomUUID();
+        DataStore.WriteFence drained = new DataStore.WriteFence(SERVER_B, serverB.latestChangeId(), 0L);
+
+        resetPlayerTrade(serverA, UUID.randomUUID());
+        serverA.atomically(() -> serverA.appendChange(
+                change(SERVER_A, ChangeLogEntry.Scope.PLAYER_TRADE, SHOP, "other-trade", player)));
+
+        assertEquals(1, serverB.batchSaveTradeData(List.of(row(player, 5, epochNow())), drained));
+        assertEquals(5, serverA.loadTradeData(player, SHOP, TRADE).getTradesUsed());
+    }
+
+    @Test
+    void ownResetAlreadyReflectedInCacheDoesNotFenceRow() {
+        UUID player = UUID.randomUUID();
+        long cursor = serverB.latestChangeId();
+
+        long ownId = resetPlayerTradeAs(serverB, SERVER_B, player);
+
+        DataStore.WriteFence drained = new DataStore.WriteFence(SERVER_B, cursor, ownId);
+        assertEquals(1, serverB.batchSaveTradeData(List.of(row(player, 1, epochNow())), drained));
+
+        // A reset this server published after the drain still fences it
+        long later = resetPlayerTradeAs(serverB, SERVER_B, player);
+        assertTrue(later > ownId);
+        assertEquals(0, serverB.batchSaveTradeData(List.of(row(player, 6, epochNow())), drained));
+        assertNull(serverA.loadTradeData(player, SHOP, TRADE));
+    }
+
+    @Test
+    void globalRestockOnOtherServerIsNotUndoneByStaleFlush() {
+        long now = epochNow();
+        serverB.batchSaveGlobalTradeData(List.of(global(TRADE, 7, now)), null);
+        DataStore.WriteFence drained = new DataStore.WriteFence(SERVER_B, serverB.latestChangeId(), 0L);
+
+        long restockId = serverA.latestChangeId() + 1;
+        serverA.atomically(() -> {
+            serverA.deleteGlobalShopData(SHOP);
+            serverA.appendChange(change(SERVER_A, ChangeLogEntry.Scope.GLOBAL_SHOP, SHOP, null, null));
+        });
+
+        assertEquals(0, serverB.batchSaveGlobalTradeData(List.of(global(TRADE, 8, now)), drained));
+        assertNull(serverA.loadGlobalTradeData(SHOP, TRADE));
+
+        // A restock of one trade leaves the shop's other trades writable
+        serverA.atomically(() -> serverA.appendChange(
+                change(SERVER_A, ChangeLogEntry.Scope.GLOBAL_TRADE, SHOP, TRADE, null)));
+        DataStore.WriteFence applied = new DataStore.WriteFence(SERVER_B, restockId, 0L);
+        assertEquals(1, serverB.batchSaveGlobalTradeData(
+                List.of(global(TRADE, 1, now), global("other-trade", 2, now)), applied));
+        assertNull(serverA.loadGlobalTradeData(SHOP, TRADE));
+        assertNotNull(serverA.loadGlobalTradeData(SHOP, "other-trade"));
+    }
+
+    @Test
+    void resetThatRollsBackPublishesNothing() {
+        UUID player = UUID.randomUUID();
+        serverB.batchSaveTradeData(List.of(row(player, 2, epochNow())), null);
+        long before = serverA.latestChangeId();
+
+        try {
+            serverA.atomically(() -> {
+                serverA.deleteTradeData(player, SHOP, TRADE);
+                serverA.appendChange(change(SERVER_A, ChangeLogEntry.Scope.PLAYER_TRADE, SHOP, TRADE, player));
+                throw new IllegalStateException("reset failed");
+            });
+        } catch (IllegalStateException expected) {
+            // The delete and the change log entry are both rolled back
+        }
+
+        assertEquals(before, serverB.latestChangeId());
+        assertEquals(2, serverB.loadTradeData(player, SHOP, TRADE).getTradesUsed());
+    }
+
+    @Test
+    void failedDeleteRollsBackItsChangeLogEntry() throws Exception {
+        UUID player = UUID.randomUUID();
+        long before = serverA.latestChangeId();
+
+        // Another connection takes the table away, so A's delete fails inside the transaction
+        try (Connection other = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("stockcontrol.db"));
+             Statement stmt = other.createStatement()) {
+            stmt.execute("ALTER TABLE player_trades RENAME TO player_trades_moved");
+        }
+
+        assertThrows(IllegalStateException.class, () -> resetPlayerTrade(serverA, player));
+        assertEquals(before, serverB.latestChangeId());
+    }
+
+    private long resetPlayerTrade(SQLiteDataStore store, UUID player) {
+        return resetPlayerTradeAs(store, SERVER_A, player);
+    }
+
+    private long resetPlayerTradeAs(SQLiteDataStore store, String serverId, UUID player) {
+        long[] id = new long[1];
+        store.atomically(() -> {
+            store.deleteTradeData(player, SHOP, TRADE);
+            id[0] = store.appendChange(change(serverId, ChangeLogEntry.Scope.PLAYER_TRADE, SHOP, TRADE, player));
+        });
+        assertTrue(id[0] > 0);
+        return id[0];
+    }
+
+    private static PlayerTradeData row(UUID player, int used, long epoch) {
+        return new PlayerTradeData(player, SHOP, TRADE, used, epoch, 0);
+    }
+
+    private static GlobalTradeData global(String tradeKey, int used, long epoch) {
+        return new GlobalTradeData(SHOP, tradeKey, used, epoch, 0);
+    }
+
+    private static ChangeLogEntry change(String serverId, ChangeLogEntry.Scope scope,
+                                         String shopId, String key, UUID player) {
+        return new ChangeLogEntry(0L, serverId, scope, shopId, key, player, epochNow());
+    }
+
+    private static long epochNow() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
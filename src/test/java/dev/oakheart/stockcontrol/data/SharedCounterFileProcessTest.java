@@ -0,0 +1,124 @@
+package dev.oakheart.stockcontrol.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two forked JVMs map the same counter file and hammer the same slots, as two servers on one
+ * host do. Every slot starts full from an expired period, so the first admissions of both
+ * processes race the period reset as well as each other.
+ */
+class SharedCounterFileProcessTest {
+
+    private static final int PROCESSES = 2;
+    private static final int SLOTS = 16;
+    private static final int CAP = 20_000;
+    private static final long OLD_PERIOD = 1L;
+    private static final long PERIOD = 2L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void forkedProcessesNeverExceedCap() throws Exception {
+        Path file = dir.resolve("counters.shm");
+        try (SharedCounterFile counters = SharedCounterFile.open(file, SLOTS)) {
+            for (int i = 0; i < SLOTS; i++) {
+                counters.set(counters.slotFor("shop", "trade-" + i), CAP, OLD_PERIOD);
+            }
+        }
+
+        List<Process> processes = new ArrayList<>();
+        List<BufferedReader> outputs = new ArrayList<>();
+        for (int p = 0; p < PROCESSES; p++) {
+            Process process = new ProcessBuilder(javaExecutable(), "-cp", classPath(),
+                    Hammer.class.getName(), file.toString())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            processes.add(process);
+            BufferedReader out = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            outputs.add(out);
+            assertEquals("ready", out.readLine());
+        }
+        // Start both together, once both have mapped the file
+        for (Process process : processes) {
+            OutputStream in = process.getOutputStream();
+            in.write('\n');
+            in.flush();
+        }
+
+        long[] admitted = new long[SLOTS];
+        for (int p = 0; p < PROCESSES; p++) {
+            for (int i = 0; i < SLOTS; i++) {
+                String[] line = outputs.get(p).readLine().split(" ");
+                admitted[Integer.parseInt(line[0])] += Long.parseLong(line[1]);
+            }
+            assertTrue(processes.get(p).waitFor(2, TimeUnit.MINUTES), "hammer process timed out");
+            assertEquals(0, processes.get(p).exitValue());
+        }
+
+        try (SharedCounterFile counters = SharedCounterFile.open(file, SLOTS)) {
+            for (int i = 0; i < SLOTS; i++) {
+                int slot = counters.slotFor("shop", "trade-" + i);
+                assertEquals(CAP, admitted[i], "admissions of trade-" + i);
+                assertEquals(CAP, counters.used(slot));
+                assertEquals(PERIOD, counters.lastResetEpoch(slot));
+            }
+        }
+    }
+
+    private static String javaExecutable() {
+        return Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    private static String classPath() throws Exception {
+        // The test and main classes may live in different output directories
+        return Path.of(Hammer.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                + File.pathSeparator
+                + Path.of(SharedCounterFile.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    /**
+     * Child process: maps the file, waits for the go signal, then tries to take every unit of
+     * every slot and reports how many it got per slot.
+     */
+    public static final class Hammer {
+        public static void main(String[] args) throws IOException {
+            try (SharedCounterFile counters = SharedCounterFile.open(Path.of(args[0]), SLOTS)) {
+                int[] slots = new int[SLOTS];
+                for (int i = 0; i < SLOTS; i++) {
+                    slots[i] = counters.slotFor("shop", "trade-" + i);
+                }
+                System.out.println("ready");
+                System.out.flush();
+                System.in.read();
+
+                long[] admitted = new long[SLOTS];
+                // Interleave the slots so both processes are on the same slot most of the time
+                for (int attempt = 0; attempt < CAP; attempt++) {
+                    for (int i = 0; i < SLOTS; i++) {
+                        if (counters.tryAcquire(slots[i], CAP, PERIOD, PERIOD) > 0) admitted[i]++;
+                    }
+                }
+                for (int i = 0; i < SLOTS; i++) {
+                    System.out.println(i + " " + admitted[i]);
+                }
+            }
+        }
+    }
+}
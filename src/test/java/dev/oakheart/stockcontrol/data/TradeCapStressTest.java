@@ -0,0 +1,183 @@
+package dev.oakheart.stockcontrol.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Stress harness in the style of jcstress: every round releases all actors at once against a
+ * counter whose period has just expired, so the period reset and the first admissions race.
+ * The outcome each round must be acceptable under any interleaving — exactly {@code CAP}
+ * admissions, each handing out a distinct count — and anything else fails the test.
+ */
+class TradeCapStressTest {
+
+    private static final int ACTORS = 8;
+    private static final int ROUNDS = 2_000;
+    private static final int CAP = 64;
+    // Per actor and round; ACTORS * ATTEMPTS is well above CAP so every round contends.
+    private static final int ATTEMPTS = 24;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void globalCounterNeverExceedsCapAcrossPeriodResets() throws Exception {
+        GlobalTradeData counter = new GlobalTradeData("shop", "trade", 0, 0L, 0);
+        runRounds(new Counter() {
+            @Override
+            public int tryAcquire(int actor, long period) {
+                return counter.tryAcquire(CAP, period, period);
+            }
+
+            @Override
+            public int used() {
+                return counter.getTradesUsed();
+            }
+        });
+    }
+
+    @Test
+    void sharedSlotNeverExceedsCapWithTwoMappings() throws Exception {
+        Path file = dir.resolve("counters.shm");
+        try (SharedCounterFile first = SharedCounterFile.open(file, 64);
+             SharedCounterFile second = SharedCounterFile.open(file, 64)) {
+            int slot = first.slotFor("shop", "trade");
+            assertEquals(slot, second.slotFor("shop", "trade"));
+
+            // Half the actors go through each mapping, as two servers on one host would
+            runRounds(new Counter() {
+                @Override
+                public int tryAcquire(int actor, long period) {
+                    SharedCounterFile mapping = actor % 2 == 0 ? first : second;
+                    return mapping.tryAcquire(slot, CAP, period, period);
+                }
+
+                @Override
+                public int used() {
+                    return first.used(slot);
+                }
+            });
+        }
+    }
+
+    @Test
+    void ledgerSlotNeverExceedsCapWithReleases() throws Exception {
+        ShopLedger ledger = new ShopLedger(UUID.randomUUID(), "shop", 0, 1);
+        AtomicIntegerArray net = new AtomicIntegerArray(ROUNDS);
+        AtomicReference<String> violation = new AtomicReference<>();
+
+        race((actor, round) -> {
+            long period = round + 1L;
+            for (int i = 0; i < ATTEMPTS; i++) {
+                int used = ledger.tryAcquire(0, CAP, period, 0, 0, period, false);
+                if (used < 0) continue;
+                if (used > CAP) violation.compareAndSet(null, "round " + round + " admitted count " + used);
+                net.incrementAndGet(round);
+                // Every other admission is refused later in the trade and given back
+                if ((actor + i) % 2 == 0) {
+                    ledger.release(0);
+                    net.decrementAndGet(round);
+                }
+            }
+        }, round -> {
+            int used = ledger.used(0);
+            if (used != net.get(round) || used > CAP) {
+                violation.compareAndSet(null, "round " + round + " ended at " + used
+                        + " with " + net.get(round) + " net admissions");
+            }
+        });
+
+        assertNull(violation.get(), violation.get());
+    }
+
+    private interface Counter {
+        /** Admits one use in {@code period} (also its reset epoch), or returns -1. */
+        int tryAcquire(int actor, long period);
+
+        int used();
+    }
+
+    /**
+     * Runs every round against a fresh period and checks its outcome once all actors are done.
+     */
+    private void runRounds(Counter counter) throws Exception {
+        int[][] counts = new int[ROUNDS][ACTORS * ATTEMPTS];
+        AtomicIntegerArray admitted = new AtomicIntegerArray(ROUNDS);
+        AtomicReference<String> violation = new AtomicReference<>();
+
+        race((actor, round) -> {
+            long period = round + 1L;
+            for (int i = 0; i < ATTEMPTS; i++) {
+                int used = counter.tryAcquire(actor, period);
+                if (used >= 0) {
+                    counts[round][admitted.getAndIncrement(round)] = used;
+                }
+            }
+        }, round -> {
+            int[] handedOut = Arrays.copyOf(counts[round], admitted.get(round));
+            Arrays.sort(handedOut);
+            int[] expected = new int[CAP];
+            Arrays.setAll(expected, i -> i + 1);
+            if (!Arrays.equals(expected, handedOut) || counter.used() != CAP) {
+                violation.compareAndSet(null, "round " + round + " handed out " + Arrays.toString(handedOut)
+                        + ", counter at " + counter.used());
+            }
+        });
+
+        assertNull(violation.get(), violation.get());
+    }
+
+    private interface Actor {
+        void run(int actor, int round);
+    }
+
+    private interface Arbiter {
+        void check(int round);
+    }
+
+    /**
+     * Releases {@link #ACTORS} threads together for each round; the arbiter runs in the barrier
+     * action, after every actor finished the round and before any starts the next one.
+     */
+    private static void race(Actor actor, Arbiter arbiter) throws Exception {
+        int[] round = {0};
+        CyclicBarrier start = new CyclicBarrier(ACTORS);
+        CyclicBarrier end = new CyclicBarrier(ACTORS, () -> arbiter.check(round[0]++));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] threads = new Thread[ACTORS];
+        for (int t = 0; t < ACTORS; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int r = 0; r < ROUNDS; r++) {
+                        start.await();
+                        actor.run(id, r);
+                        end.await();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                    start.reset();
+                    end.reset();
+                }
+            }, "stress-actor-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Actor failed", failure.get());
+        }
+    }
+}
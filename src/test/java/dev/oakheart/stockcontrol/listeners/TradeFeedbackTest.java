@@ -0,0 +1,169 @@
+package dev.oakheart.stockcontrol.listeners;
+
+import dev.oakheart.stockcontrol.data.CooldownMode;
+import dev.oakheart.stockcontrol.data.ShopConfig;
+import dev.oakheart.stockcontrol.data.StockMode;
+import dev.oakheart.stockcontrol.data.TradeConfig;
+import dev.oakheart.stockcontrol.data.TradeHandle;
+import dev.oakheart.stockcontrol.data.TradeOutcome;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A player's trade units within one tick produce one emission from the last unit's outcome,
+ * and switching to another trade mid-tick emits the previous trade's batch at once instead of
+ * merging the two.
+ */
+class TradeFeedbackTest {
+
+    /** A flush scheduled for the next tick. */
+    private record Scheduled(Player player, Runnable flush, Runnable retired) {}
+
+    /** What one emission carried. */
+    private record Emitted(UUID playerId, String tradeKey, int admitted, TradeOutcome last) {}
+
+    private final List<Scheduled> scheduled = new ArrayList<>();
+    private final List<Emitted> emitted = new ArrayList<>();
+    private final TradeFeedback feedback = new TradeFeedback(
+            (player, flush, retired) -> scheduled.add(new Scheduled(player, flush, retired)),
+            (player, shopConfig, handle, admitted, last) ->
+                    emitted.add(new Emitted(player.getUniqueId(), handle.getTradeKey(), admitted, last)));
+
+    private final ShopConfig shop = shop("smith", "sword", "shield");
+    private final TradeHandle sword = handle(shop, 0, "sword");
+    private final TradeHandle shield = handle(shop, 1, "shield");
+    private final Player alex = player(1);
+
+    @Test
+    void unitsOfOneTradeEmitOnceFromTheLastOutcome() {
+        for (int remaining = 9; remaining >= 5; remaining--) {
+            feedback.record(alex, shop, sword, admitted(remaining));
+        }
+        assertEquals(1, scheduled.size());
+        assertTrue(emitted.isEmpty());
+
+        nextTick();
+
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 5, admitted(5))), emitted);
+    }
+
+    @Test
+    void refusedUnitsAreNotCountedButEndTheBatch() {
+        feedback.record(alex, shop, sword, admitted(1));
+        feedback.record(alex, shop, sword, admitted(0));
+        feedback.record(alex, shop, sword, denied());
+        nextTick();
+
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 2, denied())), emitted);
+    }
+
+    @Test
+    void handleChangeFlushesThePreviousBatchFirst() {
+        feedback.record(alex, shop, sword, admitted(8));
+        feedback.record(alex, shop, sword, admitted(7));
+        feedback.record(alex, shop, shield, admitted(3));
+
+        // The sword batch goes out before the shield's first unit is counted
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 2, admitted(7))), emitted);
+
+        feedback.record(alex, shop, shield, admitted(2));
+        nextTick();
+
+        // The sword batch's own flush finds nothing left to send
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 2, admitted(7)),
+                new Emitted(alex.getUniqueId(), "shield", 2, admitted(2))), emitted);
+    }
+
+    @Test
+    void switchingBackStartsAFreshBatch() {
+        feedback.record(alex, shop, sword, admitted(8));
+        feedback.record(alex, shop, shield, admitted(3));
+        feedback.record(alex, shop, sword, admitted(7));
+        nextTick();
+
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 1, admitted(8)),
+                new Emitted(alex.getUniqueId(), "shield", 1, admitted(3)),
+                new Emitted(alex.getUniqueId(), "sword", 1, admitted(7))), emitted);
+    }
+
+    @Test
+    void playersBatchSeparately() {
+        Player sam = player(2);
+        feedback.record(alex, shop, sword, admitted(8));
+        feedback.record(sam, shop, shield, admitted(3));
+        feedback.record(alex, shop, sword, admitted(7));
+        nextTick();
+
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 2, admitted(7)),
+                new Emitted(sam.getUniqueId(), "shield", 1, admitted(3))), emitted);
+    }
+
+    @Test
+    void batchOfAPlayerWhoLeftIsDropped() {
+        feedback.record(alex, shop, sword, admitted(8));
+        // The entity scheduler retires the flush instead of running it
+        List<Scheduled> due = List.copyOf(scheduled);
+        scheduled.clear();
+        due.forEach(task -> task.retired().run());
+
+        feedback.record(alex, shop, sword, admitted(7));
+        nextTick();
+
+        assertEquals(List.of(new Emitted(alex.getUniqueId(), "sword", 1, admitted(7))), emitted);
+    }
+
+    /** Runs the flushes scheduled so far, in scheduling order. */
+    private void nextTick() {
+        List<Scheduled> due = List.copyOf(scheduled);
+        scheduled.clear();
+        due.forEach(task -> task.flush().run());
+    }
+
+    private static TradeOutcome admitted(int remaining) {
+        return TradeOutcome.admitted(TradeOutcome.Counter.PLAYER, remaining, 10, TradeOutcome.NEVER, "");
+    }
+
+    private static TradeOutcome denied() {
+        return TradeOutcome.denied(TradeOutcome.Counter.PLAYER, 10, TradeOutcome.NEVER, "");
+    }
+
+    private static ShopConfig shop(String shopId, String... tradeKeys) {
+        Map<String, TradeConfig> trades = new LinkedHashMap<>();
+        for (int slot = 0; slot < tradeKeys.length; slot++) {
+            trades.put(tradeKeys[slot], new TradeConfig(tradeKeys[slot], slot, 10, 3600, CooldownMode.NONE,
+                    "00:00", "MONDAY", 0));
+        }
+        return new ShopConfig(shopId, shopId, true, CooldownMode.NONE, "00:00", "MONDAY",
+                StockMode.PER_PLAYER, 0, trades);
+    }
+
+    private static TradeHandle handle(ShopConfig shop, int ordinal, String tradeKey) {
+        return TradeHandle.create(ordinal, 0, ordinal, shop, shop.getTrade(tradeKey), new AtomicInteger(),
+                new AtomicInteger());
+    }
+
+    private static Player player(long id) {
+        UUID uuid = new UUID(0L, id);
+        return (Player) Proxy.newProxyInstance(TradeFeedbackTest.class.getClassLoader(), new Class<?>[] {Player.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "isOnline" -> true;
+                    case "getName" -> "player" + id;
+                    case "hashCode" -> uuid.hashCode();
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "player" + id;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
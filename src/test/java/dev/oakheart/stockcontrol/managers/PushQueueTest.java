@@ -0,0 +1,162 @@
+package dev.oakheart.stockcontrol.managers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A fan-out larger than the per-tick budget is spread over several ticks, each viewer is sent
+ * once, and recent traders go out before everyone else.
+ */
+class PushQueueTest {
+
+    private static final long RECENT_TRADE_MILLIS = 3000L;
+    private static final int MAX_PACKETS = 4;
+    private static final long MAX_MILLIS = 5L;
+
+    private long nanos;
+    private final PushQueue queue = new PushQueue(RECENT_TRADE_MILLIS, () -> nanos);
+
+    @Test
+    void fanOutOverPacketBudgetSpreadsOverTicks() {
+        List<UUID> viewers = viewers(10);
+        for (UUID viewer : viewers) {
+            queue.enqueue(viewer, "shop", false);
+        }
+
+        List<List<UUID>> ticks = drainAll();
+
+        assertEquals(List.of(4, 4, 2), ticks.stream().map(List::size).toList());
+        assertEquals(viewers, ticks.stream().flatMap(List::stream).toList());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void recentTradersAreSentFirst() {
+        List<UUID> viewers = viewers(10);
+        UUID trader = viewers.get(7);
+        UUID expiredTrader = viewers.get(8);
+        queue.recordTrade(expiredTrader, 1_000L);
+        queue.recordTrade(trader, 5_000L);
+        queue.expireTraders(5_000L);
+
+        for (UUID viewer : viewers) {
+            queue.enqueue(viewer, "shop", false);
+        }
+        List<List<UUID>> ticks = drainAll();
+
+        List<UUID> expected = new ArrayList<>(viewers);
+        expected.remove(trader);
+        expected.add(0, trader);
+        assertEquals(expected, ticks.stream().flatMap(List::stream).toList());
+    }
+
+    @Test
+    void traderQueuedBeforeTradingIsMovedUpAndSentOnce() {
+        List<UUID> viewers = viewers(6);
+        for (UUID viewer : viewers) {
+            queue.enqueue(viewer, "shop", false);
+        }
+        UUID trader = viewers.get(5);
+        queue.recordTrade(trader, 0L);
+        queue.enqueue(trader, "shop", false);
+
+        List<List<UUID>> ticks = drainAll();
+
+        assertEquals(trader, ticks.get(0).get(0));
+        assertEquals(6, ticks.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void timeBudgetEndsTheTickEarly() {
+        List<UUID> viewers = viewers(10);
+        for (UUID viewer : viewers) {
+            queue.enqueue(viewer, "shop", false);
+        }
+
+        // Every send takes 2ms, so the 5ms budget stops the tick after three sends
+        List<UUID> sent = new ArrayList<>();
+        boolean left = queue.drain(MAX_PACKETS, MAX_MILLIS, (viewerId, shopId, returnInputs) -> {
+            sent.add(viewerId);
+            nanos += 2_000_000L;
+            return true;
+        });
+
+        assertTrue(left);
+        assertEquals(viewers.subList(0, 3), sent);
+        assertEquals(7, queue.size());
+    }
+
+    @Test
+    void offlineViewersDoNotCountAgainstTheBudget() {
+        List<UUID> viewers = viewers(6);
+        for (UUID viewer : viewers) {
+            queue.enqueue(viewer, "shop", false);
+        }
+        UUID offline = viewers.get(1);
+
+        List<UUID> sent = new ArrayList<>();
+        boolean left = queue.drain(MAX_PACKETS, MAX_MILLIS, (viewerId, shopId, returnInputs) -> {
+            if (viewerId.equals(offline)) return false;
+            sent.add(viewerId);
+            return true;
+        });
+
+        assertTrue(left);
+        assertEquals(List.of(viewers.get(0), viewers.get(2), viewers.get(3), viewers.get(4)), sent);
+    }
+
+    @Test
+    void requestsForAQueuedViewerCoalesce() {
+        UUID viewer = UUID.randomUUID();
+        queue.enqueue(viewer, "shop", true);
+        queue.enqueue(viewer, "shop", false);
+        queue.enqueue(viewer, "shop", false);
+        assertEquals(1, queue.size());
+
+        List<String> sent = new ArrayList<>();
+        assertFalse(queue.drain(MAX_PACKETS, MAX_MILLIS, (viewerId, shopId, returnInputs) -> {
+            sent.add(shopId + " " + returnInputs);
+            return true;
+        }));
+        // The rotation request is kept; a later stock request doesn't downgrade it
+        assertEquals(List.of("shop true"), sent);
+
+        // A request for a shop the viewer switched to replaces the old one
+        queue.enqueue(viewer, "shop", true);
+        queue.enqueue(viewer, "other", false);
+        sent.clear();
+        queue.drain(MAX_PACKETS, MAX_MILLIS, (viewerId, shopId, returnInputs) -> {
+            sent.add(shopId + " " + returnInputs);
+            return true;
+        });
+        assertEquals(List.of("other false"), sent);
+    }
+
+    /** Drains tick by tick until the queue is empty, recording what each tick sent. */
+    private List<List<UUID>> drainAll() {
+        List<List<UUID>> ticks = new ArrayList<>();
+        boolean left = true;
+        while (left) {
+            assertTrue(ticks.size() < 100, "queue never drained");
+            List<UUID> tick = new ArrayList<>();
+            left = queue.drain(MAX_PACKETS, MAX_MILLIS, (viewerId, shopId, returnInputs) -> tick.add(viewerId));
+            ticks.add(tick);
+        }
+        return ticks;
+    }
+
+    private static List<UUID> viewers(int count) {
+        List<UUID> viewers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            viewers.add(new UUID(0L, i));
+        }
+        return viewers;
+    }
+}
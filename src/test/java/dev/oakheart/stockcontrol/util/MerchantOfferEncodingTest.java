@@ -0,0 +1,206 @@
+package dev.oakheart.stockcontrol.util;
+
+import com.github.retrooper.packetevents.protocol.item.ItemStack;
+import com.github.retrooper.packetevents.protocol.recipe.data.MerchantOffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hand-encoded MERCHANT_OFFERS bodies: the layout is walked from the offers' encoded lengths,
+ * so identical offers and item bytes that look like another offer's tail don't confuse it, and
+ * a patch or splice leaves the buffer exactly as an encode of the rendered offers would.
+ */
+class MerchantOfferEncodingTest {
+
+    private static final int LEVEL = 3;
+    private static final int XP = 200;
+
+    // The encoded items of each offer; their content is opaque to the encoding.
+    private static final byte[] SWORD = {5, 1, 0, 2, 17, 99, 42};
+    private static final byte[] BREAD = {8, 3, 0};
+
+    @Test
+    void identicalOffersAreLocatedAndPatchedSeparately() {
+        List<MerchantOffer> source = List.of(offer(0, 5), offer(0, 5), offer(0, 5));
+        byte[][] items = {BREAD, BREAD, BREAD};
+        ByteBuf buf = encode(source, items);
+
+        MerchantOfferEncoding encoding = locate(buf, source, items);
+        assertTrue(encoding.isAvailable());
+        assertTrue(encoding.matches(buf, 1, source));
+
+        List<MerchantOffer> rendered = List.of(offer(1, 5), offer(0, 5), offer(4, 5));
+        encoding.patchUses(buf, 1, rendered);
+        assertArrayEquals(bytes(encode(rendered, items)), bytes(buf));
+    }
+
+    @Test
+    void itemBytesHoldingAnotherOffersTailDontMoveTheLayout() {
+        List<MerchantOffer> source = List.of(offer(2, 8), offer(0, 4));
+        // The first offer's item happens to end in exactly the second offer's tail bytes
+        byte[] lookalike = concat(SWORD, tail(source.get(1)));
+        byte[][] items = {lookalike, BREAD};
+        ByteBuf buf = encode(source, items);
+
+        MerchantOfferEncoding encoding = locate(buf, source, items);
+        assertTrue(encoding.isAvailable());
+
+        List<MerchantOffer> rendered = List.of(offer(3, 8), offer(1, 4));
+        encoding.patchUses(buf, 1, rendered);
+        assertArrayEquals(bytes(encode(rendered, items)), bytes(buf));
+    }
+
+    @Test
+    void patchSetsAndClearsTheOutOfStockFlag() {
+        List<MerchantOffer> source = List.of(offer(0, 6), offer(6, 6));
+        byte[][] items = {SWORD, BREAD};
+        ByteBuf buf = encode(source, items);
+        MerchantOfferEncoding encoding = locate(buf, source, items);
+
+        List<MerchantOffer> rendered = List.of(offer(6, 6), offer(2, 6));
+        encoding.patchUses(buf, 1, rendered);
+
+        byte[] patched = bytes(buf);
+        assertArrayEquals(bytes(encode(rendered, items)), patched);
+        int firstFlag = 1 + 2 + SWORD.length;
+        assertEquals(1, patched[firstFlag]);
+        assertEquals(0, patched[firstFlag + 25 + BREAD.length]);
+    }
+
+    @Test
+    void spliceShowsASubsetInUiOrder() {
+        List<MerchantOffer> source = List.of(offer(0, 5), offer(0, 5), offer(2, 9));
+        byte[][] items = {SWORD, BREAD, concat(SWORD, BREAD)};
+        ByteBuf buf = encode(source, items);
+        MerchantOfferEncoding encoding = locate(buf, source, items);
+
+        // A pooled view: the third offer first, then the first; the second is not shown
+        List<MerchantOffer> rendered = List.of(offer(9, 9), offer(1, 3));
+        assertTrue(encoding.splice(buf, 1, new int[] {2, 0}, rendered));
+        assertArrayEquals(bytes(encode(rendered, new byte[][] {items[2], items[0]})), bytes(buf));
+    }
+
+    @Test
+    void spliceRejectsAMappingOutsideTheLayout() {
+        List<MerchantOffer> source = List.of(offer(0, 5), offer(1, 5));
+        byte[][] items = {SWORD, BREAD};
+        ByteBuf buf = encode(source, items);
+        MerchantOfferEncoding encoding = locate(buf, source, items);
+
+        assertFalse(encoding.splice(buf, 1, new int[] {2}, List.of(offer(0, 5))));
+        assertFalse(encoding.splice(buf, 1, new int[] {0, 1}, List.of(offer(0, 5))));
+        assertArrayEquals(bytes(encode(source, items)), bytes(buf));
+    }
+
+    @Test
+    void wrongOfferLengthsAreNotAccepted() {
+        List<MerchantOffer> source = List.of(offer(0, 5), offer(1, 5));
+        byte[][] items = {SWORD, BREAD};
+        ByteBuf buf = encode(source, items);
+
+        int[] lengths = lengths(items);
+        lengths[0]--;
+        lengths[1]++;
+        assertSame(MerchantOfferEncoding.UNAVAILABLE,
+                MerchantOfferEncoding.locate(buf, 1, source, lengths, LEVEL, XP, true, false));
+
+        assertSame(MerchantOfferEncoding.UNAVAILABLE,
+                MerchantOfferEncoding.locate(buf, 1, source, new int[] {lengths(items)[0]}, LEVEL, XP, true, false));
+    }
+
+    @Test
+    void mismatchedFooterIsNotAccepted() {
+        List<MerchantOffer> source = List.of(offer(0, 5));
+        byte[][] items = {SWORD};
+        ByteBuf buf = encode(source, items);
+
+        assertSame(MerchantOfferEncoding.UNAVAILABLE,
+                MerchantOfferEncoding.locate(buf, 1, source, lengths(items), LEVEL + 1, XP, true, false));
+        assertSame(MerchantOfferEncoding.UNAVAILABLE,
+                MerchantOfferEncoding.locate(buf, 1, source, lengths(items), LEVEL, XP, false, false));
+    }
+
+    @Test
+    void matchesRejectsAnotherLayoutOrOtherValues() {
+        List<MerchantOffer> source = List.of(offer(0, 5), offer(1, 5));
+        byte[][] items = {SWORD, BREAD};
+        MerchantOfferEncoding encoding = locate(encode(source, items), source, items);
+
+        // Same offers with a longer item: the body length differs
+        assertFalse(encoding.matches(encode(source, new byte[][] {concat(SWORD, BREAD), BREAD}), 1, source));
+        // Same length, but an offer's values differ
+        List<MerchantOffer> other = List.of(offer(0, 5), offer(2, 5));
+        assertFalse(encoding.matches(encode(other, items), 1, source));
+        assertFalse(encoding.matches(encode(source, items), 1, other));
+        // Different offer count
+        assertFalse(encoding.matches(encode(source, items), 1, List.of(offer(0, 5))));
+        assertTrue(encoding.matches(encode(source, items), 1, source));
+    }
+
+    private static MerchantOfferEncoding locate(ByteBuf buf, List<MerchantOffer> offers, byte[][] items) {
+        return MerchantOfferEncoding.locate(buf, 1, offers, lengths(items), LEVEL, XP, true, false);
+    }
+
+    private static MerchantOffer offer(int uses, int maxUses) {
+        return MerchantOffer.of(ItemStack.EMPTY, null, ItemStack.EMPTY, uses, maxUses, 2, -1, 0.05f, 0);
+    }
+
+    private static int[] lengths(byte[][] items) {
+        return Arrays.stream(items).mapToInt(item -> item.length + 25).toArray();
+    }
+
+    /**
+     * A packet id byte, then the body: container id, offer count, each offer's items and tail,
+     * and the merchant footer.
+     */
+    private static ByteBuf encode(List<MerchantOffer> offers, byte[][] items) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(0x2B);
+        buf.writeByte(7);
+        buf.writeByte(offers.size());
+        for (int i = 0; i < offers.size(); i++) {
+            buf.writeBytes(items[i]);
+            buf.writeBytes(tail(offers.get(i)));
+        }
+        buf.writeByte(LEVEL);
+        buf.writeBytes(new byte[] {(byte) 0xC8, 0x01}); // XP as a VarInt
+        buf.writeBoolean(true);
+        buf.writeBoolean(false);
+        return buf;
+    }
+
+    private static byte[] tail(MerchantOffer offer) {
+        return ByteBuffer.allocate(25)
+                .put((byte) (offer.getUses() >= offer.getMaxUses() ? 1 : 0))
+                .putInt(offer.getUses())
+                .putInt(offer.getMaxUses())
+                .putInt(offer.getXp())
+                .putInt(offer.getSpecialPrice())
+                .putFloat(offer.getPriceMultiplier())
+                .putInt(offer.getDemand())
+                .array();
+    }
+
+    private static byte[] bytes(ByteBuf buf) {
+        byte[] bytes = new byte[buf.writerIndex()];
+        buf.getBytes(0, bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+}
@@ -0,0 +1,121 @@
+package dev.oakheart.stockcontrol.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A compiled template must render exactly what a normal parse with unparsed placeholders
+ * renders: the same text, each character in the same effective style.
+ */
+class MessageTemplateTest {
+
+    private static final String[] RESET_SLOTS = {"time_remaining", "reset_time"};
+    private static final String[] REMAINING_SLOTS = {"remaining", "max"};
+
+    @Test
+    void slotsTakeTheSurroundingStyle() {
+        String text = "<red>Limit reached. <bold><time_remaining></bold> left, resets <gray><reset_time>";
+        assertRendersLikeParse(text, RESET_SLOTS, "2h 5m", "00:00");
+    }
+
+    @Test
+    void slotsAreFoundAtTheTopLevelAndNextToEachOther() {
+        assertRendersLikeParse("<remaining>/<max>", REMAINING_SLOTS, "3", "10");
+        assertRendersLikeParse("<remaining><max> remaining", REMAINING_SLOTS, "3", "10");
+    }
+
+    @Test
+    void glyphInItsOwnNodeIsNotTakenForASlot() {
+        // Resource pack glyphs live in the private use area, often alone inside a font tag
+        String text = "<font:nexo:icons>\uE000</font><font:nexo:icons>\uF8FF</font> <white><remaining>/<max>";
+        MessageTemplate template = compile(text, REMAINING_SLOTS);
+        assertEquals("\uE000\uF8FF 3/10", plain(template.render("3", "10")));
+        assertRendersLikeParse(text, REMAINING_SLOTS, "3", "10");
+    }
+
+    @Test
+    void glyphInsideLongerTextStillCompiles() {
+        String text = "<gold>Stock \uE000\uF8FE\uF8FF: <remaining> of <max>";
+        assertRendersLikeParse(text, REMAINING_SLOTS, "3", "10");
+    }
+
+    @Test
+    void renderSharesSubtreesWithoutSlots() {
+        MessageTemplate template = compile("<red>Wait</red> <green><time_remaining></green> (<reset_time>)",
+                MessageTemplate.Display.CHAT, RESET_SLOTS);
+        Component first = template.render("1m", "noon");
+        Component second = template.render("2m", "noon");
+
+        Component untouched = first.children().get(0);
+        assertEquals("Wait", plain(untouched));
+        assertSame(untouched, second.children().get(0));
+    }
+
+    @Test
+    void wrongValueCountIsRejected() {
+        MessageTemplate template = compile("<remaining>/<max>", REMAINING_SLOTS);
+        assertThrows(IllegalArgumentException.class, () -> template.render("3"));
+    }
+
+    private static void assertRendersLikeParse(String text, String[] slots, String... values) {
+        Component rendered = compile(text, slots).render(values);
+        TagResolver.Builder resolvers = TagResolver.builder();
+        for (int i = 0; i < slots.length; i++) {
+            resolvers.resolver(Placeholder.unparsed(slots[i], values[i]));
+        }
+        Component parsed = MiniMessage.miniMessage().deserialize(text, resolvers.build());
+        assertEquals(styledChars(parsed), styledChars(rendered));
+    }
+
+    private static MessageTemplate compile(String text, String[] slots) {
+        return compile(text, MessageTemplate.Display.CHAT, slots);
+    }
+
+    private static MessageTemplate compile(String text, MessageTemplate.Display display, String[] slots) {
+        MessageTemplate template = MessageTemplate.compile(text, display, slots);
+        assertNotNull(template, "template was not compiled");
+        return template;
+    }
+
+    private static String plain(Component component) {
+        StringBuilder out = new StringBuilder();
+        walk(component, Style.empty(), (c, style) -> out.append(c));
+        return out.toString();
+    }
+
+    /** Every character with the style it is shown in, whatever the shape of the tree. */
+    private static List<String> styledChars(Component component) {
+        List<String> chars = new ArrayList<>();
+        walk(component, Style.empty(), (c, style) -> chars.add(c + " " + style));
+        return chars;
+    }
+
+    private interface CharVisitor {
+        void visit(char c, Style style);
+    }
+
+    private static void walk(Component node, Style inherited, CharVisitor visitor) {
+        Style style = inherited.merge(node.style());
+        if (node instanceof TextComponent text) {
+            for (char c : text.content().toCharArray()) {
+                visitor.visit(c, style);
+            }
+        }
+        for (Component child : node.children()) {
+            walk(child, style, visitor);
+        }
+    }
+}